@@ -1,7 +1,10 @@
 /* SVN FILE: $Id$ */
 package se.ltu.android.demo;
 
+import javax.microedition.khronos.opengles.GL;
+
 import se.ltu.android.demo.sensors.SensorHandler;
+import se.ltu.android.demo.util.StateTrackingGL;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -24,7 +27,17 @@ public class DemoGLSurfaceView extends GLSurfaceView implements SensorEventListe
 
 		mRenderer = new DemoRenderer();
 		mRenderer.useVBOs(use_vbos);
+		// drops redundant state changes, a new one is made for every context
+		setGLWrapper(new GLWrapper() {
+			@Override
+			public GL wrap(GL gl) {
+				return StateTrackingGL.wrap(gl);
+			}
+		});
 		setRenderer(mRenderer);
+		// the frames are paced by the refresh rate of the display
+		getFrameScheduler().setRefreshRate(
+				context.getWindowManager().getDefaultDisplay().getRefreshRate());
 		
 		mGestureDetector = new GestureDetector(context, new DemoGestureDetector());
 	}
@@ -14,6 +14,7 @@ import android.view.animation.AccelerateDecelerateInterpolator;
 import se.ltu.android.demo.scene.Board;
 import se.ltu.android.demo.scene.CameraLeaf;
 import se.ltu.android.demo.scene.LightNode;
+import se.ltu.android.demo.scene.LodChain;
 import se.ltu.android.demo.scene.Container;
 import se.ltu.android.demo.scene.PieceData;
 import se.ltu.android.demo.scene.Spatial;
@@ -27,8 +28,13 @@ import se.ltu.android.demo.scene.intersection.Ray;
 import se.ltu.android.demo.scene.shapes.*;
 import se.ltu.android.demo.scene.state.Light;
 import se.ltu.android.demo.scene.state.Material;
+import se.ltu.android.demo.scene.state.TextureAtlas;
+import se.ltu.android.demo.scene.state.TextureManager;
 import se.ltu.android.demo.sensors.SensorHandler;
+import se.ltu.android.demo.util.MeshOptimizer;
+import se.ltu.android.demo.util.MeshSimplifier;
 import se.ltu.android.demo.util.ObjLoader;
+import se.ltu.android.demo.util.Stripifier;
 
 /**
  * A thread that updates the world based on input and sensor events. All kind
@@ -40,7 +46,8 @@ import se.ltu.android.demo.util.ObjLoader;
  */
 public class DemoGameThread extends Thread implements AnimationListener {
 	private final static String TAG = "GameThread";
-	private final static int TARGET_FPS = 25;
+	// evenly divides the common refresh rates, leaving time to the renderer
+	private final static int TARGET_RATE = FrameScheduler.TARGET_30;
 	/**
 	 * [0] = x coordinate<br>
 	 * [1] = y coordinate<br>
@@ -55,7 +62,7 @@ public class DemoGameThread extends Thread implements AnimationListener {
 	 */
 	private static float[] trackInput = new float[4];
 	private long timePerFrame = 1000;
-	private long timeTarget;
+	private FrameScheduler scheduler;
 	private Container world;
 	private Object3D[][] board_data = new Object3D[8][8];
 	private DemoGLSurfaceView mGLView;
@@ -74,11 +81,19 @@ public class DemoGameThread extends Thread implements AnimationListener {
 	private float[] modelM = new float[16];
 	private int iCamSensor = 0;	// marks which camera that 
 	
+	// what was last rendered, to only request frames when something changed
+	private Camera lastCamera;
+	private int lastViewRevision;
+	private int lastSceneRevision;
+	private int lastMaterialRevision;
+	private int lastLightRevision;
+	
 	// Materials for the pieces
 	private Material lightMat;
 	private Material darkMat;
 	private Material lightMatPicked;
 	private Material darkMatPicked;
+	private TextureManager textures;
 
 	/**
 	 * Creates the game thread
@@ -87,7 +102,8 @@ public class DemoGameThread extends Thread implements AnimationListener {
 	public DemoGameThread(DemoGLSurfaceView glview) {
 		setName("GameThread");
 		mGLView = glview;
-		timeTarget = 1000 / TARGET_FPS;
+		scheduler = glview.getFrameScheduler();
+		scheduler.setTargetRate(TARGET_RATE);
 		camList = new Camera[4];
 
 		camList[0] = new Camera();
@@ -109,41 +125,36 @@ public class DemoGameThread extends Thread implements AnimationListener {
 	 */
 	@Override
 	public void run() {
+		textures = new TextureManager(mGLView.getContext().getResources());
+		mGLView.getRenderer().setTextureManager(textures);
 		createWorld();
 		mGLView.getRenderer().setCamera(camList[iCam]);
 		mGLView.getRenderer().setScene(world);
 
-		long lastTime = System.currentTimeMillis();
-		long timeSleep;
 		// Good place to put a method trace
 		//Debug.startMethodTracing("mtrace");
 		while (isRunning) {
-			while (isPaused && isRunning) {
-				try {
-					sleep(100);
-				} catch (InterruptedException e) {
+			if (isPaused) {
+				while (isPaused && isRunning) {
+					try {
+						sleep(100);
+					} catch (InterruptedException e) {
+					}
 				}
+				// the time spent paused should not move the animations
+				scheduler.reset();
 			}
 			/*
-			 * This thread have some control over the frame rate
-			 * especially timePerFrame will be useful in animations
-			 */
-			timePerFrame = System.currentTimeMillis() - lastTime;
-			lastTime = System.currentTimeMillis();
-			update();
-			/* 
-			 * We want to sleep because we don't need to update as fast as possible.
-			 * This way the renderer gets more time and we get a slightly higher frame rate.
-			 * The last part on timeSleep (+ lastTime - System.currentTimeMillis()) is rather
-			 * important to get smooth animations.
+			 * The scheduler wakes us up right after a frame was swapped, so
+			 * the update is drawn by the next frame. timePerFrame is a whole
+			 * number of update intervals, which keeps animations smooth.
 			 */
-			timeSleep = timeTarget - timePerFrame + lastTime - System.currentTimeMillis();
-			if (timeSleep > 0) {
-				try {
-					sleep(timeSleep);
-				} catch (InterruptedException e) {
-				}
+			try {
+				timePerFrame = scheduler.waitForUpdate();
+			} catch (InterruptedException e) {
+				continue;
 			}
+			update();
 		}
 	}
 
@@ -151,7 +162,36 @@ public class DemoGameThread extends Thread implements AnimationListener {
 		updateInput();
 		world.update(timePerFrame); // updates animations
 		updateCamera();
-		mGLView.requestRender();
+		if(hasChanged()) {
+			mGLView.requestRender();
+		}
+	}
+	
+	/**
+	 * Animations, picking and camera movement all invalidate the scene or
+	 * the camera, and materials and lights count their changes, so
+	 * comparing revisions tells if a new frame is needed.
+	 * @return true if the scene, the camera, a material or a light has
+	 * changed since the last call
+	 */
+	private boolean hasChanged() {
+		Camera camera = camList[iCam];
+		int sceneRevision = world.getRevision();
+		int viewRevision = camera.getViewRevision();
+		int materialRevision = Material.getGlobalRevision();
+		int lightRevision = Light.getGlobalRevision();
+		if(camera == lastCamera && viewRevision == lastViewRevision
+				&& sceneRevision == lastSceneRevision
+				&& materialRevision == lastMaterialRevision
+				&& lightRevision == lastLightRevision) {
+			return false;
+		}
+		lastCamera = camera;
+		lastViewRevision = viewRevision;
+		lastSceneRevision = sceneRevision;
+		lastMaterialRevision = materialRevision;
+		lastLightRevision = lightRevision;
+		return true;
 	}
 
 	private void updateCamera() {
@@ -378,7 +418,7 @@ public class DemoGameThread extends Thread implements AnimationListener {
 		
 		Material defaultMat = new Material();
 		defaultMat.setUseColorMaterial(true);
-
+		
 		Light light = new Light();
 		light.setPosition(new float[] { -1, 1, 1, 0 });
 		light.setAmbient(new float[] { 0.1f, 0.1f, 0.1f, 1 });
@@ -434,6 +474,7 @@ public class DemoGameThread extends Thread implements AnimationListener {
 			pData.setDark(false);
 			pawn.setData(pData);
 			pawn.setMaterial(lightMat);
+			pawn.setOccluder(true);
 			board_data[PieceData.getColIndex(col)][PieceData.getRowIndex(row)] = pawn;
 			world.attachChild(pawn);
 			
@@ -449,6 +490,7 @@ public class DemoGameThread extends Thread implements AnimationListener {
 			pData.setDark(false);
 			knight.setData(pData);
 			knight.setMaterial(lightMat);
+			knight.setOccluder(true);
 			board_data[PieceData.getColIndex(col)][PieceData.getRowIndex(row)] = knight;
 			world.attachChild(knight);
 			
@@ -464,6 +506,7 @@ public class DemoGameThread extends Thread implements AnimationListener {
 			pData.setDark(false);
 			king.setData(pData);
 			king.setMaterial(lightMat);
+			king.setOccluder(true);
 			board_data[PieceData.getColIndex(col)][PieceData.getRowIndex(row)] = king;
 			world.attachChild(king);
 			
@@ -503,6 +546,9 @@ public class DemoGameThread extends Thread implements AnimationListener {
 			convertModel(R.raw.pawn2, "/sdcard/pawn.mod");
 			convertModel(R.raw.knight2, "/sdcard/knight.mod");
 			convertModel(R.raw.king2, "/sdcard/king.mod");
+			simplifyModel(R.raw.pawn, false, "/sdcard/pawn_lod.mod");
+			simplifyModel(R.raw.knight, false, "/sdcard/knight_lod.mod");
+			simplifyModel(R.raw.king, false, "/sdcard/king_lod.mod");
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -516,7 +562,9 @@ public class DemoGameThread extends Thread implements AnimationListener {
 	}
 
 	/**
-	 * Converts a model from OBJ to our TriMesh's binary format.
+	 * Converts a model from OBJ to our TriMesh's binary format. The model is
+	 * stored as a triangle strip if that is cheaper to draw, with quantized
+	 * vertex attributes.
 	 * @param inputObj a resource identifier for an OBJ-file (like R.raw.whatever)
 	 * @param outputMod an output file location (like "/sdcard/whatever.mod").
 	 * @throws IOException if there was any error
@@ -524,8 +572,10 @@ public class DemoGameThread extends Thread implements AnimationListener {
 	@SuppressWarnings("unused")
 	private void convertModel(int inputObj, String outputMod) throws IOException {
 		ObjLoader loader = new ObjLoader();
+		loader.setQuantized(true);
         AssetFileDescriptor fd = mGLView.getContext().getResources().openRawResourceFd(inputObj);
 		Object3D tPawn = loader.loadModel("Pawn", fd);
+		Stripifier.stripify(tPawn);
 		FileOutputStream fos = new FileOutputStream(outputMod);
 		DataOutputStream dos = new DataOutputStream(fos);
 		tPawn.exportModel(dos);
@@ -534,6 +584,75 @@ public class DemoGameThread extends Thread implements AnimationListener {
 		Log.d(TAG, "Converted obj to mod: "+outputMod);
 	}
 
+	/**
+	 * Packs bitmaps into a texture atlas and writes its page and index.
+	 * @param inputs resource identifiers for the bitmaps (like R.drawable.whatever)
+	 * @param names names to find the images by in the atlas
+	 * @param outputPage an output file location for the page (like "/sdcard/whatever.png")
+	 * @param outputIndex an output file location for the index (like "/sdcard/whatever.idx")
+	 * @throws IOException if there was any error
+	 */
+	@SuppressWarnings("unused")
+	private void buildAtlas(int[] inputs, String[] names, String outputPage,
+			String outputIndex) throws IOException {
+		TextureAtlas atlas = TextureAtlas.build(mGLView.getContext().getResources(),
+				inputs, names, 512, 512, 2);
+		if(atlas == null) {
+			return;
+		}
+		FileOutputStream fos = new FileOutputStream(outputPage);
+		atlas.writePage(fos);
+		fos.close();
+		DataOutputStream dos = new DataOutputStream(new FileOutputStream(outputIndex));
+		atlas.writeIndex(dos);
+		dos.flush();
+		dos.close();
+		Log.d(TAG, "Built atlas: "+outputPage);
+	}
+
+	/**
+	 * Builds a level of detail chain for a model and writes all levels
+	 * to one file in our TriMesh's binary format, with quantized vertex
+	 * attributes.
+	 * @param input a resource identifier for an OBJ- or mod-file (like R.raw.whatever)
+	 * @param obj true if the input is an OBJ-file
+	 * @param outputMod an output file location (like "/sdcard/whatever.mod").
+	 * @throws IOException if there was any error
+	 */
+	@SuppressWarnings("unused")
+	private void simplifyModel(int input, boolean obj, String outputMod) throws IOException {
+		Object3D model;
+		if(obj) {
+			ObjLoader loader = new ObjLoader();
+			AssetFileDescriptor fd = mGLView.getContext().getResources().openRawResourceFd(input);
+			model = loader.loadModel("Model", fd);
+		} else {
+			model = new Object3D("Model");
+			InputStream is = mGLView.getContext().getResources().openRawResource(input);
+			DataInputStream dis = new DataInputStream(is);
+			model.importModel(dis);
+			dis.close();
+		}
+		LodChain chain = MeshSimplifier.buildChain(model, new float[] {0.5f, 0.25f, 0.125f}, 1);
+		for(int i = 0; i < chain.getLevelCount(); i++) {
+			if(i > 0) {
+				MeshOptimizer.optimize(chain.getLevel(i));
+			}
+			Stripifier.stripify(chain.getLevel(i));
+			chain.getLevel(i).setQuantized(true);
+		}
+		FileOutputStream fos = new FileOutputStream(outputMod);
+		DataOutputStream dos = new DataOutputStream(fos);
+		model.exportModel(dos);
+		dos.flush();
+		dos.close();
+		for(int i = 1; i < chain.getLevelCount(); i++) {
+			Log.d(TAG, "Level "+i+": "+chain.getLevel(i).getIndices().limit()
+					+" indices, error "+chain.getError(i));
+		}
+		Log.d(TAG, "Simplified to mod: "+outputMod);
+	}
+
 	/**
 	 * Register a double tap on this thread
 	 * 
@@ -3,9 +3,20 @@ package se.ltu.android.demo;
 
 import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
 
+import se.ltu.android.demo.scene.BufferPool;
+import se.ltu.android.demo.scene.CommandList;
 import se.ltu.android.demo.scene.Container;
+import se.ltu.android.demo.scene.GpuResourceManager;
+import se.ltu.android.demo.scene.Object3D;
+import se.ltu.android.demo.scene.OcclusionBuffer;
+import se.ltu.android.demo.scene.RenderQueue;
 import se.ltu.android.demo.scene.camera.Camera;
+import se.ltu.android.demo.scene.state.LightManager;
+import se.ltu.android.demo.scene.state.Material;
+import se.ltu.android.demo.scene.state.TextureManager;
+import se.ltu.android.demo.util.StateTrackingGL;
 
 import android.util.Log;
 
@@ -22,11 +33,25 @@ public class DemoRenderer implements GLSurfaceView.Renderer {
 	private final float FOVY = 60.0f;
 	private final float ZNEAR = 0.1f;
 	private final float ZFAR = 20.0f;
+	// screen pixels per occlusion buffer pixel, in each direction
+	private final int OCCLUSION_SCALE = 8;
 	
 	long lastFrame = 0;
 	int fps = 0;
 	private boolean use_vbos = false;
+	private boolean use_render_queue = true;
+	private boolean use_culling = true;
+	private boolean use_command_list = false;
+	private boolean use_occlusion_culling = false;
+	private boolean force_fixed_point = false;
+	private boolean use_buffer_pool = true;
 	private Camera camera;
+	private RenderQueue queue = new RenderQueue();
+	private CommandList commandList = new CommandList();
+	private OcclusionBuffer occlusion;
+	private TextureManager textures;
+	private GpuResourceManager gpuResources = new GpuResourceManager();
+	private BufferPool bufferPool = new BufferPool();
 	
 	public DemoRenderer() {
 		lastFrame = System.currentTimeMillis();
@@ -50,6 +75,32 @@ public class DemoRenderer implements GLSurfaceView.Renderer {
         gl.glDepthFunc(GL10.GL_LEQUAL);
         gl.glShadeModel(GL10.GL_SMOOTH);
         
+        // a new context starts out with the default material
+        Material.forgetState();
+        // and with every light disabled
+        LightManager.forgetState();
+        // and without any of our textures
+        if(textures != null) {
+        	textures.forgetTextures();
+        }
+        
+        // must be chosen before any hardware buffers are generated
+        boolean fixed = force_fixed_point || prefersFixedPoint(gl);
+        Object3D.setFixedPoint(fixed);
+        Log.d(TAG, "Using "+(fixed ? "fixed" : "float")+" vertex data");
+        
+        // meshes too large for char indices are drawn in chunks otherwise
+        String extensions = gl.glGetString(GL10.GL_EXTENSIONS);
+        boolean wide = extensions != null && extensions.indexOf("GL_OES_element_index_uint") >= 0;
+        Object3D.setWideIndices(wide);
+        Log.d(TAG, "32 bit indices "+(wide ? "supported" : "not supported"));
+
+        // hardware buffers are generated within the budget of the manager
+        Object3D.setResourceManager(use_vbos ? gpuResources : null);
+        gpuResources.forgetHardwareBuffers();
+        Object3D.setBufferPool(use_buffer_pool ? bufferPool : null);
+        bufferPool.forgetHardwareBuffers();
+        
         if(scene != null && use_vbos) {
     		// TODO messy...
     		scene.forgetHardwareBuffers();
@@ -63,6 +114,8 @@ public class DemoRenderer implements GLSurfaceView.Renderer {
     	Camera.setPerspective(FOVY, w, h, ZNEAR, ZFAR);
         gl.glMatrixMode(GL10.GL_PROJECTION); 
         gl.glLoadMatrixf(Camera.getProjectionMatrix(), 0);
+        occlusion = new OcclusionBuffer(Math.max(1, w / OCCLUSION_SCALE),
+        		Math.max(1, h / OCCLUSION_SCALE));
     }
     
 	@Override
@@ -70,29 +123,70 @@ public class DemoRenderer implements GLSurfaceView.Renderer {
 		if (scene != null && use_vbos) {
 			scene.freeHardwareBuffers(gl);
         }
+		if(use_vbos) {
+			bufferPool.freeHardwareBuffers(gl);
+		}
+		if(textures != null) {
+			textures.freeTextures(gl);
+		}
     }
 
 	@Override
 	public void drawFrame(GL10 gl) {
         gl.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
+        if(textures != null) {
+        	textures.beginFrame();
+        }
+        gpuResources.beginFrame();
         
         // setup camera
         gl.glMatrixMode(GL10.GL_MODELVIEW);
         synchronized(camera) {
         	gl.glLoadMatrixf(camera.getViewMatrix(), 0);
+        	// lights are added again while traversing the scene
+        	LightManager.beginFrame(camera);
         }
         gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
         
         // draw the world
         if(scene != null) {
         	if(use_vbos) {
+        		if(use_buffer_pool && gl instanceof GL11) {
+        			// closes the holes left by freed meshes
+        			bufferPool.defragment((GL11)gl);
+        		}
         		// creates hardware buffers for objects
         		// that do not already have any
         		scene.generateHardwareBuffers(gl);
     		}
-        	scene.draw(gl);
+        	synchronized(camera) {
+        		if(use_culling) {
+        			camera.updateFrustum();
+        		} else {
+        			// no planes to test, everything is inside
+        			camera.setPlaneState(0);
+        		}
+        	}
+        	if(use_command_list) {
+        		// replay what was recorded, recording only what has changed
+        		commandList.draw(gl, scene, camera);
+        	} else if(use_render_queue) {
+        		// collect the geometries and draw them sorted by state
+        		queue.clear();
+        		synchronized(camera) {
+        			queue.setCamera(camera);
+        		}
+        		scene.queue(queue);
+        		if(use_occlusion_culling && occlusion != null) {
+        			queue.cullOccluded(occlusion);
+        		}
+        		queue.sort();
+        		queue.draw(gl);
+        	} else {
+        		scene.draw(gl, camera);
+        	}
         }
-        //printFPS();
+        //printFPS(gl);
     }
 
 	/**
@@ -103,6 +197,25 @@ public class DemoRenderer implements GLSurfaceView.Renderer {
 		this.scene = scene;
 	}
 	
+	/**
+	 * Set the texture manager of the textures used by the scene. Its
+	 * textures are forgotten when a new context is created and deleted
+	 * when the renderer shuts down.
+	 * @param textures texture manager to use
+	 */
+	public void setTextureManager(TextureManager textures) {
+		this.textures = textures;
+	}
+	
+	/**
+	 * Set how many bytes the vertex buffer objects may use. Meshes that do
+	 * not fit are drawn from client side arrays.
+	 * @param bytes the budget
+	 */
+	public void setHardwareBufferBudget(int bytes) {
+		gpuResources.setBudget(bytes);
+	}
+	
 	/**
 	 * Tell the renderer to use Vertex Buffer Objects instead
 	 * of java.nio.Buffers.
@@ -112,9 +225,78 @@ public class DemoRenderer implements GLSurfaceView.Renderer {
 		use_vbos = value;
 	}
 
+	/**
+	 * Tell the renderer to pack the vertex buffer objects of small static
+	 * meshes with interleaved vertex data into a few shared buffers.
+	 * Takes effect when the surface is created.
+	 * @param value true if we want to use the buffer pool
+	 */
+	public void useBufferPool(boolean value) {
+		use_buffer_pool = value;
+	}
+
+	/**
+	 * Tell the renderer to draw the scene through a render queue sorted
+	 * by mesh, material and depth instead of traversing it in tree order.
+	 * @param value true if we want to use the render queue
+	 */
+	public void useRenderQueue(boolean value) {
+		use_render_queue = value;
+	}
+
+	/**
+	 * Tell the renderer to record the GL operations of the scene once and
+	 * replay them in later frames, recording again only the parts of the
+	 * scene that have changed. Takes precedence over the render queue.
+	 * @param value true if we want to use a command list
+	 */
+	public void useCommandList(boolean value) {
+		use_command_list = value;
+	}
+
+	/**
+	 * Tell the renderer to skip anything that is hidden behind objects
+	 * marked as occluders. Only used together with the render queue.
+	 * @param value true if we want to use occlusion culling
+	 */
+	public void useOcclusionCulling(boolean value) {
+		use_occlusion_culling = value;
+	}
+
+	/**
+	 * Tell the renderer to skip anything that is outside the view frustum
+	 * of the camera.
+	 * @param value true if we want to use view frustum culling
+	 */
+	public void useFrustumCulling(boolean value) {
+		use_culling = value;
+	}
+
+	/**
+	 * Tell the renderer to always send vertex data as fixed points, even
+	 * if the device is not known to lack floating point hardware.
+	 * @param value true if we want to use fixed points
+	 */
+	public void useFixedPoint(boolean value) {
+		force_fixed_point = value;
+	}
+	
+	/**
+	 * The software renderer works in fixed points internally and converts
+	 * every float it is given, which is a good sign that the device lacks
+	 * fast floating point hardware.
+	 * @param gl
+	 * @return true if fixed point vertex data should be used
+	 */
+	private boolean prefersFixedPoint(GL10 gl) {
+		String renderer = gl.glGetString(GL10.GL_RENDERER);
+		return renderer != null && renderer.indexOf("PixelFlinger") >= 0;
+	}
+
 	@Override
 	public int[] getConfigSpec() {
-		// currently, we need a depth buffer but no alpha channel
+		// currently, we need a depth buffer but no alpha channel, since
+		// translucent materials blend with the alpha of the source only
 		int[] configSpec = {
                 EGL10.EGL_DEPTH_SIZE,   16,
                 EGL10.EGL_NONE
@@ -134,10 +316,31 @@ public class DemoRenderer implements GLSurfaceView.Renderer {
 	
 	// a rough FPS counter, if called in drawFrame().
 	@SuppressWarnings("unused")
-	private void printFPS() {
+	private void printFPS(GL10 gl) {
 		long now = System.currentTimeMillis();
         if(now - lastFrame >= 1000l) {
             Log.d(TAG, fps + " fps");
+            if(gl instanceof StateTrackingGL) {
+            	Log.d(TAG, "GL state calls "+gl);
+            	((StateTrackingGL)gl).resetCounters();
+            }
+            if(use_occlusion_culling && occlusion != null) {
+            	Log.d(TAG, "Occlusion "+occlusion);
+            }
+            Log.d(TAG, "Lights "+LightManager.getStats());
+            LightManager.resetCounters();
+            if(textures != null) {
+            	Log.d(TAG, "Textures "+textures);
+            	textures.resetCounters();
+            }
+            if(use_vbos) {
+            	Log.d(TAG, "Hardware buffers "+gpuResources);
+            	gpuResources.resetCounters();
+            	if(use_buffer_pool) {
+            		Log.d(TAG, "Buffer pool "+bufferPool);
+            		bufferPool.resetCounters();
+            	}
+            }
             fps = 0;
             lastFrame = now;
         } else {
@@ -0,0 +1,254 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo;
+
+/**
+ * Paces the game updates to the refresh cadence of the display. The GL
+ * thread reports every frame it draws and when the frame was swapped, and
+ * the game thread waits for its next update in <code>waitForUpdate</code>.
+ * <br><br>
+ *
+ * The time between updates is a whole number of refresh intervals, chosen
+ * to come as close as possible to the target rate. The refresh interval is
+ * first taken from the refresh rate of the display and is then refined by
+ * measuring the intervals between swaps with <code>System.nanoTime()</code>.
+ * When frames are being drawn the game thread wakes up at the swap closest
+ * to its deadline, so its changes are drawn by the next frame. When nothing
+ * is drawn it wakes up at the deadline itself.<br><br>
+ *
+ * Every update advances the game by a whole number of update intervals, so
+ * animations move the same distance every frame instead of following the
+ * jitter of the threads. Time lost to rounding is carried over to later
+ * updates. Updates that were skipped because the game thread woke up too
+ * late, and frames that took longer to draw and swap than an update
+ * interval, are counted as missed.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class FrameScheduler {
+	/** Update at the refresh rate of the display */
+	public static final int TARGET_REFRESH = 0;
+	/** Update 30 times per second, or as close as the display allows */
+	public static final int TARGET_30 = 30;
+	/** Update 60 times per second, or as close as the display allows */
+	public static final int TARGET_60 = 60;
+	public static final float DEFAULT_REFRESH_RATE = 60;
+	private static final long NANOS_PER_MILLI = 1000000L;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	// estimated time between two refreshes of the display
+	private long mRefreshInterval;
+	private int mTargetRate = TARGET_REFRESH;
+	// time between two updates, a whole number of refresh intervals
+	private long mUpdateInterval;
+
+	// when the last frame was swapped and when the current one was started
+	private long mLastSwap = 0;
+	private long mFrameStart = 0;
+
+	// when the last update was started, 0 before the first one
+	private long mLastUpdate = 0;
+	// time not yet handed out because the updates are rounded
+	private long mDrift = 0;
+	private long mRemainder = 0;
+
+	// counters since the last reset
+	private int mFrames = 0;
+	private int mMissedFrames = 0;
+	private int mUpdates = 0;
+	private int mMissedUpdates = 0;
+
+	/**
+	 * Creates a scheduler for a display with the default refresh rate.
+	 */
+	public FrameScheduler() {
+		this(DEFAULT_REFRESH_RATE);
+	}
+
+	/**
+	 * @param refreshRate refresh rate of the display in Hz
+	 */
+	public FrameScheduler(float refreshRate) {
+		setRefreshRate(refreshRate);
+	}
+
+	/**
+	 * Set the refresh rate of the display, such as the one reported by
+	 * <code>Display.getRefreshRate()</code>. It is refined by the measured
+	 * swap intervals.
+	 * @param refreshRate refresh rate in Hz, values of 0 or less are ignored
+	 */
+	public synchronized void setRefreshRate(float refreshRate) {
+		if(refreshRate > 0) {
+			mRefreshInterval = (long)(NANOS_PER_SECOND / refreshRate);
+			updateInterval();
+		}
+	}
+
+	/**
+	 * Set how often the game should be updated.
+	 * @param rate updates per second, such as <code>TARGET_30</code> or
+	 * <code>TARGET_60</code>, or <code>TARGET_REFRESH</code> to update at
+	 * the refresh rate of the display
+	 */
+	public synchronized void setTargetRate(int rate) {
+		mTargetRate = rate;
+		updateInterval();
+	}
+
+	private void updateInterval() {
+		long refreshes = 1;
+		if(mTargetRate > 0) {
+			long target = NANOS_PER_SECOND / mTargetRate;
+			refreshes = Math.max(1, (target + mRefreshInterval / 2) / mRefreshInterval);
+		}
+		mUpdateInterval = refreshes * mRefreshInterval;
+	}
+
+	/**
+	 * Called by the GL thread before a frame is drawn.
+	 */
+	public synchronized void frameStarted() {
+		mFrameStart = System.nanoTime();
+	}
+
+	/**
+	 * Called by the GL thread when a frame has been swapped. Wakes up the
+	 * game thread if it is waiting for a swap.
+	 */
+	public synchronized void frameSwapped() {
+		long now = System.nanoTime();
+		if(mLastSwap != 0) {
+			long interval = now - mLastSwap;
+			// swaps one refresh apart refine the estimate, longer intervals
+			// are frames that were late or not drawn at all
+			if(interval > mRefreshInterval * 3 / 4 && interval < mRefreshInterval * 5 / 4) {
+				mRefreshInterval += (interval - mRefreshInterval) / 16;
+				updateInterval();
+			}
+		}
+		if(mFrameStart != 0 && now - mFrameStart > mUpdateInterval + mRefreshInterval / 2) {
+			mMissedFrames++;
+		}
+		mFrames++;
+		mFrameStart = 0;
+		mLastSwap = now;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until the game should be updated next.
+	 * @return the number of milliseconds the game should be advanced
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public synchronized long waitForUpdate() throws InterruptedException {
+		if(mLastUpdate == 0) {
+			mLastUpdate = System.nanoTime();
+			return 0;
+		}
+		long deadline = mLastUpdate + mUpdateInterval;
+		long slack = mRefreshInterval / 2;
+		long time;
+		while(true) {
+			// a swap close to the deadline starts the update right away
+			if(mLastSwap > mLastUpdate && mLastSwap >= deadline - slack) {
+				time = mLastSwap;
+				break;
+			}
+			long now = System.nanoTime();
+			// give a swap that is a little late the chance to come when
+			// frames are being drawn
+			boolean drawing = mLastSwap > mLastUpdate - 2 * mUpdateInterval;
+			long wake = drawing ? deadline + slack : deadline;
+			if(now >= wake) {
+				time = Math.max(deadline, now - slack);
+				break;
+			}
+			long wait = wake - now;
+			wait(wait / NANOS_PER_MILLI, (int)(wait % NANOS_PER_MILLI));
+		}
+
+		// advance by whole update intervals, carrying the rest over
+		long elapsed = time - mLastUpdate + mDrift;
+		long intervals = Math.max(1, (elapsed + mUpdateInterval / 2) / mUpdateInterval);
+		mMissedUpdates += intervals - 1;
+		long step = intervals * mUpdateInterval;
+		mDrift = Math.max(-mUpdateInterval, Math.min(mUpdateInterval, elapsed - step));
+		mLastUpdate = time;
+		mUpdates++;
+
+		mRemainder += step;
+		long millis = mRemainder / NANOS_PER_MILLI;
+		mRemainder -= millis * NANOS_PER_MILLI;
+		return millis;
+	}
+
+	/**
+	 * Starts over without counting the time since the last update, such as
+	 * after the game has been paused.
+	 */
+	public synchronized void reset() {
+		mLastUpdate = 0;
+		mDrift = 0;
+	}
+
+	/**
+	 * @return the estimated time between two refreshes in nanoseconds
+	 */
+	public synchronized long getRefreshInterval() {
+		return mRefreshInterval;
+	}
+
+	/**
+	 * @return the time between two updates in nanoseconds
+	 */
+	public synchronized long getUpdateInterval() {
+		return mUpdateInterval;
+	}
+
+	/**
+	 * @return number of frames swapped since the counters were reset
+	 */
+	public synchronized int getFrameCount() {
+		return mFrames;
+	}
+
+	/**
+	 * @return number of frames that took longer than an update interval
+	 */
+	public synchronized int getMissedFrames() {
+		return mMissedFrames;
+	}
+
+	/**
+	 * @return number of updates since the counters were reset
+	 */
+	public synchronized int getUpdateCount() {
+		return mUpdates;
+	}
+
+	/**
+	 * @return number of updates that were skipped because the game thread
+	 * woke up too late
+	 */
+	public synchronized int getMissedUpdates() {
+		return mMissedUpdates;
+	}
+
+	/**
+	 * Resets the frame and update counters.
+	 */
+	public synchronized void resetCounters() {
+		mFrames = 0;
+		mMissedFrames = 0;
+		mUpdates = 0;
+		mMissedUpdates = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return Math.round(NANOS_PER_SECOND * 10f / mRefreshInterval) / 10f+" Hz refresh, "
+			+mUpdateInterval / 100000 / 10f+" ms updates, "
+			+mFrames+" frames ("+mMissedFrames+" missed), "
+			+mUpdates+" updates ("+mMissedUpdates+" missed)";
+	}
+}
@@ -79,6 +79,14 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         mGLWrapper = glWrapper;
     }
 
+    /**
+     * @return the scheduler that is told about every frame the GL thread
+     * draws, for other threads to pace themselves with
+     */
+    public FrameScheduler getFrameScheduler() {
+        return mFrameScheduler;
+    }
+
     /**
      * Set the renderer. Also wraps the renderer in a thread and
      * starts the thread.
@@ -134,15 +142,22 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         mGLThread.setEvent(r);
     }
     
+    /**
+     * Request that a frame is drawn. Wakes up the GL thread if it is
+     * waiting for something to draw.
+     */
     public void requestRender() {
-    	isDirty = true;
+    	mGLThread.requestRender();
     }
       
     /**
-	 * @param b
+	 * Set if frames only should be drawn when requested with requestRender().
+	 * The GL thread then sleeps until something needs to be drawn instead
+	 * of drawing continuously.
+	 * @param b true to only draw requested frames
 	 */
 	public void setRenderWhenDirty(boolean b) {
-		renderWhenDirty = b;
+		mGLThread.setRenderWhenDirty(b);
 	}
 
     @Override
@@ -392,6 +407,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                 int w, h;
                 boolean changed;
                 boolean needStart = false;
+                boolean render;
                 synchronized (this) {
                     if (mEvent != null) {
                         mEvent.run();
@@ -414,6 +430,9 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                     w = mWidth;
                     h = mHeight;
                     mSizeChanged = false;
+                    render = !mRenderWhenDirty || mRequestRender
+                    		|| changed || needStart;
+                    mRequestRender = false;
                 }
                 if (needStart) {
                     mEglHelper.start(configSpec);
@@ -433,11 +452,9 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                     tellRendererSurfaceChanged = false;
                 }
                 if ((w > 0) && (h > 0)) {
-                	if(!renderWhenDirty || isDirty) {
-                		if(renderWhenDirty) {
-	                    	isDirty = false;
-	                    }
+                	if(render) {
 	                    /* draw a frame here */
+	                    mFrameScheduler.frameStarted();
 	                    mRenderer.drawFrame(gl);
 	                   
 	                    /*
@@ -445,6 +462,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
 	                     * to instruct the system to display the rendered frame
 	                     */
 	                    mEglHelper.swap();
+	                    mFrameScheduler.frameSwapped();
                 	}
                 }
              }
@@ -461,14 +479,36 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         }
 
         private boolean needToWait() {
-            return (mPaused || (! mHasFocus) || (! mHasSurface) || mContextLost)
-                && (! mDone);
+            if (mDone) {
+                return false;
+            }
+            if (mPaused || (! mHasFocus) || (! mHasSurface) || mContextLost) {
+                return true;
+            }
+            // when rendering on demand, sleep until there is something to do
+            return mRenderWhenDirty && !mRequestRender && !mSizeChanged
+                && mEvent == null;
+        }
+        
+        public void requestRender() {
+            synchronized(this) {
+                mRequestRender = true;
+                notify();
+            }
+        }
+        
+        public void setRenderWhenDirty(boolean renderWhenDirty) {
+            synchronized(this) {
+                mRenderWhenDirty = renderWhenDirty;
+                notify();
+            }
         }
 
         public void surfaceCreated() {
             synchronized(this) {
                 mHasSurface = true;
                 mContextLost = false;
+                mRequestRender = true;
                 notify();
             }
         }
@@ -489,6 +529,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         public void onResume() {
             synchronized (this) {
                 mPaused = false;
+                mRequestRender = true;
                 notify();
             }
         }
@@ -497,6 +538,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
             synchronized (this) {
                 mHasFocus = hasFocus;
                 if (mHasFocus == true) {
+                    mRequestRender = true;
                     notify();
                 }
             }
@@ -506,6 +548,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
                 mWidth = w;
                 mHeight = h;
                 mSizeChanged = true;
+                notify();
             }
         }
 
@@ -530,6 +573,7 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         public void setEvent(Runnable r) {
             synchronized(this) {
                 mEvent = r;
+                notify();
             }
         }
        
@@ -546,6 +590,8 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
         private boolean mHasFocus;
         private boolean mHasSurface;
         private boolean mContextLost;
+        private boolean mRenderWhenDirty = false;
+        private boolean mRequestRender = true;
         private int mWidth;
         private int mHeight;
         private Renderer mRenderer;
@@ -555,10 +601,9 @@ public class GLSurfaceView extends SurfaceView implements SurfaceHolder.Callback
 
     private static final Semaphore sEglSemaphore = new Semaphore(1);
     private boolean mSizeChanged = true;
-    private boolean renderWhenDirty = false;
-    private boolean isDirty = true;
 
     private SurfaceHolder mHolder;
     private GLThread mGLThread;
     private GLWrapper mGLWrapper;
+    private final FrameScheduler mFrameScheduler = new FrameScheduler();
 }
@@ -0,0 +1,343 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene;
+
+import java.util.ArrayList;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+import se.ltu.android.demo.util.RangeAllocator;
+
+import android.util.Log;
+
+/**
+ * Packs the hardware buffers of many small meshes into a few large ones.
+ * The pool holds pages of one vertex buffer object and one index buffer
+ * object each, and every mesh in the pool gets a range of both. Meshes
+ * are drawn with pointers at the offset of their range, so a scene of
+ * many small meshes needs a few buffer objects instead of one per mesh,
+ * and meshes in the same page share the bound buffers.<br><br>
+ *
+ * Only static meshes with interleaved vertex data are pooled, since they
+ * need one range of the vertex buffer and are rarely changed. Larger
+ * meshes and meshes that are not interleaved get buffers of their own.
+ * <br><br>
+ *
+ * When meshes are freed their ranges leave holes between the meshes that
+ * remain. A page whose free space is split up too much is compacted by
+ * giving its meshes new ranges from the start of the page and uploading
+ * them again from their client side arrays, as OpenGL ES 1.1 can not
+ * copy data between buffers. Empty pages are deleted.
+ * @see Object3D#setBufferPool(BufferPool)
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class BufferPool {
+	private static final String TAG = "BufferPool";
+	public static final int DEFAULT_VERTEX_PAGE = 256 * 1024;
+	public static final int DEFAULT_INDEX_PAGE = 64 * 1024;
+	// offsets are aligned so that every attribute is read aligned
+	private static final int ALIGNMENT = 4;
+	// meshes larger than this part of a page get buffers of their own
+	private static final int MAX_MESH_FRACTION = 4;
+	// pages with more of their free space split up than this are compacted
+	private static final float DEFAULT_MAX_FRAGMENTATION = 0.5f;
+
+	private final int mVertexPageSize;
+	private final int mIndexPageSize;
+	private final ArrayList<Page> mPages = new ArrayList<Page>();
+	private float mMaxFragmentation = DEFAULT_MAX_FRAGMENTATION;
+
+	// counters since the last reset
+	private int mCompactions = 0;
+	private int mUploads = 0;
+
+	/**
+	 * One vertex and one index buffer object and the meshes stored in them.
+	 */
+	static class Page {
+		final BufferPool pool;
+		int vertexBuffer;
+		int indexBuffer;
+		final RangeAllocator vertices;
+		final RangeAllocator indices;
+		final ArrayList<Object3D> meshes = new ArrayList<Object3D>();
+
+		Page(BufferPool pool, int vertexBuffer, int indexBuffer) {
+			this.pool = pool;
+			this.vertexBuffer = vertexBuffer;
+			this.indexBuffer = indexBuffer;
+			vertices = new RangeAllocator(pool.mVertexPageSize, ALIGNMENT);
+			indices = new RangeAllocator(pool.mIndexPageSize, ALIGNMENT);
+		}
+
+		/**
+		 * @return true if the page has free ranges for the given sizes
+		 */
+		boolean fits(int vertexBytes, int indexBytes) {
+			return vertices.getLargestFree() >= vertices.align(vertexBytes)
+				&& indices.getLargestFree() >= indices.align(indexBytes);
+		}
+
+		/**
+		 * @return true if the page would fit the given sizes once compacted
+		 */
+		boolean fitsCompacted(int vertexBytes, int indexBytes) {
+			return vertices.getFreeBytes() >= vertices.align(vertexBytes)
+				&& indices.getFreeBytes() >= indices.align(indexBytes);
+		}
+
+		float getFragmentation() {
+			return Math.max(vertices.getFragmentation(), indices.getFragmentation());
+		}
+	}
+
+	/**
+	 * Creates a pool with the default page sizes.
+	 */
+	public BufferPool() {
+		this(DEFAULT_VERTEX_PAGE, DEFAULT_INDEX_PAGE);
+	}
+
+	/**
+	 * @param vertexPageSize size in bytes of the vertex buffer of a page
+	 * @param indexPageSize size in bytes of the index buffer of a page
+	 */
+	public BufferPool(int vertexPageSize, int indexPageSize) {
+		mVertexPageSize = vertexPageSize;
+		mIndexPageSize = indexPageSize;
+	}
+
+	/**
+	 * @return true if a mesh with buffers of the given sizes is small
+	 * enough to be pooled
+	 */
+	boolean accepts(int vertexBytes, int indexBytes) {
+		return vertexBytes <= mVertexPageSize / MAX_MESH_FRACTION
+			&& indexBytes <= mIndexPageSize / MAX_MESH_FRACTION;
+	}
+
+	/**
+	 * Gives a mesh a range of the vertex and index buffers of a page,
+	 * compacting a page or creating a new one if no page has room. The
+	 * mesh must upload its data itself.
+	 * @param gl
+	 * @param mesh mesh to store in the pool
+	 * @param vertexBytes size of the interleaved vertex data of the mesh
+	 * @param indexBytes size of the indices of the mesh
+	 * @return false if the mesh can not be pooled
+	 */
+	boolean allocate(GL11 gl, Object3D mesh, int vertexBytes, int indexBytes) {
+		if(!accepts(vertexBytes, indexBytes)) {
+			return false;
+		}
+		Page page = null;
+		for(int i = 0; i < mPages.size() && page == null; i++) {
+			if(mPages.get(i).fits(vertexBytes, indexBytes)) {
+				page = mPages.get(i);
+			}
+		}
+		for(int i = 0; i < mPages.size() && page == null; i++) {
+			if(mPages.get(i).fitsCompacted(vertexBytes, indexBytes)) {
+				page = mPages.get(i);
+				compact(gl, page);
+			}
+		}
+		if(page == null) {
+			page = createPage(gl);
+			if(page == null) {
+				return false;
+			}
+		}
+		mesh.mPoolPage = page;
+		mesh.mPoolVertexBytes = vertexBytes;
+		mesh.mPoolIndexBytes = indexBytes;
+		mesh.mVertexOffset = page.vertices.allocate(vertexBytes);
+		mesh.mIndexOffset = page.indices.allocate(indexBytes);
+		page.meshes.add(mesh);
+		mUploads++;
+		return true;
+	}
+
+	/**
+	 * Creates a page with empty buffers of the page sizes.
+	 * @return the page or null if the buffers could not be allocated
+	 */
+	private Page createPage(GL11 gl) {
+		int[] buffer = new int[2];
+		gl.glGenBuffers(2, buffer, 0);
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, buffer[0]);
+		gl.glBufferData(GL11.GL_ARRAY_BUFFER, mVertexPageSize, null, GL11.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, buffer[1]);
+		gl.glBufferData(GL11.GL_ELEMENT_ARRAY_BUFFER, mIndexPageSize, null, GL11.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
+		if(gl.glGetError() == GL11.GL_OUT_OF_MEMORY) {
+			Log.w(TAG, "Out of memory for a new page");
+			gl.glDeleteBuffers(2, buffer, 0);
+			return null;
+		}
+		Page page = new Page(this, buffer[0], buffer[1]);
+		mPages.add(page);
+		return page;
+	}
+
+	/**
+	 * Returns the ranges of a mesh to its page. The page is deleted if it
+	 * becomes empty and a GL is given.
+	 * @param gl GL to delete an empty page with or null to keep it
+	 * @param mesh mesh to remove from the pool
+	 */
+	void free(GL11 gl, Object3D mesh) {
+		Page page = mesh.mPoolPage;
+		if(page == null) {
+			return;
+		}
+		page.vertices.free(mesh.mVertexOffset, mesh.mPoolVertexBytes);
+		page.indices.free(mesh.mIndexOffset, mesh.mPoolIndexBytes);
+		page.meshes.remove(mesh);
+		mesh.mPoolPage = null;
+		if(page.meshes.isEmpty() && gl != null && mPages.remove(page)) {
+			deletePage(gl, page);
+		}
+	}
+
+	private static void deletePage(GL11 gl, Page page) {
+		int[] buffer = {page.vertexBuffer, page.indexBuffer};
+		gl.glDeleteBuffers(2, buffer, 0);
+		page.vertexBuffer = 0;
+		page.indexBuffer = 0;
+	}
+
+	/**
+	 * Compacts the pages whose free space is split up more than the
+	 * maximum fragmentation. Cheap when no page needs it, so it may be
+	 * called every frame.
+	 * @param gl
+	 */
+	public void defragment(GL11 gl) {
+		for(int i = 0; i < mPages.size(); i++) {
+			Page page = mPages.get(i);
+			if(page.getFragmentation() > mMaxFragmentation) {
+				compact(gl, page);
+			}
+		}
+	}
+
+	/**
+	 * Gives every mesh of a page new ranges from the start of the page and
+	 * uploads the meshes whose ranges moved again.
+	 */
+	private void compact(GL11 gl, Page page) {
+		page.vertices.reset();
+		page.indices.reset();
+		for(int i = 0; i < page.meshes.size(); i++) {
+			Object3D mesh = page.meshes.get(i);
+			int vertexOffset = page.vertices.allocate(mesh.mPoolVertexBytes);
+			int indexOffset = page.indices.allocate(mesh.mPoolIndexBytes);
+			if(vertexOffset != mesh.mVertexOffset || indexOffset != mesh.mIndexOffset) {
+				mesh.mVertexOffset = vertexOffset;
+				mesh.mIndexOffset = indexOffset;
+				mesh.uploadPooled(gl);
+			}
+		}
+		mCompactions++;
+	}
+
+	/**
+	 * Set how much of the free space of a page may be split up before the
+	 * page is compacted by <code>defragment</code>.
+	 * @param fragmentation fraction of the free space outside the largest
+	 * free range, between 0 and 1
+	 */
+	public void setMaxFragmentation(float fragmentation) {
+		mMaxFragmentation = fragmentation;
+	}
+
+	/**
+	 * Forgets every page without deleting the buffers, and removes every
+	 * mesh from the pool. Must be called when a new context is created.
+	 */
+	public void forgetHardwareBuffers() {
+		for(int i = 0; i < mPages.size(); i++) {
+			ArrayList<Object3D> meshes = mPages.get(i).meshes;
+			while(!meshes.isEmpty()) {
+				meshes.get(meshes.size() - 1).forgetOwnBuffers();
+			}
+		}
+		mPages.clear();
+	}
+
+	/**
+	 * Deletes every page. The meshes in them are drawn from their client
+	 * side arrays until their hardware buffers are generated again.
+	 * @param gl
+	 */
+	public void freeHardwareBuffers(GL10 gl) {
+		for(int i = 0; i < mPages.size(); i++) {
+			deletePage((GL11)gl, mPages.get(i));
+		}
+		forgetHardwareBuffers();
+	}
+
+	/**
+	 * @return number of pages
+	 */
+	public int getPageCount() {
+		return mPages.size();
+	}
+
+	/**
+	 * @return number of meshes in the pool
+	 */
+	public int getMeshCount() {
+		int count = 0;
+		for(int i = 0; i < mPages.size(); i++) {
+			count += mPages.get(i).meshes.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the fraction of the vertex and index buffers of all pages
+	 * that is used by meshes
+	 */
+	public float getUtilization() {
+		long used = 0;
+		long capacity = 0;
+		for(int i = 0; i < mPages.size(); i++) {
+			Page page = mPages.get(i);
+			used += page.vertices.getUsedBytes() + page.indices.getUsedBytes();
+			capacity += page.vertices.getCapacity() + page.indices.getCapacity();
+		}
+		return capacity == 0 ? 0 : used / (float)capacity;
+	}
+
+	/**
+	 * @return the fragmentation of the most fragmented page, the fraction of
+	 * its free space that is not part of its largest free range
+	 */
+	public float getFragmentation() {
+		float fragmentation = 0;
+		for(int i = 0; i < mPages.size(); i++) {
+			fragmentation = Math.max(fragmentation, mPages.get(i).getFragmentation());
+		}
+		return fragmentation;
+	}
+
+	/**
+	 * Resets the upload and compaction counters.
+	 */
+	public void resetCounters() {
+		mUploads = 0;
+		mCompactions = 0;
+	}
+
+	@Override
+	public String toString() {
+		return getMeshCount()+" meshes in "+mPages.size()+" pages, "
+			+(int)(getUtilization() * 100)+"% used, "
+			+(int)(getFragmentation() * 100)+"% fragmented, "
+			+mUploads+" uploads, "+mCompactions+" compactions";
+	}
+}
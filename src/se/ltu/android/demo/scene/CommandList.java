@@ -0,0 +1,387 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene;
+
+import java.util.ArrayList;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import se.ltu.android.demo.scene.camera.Camera;
+import se.ltu.android.demo.scene.state.Light;
+import se.ltu.android.demo.scene.state.LightManager;
+import se.ltu.android.demo.scene.state.Material;
+
+/**
+ * Records the GL operations needed to draw a scene and replays them in
+ * later frames instead of traversing the scene graph again.<br><br>
+ *
+ * The list is split into one segment for each child of the root. A
+ * segment remembers the revision of its child when it was recorded and
+ * is recorded again only when the child, or anything below it, has been
+ * invalidated, or when a geometry in it switches level of detail. Attaching
+ * or detaching children of the root records the whole list again. Each segment is tested against the view frustum
+ * before it is replayed.<br><br>
+ *
+ * Operations are stored as integers in a primitive array, followed by
+ * their operands. Objects are referenced by index, so replaying allocates
+ * nothing. Geometries are drawn with their cached model view matrices,
+ * so a change of the camera does not require anything to be recorded
+ * again, unless it makes a geometry switch level of detail.<br><br>
+ *
+ * Geometries with a translucent material are not recorded. They are
+ * queued from the visible segments every frame and drawn after them by a
+ * <code>RenderQueue</code>, back to front without writing depth. A change
+ * of any material records the whole list again, since it may make a
+ * geometry translucent or opaque.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class CommandList {
+	// operation codes, followed by their operands
+	private final static int OP_LIGHT = 1;			// light
+	private final static int OP_BIND = 2;			// mesh
+	private final static int OP_UNBIND = 3;			// mesh
+	private final static int OP_MATERIAL = 4;		// material
+	private final static int OP_NO_MATERIAL = 5;
+	private final static int OP_DRAW = 6;			// object, mesh
+
+	private Segment[] mSegments = new Segment[0];
+	private int mSegmentCount = 0;
+	private Container mRoot;
+	private int mMaterialRevision;
+	// sorts and draws the translucent geometries
+	private final RenderQueue mTranslucent = new RenderQueue();
+
+	// state while recording
+	private Segment mRecording;
+	private Object3D mBoundMesh;
+	private Material mMaterial;
+	private boolean mHasMaterial;
+
+	/**
+	 * Draws a scene, recording the parts of it that have changed since
+	 * the last call. The model view matrix is expected to hold the view
+	 * matrix of the camera and the frustum of the camera must be updated.
+	 * @param gl
+	 * @param root root of the scene to draw
+	 * @param camera camera to cull segments against
+	 */
+	public void draw(GL10 gl, Container root, Camera camera) {
+		int materialRevision = Material.getGlobalRevision();
+		if(root != mRoot || materialRevision != mMaterialRevision || !matches(root)) {
+			mMaterialRevision = materialRevision;
+			recordAll(root);
+		}
+		
+		Segment segment;
+		for(int i = 0; i < mSegmentCount; i++) {
+			segment = mSegments[i];
+			// a new level of detail draws another mesh than was recorded
+			boolean lodChanged = false;
+			for(int n = 0; n < segment.mLodCount; n++) {
+				segment.mLods[n].selectLod(camera);
+				if(segment.mLods[n].getLodLevel() != segment.mLodLevels[n]) {
+					lodChanged = true;
+				}
+			}
+			if(lodChanged || segment.mRevision != segment.mSpatial.getRevision()) {
+				record(segment);
+			}
+		}
+		
+		// lights affect everything, even segments that are culled
+		for(int i = 0; i < mSegmentCount; i++) {
+			addLights(mSegments[i]);
+		}
+		
+		mTranslucent.clear();
+		mTranslucent.setCamera(camera);
+		int planeState;
+		for(int i = 0; i < mSegmentCount; i++) {
+			segment = mSegments[i];
+			planeState = camera.getPlaneState();
+			if(!segment.mSpatial.isCulled(camera)) {
+				replay(gl, segment, camera);
+				for(int n = 0; n < segment.mTranslucentCount; n++) {
+					segment.mTranslucent[n].queue(mTranslucent);
+				}
+			}
+			camera.setPlaneState(planeState);
+		}
+		
+		// blended with everything drawn before them
+		if(mTranslucent.size() > 0) {
+			mTranslucent.sort();
+			mTranslucent.draw(gl);
+		}
+	}
+
+	/**
+	 * @return true if the segments still are the children of the root
+	 */
+	private boolean matches(Container root) {
+		ArrayList<Spatial> children = root.children;
+		synchronized(children) {
+			int len = children.size();
+			if(len != mSegmentCount) {
+				return false;
+			}
+			for(int i = 0; i < len; i++) {
+				if(children.get(i) != mSegments[i].mSpatial) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void recordAll(Container root) {
+		mRoot = root;
+		ArrayList<Spatial> children = root.children;
+		synchronized(children) {
+			int len = children.size();
+			if(mSegments.length < len) {
+				Segment[] segments = new Segment[len];
+				System.arraycopy(mSegments, 0, segments, 0, mSegmentCount);
+				mSegments = segments;
+			}
+			for(int i = 0; i < len; i++) {
+				if(mSegments[i] == null) {
+					mSegments[i] = new Segment();
+				}
+				mSegments[i].mSpatial = children.get(i);
+				record(mSegments[i]);
+			}
+			for(int i = len; i < mSegmentCount; i++) {
+				mSegments[i].mSpatial = null;
+			}
+			mSegmentCount = len;
+		}
+	}
+
+	private void record(Segment segment) {
+		segment.clear();
+		mRecording = segment;
+		mBoundMesh = null;
+		mHasMaterial = false;
+		// read the revision first, a change during recording is caught next frame
+		segment.mRevision = segment.mSpatial.getRevision();
+		segment.mSpatial.record(this);
+		if(mBoundMesh != null) {
+			segment.addOp(OP_UNBIND, segment.addRef(mBoundMesh));
+		}
+		mRecording = null;
+		mBoundMesh = null;
+		mMaterial = null;
+	}
+
+	/**
+	 * Record a light that the geometries may be lit by.
+	 * @param light light to add
+	 */
+	void addLight(Light light) {
+		mRecording.addOp(OP_LIGHT, mRecording.addRef(light));
+	}
+
+	/**
+	 * Record drawing a geometry with its current material. The transform
+	 * is read when the list is replayed. A geometry with a translucent
+	 * material is drawn sorted after the segments instead.
+	 * @param object geometry to draw
+	 */
+	void addMesh(Object3D object) {
+		Segment segment = mRecording;
+		Material material = object.getMaterial();
+		if(material != null && material.isTranslucent()) {
+			segment.addTranslucent(object);
+			return;
+		}
+		if(object.getLodChain() != null) {
+			segment.addLod(object);
+		}
+		Object3D mesh = object.getSourceMesh();
+		if(!mesh.isDrawable()) {
+			return;
+		}
+		if(mesh != mBoundMesh) {
+			if(mBoundMesh != null) {
+				segment.addOp(OP_UNBIND, segment.addRef(mBoundMesh));
+			}
+			segment.addOp(OP_BIND, segment.addRef(mesh));
+			mBoundMesh = mesh;
+		}
+		if(!mHasMaterial || material != mMaterial) {
+			if(material == null) {
+				segment.addOp(OP_NO_MATERIAL);
+			} else {
+				segment.addOp(OP_MATERIAL, segment.addRef(material));
+			}
+			mMaterial = material;
+			mHasMaterial = true;
+		}
+		int ref = segment.addRef(object);
+		segment.addOp(OP_DRAW, ref, segment.addRef(mesh));
+	}
+
+	private static void addLights(Segment segment) {
+		int[] ops = segment.mOps;
+		Object[] refs = segment.mRefs;
+		int len = segment.mOpCount;
+		int pc = 0;
+		while(pc < len) {
+			switch(ops[pc]) {
+			case OP_LIGHT:
+				LightManager.addLight((Light)refs[ops[pc+1]]);
+				pc += 2;
+				break;
+			case OP_NO_MATERIAL:
+				pc += 1;
+				break;
+			case OP_DRAW:
+				pc += 3;
+				break;
+			default:
+				pc += 2;
+				break;
+			}
+		}
+	}
+
+	private static void replay(GL10 gl, Segment segment, Camera camera) {
+		int[] ops = segment.mOps;
+		Object[] refs = segment.mRefs;
+		int len = segment.mOpCount;
+		int pc = 0;
+		while(pc < len) {
+			switch(ops[pc]) {
+			case OP_LIGHT:
+				// already added
+				pc += 2;
+				break;
+			case OP_BIND:
+				((Object3D)refs[ops[pc+1]]).bindArrays(gl);
+				pc += 2;
+				break;
+			case OP_UNBIND:
+				((Object3D)refs[ops[pc+1]]).unbindArrays(gl);
+				pc += 2;
+				break;
+			case OP_MATERIAL:
+				((Material)refs[ops[pc+1]]).applyState(gl);
+				pc += 2;
+				break;
+			case OP_NO_MATERIAL:
+				Material.removeState(gl);
+				pc += 1;
+				break;
+			case OP_DRAW:
+				Spatial spatial = (Spatial)refs[ops[pc+1]];
+				LightManager.apply(gl, spatial.getWorldBound());
+				gl.glLoadMatrixf(spatial.getModelViewMatrix(camera), 0);
+				((Object3D)refs[ops[pc+2]]).drawElements(gl);
+				pc += 3;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * The recorded operations of one child of the root.
+	 */
+	private static class Segment {
+		Spatial mSpatial;
+		int mRevision;
+		int[] mOps = new int[64];
+		int mOpCount;
+		Object[] mRefs = new Object[16];
+		int mRefCount;
+		// geometries with a level of detail chain and the level each was
+		// recorded at
+		Object3D[] mLods = new Object3D[4];
+		int[] mLodLevels = new int[4];
+		int mLodCount;
+		// geometries with a translucent material, queued every frame
+		Object3D[] mTranslucent = new Object3D[4];
+		int mTranslucentCount;
+
+		void clear() {
+			for(int i = 0; i < mRefCount; i++) {
+				mRefs[i] = null;
+			}
+			for(int i = 0; i < mLodCount; i++) {
+				mLods[i] = null;
+			}
+			mLodCount = 0;
+			for(int i = 0; i < mTranslucentCount; i++) {
+				mTranslucent[i] = null;
+			}
+			mTranslucentCount = 0;
+			mOpCount = 0;
+			mRefCount = 0;
+		}
+
+		void addOp(int op) {
+			ensureOps(1);
+			mOps[mOpCount++] = op;
+		}
+
+		void addOp(int op, int a) {
+			ensureOps(2);
+			mOps[mOpCount++] = op;
+			mOps[mOpCount++] = a;
+		}
+
+		void addOp(int op, int a, int b) {
+			ensureOps(3);
+			mOps[mOpCount++] = op;
+			mOps[mOpCount++] = a;
+			mOps[mOpCount++] = b;
+		}
+
+		/**
+		 * @return index of the reference, reusing the previous index
+		 * if the object was the last one added
+		 */
+		int addRef(Object ref) {
+			if(mRefCount > 0 && mRefs[mRefCount-1] == ref) {
+				return mRefCount-1;
+			}
+			if(mRefCount == mRefs.length) {
+				Object[] refs = new Object[mRefs.length * 2];
+				System.arraycopy(mRefs, 0, refs, 0, mRefCount);
+				mRefs = refs;
+			}
+			mRefs[mRefCount] = ref;
+			return mRefCount++;
+		}
+
+		void addLod(Object3D object) {
+			if(mLodCount == mLods.length) {
+				Object3D[] lods = new Object3D[mLodCount * 2];
+				System.arraycopy(mLods, 0, lods, 0, mLodCount);
+				mLods = lods;
+				int[] levels = new int[mLodCount * 2];
+				System.arraycopy(mLodLevels, 0, levels, 0, mLodCount);
+				mLodLevels = levels;
+			}
+			mLods[mLodCount] = object;
+			mLodLevels[mLodCount++] = object.getLodLevel();
+		}
+
+		void addTranslucent(Object3D object) {
+			if(mTranslucentCount == mTranslucent.length) {
+				Object3D[] translucent = new Object3D[mTranslucentCount * 2];
+				System.arraycopy(mTranslucent, 0, translucent, 0, mTranslucentCount);
+				mTranslucent = translucent;
+			}
+			mTranslucent[mTranslucentCount++] = object;
+		}
+
+		private void ensureOps(int count) {
+			if(mOpCount + count > mOps.length) {
+				int[] ops = new int[mOps.length * 2];
+				System.arraycopy(mOps, 0, ops, 0, mOpCount);
+				mOps = ops;
+			}
+		}
+	}
+}
@@ -1,16 +1,22 @@
 /* SVN FILE: $Id: Node.java 24 2009-08-17 15:32:24Z belse $ */
 package se.ltu.android.demo.scene;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 
 import javax.microedition.khronos.opengles.GL10;
 
+import android.opengl.Matrix;
 import android.util.Log;
 
+import se.ltu.android.demo.scene.camera.Camera;
 import se.ltu.android.demo.scene.intersection.AABBox;
 import se.ltu.android.demo.scene.intersection.PickResult;
 import se.ltu.android.demo.scene.intersection.Ray;
 import se.ltu.android.demo.scene.state.Material;
+import se.ltu.android.demo.util.MeshOptimizer;
 
 /**
  * A spatial that supports any number of children attached to it. Most of
@@ -22,6 +28,8 @@ import se.ltu.android.demo.scene.state.Material;
  */
 public class Container extends Spatial {
 	private final static String TAG = "Node";
+	// indices are unsigned shorts
+	private final static int MAX_BATCH_VERTICES = 65536;
 	protected ArrayList<Spatial> children = new ArrayList<Spatial>();
 	
 	public Container(String name) {
@@ -40,6 +48,53 @@ public class Container extends Spatial {
 		}
 	}
 
+	/**
+	 * Draws the children of this node, skipping the whole subtree if
+	 * the world bound of this node is outside the view frustum.
+	 */
+	@Override
+	public void draw(GL10 gl, Camera camera) {
+		int planeState = camera.getPlaneState();
+		if(!isCulled(camera)) {
+			synchronized(children) {
+				int len = children.size();
+				for (int i = 0; i < len; i++) {
+					children.get(i).draw(gl, camera);
+				}
+			}
+		}
+		camera.setPlaneState(planeState);
+	}
+
+	/**
+	 * Queues the children of this node, skipping the whole subtree if
+	 * the world bound of this node is outside the view frustum.
+	 */
+	@Override
+	public void queue(RenderQueue queue) {
+		Camera camera = queue.getCamera();
+		int planeState = camera.getPlaneState();
+		if(!isCulled(camera)) {
+			synchronized(children) {
+				int len = children.size();
+				for (int i = 0; i < len; i++) {
+					children.get(i).queue(queue);
+				}
+			}
+		}
+		camera.setPlaneState(planeState);
+	}
+
+	@Override
+	public void record(CommandList list) {
+		synchronized(children) {
+			int len = children.size();
+			for (int i = 0; i < len; i++) {
+				children.get(i).record(list);
+			}
+		}
+	}
+
 	/**
 	 * Add a child to this node.
 	 * @param child child to add
@@ -52,6 +107,7 @@ public class Container extends Spatial {
 			child.detachFromParent();
 		}
 		child.mParent = this;
+		invalidate();
 	}
 	
 	/**
@@ -63,6 +119,7 @@ public class Container extends Spatial {
 			children.remove(child);
 		}
 		child.mParent = null;
+		invalidate();
 	}
 	
 	/**
@@ -129,7 +186,7 @@ public class Container extends Spatial {
 						mWorldBound.mMinX = cBound.mMinX;
 					if(cBound.mMinY < mWorldBound.mMinY)
 						mWorldBound.mMinY = cBound.mMinY;
-					if(cBound.mMinZ < mWorldBound.mMinY)
+					if(cBound.mMinZ < mWorldBound.mMinZ)
 						mWorldBound.mMinZ = cBound.mMinZ;
 					if(cBound.mMaxX > mWorldBound.mMaxX)
 						mWorldBound.mMaxX = cBound.mMaxX;
@@ -159,7 +216,7 @@ public class Container extends Spatial {
 			mWorldBound.mMinX = cBound.mMinX;
 		if(cBound.mMinY < mWorldBound.mMinY)
 			mWorldBound.mMinY = cBound.mMinY;
-		if(cBound.mMinZ < mWorldBound.mMinY)
+		if(cBound.mMinZ < mWorldBound.mMinZ)
 			mWorldBound.mMinZ = cBound.mMinZ;
 		if(cBound.mMaxX > mWorldBound.mMaxX)
 			mWorldBound.mMaxX = cBound.mMaxX;
@@ -262,4 +319,301 @@ public class Container extends Spatial {
 			}
 		}
 	}
+
+	/**
+	 * Merges all static Object3Ds below this node into as few meshes as
+	 * possible, so that static scenery costs a few draw calls no matter
+	 * how many pieces it is built from. An Object3D is static if it or
+	 * one of its ancestors below this node has been set static.<br><br>
+	 *
+	 * The meshes are grouped by material and by which vertex attributes
+	 * they have. Triangle strips and fans are turned into triangle lists
+	 * so that all draw modes can share a batch. A group is split into
+	 * several meshes when it would need more vertices than an unsigned
+	 * short index can address, and a mesh that alone has more vertices
+	 * than that is not merged at all. Vertices and normals are transformed into
+	 * the space of this node. The triangles of each new mesh are reordered
+	 * for the vertex cache, see <code>MeshOptimizer</code>.<br><br>
+	 *
+	 * The merged Object3Ds are detached from their parents and the new
+	 * meshes, which are not pickable, are attached to this node.
+	 * @param name name of the new meshes, suffixed with a number for all but the first
+	 * @return the new meshes
+	 */
+	public ArrayList<Object3D> mergeStatic(String name) {
+		ArrayList<Object3D> merged = new ArrayList<Object3D>();
+		updateTransform();
+		collectStatic(merged, mIsStatic);
+		// a mesh too large for a batch of its own is left as it is
+		for(int i = merged.size() - 1; i >= 0; i--) {
+			if(merged.get(i).mVertexCount > MAX_BATCH_VERTICES) {
+				merged.remove(i);
+			}
+		}
+		
+		// group by material and vertex attributes
+		ArrayList<ArrayList<Object3D>> groups = new ArrayList<ArrayList<Object3D>>();
+		int len = merged.size();
+		for(int i = 0; i < len; i++) {
+			Object3D mesh = merged.get(i);
+			int attributes = mesh.getVertexFormat().getAttributes();
+			ArrayList<Object3D> group = null;
+			for(int g = 0; g < groups.size(); g++) {
+				Object3D first = groups.get(g).get(0);
+				if(first.getMaterial() == mesh.getMaterial()
+						&& first.getVertexFormat().getAttributes() == attributes) {
+					group = groups.get(g);
+					break;
+				}
+			}
+			if(group == null) {
+				group = new ArrayList<Object3D>();
+				groups.add(group);
+			}
+			group.add(mesh);
+		}
+		
+		// meshes are transformed relative to this node
+		float[] inverse = new float[16];
+		Matrix.invertM(inverse, 0, mTransformMatrix, 0);
+		
+		ArrayList<Object3D> result = new ArrayList<Object3D>();
+		for(int g = 0; g < groups.size(); g++) {
+			ArrayList<Object3D> group = groups.get(g);
+			int start = 0;
+			int nVertices = 0;
+			for(int i = 0; i < group.size(); i++) {
+				int count = group.get(i).mVertexCount;
+				if(nVertices + count > MAX_BATCH_VERTICES && i > start) {
+					result.add(mergeBatch(batchName(name, result.size()), group, start, i, inverse));
+					start = i;
+					nVertices = 0;
+				}
+				nVertices += count;
+			}
+			result.add(mergeBatch(batchName(name, result.size()), group, start, group.size(), inverse));
+		}
+		
+		for(int i = 0; i < len; i++) {
+			merged.get(i).detachFromParent();
+		}
+		for(int i = 0; i < result.size(); i++) {
+			Object3D mesh = result.get(i);
+			attachChild(mesh);
+			mesh.updateTransform();
+		}
+		updateWorldBound(true);
+		
+		Log.d(TAG, "Merged "+len+" static meshes into "+result.size()+" in "+mName);
+		return result;
+	}
+	
+	private static String batchName(String name, int index) {
+		if(index == 0) {
+			return name;
+		}
+		return name + index;
+	}
+	
+	/**
+	 * Collects the static Object3Ds below this node that can be merged.
+	 * @param result list to add the Object3Ds to
+	 * @param isStatic true if an ancestor is static
+	 */
+	private void collectStatic(ArrayList<Object3D> result, boolean isStatic) {
+		synchronized(children) {
+			int len = children.size();
+			Spatial child;
+			for(int i = 0; i < len; i++) {
+				child = children.get(i);
+				boolean childStatic = isStatic || child.isStatic();
+				if(child instanceof Container) {
+					((Container)child).collectStatic(result, childStatic);
+				} else if(childStatic && child instanceof Object3D) {
+					Object3D mesh = (Object3D)child;
+					if(mesh.mVertices == null || mesh.mIndices == null) {
+						Log.w(TAG, "Can not merge "+mesh.getName()+" without float vertices and indices");
+						continue;
+					}
+					if(mesh.isChunked()) {
+						// too large to merge anyway, and its indices are per chunk
+						continue;
+					}
+					result.add(mesh);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Merges a range of meshes with the same material and attributes into one mesh.
+	 * @param name name of the new mesh
+	 * @param meshes meshes to merge from
+	 * @param start first mesh to merge
+	 * @param end index after the last mesh to merge
+	 * @param inverse inverse of the world transform of this node
+	 * @return the new mesh
+	 */
+	private Object3D mergeBatch(String name, ArrayList<Object3D> meshes,
+			int start, int end, float[] inverse) {
+		Object3D first = meshes.get(start);
+		boolean hasNormals = first.mNormals != null;
+		boolean hasColors = first.mColors != null;
+		boolean hasTexcoords = first.mTexcoords != null;
+		
+		// get the buffer sizes first
+		int nVertices = 0;
+		int nIndices = 0;
+		for(int i = start; i < end; i++) {
+			Object3D mesh = meshes.get(i);
+			nVertices += mesh.mVertexCount;
+			int count = mesh.mIndices.limit();
+			if(mesh.mDrawMode == Object3D.MODE_TRIANGLES) {
+				nIndices += count;
+			} else if(count > 2) {
+				nIndices += 3 * (count - 2);
+			}
+		}
+		
+		float[] vertices = new float[nVertices * 3];
+		float[] normals = hasNormals ? new float[nVertices * 3] : null;
+		byte[] colors = hasColors ? new byte[nVertices * 4] : null;
+		float[] texcoords = hasTexcoords ? new float[nVertices * 2] : null;
+		char[] indices = new char[nIndices];
+		
+		float[] transform = new float[16];
+		float[] normalMatrix = new float[16];
+		float[] tmp = new float[16];
+		int vOffset = 0;
+		int iOffset = 0;
+		
+		// then fill our arrays
+		for(int i = start; i < end; i++) {
+			Object3D mesh = meshes.get(i);
+			int count = mesh.mVertexCount;
+			
+			Matrix.multiplyMM(transform, 0, inverse, 0, mesh.mTransformMatrix, 0);
+			
+			FloatBuffer src = mesh.mVertices;
+			for(int v = 0; v < count; v++) {
+				float x = src.get(v*3);
+				float y = src.get(v*3+1);
+				float z = src.get(v*3+2);
+				int dst = (vOffset + v) * 3;
+				vertices[dst] = transform[0]*x + transform[4]*y + transform[8]*z + transform[12];
+				vertices[dst+1] = transform[1]*x + transform[5]*y + transform[9]*z + transform[13];
+				vertices[dst+2] = transform[2]*x + transform[6]*y + transform[10]*z + transform[14];
+			}
+			
+			if(hasNormals) {
+				// normals are transformed by the inverse transpose
+				Matrix.invertM(tmp, 0, transform, 0);
+				Matrix.transposeM(normalMatrix, 0, tmp, 0);
+				src = mesh.mNormals;
+				for(int v = 0; v < count; v++) {
+					float x = src.get(v*3);
+					float y = src.get(v*3+1);
+					float z = src.get(v*3+2);
+					float nx = normalMatrix[0]*x + normalMatrix[4]*y + normalMatrix[8]*z;
+					float ny = normalMatrix[1]*x + normalMatrix[5]*y + normalMatrix[9]*z;
+					float nz = normalMatrix[2]*x + normalMatrix[6]*y + normalMatrix[10]*z;
+					float length = Matrix.length(nx, ny, nz);
+					if(length > 0) {
+						nx /= length;
+						ny /= length;
+						nz /= length;
+					}
+					int dst = (vOffset + v) * 3;
+					normals[dst] = nx;
+					normals[dst+1] = ny;
+					normals[dst+2] = nz;
+				}
+			}
+			if(hasColors) {
+				ByteBuffer srcColors = mesh.mColors;
+				for(int c = 0; c < count * 4; c++) {
+					colors[vOffset*4 + c] = srcColors.get(c);
+				}
+			}
+			if(hasTexcoords) {
+				src = mesh.mTexcoords;
+				for(int t = 0; t < count * 2; t++) {
+					texcoords[vOffset*2 + t] = src.get(t);
+				}
+			}
+			
+			iOffset = appendTriangles(indices, iOffset, mesh, vOffset);
+			vOffset += count;
+		}
+		
+		// degenerate triangles of strips are dropped
+		if(iOffset < nIndices) {
+			char[] trimmed = new char[iOffset];
+			System.arraycopy(indices, 0, trimmed, 0, iOffset);
+			indices = trimmed;
+		}
+		
+		Object3D ret = new Object3D(name);
+		ret.setVertices(vertices);
+		ret.setIndices(indices);
+		if(hasNormals) {
+			ret.setNormals(normals);
+		}
+		if(hasColors) {
+			ret.setColors(colors);
+		}
+		if(hasTexcoords) {
+			ret.setTexCoords(texcoords);
+		}
+		MeshOptimizer.optimize(ret);
+		ret.setMaterial(first.getMaterial());
+		ret.updateModelBound();
+		ret.setInterleaved(true);
+		ret.setStatic(true);
+		ret.setPickable(false);
+		return ret;
+	}
+	
+	/**
+	 * Writes the triangles of a mesh as a triangle list.
+	 * @param dst destination index array
+	 * @param pos position in the destination to start writing at
+	 * @param mesh mesh to read indices from
+	 * @param offset vertex offset to add to every index
+	 * @return position after the last written index
+	 */
+	private static int appendTriangles(char[] dst, int pos, Object3D mesh, int offset) {
+		CharBuffer src = mesh.mIndices;
+		int count = src.limit();
+		if(mesh.mDrawMode == Object3D.MODE_TRIANGLES) {
+			for(int i = 0; i < count; i++) {
+				dst[pos++] = (char)(offset + src.get(i));
+			}
+			return pos;
+		}
+		char a, b, c;
+		for(int i = 0; i + 2 < count; i++) {
+			if(mesh.mDrawMode == Object3D.MODE_TRIANGLE_FAN) {
+				a = src.get(0);
+				b = src.get(i+1);
+				c = src.get(i+2);
+			} else if((i & 1) == 0) {
+				a = src.get(i);
+				b = src.get(i+1);
+				c = src.get(i+2);
+			} else {
+				// every other strip triangle has reversed winding
+				a = src.get(i+1);
+				b = src.get(i);
+				c = src.get(i+2);
+			}
+			if(a == b || b == c || a == c) {
+				continue;
+			}
+			dst[pos++] = (char)(offset + a);
+			dst[pos++] = (char)(offset + b);
+			dst[pos++] = (char)(offset + c);
+		}
+		return pos;
+	}
 }
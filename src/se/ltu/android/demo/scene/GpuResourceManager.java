@@ -0,0 +1,228 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene;
+
+import javax.microedition.khronos.opengles.GL11;
+
+import android.util.Log;
+
+/**
+ * Keeps the vertex buffer objects of the meshes within a memory budget.
+ * The manager counts the bytes of every mesh that has hardware buffers
+ * and when it was last drawn. A mesh only gets hardware buffers when it
+ * is drawn, and only if they fit in the budget after deleting the buffers
+ * of meshes that were not drawn in the last frame, least recently drawn
+ * first. Meshes without hardware buffers are drawn from their client side
+ * arrays, so a scene that needs more than the budget is drawn slower
+ * instead of failing.<br><br>
+ *
+ * If an allocation fails anyway, the budget is lowered to what is in use.
+ * It is restored after <code>RECOVERY_FRAMES</code> frames without another
+ * failure, or when a new context is created.
+ * @see Object3D#setResourceManager(GpuResourceManager)
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class GpuResourceManager {
+	private static final String TAG = "GpuResourceManager";
+	public static final int DEFAULT_BUDGET = 2 * 1024 * 1024;
+	public static final int RECOVERY_FRAMES = 600;
+
+	private int mBudget;
+	// the budget that was set, mBudget is lower after a failed allocation
+	private int mConfiguredBudget;
+	private int mFailedFrame = 0;
+	private int mUsedBytes = 0;
+	private int mResident = 0;
+	private int mFrame = 0;
+	// meshes with hardware buffers, the most recently drawn first
+	private Object3D mHead;
+	private Object3D mTail;
+
+	// counters since the last reset
+	private int mUploads = 0;
+	private int mEvictions = 0;
+	private int mRejections = 0;
+
+	/**
+	 * Creates a manager with the default budget.
+	 */
+	public GpuResourceManager() {
+		this(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * @param budget number of bytes the hardware buffers may use
+	 */
+	public GpuResourceManager(int budget) {
+		mBudget = budget;
+		mConfiguredBudget = budget;
+	}
+
+	/**
+	 * Must be called once at the start of every frame, before hardware
+	 * buffers are generated.
+	 */
+	public void beginFrame() {
+		mFrame++;
+		// memory may have been freed since the allocation failed
+		if(mBudget < mConfiguredBudget && mFrame - mFailedFrame > RECOVERY_FRAMES) {
+			mBudget = mConfiguredBudget;
+			Log.d(TAG, "Budget restored to "+mBudget/1024+" kB");
+		}
+	}
+
+	/**
+	 * Records that a mesh is drawn in this frame.
+	 * @return true if the mesh was not drawn in the last frame, so it was
+	 * not given hardware buffers at the start of this one
+	 */
+	boolean touch(Object3D mesh) {
+		boolean first = mesh.mLastDrawnFrame < mFrame - 1;
+		mesh.mLastDrawnFrame = mFrame;
+		if(mesh.mGpuBytes > 0 && mHead != mesh) {
+			unlink(mesh);
+			pushFront(mesh);
+		}
+		return first;
+	}
+
+	/**
+	 * Decides if a mesh may get hardware buffers, deleting the buffers of
+	 * other meshes to make room if needed, and counts its bytes if so.
+	 * @param gl
+	 * @param mesh mesh that wants hardware buffers
+	 * @param bytes size of its hardware buffers
+	 * @return true if the mesh may create its hardware buffers
+	 */
+	boolean reserve(GL11 gl, Object3D mesh, int bytes) {
+		// buffers are created lazily, for meshes that are drawn
+		if(mesh.mLastDrawnFrame < mFrame - 1) {
+			return false;
+		}
+		while(mUsedBytes + bytes > mBudget && mTail != null
+				&& mTail.mLastDrawnFrame < mFrame - 1) {
+			mEvictions++;
+			mTail.deleteOwnBuffers(gl);
+		}
+		if(mUsedBytes + bytes > mBudget) {
+			mRejections++;
+			return false;
+		}
+		mesh.mGpuBytes = bytes;
+		mUsedBytes += bytes;
+		mResident++;
+		mUploads++;
+		pushFront(mesh);
+		return true;
+	}
+
+	/**
+	 * Stops counting the bytes of a mesh whose hardware buffers are gone.
+	 */
+	void release(Object3D mesh) {
+		if(mesh.mGpuBytes == 0) {
+			return;
+		}
+		unlink(mesh);
+		mUsedBytes -= mesh.mGpuBytes;
+		mResident--;
+		mesh.mGpuBytes = 0;
+	}
+
+	/**
+	 * Called when the buffers of a mesh could not be allocated. The budget
+	 * is lowered to what fits until <code>RECOVERY_FRAMES</code> frames
+	 * have passed without another failure.
+	 */
+	void allocationFailed(Object3D mesh) {
+		mFailedFrame = mFrame;
+		mBudget = Math.max(0, mUsedBytes - mesh.mGpuBytes);
+		Log.w(TAG, "Out of memory for "+mesh.getName()+", budget lowered to "+mBudget/1024+" kB");
+	}
+
+	private void pushFront(Object3D mesh) {
+		mesh.mGpuPrev = null;
+		mesh.mGpuNext = mHead;
+		if(mHead != null) {
+			mHead.mGpuPrev = mesh;
+		}
+		mHead = mesh;
+		if(mTail == null) {
+			mTail = mesh;
+		}
+	}
+
+	private void unlink(Object3D mesh) {
+		if(mesh.mGpuPrev != null) {
+			mesh.mGpuPrev.mGpuNext = mesh.mGpuNext;
+		} else if(mHead == mesh) {
+			mHead = mesh.mGpuNext;
+		}
+		if(mesh.mGpuNext != null) {
+			mesh.mGpuNext.mGpuPrev = mesh.mGpuPrev;
+		} else if(mTail == mesh) {
+			mTail = mesh.mGpuPrev;
+		}
+		mesh.mGpuPrev = null;
+		mesh.mGpuNext = null;
+	}
+
+	/**
+	 * Forgets the hardware buffers of every mesh without deleting them,
+	 * including meshes that are no longer in the scene, and restores a
+	 * lowered budget. Must be called when a new context is created.
+	 */
+	public void forgetHardwareBuffers() {
+		while(mHead != null) {
+			mHead.forgetOwnBuffers();
+		}
+		mBudget = mConfiguredBudget;
+	}
+
+	/**
+	 * Set how many bytes the hardware buffers may use. Buffers are not
+	 * deleted until another mesh needs room.
+	 * @param bytes the budget
+	 */
+	public void setBudget(int bytes) {
+		mBudget = bytes;
+		mConfiguredBudget = bytes;
+	}
+
+	/**
+	 * @return number of bytes the hardware buffers may use, which is less
+	 * than the budget that was set after a failed allocation
+	 */
+	public int getBudget() {
+		return mBudget;
+	}
+
+	/**
+	 * @return number of bytes the hardware buffers use
+	 */
+	public int getUsedBytes() {
+		return mUsedBytes;
+	}
+
+	/**
+	 * @return number of meshes that have hardware buffers
+	 */
+	public int getResidentCount() {
+		return mResident;
+	}
+
+	/**
+	 * Resets the upload, eviction and rejection counters.
+	 */
+	public void resetCounters() {
+		mUploads = 0;
+		mEvictions = 0;
+		mRejections = 0;
+	}
+
+	@Override
+	public String toString() {
+		return mResident+" meshes in "+mUsedBytes/1024+" of "+mBudget/1024+" kB, "
+			+mUploads+" uploads, "+mEvictions+" evictions, "+mRejections+" rejections";
+	}
+}
@@ -3,7 +3,9 @@ package se.ltu.android.demo.scene;
 
 import javax.microedition.khronos.opengles.GL10;
 
+import se.ltu.android.demo.scene.camera.Camera;
 import se.ltu.android.demo.scene.state.Light;
+import se.ltu.android.demo.scene.state.LightManager;
 
 /**
  * @author Åke Svedin <ake.svedin@gmail.com>
@@ -35,6 +37,7 @@ public class LightNode extends Container {
 	 */
 	public void setLight(Light light) {
 		this.light = light;
+		invalidate();
 	}
 
 	/* (non-Javadoc)
@@ -43,7 +46,40 @@ public class LightNode extends Container {
 	@Override
 	public void draw(GL10 gl) {
 		// TODO allow transformations and check for type of light source
-		light.enable(gl);
+		if(light != null) {
+			LightManager.addLight(light);
+			// the children are drawn relative to the matrix on the stack,
+			// which the light position may replace with the view matrix
+			gl.glPushMatrix();
+			LightManager.apply(gl, null);
+			gl.glPopMatrix();
+		}
 		super.draw(gl);
 	}
+	
+	@Override
+	public void draw(GL10 gl, Camera camera) {
+		// the light affects everything drawn after it, even if this node is
+		// culled. Each geometry selects the lights relevant to it
+		if(light != null) {
+			LightManager.addLight(light);
+		}
+		super.draw(gl, camera);
+	}
+	
+	@Override
+	public void queue(RenderQueue queue) {
+		if(light != null) {
+			queue.addLight(light);
+		}
+		super.queue(queue);
+	}
+	
+	@Override
+	public void record(CommandList list) {
+		if(light != null) {
+			list.addLight(light);
+		}
+		super.record(list);
+	}
 }
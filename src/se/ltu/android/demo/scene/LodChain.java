@@ -0,0 +1,172 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene;
+
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * A chain of meshes with decreasing detail that an Object3D, and all of
+ * its clones, choose between depending on how large the object is on the
+ * screen. Level 0 is the most detailed mesh. Every other level has a
+ * screen size, the projected diameter of the world bound in pixels, below
+ * which it is used.<br><br>
+ *
+ * To avoid popping back and forth when the size is close to a switch,
+ * a coarser level is not chosen until the size is a bit below its screen
+ * size and a finer level is not chosen until the size is a bit above it,
+ * see <code>setHysteresis</code>.<br><br>
+ *
+ * The meshes of the levels are not part of the scene. Their hardware
+ * buffers are managed through the object that level 0 belongs to.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class LodChain {
+	private Object3D[] mLevels = new Object3D[4];
+	private float[] mScreenSizes = new float[4];
+	private float[] mErrors = new float[4];
+	private int mCount = 0;
+	private float mHysteresis = 0.1f;
+
+	/**
+	 * @param base the most detailed mesh, used as level 0
+	 */
+	public LodChain(Object3D base) {
+		mLevels[0] = base;
+		mScreenSizes[0] = Float.MAX_VALUE;
+		mCount = 1;
+	}
+
+	/**
+	 * Add a coarser level to the end of the chain.
+	 * @param mesh mesh of the level, must not have a chain of its own
+	 * @param screenSize size in pixels below which the level is used,
+	 * smaller than the size of the previous level
+	 */
+	public void addLevel(Object3D mesh, float screenSize) {
+		addLevel(mesh, screenSize, 0);
+	}
+
+	/**
+	 * Add a coarser level to the end of the chain.
+	 * @param mesh mesh of the level, must not have a chain of its own
+	 * @param screenSize size in pixels below which the level is used,
+	 * smaller than the size of the previous level
+	 * @param error how far, in model units, the surface of the level may
+	 * be from the surface of level 0
+	 */
+	public void addLevel(Object3D mesh, float screenSize, float error) {
+		if(mCount == mLevels.length) {
+			Object3D[] levels = new Object3D[mCount * 2];
+			float[] sizes = new float[mCount * 2];
+			float[] errors = new float[mCount * 2];
+			System.arraycopy(mLevels, 0, levels, 0, mCount);
+			System.arraycopy(mScreenSizes, 0, sizes, 0, mCount);
+			System.arraycopy(mErrors, 0, errors, 0, mCount);
+			mLevels = levels;
+			mScreenSizes = sizes;
+			mErrors = errors;
+		}
+		mLevels[mCount] = mesh;
+		mScreenSizes[mCount] = screenSize;
+		mErrors[mCount] = error;
+		mCount++;
+	}
+
+	/**
+	 * @return number of levels, including level 0
+	 */
+	public int getLevelCount() {
+		return mCount;
+	}
+
+	/**
+	 * @param level level to get
+	 * @return the mesh of the level
+	 */
+	public Object3D getLevel(int level) {
+		return mLevels[level];
+	}
+
+	/**
+	 * @param level level to get the size of
+	 * @return size in pixels below which the level is used
+	 */
+	public float getScreenSize(int level) {
+		return mScreenSizes[level];
+	}
+
+	/**
+	 * @param level level to get the error of
+	 * @return the error bound of the level in model units, zero for
+	 * level 0 and for levels added without an error
+	 */
+	public float getError(int level) {
+		return mErrors[level];
+	}
+
+	/**
+	 * Set how far past the screen size of a level the size must go before
+	 * the level is switched to or from.<br>
+	 * <br>
+	 * Default is 0.1.
+	 * @param fraction fraction of the screen size of the level
+	 */
+	public void setHysteresis(float fraction) {
+		mHysteresis = fraction;
+	}
+
+	/**
+	 * @return the hysteresis as a fraction of the screen size
+	 */
+	public float getHysteresis() {
+		return mHysteresis;
+	}
+
+	/**
+	 * Selects the level to use for a screen size, given the level that
+	 * was used the last time.
+	 * @param current level used the last time
+	 * @param screenSize projected size of the object in pixels
+	 * @return the level to use
+	 */
+	public int selectLevel(int current, float screenSize) {
+		int level = Math.min(Math.max(current, 0), mCount - 1);
+		while(level + 1 < mCount
+				&& screenSize < mScreenSizes[level+1] * (1 - mHysteresis)) {
+			level++;
+		}
+		while(level > 0 && screenSize > mScreenSizes[level] * (1 + mHysteresis)) {
+			level--;
+		}
+		return level;
+	}
+
+	/**
+	 * Generates the hardware buffers of every level but level 0.
+	 * @param gl
+	 */
+	void generateHardwareBuffers(GL10 gl) {
+		for(int i = 1; i < mCount; i++) {
+			mLevels[i].generateHardwareBuffers(gl);
+		}
+	}
+
+	/**
+	 * Deletes the hardware buffers of every level but level 0.
+	 * @param gl
+	 */
+	void freeHardwareBuffers(GL10 gl) {
+		for(int i = 1; i < mCount; i++) {
+			mLevels[i].freeHardwareBuffers(gl);
+		}
+	}
+
+	/**
+	 * Forgets the hardware buffers of every level but level 0.
+	 */
+	void forgetHardwareBuffers() {
+		for(int i = 1; i < mCount; i++) {
+			mLevels[i].forgetHardwareBuffers();
+		}
+	}
+}
@@ -30,6 +30,20 @@ public abstract class MetaLeaf extends Spatial {
 	public void draw(GL10 gl) {
 	}
 
+	/**
+	 * Empty implementation. Does nothing on this object.
+	 */
+	@Override
+	public void queue(RenderQueue queue) {
+	}
+
+	/**
+	 * Empty implementation. Does nothing on this object.
+	 */
+	@Override
+	public void record(CommandList list) {
+	}
+
 	/**
 	 * Empty implementation. Does nothing on this object.
 	 */
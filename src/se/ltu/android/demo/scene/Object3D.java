@@ -4,16 +4,22 @@ package se.ltu.android.demo.scene;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 import javax.microedition.khronos.opengles.GL10;
 import javax.microedition.khronos.opengles.GL11;
 
+import se.ltu.android.demo.scene.camera.Camera;
 import se.ltu.android.demo.scene.intersection.AABBox;
+import se.ltu.android.demo.scene.state.LightManager;
 import se.ltu.android.demo.scene.state.Material;
 import se.ltu.android.demo.util.BufferUtils;
+import se.ltu.android.demo.util.DirtyRange;
 
 import android.opengl.Matrix;
 import android.util.Log;
@@ -29,6 +35,35 @@ public class Object3D extends Spatial {
 	public static final int MODE_TRIANGLES = GL10.GL_TRIANGLES;
 	public static final int MODE_TRIANGLE_STRIP = GL10.GL_TRIANGLE_STRIP;
 	public static final int MODE_TRIANGLE_FAN = GL10.GL_TRIANGLE_FAN;
+	/**
+	 * Usage hints for the vertex buffer objects, see <code>setUsage</code>.
+	 */
+	public static final int USAGE_STATIC = GL11.GL_STATIC_DRAW;
+	public static final int USAGE_DYNAMIC = GL11.GL_DYNAMIC_DRAW;
+	// GL_STREAM_DRAW, which OpenGL ES 1.1 does not have
+	public static final int USAGE_STREAM = 0x88E0;
+	
+	// first int of a model file holding a level of detail chain or quantized
+	// data, "LOD!". Files with a single float level start with the draw mode.
+	private static final int LOD_MAGIC = 0x4C4F4421;
+	private static final int LOD_VERSION = 2;
+	// flags of a level in a version 2 file
+	private static final int LEVEL_QUANTIZED = 1;
+	// index type of GL_OES_element_index_uint, which GL10 does not define
+	private static final int GL_UNSIGNED_INT = 0x1405;
+	// number of vertices a char index can address
+	public static final int MAX_CHUNK_VERTICES = 65536;
+	
+	// mesh identities, used for sorting geometries by their buffers
+	private static int sNextMeshId = 1;
+	// send positions, normals and texture coordinates as 16.16 fixed points
+	private static boolean sFixedPoint = false;
+	// keeps the hardware buffers within a budget, or null for no limit
+	private static GpuResourceManager sResourceManager;
+	// packs the buffers of small meshes together, or null for no pooling
+	private static BufferPool sBufferPool;
+	// draw chunked meshes with 32 bit indices
+	private static boolean sWideIndices = false;
 	
 	protected AABBox mModelBound;
 	protected int mDrawMode = MODE_TRIANGLES;
@@ -45,11 +80,39 @@ public class Object3D extends Spatial {
 	protected FloatBuffer mVertices;
 	// char instead of short, since char is unsigned
 	protected CharBuffer mIndices;
+	// base vertex, first index and index count of every chunk of a mesh
+	// with more vertices than a char can address, null if not chunked
+	private int[] mChunks;
+	// indices of a chunked mesh with the base vertex of its chunk added
+	private IntBuffer mWideIndices;
+	// vertex the array pointers are set at, the base of the drawn chunk
+	private int mBaseVertex = 0;
+	// true if the index buffer object holds 32 bit indices
+	private boolean mBufferWide = false;
 	protected FloatBuffer mNormals;
 	protected ByteBuffer mColors;
 	protected FloatBuffer mTexcoords;
+	/**
+	 * Fixed point versions of the vertices, normals and texture coordinates.
+	 * They are converted from the float buffers when needed, or are the only
+	 * data present if the model was imported as fixed point.
+	 */
+	protected IntBuffer mFixedVertices;
+	protected IntBuffer mFixedNormals;
+	protected IntBuffer mFixedTexcoords;
+	/**
+	 * Quantized versions of the vertices, normals and texture coordinates.
+	 * They are converted from the float or fixed point buffers when needed,
+	 * or are the only data present if a quantized model was imported.
+	 */
+	protected ShortBuffer mQuantizedVertices;
+	protected ByteBuffer mQuantizedNormals;
+	protected ShortBuffer mQuantizedTexcoords;
 	protected boolean mHasDirtyModelBound = true;
 	protected Object3D mCloneTarget = null;
+	// level of detail, the chain is shared with clones but the level is not
+	protected LodChain mLod = null;
+	private int mLodLevel = 0;
 	
 	// VBO buffer pointers
 	private int mVertBufferIndex;
@@ -58,7 +121,54 @@ public class Object3D extends Spatial {
 	private int mNormalBufferIndex;
 	private int mTexCoordsBufferIndex;
 	private int mIndexCount;
+	// type of the data in the separate VBO's
+	private int mBufferType = GL10.GL_FLOAT;
+	
+	// dynamic updates of the VBO's
+	private int mUsage = USAGE_STATIC;
+	private boolean mOrphan = false;
+	private int mDirtyAttributes = 0;
+	private final DirtyRange mDirtyRange = new DirtyRange();
 	private Material mMaterial;
+	private final int mMeshId = sNextMeshId++;
+	
+	// interleaved storage, built from the separate arrays when needed
+	private boolean mInterleave = false;
+	private ByteBuffer mInterleaved;
+	private VertexFormat mInterleavedFormat;
+	// format of the interleaved VBO or null if separate VBO's are used
+	private VertexFormat mBufferFormat;
+	// layout of the vertex data when the VBO's were generated, and whether
+	// a setter may have changed it since
+	private VertexFormat mBufferLayout;
+	private boolean mBufferInterleaved;
+	private int mBufferVertexCount;
+	private boolean mLayoutDirty = false;
+
+	// bookkeeping of the resource manager
+	int mGpuBytes = 0;
+	int mLastDrawnFrame = -1;
+	Object3D mGpuPrev;
+	Object3D mGpuNext;
+
+	// range of a pooled mesh, the offsets are 0 for buffers of its own
+	BufferPool.Page mPoolPage;
+	int mVertexOffset = 0;
+	int mIndexOffset = 0;
+	int mPoolVertexBytes;
+	int mPoolIndexBytes;
+
+	// quantized storage, the decode matrices take the quantized values
+	// back to model units and are replaced every time the data is quantized
+	private boolean mQuantize = false;
+	private float[] mPositionDecode;
+	private float[] mTexCoordDecode;
+	private float[] mQuantizationError;
+	// model view matrix with the position decode of the source mesh folded in
+	private float[] mDecodedModelView;
+	private float[] mDecodedWith;
+	private int mDecodedRevision;
+	private float[] mOccluderTransform;
 
         /**
          * Creates a new empty instance
@@ -82,6 +192,7 @@ public class Object3D extends Spatial {
 					+vertices.limit()+", not divisable by 3) in "+name);
 			return;
 		}
+		mModelBound = new AABBox();
 		mVertexCount = vertices.limit() / 3;
 		this.mVertices = vertices;
 		this.mIndices = indices;
@@ -109,18 +220,32 @@ public class Object3D extends Spatial {
 	 * @return the cloned Object3D
 	 */
 	public Object3D cloneMesh(String name) {
-		if(mVertices == null || mIndices == null) {
+		if((mVertices == null && mFixedVertices == null && mQuantizedVertices == null)
+				|| mIndices == null) {
 			Log.e(TAG, "Can not clone a Object3D with no vertices or indices");
 			return null;
 		}
 		
 		Object3D clone = new Object3D(name);
-		clone.mCloneTarget = this;
+		// always point to the mesh owning the buffers, also for clones of clones
+		clone.mCloneTarget = getSourceMesh();
 		clone.mModelBound = mModelBound;
 		clone.mDrawMode = mDrawMode;
 		clone.mVertexCount = mVertexCount;
-		clone.mVertices = mVertices.asReadOnlyBuffer();
+		if(mVertices != null) {
+			clone.mVertices = mVertices.asReadOnlyBuffer();
+		}
+		if(mFixedVertices != null) {
+			clone.mFixedVertices = mFixedVertices.asReadOnlyBuffer();
+		}
+		if(mFixedNormals != null) {
+			clone.mFixedNormals = mFixedNormals.asReadOnlyBuffer();
+		}
+		if(mFixedTexcoords != null) {
+			clone.mFixedTexcoords = mFixedTexcoords.asReadOnlyBuffer();
+		}
 		clone.mIndices = mIndices.asReadOnlyBuffer();
+		clone.mChunks = mChunks;
 		if(mNormals != null) {
 			clone.mNormals = mNormals.asReadOnlyBuffer();
 		}
@@ -130,8 +255,22 @@ public class Object3D extends Spatial {
 		if(mTexcoords != null) {
 			clone.mTexcoords = mTexcoords.asReadOnlyBuffer();
 		}
+		if(mQuantizedVertices != null) {
+			clone.mQuantizedVertices = mQuantizedVertices.asReadOnlyBuffer();
+		}
+		if(mQuantizedNormals != null) {
+			clone.mQuantizedNormals = mQuantizedNormals.asReadOnlyBuffer();
+		}
+		if(mQuantizedTexcoords != null) {
+			clone.mQuantizedTexcoords = mQuantizedTexcoords.asReadOnlyBuffer();
+		}
+		clone.mQuantize = mQuantize;
+		clone.mPositionDecode = mPositionDecode;
+		clone.mTexCoordDecode = mTexCoordDecode;
 		
 		clone.mMaterial = mMaterial;
+		clone.mIsOccluder = mIsOccluder;
+		clone.mLod = mLod;
 		
 		clone.setLocalTranslation(mLocalTranslation);
 		clone.setLocalRotation(mLocalRotation);
@@ -139,19 +278,106 @@ public class Object3D extends Spatial {
 		return clone;
 	}
 	
+	@Override
+	public void queue(RenderQueue queue) {
+		Camera camera = queue.getCamera();
+		int planeState = camera.getPlaneState();
+		if(!isCulled(camera)) {
+			selectLod(camera);
+			queue.add(this);
+		}
+		camera.setPlaneState(planeState);
+	}
+	
+	@Override
+	public void record(CommandList list) {
+		list.addMesh(this);
+	}
+	
 	@Override
 	public void draw(GL10 gl) {
+		Object3D mesh = getSourceMesh();
 		// test for null first so we can return without manipulating the stack
-		if(mVertices == null) {
-			Log.e(TAG, "Vertices are null in: "+mName);
+		if(!mesh.isDrawable()) {
 			return;
 		}
-		if(mIndices == null) {
+		mesh.bindArrays(gl);
+		drawInstance(gl);
+		mesh.unbindArrays(gl);
+	}
+	
+	/**
+	 * Draws this object with its cached model view matrix instead of
+	 * multiplying the transformation onto the matrix stack.
+	 */
+	@Override
+	public void draw(GL10 gl, Camera camera) {
+		int planeState = camera.getPlaneState();
+		if(!isCulled(camera)) {
+			selectLod(camera);
+			Object3D mesh = getSourceMesh();
+			if(mesh.isDrawable()) {
+				LightManager.apply(gl, getWorldBound());
+				mesh.bindArrays(gl);
+				drawInstance(gl, camera);
+				mesh.unbindArrays(gl);
+			}
+		}
+		camera.setPlaneState(planeState);
+	}
+	
+	/**
+	 * @return the Object3D this object was cloned from or null if it is not
+	 * a clone
+	 */
+	public Object3D getCloneTarget() {
+		return mCloneTarget;
+	}
+	
+	/**
+	 * @return the mesh that owns the buffers drawn by this object, which
+	 * is the mesh of the selected level if this object has a level of
+	 * detail chain, the clone target for a clone and this object otherwise
+	 */
+	Object3D getSourceMesh() {
+		if(mLod != null) {
+			return mLod.getLevel(mLodLevel);
+		}
+		if(mCloneTarget != null) {
+			return mCloneTarget;
+		}
+		return this;
+	}
+	
+	/**
+	 * @return true if this mesh has the buffers needed to be drawn
+	 */
+	boolean isDrawable() {
+		if(mVertices == null && mFixedVertices == null && mQuantizedVertices == null) {
 			Log.e(TAG, "Vertices are null in: "+mName);
-			return;
+			return false;
 		}
+		if(mIndices == null) {
+			Log.e(TAG, "Indices are null in: "+mName);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Draws this object with the arrays that are currently bound. The arrays
+	 * of the source mesh must have been bound with <code>bindArrays</code>,
+	 * which lets any number of clones of the same mesh be drawn with a
+	 * single bind.
+	 * @param gl
+	 */
+	void drawInstance(GL10 gl) {
 		gl.glPushMatrix();
 		gl.glMultMatrixf(mTransformMatrix, 0);
+		float[] decode = getSourceMesh().getPositionDecode();
+		if(decode != null) {
+			gl.glMultMatrixf(decode, 0);
+		}
 
 		if(mMaterial != null) {
 			mMaterial.applyState(gl);
@@ -159,62 +385,371 @@ public class Object3D extends Spatial {
 			Material.removeState(gl);
 		}
 		
-		if (mVertBufferIndex == 0) {
+		getSourceMesh().drawElements(gl);
+		
+		gl.glPopMatrix();
+	}
+	
+	/**
+	 * Returns the model view matrix of this object. If the mesh drawn by
+	 * this object is quantized, the matrix that takes its positions back to
+	 * model units is folded into the product, so that quantized meshes are
+	 * drawn with a single matrix load as well.
+	 */
+	@Override
+	public float[] getModelViewMatrix(Camera camera) {
+		float[] modelView = super.getModelViewMatrix(camera);
+		float[] decode = getSourceMesh().getPositionDecode();
+		if(decode == null) {
+			return modelView;
+		}
+		if(mDecodedModelView == null) {
+			mDecodedModelView = new float[16];
+		} else if(decode == mDecodedWith && mModelViewRevision == mDecodedRevision) {
+			return mDecodedModelView;
+		}
+		Matrix.multiplyMM(mDecodedModelView, 0, modelView, 0, decode, 0);
+		mDecodedWith = decode;
+		mDecodedRevision = mModelViewRevision;
+		return mDecodedModelView;
+	}
+
+	/**
+	 * Draws this object with the arrays that are currently bound, replacing
+	 * the model view matrix with the cached product of the view matrix of
+	 * the camera and the transformation of this object. The model view
+	 * matrix is left holding that product.
+	 * @param gl
+	 * @param camera camera to get the view matrix from
+	 */
+	void drawInstance(GL10 gl, Camera camera) {
+		gl.glLoadMatrixf(getModelViewMatrix(camera), 0);
+
+		if(mMaterial != null) {
+			mMaterial.applyState(gl);
+		} else {
+			Material.removeState(gl);
+		}
+		
+		getSourceMesh().drawElements(gl);
+	}
+	
+	/**
+	 * Rasterizes the triangles of this object into an occlusion buffer.
+	 * @param buffer buffer to rasterize into
+	 */
+	void rasterizeOccluder(OcclusionBuffer buffer) {
+		Object3D mesh = getSourceMesh();
+		Buffer vertices = mesh.mVertices != null ? mesh.mVertices : mesh.mFixedVertices;
+		float[] transform = mTransformMatrix;
+		if(vertices == null && mesh.mQuantizedVertices != null) {
+			// only quantized data, decode it with the transformation
+			if(mOccluderTransform == null) {
+				mOccluderTransform = new float[16];
+			}
+			Matrix.multiplyMM(mOccluderTransform, 0, mTransformMatrix, 0, mesh.mPositionDecode, 0);
+			vertices = mesh.mQuantizedVertices;
+			transform = mOccluderTransform;
+		}
+		if(vertices == null || mesh.mIndices == null || mesh.mChunks != null) {
+			// the indices of a chunk are relative to its first vertex
+			return;
+		}
+		buffer.addOccluder(transform, vertices, mesh.mIndices, mesh.mDrawMode);
+	}
+	
+	/**
+	 * Sets the array pointers of this mesh and enables the arrays it has.
+	 * The pointers are set at the base vertex of the chunk being drawn.
+	 * The vertex array client state is expected to be enabled already.
+	 * @param gl
+	 */
+	void bindArrays(GL10 gl) {
+		if(sResourceManager != null && sResourceManager.touch(this)
+				&& mVertBufferIndex == 0 && gl instanceof GL11) {
+			// the buffers are generated in the frame the mesh is first
+			// drawn, a scene that is only drawn when it changes may not
+			// draw another one
+			generateHardwareBuffers(gl);
+		}
+		if (mVertBufferIndex == 0 && mInterleave) {
+			
+			ByteBuffer data = getInterleavedBuffer();
+			VertexFormat format = mInterleavedFormat;
+			int stride = format.getStride();
+			int base = mBaseVertex * stride;
+			data.position(base);
+			gl.glVertexPointer(3, format.getType(), stride, data);
+
+			if(format.has(VertexFormat.COLOR)) {
+				data.position(base + format.getColorOffset());
+				gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
+				gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, stride, data);
+			}
+			if(format.has(VertexFormat.NORMAL)) {
+				data.position(base + format.getNormalOffset());
+				gl.glEnableClientState(GL10.GL_NORMAL_ARRAY);
+				gl.glNormalPointer(format.getNormalType(), stride, data);
+			}
+			if(format.has(VertexFormat.TEXCOORD)) {
+				data.position(base + format.getTexCoordOffset());
+				gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+				gl.glTexCoordPointer(2, format.getType(), stride, data);
+			}
+			data.position(0);
+			if(format.isQuantized()) {
+				bindDecode(gl, format.has(VertexFormat.NORMAL), format.has(VertexFormat.TEXCOORD));
+			}
+
+		} else if (mVertBufferIndex == 0 && mQuantize) {
+
+			updateQuantizedBuffers();
+			mQuantizedVertices.position(mBaseVertex * 3);
+			gl.glVertexPointer(3, GL10.GL_SHORT, 0, mQuantizedVertices);
+
+			// enable non-mandatory arrays if found
+			if(mColors != null) {
+				mColors.position(mBaseVertex * 4);
+				gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
+				gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, mColors);
+			}
+			if(mQuantizedNormals != null) {
+				mQuantizedNormals.position(mBaseVertex * 3);
+				gl.glEnableClientState(GL10.GL_NORMAL_ARRAY);
+				gl.glNormalPointer(GL10.GL_BYTE, 0, mQuantizedNormals);
+			}
+			if(mQuantizedTexcoords != null) {
+				mQuantizedTexcoords.position(mBaseVertex * 2);
+				gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+				gl.glTexCoordPointer(2, GL10.GL_SHORT, 0, mQuantizedTexcoords);
+			}
+			bindDecode(gl, mQuantizedNormals != null, mQuantizedTexcoords != null);
+
+		} else if (mVertBufferIndex == 0 && usesFixedPoint()) {
 			
-			mVertices.rewind();
+			updateFixedBuffers();
+			mFixedVertices.position(mBaseVertex * 3);
+			gl.glVertexPointer(3, GL10.GL_FIXED, 0, mFixedVertices);
+			
+			// enable non-mandatory arrays if found
+			if(mColors != null) {
+				mColors.position(mBaseVertex * 4);
+				gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
+				gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, mColors);
+			}
+			if(mFixedNormals != null) {
+				mFixedNormals.position(mBaseVertex * 3);
+				gl.glEnableClientState(GL10.GL_NORMAL_ARRAY);
+				gl.glNormalPointer(GL10.GL_FIXED, 0, mFixedNormals);
+			}
+			if(mFixedTexcoords != null) {
+				mFixedTexcoords.position(mBaseVertex * 2);
+				gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+				gl.glTexCoordPointer(2, GL10.GL_FIXED, 0, mFixedTexcoords);
+			}
+			
+		} else if (mVertBufferIndex == 0) {
+			
+			mVertices.position(mBaseVertex * 3);
 			gl.glVertexPointer(3, GL10.GL_FLOAT, 0, mVertices);
 			
 			// enable non-mandatory arrays if found
 			if(mColors != null) {
-				mColors.rewind();
+				mColors.position(mBaseVertex * 4);
 				gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
 				gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, mColors);
 			}
 			if(mNormals != null) {
-				mNormals.rewind();
+				mNormals.position(mBaseVertex * 3);
 				gl.glEnableClientState(GL10.GL_NORMAL_ARRAY);
 				gl.glNormalPointer(GL10.GL_FLOAT, 0, mNormals);
 			}
+			if(mTexcoords != null) {
+				mTexcoords.position(mBaseVertex * 2);
+				gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+				gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, mTexcoords);
+			}
 			
-			// do the drawing
-			mIndices.rewind();
-	    	gl.glDrawElements(mDrawMode, mIndices.limit(), GL10.GL_UNSIGNED_SHORT, mIndices);
-	    	
-	    	// disable non-mandatory arrays
-	    	if(mColors != null) {
-	    		gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
-	    	}
-	    	if(mNormals != null) {
-	    		gl.glDisableClientState(GL10.GL_NORMAL_ARRAY);
-	    	}
-    	
+		} else if (mBufferFormat != null) { // use one interleaved VBO
+            GL11 gl11 = (GL11)gl;
+            VertexFormat format = mBufferFormat;
+            int stride = format.getStride();
+            
+            // pooled meshes start at their offset in the shared buffer
+            int offset = mVertexOffset + mBaseVertex * stride;
+            
+            gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mVertBufferIndex);
+            gl11.glVertexPointer(3, format.getType(), stride, offset);
+            
+            if(format.has(VertexFormat.COLOR)) {
+            	gl11.glEnableClientState(GL11.GL_COLOR_ARRAY);
+            	gl11.glColorPointer(4, GL11.GL_UNSIGNED_BYTE, stride,
+            			offset + format.getColorOffset());
+            }
+            if(format.has(VertexFormat.NORMAL)) {
+            	gl11.glEnableClientState(GL11.GL_NORMAL_ARRAY);
+            	gl11.glNormalPointer(format.getNormalType(), stride,
+            			offset + format.getNormalOffset());
+            }
+            if(format.has(VertexFormat.TEXCOORD)) {
+            	gl11.glEnableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+            	gl11.glTexCoordPointer(2, format.getType(), stride,
+            			offset + format.getTexCoordOffset());
+            }
+            if(format.isQuantized()) {
+            	bindDecode(gl, format.has(VertexFormat.NORMAL), format.has(VertexFormat.TEXCOORD));
+            }
+            
+            gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferIndex);
 		} else { // use VBO's
             GL11 gl11 = (GL11)gl;
             
+            boolean quantized = mBufferType == GL11.GL_SHORT;
+            
             gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mVertBufferIndex);
-            gl11.glVertexPointer(3, GL11.GL_FLOAT, 0, 0);
+            gl11.glVertexPointer(3, mBufferType, 0, mBaseVertex * (quantized ? 6 : 12));
             
             // enable non-mandatory arrays if found
 			if(mColorBufferIndex != 0) {
 				gl11.glEnableClientState(GL11.GL_COLOR_ARRAY);
 				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mColorBufferIndex);
-				gl11.glColorPointer(4, GL11.GL_UNSIGNED_BYTE, 0, 0);
+				gl11.glColorPointer(4, GL11.GL_UNSIGNED_BYTE, 0, mBaseVertex * 4);
 			}
 			if(mNormalBufferIndex != 0) {
 				gl11.glEnableClientState(GL11.GL_NORMAL_ARRAY);
 				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mNormalBufferIndex);
-				gl11.glNormalPointer(GL11.GL_FLOAT, 0, 0);
+				gl11.glNormalPointer(quantized ? GL11.GL_BYTE : mBufferType, 0,
+						mBaseVertex * (quantized ? 3 : 12));
 			}
 			if(mTexCoordsBufferIndex != 0) {
 				gl11.glEnableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
 				gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mTexCoordsBufferIndex);
-				gl11.glTexCoordPointer(2, GL11.GL_FLOAT, 0, 0);
+				gl11.glTexCoordPointer(2, mBufferType, 0, mBaseVertex * (quantized ? 4 : 8));
+			}
+			if(quantized) {
+				bindDecode(gl, mNormalBufferIndex != 0, mTexCoordsBufferIndex != 0);
 			}
             
             gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferIndex);
-            gl11.glDrawElements(mDrawMode, mIndexCount,
-                    GL11.GL_UNSIGNED_SHORT, 0);
+        }
+	}
+	
+	/**
+	 * Draws the elements of this mesh from the bound arrays.
+	 * @param gl
+	 */
+	void drawElements(GL10 gl) {
+		if (mChunks != null && (mVertBufferIndex == 0 ? sWideIndices : mBufferWide)) {
+			drawWide(gl);
+		} else if (mChunks != null) {
+			drawChunks(gl);
+		} else if (mVertBufferIndex == 0) {
+			mIndices.rewind();
+	    	gl.glDrawElements(mDrawMode, mIndices.limit(), GL10.GL_UNSIGNED_SHORT, mIndices);
+		} else {
+            ((GL11)gl).glDrawElements(mDrawMode, mIndexCount,
+                    GL11.GL_UNSIGNED_SHORT, mIndexOffset);
+		}
+	}
+	
+	/**
+	 * Draws a chunked mesh with one call using 32 bit indices.
+	 */
+	private void drawWide(GL10 gl) {
+		if (mVertBufferIndex == 0) {
+			IntBuffer indices = getWideIndices();
+			indices.rewind();
+			gl.glDrawElements(mDrawMode, indices.limit(), GL_UNSIGNED_INT, indices);
+		} else {
+			((GL11)gl).glDrawElements(mDrawMode, mIndexCount, GL_UNSIGNED_INT, mIndexOffset);
+		}
+	}
+	
+	/**
+	 * Draws a chunked mesh with one call per chunk, moving the array
+	 * pointers to the base vertex of each chunk. The pointers are left at
+	 * the first chunk, so more instances can be drawn with the same bind.
+	 */
+	private void drawChunks(GL10 gl) {
+		for(int i = 0; i < mChunks.length; i += 3) {
+			if(i > 0) {
+				mBaseVertex = mChunks[i];
+				bindArrays(gl);
+			}
+			int first = mChunks[i+1];
+			int count = mChunks[i+2];
+			if (mVertBufferIndex == 0) {
+				mIndices.limit(first + count);
+				mIndices.position(first);
+				gl.glDrawElements(mDrawMode, count, GL10.GL_UNSIGNED_SHORT, mIndices);
+			} else {
+				((GL11)gl).glDrawElements(mDrawMode, count, GL11.GL_UNSIGNED_SHORT,
+						mIndexOffset + first * 2);
+			}
+		}
+		if (mVertBufferIndex == 0) {
+			mIndices.clear();
+		}
+		if(mChunks.length > 3) {
+			mBaseVertex = 0;
+			bindArrays(gl);
+		}
+	}
+	
+	/**
+	 * Disables the arrays enabled by <code>bindArrays</code> and unbinds
+	 * any buffer objects.
+	 * @param gl
+	 */
+	void unbindArrays(GL10 gl) {
+		if (mVertBufferIndex == 0 && mInterleave) {
+			if(mInterleavedFormat.has(VertexFormat.COLOR)) {
+				gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
+			}
+			if(mInterleavedFormat.has(VertexFormat.NORMAL)) {
+				gl.glDisableClientState(GL10.GL_NORMAL_ARRAY);
+			}
+			if(mInterleavedFormat.has(VertexFormat.TEXCOORD)) {
+				gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+			}
+			if(mInterleavedFormat.isQuantized()) {
+				unbindDecode(gl, mInterleavedFormat.has(VertexFormat.NORMAL),
+						mInterleavedFormat.has(VertexFormat.TEXCOORD));
+			}
+		} else if (mVertBufferIndex == 0) {
+	    	// disable non-mandatory arrays
+	    	if(mColors != null) {
+	    		gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
+	    	}
+	    	if(mNormals != null || mFixedNormals != null || mQuantizedNormals != null) {
+	    		gl.glDisableClientState(GL10.GL_NORMAL_ARRAY);
+	    	}
+	    	if(mTexcoords != null || mFixedTexcoords != null || mQuantizedTexcoords != null) {
+	    		gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+	    	}
+	    	if(mQuantize) {
+	    		unbindDecode(gl, mQuantizedNormals != null, mQuantizedTexcoords != null);
+	    	}
+		} else if (mBufferFormat != null) {
+			GL11 gl11 = (GL11)gl;
+            gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+            gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
             
+            if(mBufferFormat.has(VertexFormat.COLOR)) {
+				gl11.glDisableClientState(GL11.GL_COLOR_ARRAY);
+			}
+			if(mBufferFormat.has(VertexFormat.NORMAL)) {
+				gl11.glDisableClientState(GL11.GL_NORMAL_ARRAY);
+			}
+			if(mBufferFormat.has(VertexFormat.TEXCOORD)) {
+				gl11.glDisableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+			}
+			if(mBufferFormat.isQuantized()) {
+				unbindDecode(gl, mBufferFormat.has(VertexFormat.NORMAL),
+						mBufferFormat.has(VertexFormat.TEXCOORD));
+			}
+		} else {
+            GL11 gl11 = (GL11)gl;
             gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
             gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
             
@@ -225,13 +760,647 @@ public class Object3D extends Spatial {
 				gl11.glDisableClientState(GL11.GL_NORMAL_ARRAY);
 			}
 			if(mTexCoordsBufferIndex != 0) {
-				gl11.glDisableClientState(GL11.GL_TEXTURE_COORD_ARRAY);				
+				gl11.glDisableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+			}
+			if(mBufferType == GL11.GL_SHORT) {
+				unbindDecode(gl, mNormalBufferIndex != 0, mTexCoordsBufferIndex != 0);
 			}
         }
-		
-		gl.glPopMatrix();
+	}
+
+	/**
+	 * Sets up the state needed to draw quantized attributes. Positions are
+	 * decoded by the model view matrix, which scales the normals too, so
+	 * they are rescaled. Texture coordinates are decoded by the texture matrix.
+	 * @param normals true if normals are drawn
+	 * @param texcoords true if texture coordinates are drawn
+	 */
+	private void bindDecode(GL10 gl, boolean normals, boolean texcoords) {
+		if(normals) {
+			gl.glEnable(GL10.GL_RESCALE_NORMAL);
+		}
+		if(texcoords && mTexCoordDecode != null) {
+			gl.glMatrixMode(GL10.GL_TEXTURE);
+			gl.glLoadMatrixf(mTexCoordDecode, 0);
+			gl.glMatrixMode(GL10.GL_MODELVIEW);
+		}
+	}
+
+	/**
+	 * Restores the state changed by <code>bindDecode</code>.
+	 */
+	private void unbindDecode(GL10 gl, boolean normals, boolean texcoords) {
+		if(normals) {
+			gl.glDisable(GL10.GL_RESCALE_NORMAL);
+		}
+		if(texcoords && mTexCoordDecode != null) {
+			gl.glMatrixMode(GL10.GL_TEXTURE);
+			gl.glLoadIdentity();
+			gl.glMatrixMode(GL10.GL_MODELVIEW);
+		}
+	}
+
+	/**
+	 * Sets whether the vertex attributes should be stored interleaved in one
+	 * buffer instead of one buffer per attribute. The separate arrays are
+	 * kept as the source of the data and the interleaved buffer is built
+	 * from them the next time it is needed. Hardware buffers that already
+	 * exist are generated again with the new layout the next time
+	 * <code>generateHardwareBuffers</code> is called.
+	 * @param interleave true to use a single interleaved buffer
+	 */
+	public void setInterleaved(boolean interleave) {
+		mInterleave = interleave;
+		invalidateInterleaved();
+	}
+	
+	/**
+	 * Set the usage hint for the vertex buffer objects of this mesh. Use
+	 * USAGE_DYNAMIC or USAGE_STREAM for meshes that are changed after they
+	 * have been uploaded. OpenGL ES 1.1 has no stream hint, so USAGE_STREAM
+	 * is uploaded as GL_DYNAMIC_DRAW. Takes effect the next time the
+	 * buffers are uploaded.
+	 * @param usage one of USAGE_STATIC, USAGE_DYNAMIC or USAGE_STREAM
+	 */
+	public void setUsage(int usage) {
+		if(usage != USAGE_STATIC && usage != USAGE_DYNAMIC && usage != USAGE_STREAM) {
+			Log.e(TAG, "Unrecognized usage hint");
+			return;
+		}
+		mUsage = usage;
 	}
 	
+	/**
+	 * @return the usage hint of this mesh
+	 */
+	public int getUsage() {
+		return mUsage;
+	}
+	
+	/**
+	 * Set whether changed buffers should be orphaned, that is given new
+	 * storage with glBufferData, instead of being updated in place with
+	 * glBufferSubData. The driver can then hand out a fresh copy while the
+	 * old one is still used by frames in flight, so updating a buffer that
+	 * is drawn every frame does not stall. The whole buffer is uploaded
+	 * every time, so this pays off for meshes that change most of their
+	 * data at once.
+	 * @param orphan true to orphan changed buffers
+	 */
+	public void setOrphaning(boolean orphan) {
+		mOrphan = orphan;
+	}
+	
+	/**
+	 * @return the GL usage hint for uploading the vertex buffers
+	 */
+	private int getBufferUsage() {
+		if(mUsage == USAGE_STREAM) {
+			return GL11.GL_DYNAMIC_DRAW;
+		}
+		return mUsage;
+	}
+	
+	/**
+	 * Tell this mesh that a range of its vertex data has been changed.
+	 * The setters call this themselves, but anyone changing the elements
+	 * of the buffers directly must call this for the change to reach the
+	 * vertex buffer objects. Only the changed range is uploaded, the next
+	 * time <code>generateHardwareBuffers</code> is called.
+	 * @param attributes bitwise or of VertexFormat.POSITION, NORMAL, COLOR and TEXCOORD
+	 * @param first first changed vertex
+	 * @param count number of changed vertices
+	 */
+	public void markDirty(int attributes, int first, int count) {
+		if(mCloneTarget != null) {
+			mCloneTarget.markDirty(attributes, first, count);
+			return;
+		}
+		if(first < 0 || count <= 0 || first + count > mVertexCount) {
+			Log.e(TAG, "Invalid dirty range in "+mName);
+			return;
+		}
+		synchronized(mDirtyRange) {
+			if((attributes & VertexFormat.POSITION) != 0) {
+				mHasDirtyModelBound = true;
+			}
+			
+			// refresh the data derived from the float buffers
+			int last = first + count;
+			if((attributes & VertexFormat.POSITION) != 0) {
+				refreshFixed(mVertices, mFixedVertices, first*3, last*3);
+			}
+			if((attributes & VertexFormat.NORMAL) != 0) {
+				refreshFixed(mNormals, mFixedNormals, first*3, last*3);
+			}
+			if((attributes & VertexFormat.TEXCOORD) != 0) {
+				refreshFixed(mTexcoords, mFixedTexcoords, first*2, last*2);
+			}
+			if(mQuantize && (mVertices != null || mFixedVertices != null)) {
+				// the scale depends on every vertex, so quantize them all again
+				if((attributes & ~VertexFormat.COLOR) != 0) {
+					mQuantizedVertices = null;
+				}
+				invalidateInterleaved();
+				first = 0;
+				count = mVertexCount;
+			}
+			if(mInterleaved != null) {
+				if(mVertices != null) {
+					mInterleavedFormat.interleave(mInterleaved, first, count,
+							mVertices, mNormals, mColors, mTexcoords);
+				} else {
+					mInterleavedFormat.interleave(mInterleaved, first, count,
+							mFixedVertices, mFixedNormals, mColors, mFixedTexcoords);
+				}
+			}
+			
+			mDirtyAttributes |= attributes;
+			mDirtyRange.add(first, count);
+		}
+	}
+	
+	/**
+	 * Marks every vertex of the given attributes as changed.
+	 */
+	private void markAllDirty(int attributes) {
+		if(mVertexCount > 0) {
+			markDirty(attributes, 0, mVertexCount);
+		}
+	}
+	
+	/**
+	 * Converts a range of a float buffer into its fixed point version,
+	 * if both exist.
+	 */
+	private static void refreshFixed(FloatBuffer floats, IntBuffer fixed, int start, int end) {
+		if(floats == null || fixed == null) {
+			return;
+		}
+		for(int i = start; i < end; i++) {
+			fixed.put(i, BufferUtils.toFixed(floats.get(i)));
+		}
+	}
+	
+	/**
+	 * Uploads the changed ranges of the vertex buffer objects.
+	 * @param gl11
+	 */
+	private void updateHardwareBuffers(GL11 gl11) {
+		synchronized(mDirtyRange) {
+			int first = mDirtyRange.getStart();
+			int count = mDirtyRange.getCount();
+			
+			if(mBufferFormat != null) {
+				// every attribute lives in the interleaved buffer
+				int stride = mBufferFormat.getStride();
+				ByteBuffer data = getInterleavedBuffer();
+				updateBuffer(gl11, mVertBufferIndex, data, first*stride, count*stride, stride);
+			} else if(mBufferType == GL11.GL_SHORT) {
+				// quantized data is always uploaded as a whole
+				updateQuantizedBuffers();
+				if((mDirtyAttributes & VertexFormat.POSITION) != 0) {
+					updateBuffer(gl11, mVertBufferIndex, mQuantizedVertices, 0, mVertexCount*3, 6);
+				}
+				if((mDirtyAttributes & VertexFormat.NORMAL) != 0 && mNormalBufferIndex != 0) {
+					updateBuffer(gl11, mNormalBufferIndex, mQuantizedNormals, 0, mVertexCount*3, 3);
+				}
+				if((mDirtyAttributes & VertexFormat.COLOR) != 0 && mColorBufferIndex != 0) {
+					updateBuffer(gl11, mColorBufferIndex, mColors, first*4, count*4, 4);
+				}
+				if((mDirtyAttributes & VertexFormat.TEXCOORD) != 0 && mTexCoordsBufferIndex != 0) {
+					updateBuffer(gl11, mTexCoordsBufferIndex, mQuantizedTexcoords, 0, mVertexCount*2, 4);
+				}
+			} else {
+				boolean fixed = mBufferType == GL11.GL_FIXED;
+				if(fixed) {
+					updateFixedBuffers();
+				}
+				if((mDirtyAttributes & VertexFormat.POSITION) != 0) {
+					updateBuffer(gl11, mVertBufferIndex, fixed ? mFixedVertices : mVertices,
+							first*3, count*3, 12);
+				}
+				if((mDirtyAttributes & VertexFormat.NORMAL) != 0 && mNormalBufferIndex != 0) {
+					updateBuffer(gl11, mNormalBufferIndex, fixed ? mFixedNormals : mNormals,
+							first*3, count*3, 12);
+				}
+				if((mDirtyAttributes & VertexFormat.COLOR) != 0 && mColorBufferIndex != 0) {
+					updateBuffer(gl11, mColorBufferIndex, mColors, first*4, count*4, 4);
+				}
+				if((mDirtyAttributes & VertexFormat.TEXCOORD) != 0 && mTexCoordsBufferIndex != 0) {
+					updateBuffer(gl11, mTexCoordsBufferIndex, fixed ? mFixedTexcoords : mTexcoords,
+							first*2, count*2, 8);
+				}
+			}
+			gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+			
+			mDirtyAttributes = 0;
+			mDirtyRange.clear();
+		}
+	}
+	
+	/**
+	 * Uploads a range of a buffer to a vertex buffer object. The whole
+	 * buffer is uploaded with glBufferData if orphaning is enabled or if
+	 * the range covers every vertex, unless the mesh is pooled and shares
+	 * the vertex buffer object with other meshes.
+	 * @param id vertex buffer object to update
+	 * @param data source buffer
+	 * @param start first element of the range, in elements of the source buffer
+	 * @param count number of elements in the range
+	 * @param vertexSize size in bytes of one vertex in the source buffer
+	 */
+	private void updateBuffer(GL11 gl11, int id, Buffer data, int start, int count, int vertexSize) {
+		int elementSize = getElementSize(data);
+		gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, id);
+		if(mPoolPage == null && (mOrphan || count * elementSize == mVertexCount * vertexSize)) {
+			data.position(0);
+			gl11.glBufferData(GL11.GL_ARRAY_BUFFER, mVertexCount * vertexSize,
+					data, getBufferUsage());
+		} else {
+			data.position(start);
+			gl11.glBufferSubData(GL11.GL_ARRAY_BUFFER, mVertexOffset + start * elementSize,
+					count * elementSize, data);
+		}
+		data.position(0);
+	}
+	
+	/**
+	 * @return size in bytes of one element of a buffer
+	 */
+	private static int getElementSize(Buffer data) {
+		if(data instanceof ByteBuffer) {
+			return 1;
+		}
+		if(data instanceof ShortBuffer || data instanceof CharBuffer) {
+			return 2;
+		}
+		return 4;
+	}
+
+	/**
+	 * @return true if the vertex attributes are stored interleaved
+	 */
+	public boolean isInterleaved() {
+		return getSourceMesh().mInterleave;
+	}
+	
+	/**
+	 * @return a format describing the vertex attributes this mesh has
+	 * and the type they are sent to OpenGL as
+	 */
+	public VertexFormat getVertexFormat() {
+		return getOwnVertexFormat(getSourceMesh());
+	}
+
+	/**
+	 * @return the vertex format of the arrays of the given mesh itself
+	 */
+	private static VertexFormat getOwnVertexFormat(Object3D mesh) {
+		int attributes = VertexFormat.POSITION;
+		if(mesh.mNormals != null || mesh.mFixedNormals != null || mesh.mQuantizedNormals != null) {
+			attributes |= VertexFormat.NORMAL;
+		}
+		if(mesh.mColors != null) {
+			attributes |= VertexFormat.COLOR;
+		}
+		if(mesh.mTexcoords != null || mesh.mFixedTexcoords != null
+				|| mesh.mQuantizedTexcoords != null) {
+			attributes |= VertexFormat.TEXCOORD;
+		}
+		int type = mesh.usesFixedPoint() ? GL10.GL_FIXED : GL10.GL_FLOAT;
+		if(mesh.mQuantize) {
+			type = GL10.GL_SHORT;
+		}
+		return new VertexFormat(attributes, type);
+	}
+	
+	/**
+	 * @return the interleaved vertex data, built if not yet present
+	 * or if the fixed point mode has changed
+	 */
+	private ByteBuffer getInterleavedBuffer() {
+		VertexFormat format = getOwnVertexFormat(this);
+		if(mInterleaved == null || !format.equals(mInterleavedFormat)) {
+			mInterleavedFormat = format;
+			if(format.isQuantized()) {
+				updateQuantizedBuffers();
+				mInterleaved = format.interleave(mVertexCount, mQuantizedVertices,
+						mQuantizedNormals, mColors, mQuantizedTexcoords);
+			} else if(mVertices != null) {
+				mInterleaved = format.interleave(mVertexCount,
+						mVertices, mNormals, mColors, mTexcoords);
+			} else {
+				mInterleaved = format.interleave(mVertexCount,
+						mFixedVertices, mFixedNormals, mColors, mFixedTexcoords);
+			}
+		}
+		return mInterleaved;
+	}
+	
+	/**
+	 * Choose whether positions, normals and texture coordinates are sent
+	 * to OpenGL as 16.16 fixed points instead of floats. Devices without
+	 * fast floating point hardware convert floats to fixed points in the
+	 * driver on every draw, so converting once up front is cheaper.
+	 * Hardware buffers must be regenerated after changing this.
+	 * @param fixed true to use fixed points
+	 */
+	public static void setFixedPoint(boolean fixed) {
+		sFixedPoint = fixed;
+	}
+	
+	/**
+	 * Set the manager that keeps the hardware buffers of every mesh within
+	 * a memory budget. Without a manager every mesh gets hardware buffers
+	 * when they are generated.
+	 * @param manager manager to use or null for no limit
+	 */
+	public static void setResourceManager(GpuResourceManager manager) {
+		sResourceManager = manager;
+	}
+
+	/**
+	 * Set the pool that packs the hardware buffers of small, static and
+	 * interleaved meshes together. Takes effect for hardware buffers
+	 * generated after the call.
+	 * @param pool pool to use or null to give every mesh buffers of its own
+	 */
+	public static void setBufferPool(BufferPool pool) {
+		sBufferPool = pool;
+	}
+
+	/**
+	 * Set whether chunked meshes should be drawn with one call using 32 bit
+	 * indices instead of one call per chunk. Only use this if the
+	 * GL_OES_element_index_uint extension is supported. Must be set before
+	 * any hardware buffers are generated.
+	 * @param wide true to use 32 bit indices
+	 * @see #setIndices(int[])
+	 */
+	public static void setWideIndices(boolean wide) {
+		sWideIndices = wide;
+	}
+
+	/**
+	 * @return true if fixed points are used
+	 * @see #setFixedPoint(boolean)
+	 */
+	public static boolean isFixedPoint() {
+		return sFixedPoint;
+	}
+	
+	/**
+	 * @return true if this mesh is drawn with fixed points, either because
+	 * fixed points are used or because it only has fixed point data
+	 */
+	boolean usesFixedPoint() {
+		return sFixedPoint || mVertices == null;
+	}
+	
+	/**
+	 * @return size in bytes of the hardware buffers of this mesh, computed
+	 * the same way as <code>generateHardwareBuffers</code> lays them out
+	 */
+	int getHardwareBufferBytes() {
+		int bytes = mIndices.capacity() * (mChunks != null && sWideIndices ? 4 : 2);
+		if(mInterleave) {
+			return bytes + getOwnVertexFormat(this).getStride() * mVertexCount;
+		}
+		boolean normals = mNormals != null || mFixedNormals != null || mQuantizedNormals != null;
+		boolean texcoords = mTexcoords != null || mFixedTexcoords != null
+			|| mQuantizedTexcoords != null;
+		int perVertex;
+		if(mQuantize) {
+			perVertex = 6 + (normals ? 3 : 0) + (texcoords ? 4 : 0);
+		} else {
+			perVertex = 12 + (normals ? 12 : 0) + (texcoords ? 8 : 0);
+		}
+		if(mColors != null) {
+			perVertex += 4;
+		}
+		return bytes + perVertex * mVertexCount;
+	}
+
+	/**
+	 * Converts the float buffers that have no fixed point version yet.
+	 */
+	private void updateFixedBuffers() {
+		if(mFixedVertices == null && mVertices != null) {
+			mFixedVertices = BufferUtils.toFixedBuffer(mVertices);
+		}
+		if(mFixedNormals == null && mNormals != null) {
+			mFixedNormals = BufferUtils.toFixedBuffer(mNormals);
+		}
+		if(mFixedTexcoords == null && mTexcoords != null) {
+			mFixedTexcoords = BufferUtils.toFixedBuffer(mTexcoords);
+		}
+	}
+	
+	/**
+	 * Drops the interleaved data so that it is rebuilt from the separate arrays.
+	 */
+	private void invalidateInterleaved() {
+		mInterleaved = null;
+		mInterleavedFormat = null;
+		mLayoutDirty = true;
+	}
+	
+	/**
+	 * @return true if the attributes, their type, the vertex count or the
+	 * interleaving differ from when the hardware buffers were generated
+	 */
+	private boolean hasBufferLayoutChanged() {
+		return mVertexCount != mBufferVertexCount || mInterleave != mBufferInterleaved
+			|| !getOwnVertexFormat(this).equals(mBufferLayout);
+	}
+	
+	/**
+	 * Remembers the layout the hardware buffers were just generated with.
+	 */
+	private void saveBufferLayout() {
+		mBufferLayout = getOwnVertexFormat(this);
+		mBufferInterleaved = mInterleave;
+		mBufferVertexCount = mVertexCount;
+		mLayoutDirty = false;
+	}
+
+	/**
+	 * Set if this mesh should be drawn from quantized data. Positions are
+	 * stored as normalized shorts, with a scale and offset folded into the
+	 * model view matrix, normals as bytes and texture coordinates as shorts,
+	 * decoded by the texture matrix. The data is quantized right away if
+	 * there is float or fixed point data, which logs how much precision
+	 * was lost.<br><br>
+	 *
+	 * Hardware buffers that already exist are generated again the next
+	 * time <code>generateHardwareBuffers</code> is called.
+	 * @param quantize true to draw from quantized data
+	 */
+	public void setQuantized(boolean quantize) {
+		if(mVertices == null && mFixedVertices == null) {
+			if(!quantize && mQuantizedVertices != null) {
+				Log.e(TAG, "Only quantized data is present in "+mName);
+			}
+			return;
+		}
+		mQuantize = quantize;
+		invalidateInterleaved();
+		if(quantize) {
+			mQuantizedVertices = null;
+			updateQuantizedBuffers();
+		} else {
+			mQuantizedVertices = null;
+			mQuantizedNormals = null;
+			mQuantizedTexcoords = null;
+			mPositionDecode = null;
+			mTexCoordDecode = null;
+			mQuantizationError = null;
+		}
+	}
+
+	/**
+	 * @return true if this mesh is drawn from quantized data
+	 */
+	public boolean isQuantized() {
+		return getSourceMesh().mQuantize;
+	}
+
+	/**
+	 * The precision lost by quantizing: the largest position error in model
+	 * units, the largest normal error in degrees and the largest texture
+	 * coordinate error.
+	 * @return the three errors or null if the mesh is not quantized
+	 */
+	public float[] getQuantizationError() {
+		return getSourceMesh().mQuantizationError;
+	}
+
+	/**
+	 * @return the matrix taking quantized positions to model units or null
+	 * if this mesh is not quantized
+	 */
+	float[] getPositionDecode() {
+		if(!mQuantize) {
+			return null;
+		}
+		updateQuantizedBuffers();
+		return mPositionDecode;
+	}
+
+	/**
+	 * Quantizes the float or fixed point data if it has not been done
+	 * since it last changed.
+	 */
+	private void updateQuantizedBuffers() {
+		if(mQuantizedVertices != null || (mVertices == null && mFixedVertices == null)) {
+			return;
+		}
+		float[] error = new float[3];
+
+		// positions, centered on the bounding box with one scale for all axes
+		// so that normals only need rescaling
+		int len = mVertexCount * 3;
+		float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+		float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for(int i = 0; i < len; i++) {
+			float v = getVertexComponent(i);
+			min[i%3] = Math.min(min[i%3], v);
+			max[i%3] = Math.max(max[i%3], v);
+		}
+		float extent = 0;
+		for(int n = 0; n < 3; n++) {
+			extent = Math.max(extent, (max[n] - min[n]) / 2);
+		}
+		float scale = extent > 0 ? extent / Short.MAX_VALUE : 1;
+		float[] decode = new float[16];
+		Matrix.setIdentityM(decode, 0);
+		for(int n = 0; n < 3; n++) {
+			decode[n*5] = scale;
+			decode[12+n] = (min[n] + max[n]) / 2;
+		}
+		ShortBuffer vertices = BufferUtils.createShortBuffer(len);
+		for(int i = 0; i < len; i++) {
+			float v = getVertexComponent(i);
+			short q = quantize((v - decode[12 + i%3]) / scale);
+			vertices.put(i, q);
+			error[0] = Math.max(error[0], Math.abs(decode[12 + i%3] + q * scale - v));
+		}
+
+		// normals, mapped to bytes so that both -1 and 1 are exact
+		ByteBuffer normals = null;
+		if(mNormals != null || mFixedNormals != null) {
+			normals = BufferUtils.createByteBuffer(len);
+			float[] n = new float[3];
+			float[] d = new float[3];
+			for(int i = 0; i < len; i += 3) {
+				for(int c = 0; c < 3; c++) {
+					n[c] = mNormals != null ? mNormals.get(i+c)
+							: BufferUtils.toFloat(mFixedNormals.get(i+c));
+					int q = Math.round((n[c] * 255 - 1) / 2);
+					q = Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, q));
+					normals.put(i+c, (byte) q);
+					d[c] = (2 * q + 1) / 255f;
+				}
+				float lengths = Matrix.length(n[0], n[1], n[2]) * Matrix.length(d[0], d[1], d[2]);
+				if(lengths > 0) {
+					float cos = (n[0]*d[0] + n[1]*d[1] + n[2]*d[2]) / lengths;
+					float angle = (float) Math.toDegrees(Math.acos(Math.min(1, cos)));
+					error[1] = Math.max(error[1], angle);
+				}
+			}
+		}
+
+		// texture coordinates, with a scale and offset per axis
+		ShortBuffer texcoords = null;
+		float[] texDecode = null;
+		if(mTexcoords != null || mFixedTexcoords != null) {
+			int texLen = mVertexCount * 2;
+			float[] uv = new float[texLen];
+			float[] tmin = {Float.MAX_VALUE, Float.MAX_VALUE};
+			float[] tmax = {-Float.MAX_VALUE, -Float.MAX_VALUE};
+			for(int i = 0; i < texLen; i++) {
+				uv[i] = mTexcoords != null ? mTexcoords.get(i)
+						: BufferUtils.toFloat(mFixedTexcoords.get(i));
+				tmin[i%2] = Math.min(tmin[i%2], uv[i]);
+				tmax[i%2] = Math.max(tmax[i%2], uv[i]);
+			}
+			texDecode = new float[16];
+			Matrix.setIdentityM(texDecode, 0);
+			for(int c = 0; c < 2; c++) {
+				float half = (tmax[c] - tmin[c]) / 2;
+				texDecode[c*5] = half > 0 ? half / Short.MAX_VALUE : 1;
+				texDecode[12+c] = (tmin[c] + tmax[c]) / 2;
+			}
+			texcoords = BufferUtils.createShortBuffer(texLen);
+			for(int i = 0; i < texLen; i++) {
+				float tscale = texDecode[(i%2)*5];
+				float offset = texDecode[12 + i%2];
+				short q = quantize((uv[i] - offset) / tscale);
+				texcoords.put(i, q);
+				error[2] = Math.max(error[2], Math.abs(offset + q * tscale - uv[i]));
+			}
+		}
+
+		mQuantizedVertices = vertices;
+		mQuantizedNormals = normals;
+		mQuantizedTexcoords = texcoords;
+		mPositionDecode = decode;
+		mTexCoordDecode = texDecode;
+		mQuantizationError = error;
+		Log.d(TAG, "Quantized "+mName+": position error "+error[0]
+				+" ("+(error[0] / Math.max(extent, Float.MIN_VALUE) * 100)+"% of the half extent)"
+				+", normal error "+error[1]+" degrees, texture coordinate error "+error[2]);
+	}
+
+	/**
+	 * @return a value in [-32767, 32767] rounded to the closest short
+	 */
+	private static short quantize(float value) {
+		int q = Math.round(value);
+		return (short) Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, q));
+	}
+
 	/**
 	 * @param colorArray colors to set
 	 */
@@ -247,6 +1416,8 @@ public class Object3D extends Spatial {
 		}
 		mColors.clear();
 		mColors.put(colorArray);
+		invalidateInterleaved();
+		markAllDirty(VertexFormat.COLOR);
 		return;
 	}
 
@@ -255,8 +1426,8 @@ public class Object3D extends Spatial {
          * @param mode an integer defining the mode (see Object3D.MODE*).
          */
 	public void setDrawMode(int mode) {
-		if(mode != MODE_TRIANGLE_FAN ||
-		   mode != MODE_TRIANGLE_STRIP ||
+		if(mode != MODE_TRIANGLE_FAN &&
+		   mode != MODE_TRIANGLE_STRIP &&
 		   mode != MODE_TRIANGLES) {
 			Log.e(TAG, "Unrecognized draw mode");
 			return;
@@ -264,17 +1435,186 @@ public class Object3D extends Spatial {
 		mDrawMode = mode;
 	}
 
-        /**
-         * @param indexArray indices to set
-         */
-	public void setIndices(char[] indexArray) {
-		int size = indexArray.length;
-		if(mIndices == null || mIndices.capacity() != size) {
-			mIndices = BufferUtils.createCharBuffer(size);
+        /**
+         * @param indexArray indices to set
+         */
+	public void setIndices(char[] indexArray) {
+		int size = indexArray.length;
+		if(mIndices == null || mIndices.capacity() != size) {
+			mIndices = BufferUtils.createCharBuffer(size);
+		}
+		mIndices.clear();
+		mIndices.put(indexArray);
+		mChunks = null;
+		mWideIndices = null;
+		return;
+	}
+
+	/**
+	 * Set indices that may refer to more vertices than a char index can
+	 * address. A mesh with at most MAX_CHUNK_VERTICES vertices gets char
+	 * indices as usual. A larger mesh is split into chunks of at most
+	 * MAX_CHUNK_VERTICES vertices each, taking the triangles in order, and
+	 * the vertices of each chunk are moved together, in the order they are
+	 * first used. Vertices used by several chunks are duplicated. The mesh
+	 * stays one object with one bound, and is drawn with one call per chunk,
+	 * or with one call using 32 bit indices where GL_OES_element_index_uint
+	 * is supported, see <code>setWideIndices</code>.<br><br>
+	 *
+	 * Only triangle lists with float vertices can be chunked, and every
+	 * vertex attribute must have been set first since they are reordered.
+	 * The indices of a chunked mesh, as returned by <code>getIndices</code>,
+	 * are relative to the first vertex of their chunk, so chunked meshes
+	 * can not be optimized, stripified, simplified, merged or exported.
+	 * @param indexArray triangle list
+	 */
+	public void setIndices(int[] indexArray) {
+		if(mVertexCount <= MAX_CHUNK_VERTICES) {
+			char[] indices = new char[indexArray.length];
+			for(int i = 0; i < indices.length; i++) {
+				indices[i] = (char)indexArray[i];
+			}
+			setIndices(indices);
+			return;
+		}
+		if(mDrawMode != MODE_TRIANGLES || mVertices == null) {
+			Log.e(TAG, "Can only chunk triangle lists with float vertices, "+mName
+					+" has too many vertices for char indices");
+			return;
+		}
+		int triangles = indexArray.length / 3;
+		// source vertex of every vertex of the chunks
+		int[] source = new int[mVertexCount + mVertexCount / 8];
+		int used = 0;
+		// chunk a source vertex was last placed in, and where
+		int[] chunkOf = new int[mVertexCount];
+		int[] local = new int[mVertexCount];
+		for(int i = 0; i < mVertexCount; i++) {
+			chunkOf[i] = -1;
+		}
+		char[] indices = new char[triangles * 3];
+		int[] chunks = new int[12];
+		int chunk = 0;
+		int base = 0;
+		chunks[0] = 0;
+		chunks[1] = 0;
+		for(int t = 0; t < triangles; t++) {
+			int added = 0;
+			for(int n = 0; n < 3; n++) {
+				if(chunkOf[indexArray[t*3+n]] != chunk) {
+					added++;
+				}
+			}
+			if(used - base + added > MAX_CHUNK_VERTICES) {
+				// close the chunk and start a new one with this triangle
+				chunks[chunk*3+2] = t * 3 - chunks[chunk*3+1];
+				chunk++;
+				base = used;
+				if(chunks.length < chunk*3 + 3) {
+					int[] grown = new int[chunks.length * 2];
+					System.arraycopy(chunks, 0, grown, 0, chunks.length);
+					chunks = grown;
+				}
+				chunks[chunk*3] = base;
+				chunks[chunk*3+1] = t * 3;
+			}
+			for(int n = 0; n < 3; n++) {
+				int v = indexArray[t*3+n];
+				if(chunkOf[v] != chunk) {
+					if(used == source.length) {
+						int[] grown = new int[source.length * 2];
+						System.arraycopy(source, 0, grown, 0, used);
+						source = grown;
+					}
+					chunkOf[v] = chunk;
+					local[v] = used - base;
+					source[used++] = v;
+				}
+				indices[t*3+n] = (char)local[v];
+			}
+		}
+		chunks[chunk*3+2] = triangles * 3 - chunks[chunk*3+1];
+		int[] table = new int[chunk*3 + 3];
+		System.arraycopy(chunks, 0, table, 0, table.length);
+
+		int vertexCount = mVertexCount;
+		float[] normals = mNormals != null ? gather(mNormals, source, used, 3) : null;
+		float[] texcoords = mTexcoords != null ? gather(mTexcoords, source, used, 2) : null;
+		byte[] colors = null;
+		if(mColors != null) {
+			colors = new byte[used * 4];
+			for(int i = 0; i < used; i++) {
+				for(int n = 0; n < 4; n++) {
+					colors[i*4+n] = mColors.get(source[i]*4+n);
+				}
+			}
+		}
+		setVertices(gather(mVertices, source, used, 3));
+		mNormals = null;
+		mFixedNormals = null;
+		mColors = null;
+		mTexcoords = null;
+		mFixedTexcoords = null;
+		if(normals != null) {
+			setNormals(normals);
+		}
+		if(colors != null) {
+			setColors(colors);
+		}
+		if(texcoords != null) {
+			setTexCoords(texcoords);
+		}
+		setIndices(indices);
+		mChunks = table;
+		Log.d(TAG, mName+": "+vertexCount+" vertices split into "+table.length / 3
+				+" chunks, "+(used - vertexCount)+" vertices duplicated");
+	}
+
+	/**
+	 * @return the given elements of a buffer of vertex attributes
+	 */
+	private static float[] gather(FloatBuffer src, int[] source, int count, int size) {
+		float[] dst = new float[count * size];
+		for(int i = 0; i < count; i++) {
+			for(int n = 0; n < size; n++) {
+				dst[i*size+n] = src.get(source[i]*size+n);
+			}
+		}
+		return dst;
+	}
+
+	/**
+	 * @return true if this mesh has more vertices than a char index can
+	 * address and is split into chunks
+	 */
+	public boolean isChunked() {
+		return getSourceMesh().mChunks != null;
+	}
+
+	/**
+	 * @return number of chunks this mesh is drawn with, 1 if it is not chunked
+	 */
+	public int getChunkCount() {
+		int[] chunks = getSourceMesh().mChunks;
+		return chunks == null ? 1 : chunks.length / 3;
+	}
+
+	/**
+	 * @return the indices of a chunked mesh as 32 bit indices, built if
+	 * not yet present
+	 */
+	private IntBuffer getWideIndices() {
+		if(mWideIndices == null) {
+			mWideIndices = BufferUtils.createIntBuffer(mIndices.limit());
+			for(int i = 0; i < mChunks.length; i += 3) {
+				int base = mChunks[i];
+				int end = mChunks[i+1] + mChunks[i+2];
+				for(int n = mChunks[i+1]; n < end; n++) {
+					mWideIndices.put(n, base + mIndices.get(n));
+				}
+			}
 		}
-		mIndices.clear();
-		mIndices.put(indexArray);
-		return;
+		return mWideIndices;
 	}
 	
 	/**
@@ -301,6 +1641,9 @@ public class Object3D extends Spatial {
 		}
 		mNormals.clear();
 		mNormals.put(normalArray);
+		mFixedNormals = null;
+		invalidateInterleaved();
+		markAllDirty(VertexFormat.NORMAL);
 		return;
 	}
 
@@ -309,6 +1652,9 @@ public class Object3D extends Spatial {
          */
 	public void setNormals(FloatBuffer normals) {
 		this.mNormals = normals;
+		mFixedNormals = null;
+		invalidateInterleaved();
+		markAllDirty(VertexFormat.NORMAL);
 	}
 	
 	/**
@@ -349,6 +1695,8 @@ public class Object3D extends Spatial {
 		for(int i = 0; i < mVertexCount; i++) {
 			mColors.put(color4b);
 		}
+		invalidateInterleaved();
+		markAllDirty(VertexFormat.COLOR);
 		return;
 	}
 
@@ -367,6 +1715,9 @@ public class Object3D extends Spatial {
 		}
 		mTexcoords.clear();
 		mTexcoords.put(texcoordsArray);
+		mFixedTexcoords = null;
+		invalidateInterleaved();
+		markAllDirty(VertexFormat.TEXCOORD);
 	}
 
         /**
@@ -374,8 +1725,81 @@ public class Object3D extends Spatial {
          */
 	public void setTexCoords(FloatBuffer texcoords) {
 		this.mTexcoords = texcoords;
+		mFixedTexcoords = null;
+		invalidateInterleaved();
+		markAllDirty(VertexFormat.TEXCOORD);
+	}
+	
+	/**
+	 * Scales and offsets every texture coordinate, so that (u, v) becomes
+	 * (offsetU + u * scaleU, offsetV + v * scaleV). The coarser levels of
+	 * a level of detail chain that this mesh is level 0 of are remapped
+	 * too. Clones share the texture coordinates of the mesh they were
+	 * cloned from, so it is that mesh that must be remapped.
+	 * @return false if this mesh is a clone or has no texture coordinates
+	 */
+	public boolean remapTexCoords(float offsetU, float offsetV, float scaleU, float scaleV) {
+		if(mCloneTarget != null) {
+			Log.e(TAG, "Can not remap the texture coordinates of the clone "+mName);
+			return false;
+		}
+		if(mTexcoords != null || mFixedTexcoords != null) {
+			int len = mVertexCount * 2;
+			for(int i = 0; i < len; i++) {
+				float offset = i % 2 == 0 ? offsetU : offsetV;
+				float scale = i % 2 == 0 ? scaleU : scaleV;
+				if(mTexcoords != null) {
+					mTexcoords.put(i, offset + mTexcoords.get(i) * scale);
+				} else {
+					float t = BufferUtils.toFloat(mFixedTexcoords.get(i));
+					mFixedTexcoords.put(i, BufferUtils.toFixed(offset + t * scale));
+				}
+			}
+			invalidateInterleaved();
+			markAllDirty(VertexFormat.TEXCOORD);
+		} else if(mTexCoordDecode != null) {
+			// only quantized data, the decode is remapped instead
+			mTexCoordDecode[12] = offsetU + mTexCoordDecode[12] * scaleU;
+			mTexCoordDecode[13] = offsetV + mTexCoordDecode[13] * scaleV;
+			mTexCoordDecode[0] *= scaleU;
+			mTexCoordDecode[5] *= scaleV;
+		} else {
+			return false;
+		}
+		if(mLod != null && mLod.getLevel(0) == this) {
+			for(int i = 1; i < mLod.getLevelCount(); i++) {
+				mLod.getLevel(i).remapTexCoords(offsetU, offsetV, scaleU, scaleV);
+			}
+		}
+		return true;
 	}
 	
+	/**
+	 * @return the smallest and largest texture coordinates as
+	 * {minU, minV, maxU, maxV} or null if there are none
+	 */
+	public float[] getTexCoordBound() {
+		Object3D mesh = mCloneTarget != null ? mCloneTarget : this;
+		int len = mesh.mVertexCount * 2;
+		float[] bound = {Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for(int i = 0; i < len; i++) {
+			float t;
+			if(mesh.mTexcoords != null) {
+				t = mesh.mTexcoords.get(i);
+			} else if(mesh.mFixedTexcoords != null) {
+				t = BufferUtils.toFloat(mesh.mFixedTexcoords.get(i));
+			} else if(mesh.mQuantizedTexcoords != null) {
+				float[] decode = mesh.mTexCoordDecode;
+				t = decode[12 + i%2] + mesh.mQuantizedTexcoords.get(i) * decode[(i%2)*5];
+			} else {
+				return null;
+			}
+			bound[i%2] = Math.min(bound[i%2], t);
+			bound[2 + i%2] = Math.max(bound[2 + i%2], t);
+		}
+		return bound;
+	}
+
 	/**
 	 * @param vertexArray vertices to set
 	 */
@@ -397,6 +1821,9 @@ public class Object3D extends Spatial {
 		mVertices.clear();
 		mVertices.put(vertexArray);
 		mHasDirtyModelBound = true;
+		mFixedVertices = null;
+		invalidateInterleaved();
+		markAllDirty(VertexFormat.POSITION);
 		return;
 	}
 	
@@ -420,6 +1847,43 @@ public class Object3D extends Spatial {
 		return null;
 	}
 	
+	/**
+	 * @return a read-only FloatBuffer with this Object3D's normals
+	 */
+	public FloatBuffer getNormals() {
+		if(mNormals != null) {
+			return mNormals.asReadOnlyBuffer();
+		}
+		return null;
+	}
+	
+	/**
+	 * @return a read-only ByteBuffer with this Object3D's colors
+	 */
+	public ByteBuffer getColors() {
+		if(mColors != null) {
+			return mColors.asReadOnlyBuffer();
+		}
+		return null;
+	}
+	
+	/**
+	 * @return a read-only FloatBuffer with this Object3D's texture coordinates
+	 */
+	public FloatBuffer getTexCoords() {
+		if(mTexcoords != null) {
+			return mTexcoords.asReadOnlyBuffer();
+		}
+		return null;
+	}
+	
+	/**
+	 * @return the OpenGL draw mode of this mesh (see Object3D.MODE*)
+	 */
+	public int getDrawMode() {
+		return mDrawMode;
+	}
+	
 	/**
 	 * Updates the bounding volume for this mesh
 	 * This method uses the mesh's world transformation matrix so
@@ -441,12 +1905,12 @@ public class Object3D extends Spatial {
 		}
 		
 		float tmpX,tmpY,tmpZ;
-		int limit = mVertices.limit();
+		int limit = mVertexCount * 3;
 		
 		for(int pos = 0; pos < limit; pos += 3) {
-			tmpX = mVertices.get(pos);
-			tmpY = mVertices.get(pos+1);
-			tmpZ = mVertices.get(pos+2);
+			tmpX = getVertexComponent(pos);
+			tmpY = getVertexComponent(pos+1);
+			tmpZ = getVertexComponent(pos+2);
 			if(pos == 0) {
 				mModelBound.mMinX = mModelBound.mMaxX = tmpX;
 				mModelBound.mMinY = mModelBound.mMaxY = tmpY;
@@ -469,6 +1933,20 @@ public class Object3D extends Spatial {
 		
 		mHasDirtyModelBound = false;
 	}
+	
+	/**
+	 * @return a vertex component as a float, read from the fixed point or
+	 * quantized vertices if there are no float vertices
+	 */
+	private float getVertexComponent(int pos) {
+		if(mVertices != null) {
+			return mVertices.get(pos);
+		}
+		if(mFixedVertices != null) {
+			return BufferUtils.toFloat(mFixedVertices.get(pos));
+		}
+		return mPositionDecode[12 + pos % 3] + mQuantizedVertices.get(pos) * mPositionDecode[0];
+	}
 
 	@Override
 	public void updateWorldBound(boolean propagate) {
@@ -487,13 +1965,33 @@ public class Object3D extends Spatial {
 			mCloneTarget.forgetHardwareBuffers();
 			return;
 		}
+		if(mLod != null) {
+			mLod.forgetHardwareBuffers();
+		}
+		forgetOwnBuffers();
+    }
+
+    /**
+     * Forgets the hardware buffers of this mesh alone.
+     */
+    void forgetOwnBuffers() {
+    	if(sResourceManager != null) {
+    		sResourceManager.release(this);
+    	}
+    	if(mPoolPage != null) {
+    		mPoolPage.pool.free(null, this);
+    	}
+        mVertexOffset = 0;
+        mIndexOffset = 0;
         mVertBufferIndex = 0;
         mIndexBufferIndex = 0;
         mNormalBufferIndex = 0;
         mTexCoordsBufferIndex = 0;
         mColorBufferIndex = 0;
+        mBufferFormat = null;
+        mBufferWide = false;
     }
-    
+
     @Override
     public void freeHardwareBuffers(GL10 gl) {
     	if(mCloneTarget != null) {
@@ -501,7 +1999,26 @@ public class Object3D extends Spatial {
     		forgetHardwareBuffers();
     		return;
     	}
+    	if(mLod != null) {
+    		mLod.freeHardwareBuffers(gl);
+    	}
+    	deleteOwnBuffers(gl);
+    }
     	
+    /**
+     * Deletes the hardware buffers of this mesh alone. It is drawn from its
+     * client side arrays until they are generated again.
+     * @param gl
+     */
+    void deleteOwnBuffers(GL10 gl) {
+    	if(mPoolPage != null) {
+    		// the buffers are shared, only the ranges of this mesh are freed
+    		if(gl instanceof GL11) {
+    			mPoolPage.pool.free((GL11)gl, this);
+    		}
+    		forgetOwnBuffers();
+    		return;
+    	}
         if (mVertBufferIndex != 0) {
             if (gl instanceof GL11) {
                 GL11 gl11 = (GL11)gl;
@@ -525,14 +2042,15 @@ public class Object3D extends Spatial {
                 	gl11.glDeleteBuffers(1, buffer, 0);
                 }
             }
-            forgetHardwareBuffers();
+            forgetOwnBuffers();
         }
     }
     
     @Override    
     public void generateHardwareBuffers(GL10 gl) {
     	if(mCloneTarget != null) {
-    		if (mCloneTarget.mVertBufferIndex == 0) {
+    		if (mCloneTarget.mVertBufferIndex == 0 || mCloneTarget.mDirtyAttributes != 0
+    				|| mCloneTarget.mLayoutDirty) {
     			mCloneTarget.generateHardwareBuffers(gl);
     		}
     		mVertBufferIndex = mCloneTarget.mVertBufferIndex;
@@ -540,52 +2058,126 @@ public class Object3D extends Spatial {
             mNormalBufferIndex = mCloneTarget.mNormalBufferIndex;
             mTexCoordsBufferIndex = mCloneTarget.mTexCoordsBufferIndex;
             mColorBufferIndex = mCloneTarget.mColorBufferIndex;
+            mVertexOffset = mCloneTarget.mVertexOffset;
+            mIndexOffset = mCloneTarget.mIndexOffset;
             mIndexCount = mCloneTarget.mIndexCount;
+            mBufferFormat = mCloneTarget.mBufferFormat;
+            mBufferType = mCloneTarget.mBufferType;
+            mBufferWide = mCloneTarget.mBufferWide;
             return;
     	}
+    	if(mLod != null) {
+    		mLod.generateHardwareBuffers(gl);
+    	}
+    	
+    	if (mVertBufferIndex != 0) {
+    		if (mLayoutDirty && hasBufferLayoutChanged()) {
+    			// attributes that were added have no buffer to update, and the
+    			// stride of the interleaved buffer may have changed
+    			deleteOwnBuffers(gl);
+    		} else {
+    			mLayoutDirty = false;
+    			if (mDirtyAttributes != 0) {
+    				updateHardwareBuffers((GL11)gl);
+    			}
+    			return;
+    		}
+    	}
     	
         if (mVertBufferIndex == 0) {
             if (gl instanceof GL11) {
                 GL11 gl11 = (GL11)gl;
                 int[] buffer = new int[1];
-                
-                mVertices.rewind();
+
+                if(sResourceManager != null
+                		&& !sResourceManager.reserve(gl11, this, getHardwareBufferBytes())) {
+                	// drawn from the client side arrays for now
+                	return;
+                }
+
+                if(sBufferPool != null && mInterleave && mUsage == USAGE_STATIC && mChunks == null
+                		&& sBufferPool.allocate(gl11, this, getInterleavedBuffer().capacity(),
+                				mIndices.capacity() * 2)) {
+                	mVertBufferIndex = mPoolPage.vertexBuffer;
+                	mIndexBufferIndex = mPoolPage.indexBuffer;
+                	mBufferFormat = mInterleavedFormat;
+                	mIndexCount = mIndices.limit();
+                	uploadPooled(gl11);
+                	saveBufferLayout();
+                	synchronized(mDirtyRange) {
+                		mDirtyAttributes = 0;
+                		mDirtyRange.clear();
+                	}
+                	return;
+                }
+
                 mIndices.rewind();
                 
                 // Allocate and fill the vertex buffer.
                 gl11.glGenBuffers(1, buffer, 0);
                 mVertBufferIndex = buffer[0];
                 gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mVertBufferIndex);
-                final int vertexSize = mVertices.capacity() * 4;
-                gl11.glBufferData(GL11.GL_ARRAY_BUFFER, vertexSize, 
-                        mVertices, GL11.GL_STATIC_DRAW);
                 
-                if(mNormals != null) {
-                	mNormals.rewind();
-                	gl11.glGenBuffers(1, buffer, 0);
-                    mNormalBufferIndex = buffer[0];
-                    gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mNormalBufferIndex);
-                    final int normalSize = mNormals.capacity() * 4;
-                    gl11.glBufferData(GL11.GL_ARRAY_BUFFER, normalSize, 
-                            mNormals, GL11.GL_STATIC_DRAW);
-                }
-                if(mColors != null) {
-                	mColors.rewind();
-                	gl11.glGenBuffers(1, buffer, 0);
-                    mColorBufferIndex = buffer[0];
-                    gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mColorBufferIndex);
-                    final int colorSize = mColors.capacity();
-                    gl11.glBufferData(GL11.GL_ARRAY_BUFFER, colorSize, 
-                            mColors, GL11.GL_STATIC_DRAW);
-                }
-                if(mTexcoords != null) {
-                	mTexcoords.rewind();
-                	gl11.glGenBuffers(1, buffer, 0);
-                    mTexCoordsBufferIndex = buffer[0];
-                    gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mTexCoordsBufferIndex);
-                    final int texcoordSize = mTexcoords.capacity() * 4;
-                    gl11.glBufferData(GL11.GL_ARRAY_BUFFER, texcoordSize, 
-                            mTexcoords, GL11.GL_STATIC_DRAW);
+                if(mInterleave) {
+                	// every attribute goes into the vertex buffer
+                	ByteBuffer data = getInterleavedBuffer();
+                	data.rewind();
+                	mBufferFormat = mInterleavedFormat;
+                	gl11.glBufferData(GL11.GL_ARRAY_BUFFER, data.capacity(), 
+                			data, getBufferUsage());
+                } else {
+                	// the fixed and float buffers hold four bytes per component
+                	Buffer vertices = mVertices;
+                	Buffer normals = mNormals;
+                	Buffer texcoords = mTexcoords;
+                	mBufferType = GL11.GL_FLOAT;
+                	if(mQuantize) {
+                		updateQuantizedBuffers();
+                		vertices = mQuantizedVertices;
+                		normals = mQuantizedNormals;
+                		texcoords = mQuantizedTexcoords;
+                		mBufferType = GL11.GL_SHORT;
+                	} else if(usesFixedPoint()) {
+                		updateFixedBuffers();
+                		vertices = mFixedVertices;
+                		normals = mFixedNormals;
+                		texcoords = mFixedTexcoords;
+                		mBufferType = GL11.GL_FIXED;
+                	}
+                	
+                	vertices.rewind();
+                	final int vertexSize = vertices.capacity() * getElementSize(vertices);
+                	gl11.glBufferData(GL11.GL_ARRAY_BUFFER, vertexSize, 
+                			vertices, getBufferUsage());
+                	
+                	// one buffer per attribute
+	                if(normals != null) {
+	                	normals.rewind();
+	                	gl11.glGenBuffers(1, buffer, 0);
+	                    mNormalBufferIndex = buffer[0];
+	                    gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mNormalBufferIndex);
+	                    final int normalSize = normals.capacity() * getElementSize(normals);
+	                    gl11.glBufferData(GL11.GL_ARRAY_BUFFER, normalSize, 
+	                            normals, getBufferUsage());
+	                }
+	                if(mColors != null) {
+	                	mColors.rewind();
+	                	gl11.glGenBuffers(1, buffer, 0);
+	                    mColorBufferIndex = buffer[0];
+	                    gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mColorBufferIndex);
+	                    final int colorSize = mColors.capacity();
+	                    gl11.glBufferData(GL11.GL_ARRAY_BUFFER, colorSize, 
+	                            mColors, getBufferUsage());
+	                }
+	                if(texcoords != null) {
+	                	texcoords.rewind();
+	                	gl11.glGenBuffers(1, buffer, 0);
+	                    mTexCoordsBufferIndex = buffer[0];
+	                    gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mTexCoordsBufferIndex);
+	                    final int texcoordSize = texcoords.capacity() * getElementSize(texcoords);
+	                    gl11.glBufferData(GL11.GL_ARRAY_BUFFER, texcoordSize, 
+	                            texcoords, getBufferUsage());
+	                }
                 }
                 
                 // Unbind the array buffer.
@@ -596,14 +2188,35 @@ public class Object3D extends Spatial {
                 mIndexBufferIndex = buffer[0];
                 gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 
                         mIndexBufferIndex);
-                // A char is 2 bytes.
-                final int indexSize = mIndices.capacity() * 2;
-                gl11.glBufferData(GL11.GL_ELEMENT_ARRAY_BUFFER, indexSize, mIndices, GL11.GL_STATIC_DRAW);
+                mBufferWide = mChunks != null && sWideIndices;
+                if(mBufferWide) {
+                	IntBuffer indices = getWideIndices();
+                	indices.rewind();
+                	gl11.glBufferData(GL11.GL_ELEMENT_ARRAY_BUFFER, indices.capacity() * 4,
+                			indices, GL11.GL_STATIC_DRAW);
+                } else {
+                	// A char is 2 bytes.
+                	final int indexSize = mIndices.capacity() * 2;
+                	gl11.glBufferData(GL11.GL_ELEMENT_ARRAY_BUFFER, indexSize, mIndices, GL11.GL_STATIC_DRAW);
+                }
                 
                 // Unbind the element array buffer.
                 gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
                 
                 mIndexCount = mIndices.limit();
+
+                if(sResourceManager != null && gl11.glGetError() == GL11.GL_OUT_OF_MEMORY) {
+                	sResourceManager.allocationFailed(this);
+                	deleteOwnBuffers(gl);
+                	return;
+                }
+
+                // everything was just uploaded
+                saveBufferLayout();
+                synchronized(mDirtyRange) {
+                	mDirtyAttributes = 0;
+                	mDirtyRange.clear();
+                }
                 
                 // TODO are we safe so delete the java.nio.buffers now??
                 // Probably not... since we can lose context every now and then.
@@ -611,20 +2224,39 @@ public class Object3D extends Spatial {
         }
     }
 
+	/**
+	 * Uploads the vertex data and indices of a pooled mesh to its ranges
+	 * of the buffers of its page.
+	 * @param gl11
+	 */
+	void uploadPooled(GL11 gl11) {
+		ByteBuffer data = getInterleavedBuffer();
+		data.rewind();
+		gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, mPoolPage.vertexBuffer);
+		gl11.glBufferSubData(GL11.GL_ARRAY_BUFFER, mVertexOffset, data.capacity(), data);
+		gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+		mIndices.rewind();
+		gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, mPoolPage.indexBuffer);
+		gl11.glBufferSubData(GL11.GL_ELEMENT_ARRAY_BUFFER, mIndexOffset,
+				mIndices.capacity() * 2, mIndices);
+		gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
 	/**
 	 * Prior to this call, you should call updateTransform()
 	 * if the transformation matrix has not already been calculated. 
 	 * @return an array with the vertices
 	 */
 	public float[] getWorldVertices() {
-		mVertices.clear();
-		int len = mVertices.limit();
+		int len = mVertexCount * 3;
 		float[] world_vectors = new float[len];
 		// Homogeneous coordinates
 		float[] world_v = new float[4];
 		float[] local_v = {0,0,0,1}; // last digit should never change (an opengl point)
 		for(int i = 0; i < len; i += 3) {
-			mVertices.get(local_v, 0, 3);
+			local_v[0] = getVertexComponent(i);
+			local_v[1] = getVertexComponent(i+1);
+			local_v[2] = getVertexComponent(i+2);
 			Matrix.multiplyMV(world_v, 0, mTransformMatrix, 0, local_v, 0);
 			world_vectors[i] = world_v[0];
 			world_vectors[i+1] = world_v[1];
@@ -634,11 +2266,101 @@ public class Object3D extends Spatial {
 	}
 	
     /**
-     * Writes the Object3D's vertex data to a stream 
+     * Writes the Object3D's vertex data to a stream. If this object is
+     * level 0 of a level of detail chain, every level is written together
+     * with its screen size and error bound. Quantized meshes are written
+     * as quantized data.
      * @param s stream to write to
      * @throws IOException
      */
     public void exportModel(DataOutputStream s) throws IOException {
+    	if(mChunks != null) {
+    		throw new IOException("Can not export the chunked mesh "+mName);
+    	}
+    	boolean chain = mLod != null && mLod.getLevel(0) == this && mLod.getLevelCount() > 1;
+    	if(!chain && !mQuantize) {
+    		writeModel(s);
+    		return;
+    	}
+    	int count = chain ? mLod.getLevelCount() : 1;
+    	s.writeInt(LOD_MAGIC);
+    	s.writeInt(LOD_VERSION);
+    	s.writeInt(count);
+    	for(int i = 0; i < count; i++) {
+    		Object3D level = chain ? mLod.getLevel(i) : this;
+    		s.writeFloat(chain ? mLod.getScreenSize(i) : Float.MAX_VALUE);
+    		s.writeFloat(chain ? mLod.getError(i) : 0);
+    		if(level.mQuantize) {
+    			s.writeInt(LEVEL_QUANTIZED);
+    			level.writeQuantizedModel(s);
+    		} else {
+    			s.writeInt(0);
+    			level.writeModel(s);
+    		}
+    	}
+    }
+
+    /**
+     * Writes the vertex data of this mesh alone.
+     */
+    private void writeModel(DataOutputStream s) throws IOException {
+    	writeHeader(s);
+        writeFloats(s, mVertices, mFixedVertices);
+        writeFloats(s, mTexcoords, mFixedTexcoords);
+
+        writeFloats(s, mNormals, mFixedNormals);
+    }
+
+    /**
+     * Writes the quantized vertex data of this mesh alone, with the
+     * quantization errors and the values needed to decode it.
+     */
+    private void writeQuantizedModel(DataOutputStream s) throws IOException {
+    	updateQuantizedBuffers();
+    	writeHeader(s);
+    	for(int i = 0; i < 3; i++) {
+    		s.writeFloat(mQuantizationError[i]);
+    	}
+    	s.writeFloat(mPositionDecode[12]);
+    	s.writeFloat(mPositionDecode[13]);
+    	s.writeFloat(mPositionDecode[14]);
+    	s.writeFloat(mPositionDecode[0]);
+    	writeShorts(s, mQuantizedVertices);
+    	if(mQuantizedTexcoords == null) {
+    		s.writeInt(0);
+    	} else {
+    		writeShorts(s, mQuantizedTexcoords);
+    		s.writeFloat(mTexCoordDecode[12]);
+    		s.writeFloat(mTexCoordDecode[13]);
+    		s.writeFloat(mTexCoordDecode[0]);
+    		s.writeFloat(mTexCoordDecode[5]);
+    	}
+    	if(mQuantizedNormals == null) {
+    		s.writeInt(0);
+    	} else {
+    		int len = mQuantizedNormals.limit();
+    		s.writeInt(len);
+    		for (int i = 0; i < len; i++) {
+    			s.writeByte(mQuantizedNormals.get(i));
+    		}
+    	}
+    }
+
+    /**
+     * Writes a length prefixed short array to a stream.
+     */
+    private static void writeShorts(DataOutputStream s, ShortBuffer shorts) throws IOException {
+    	int len = shorts.limit();
+    	s.writeInt(len);
+    	for (int i = 0; i < len; i++) {
+    		s.writeShort(shorts.get(i));
+    	}
+    }
+
+    /**
+     * Writes the draw mode, vertex count, center, bound and indices.
+     */
+    private void writeHeader(DataOutputStream s) throws IOException {
     	int len;
     	// write information
     	s.writeInt(mDrawMode);
@@ -672,37 +2394,30 @@ public class Object3D extends Spatial {
                 s.writeChar(mIndices.get(i));
             }
         }
-        if (mVertices == null)
-            s.writeInt(0);
-        else {
-            s.writeInt(mVertices.limit());
-            mVertices.rewind();
-            len = mVertices.limit();
-            for (int i = 0; i < len; i++) {
-                s.writeFloat(mVertices.get(i));
-            }
-        }
-        if (mTexcoords == null)
-            s.writeInt(0);
-        else {
-            s.writeInt(mTexcoords.limit());
-            mTexcoords.rewind();
-            len = mTexcoords.limit();
-            for (int i = 0; i < len; i++) {
-                s.writeFloat(mTexcoords.get(i));
-            }
-        }
-        
-        if (mNormals == null)
-            s.writeInt(0);
-        else {
-            s.writeInt(mNormals.limit());
-            mNormals.rewind();
-            len = mNormals.limit();
-            for (int i = 0; i < len; i++) {
-                s.writeFloat(mNormals.get(i));
-            }
-        }
+    }
+
+    /**
+     * Writes a float array to a stream, converting the fixed point
+     * version if there is no float version.
+     */
+    private static void writeFloats(DataOutputStream s, FloatBuffer floats,
+    		IntBuffer fixed) throws IOException {
+    	int len;
+    	if (floats != null) {
+    		s.writeInt(floats.limit());
+    		len = floats.limit();
+    		for (int i = 0; i < len; i++) {
+    			s.writeFloat(floats.get(i));
+    		}
+    	} else if (fixed != null) {
+    		s.writeInt(fixed.limit());
+    		len = fixed.limit();
+    		for (int i = 0; i < len; i++) {
+    			s.writeFloat(BufferUtils.toFloat(fixed.get(i)));
+    		}
+    	} else {
+    		s.writeInt(0);
+    	}
     }
 
     /**
@@ -712,8 +2427,156 @@ public class Object3D extends Spatial {
      * @throws IOException
      */
     public void importModel(DataInputStream s) throws IOException {
+    	importModel(s, false);
+    }
+    
+    /**
+     * Reads the model content of the given stream and set
+     * the read data on this Object3D. If <code>fixed</code> is true
+     * the vertices, texture coordinates and normals are converted to
+     * 16.16 fixed points while reading and no float data is kept.<br><br>
+     *
+     * If the stream holds several levels of detail, the first level is
+     * set on this Object3D and the others are read into a new level of
+     * detail chain. Quantized levels are kept quantized whatever the
+     * value of <code>fixed</code>.
+     * @param s stream to read from
+     * @param fixed true to import fixed point data only
+     * @throws IOException
+     */
+    public void importModel(DataInputStream s, boolean fixed) throws IOException {
+    	int first = s.readInt();
+    	if(first != LOD_MAGIC) {
+    		// a single level, the first int was the draw mode
+    		readModel(s, fixed, first);
+    		setLodChain(null);
+    		return;
+    	}
+    	int version = s.readInt();
+    	if(version < 1 || version > LOD_VERSION) {
+    		throw new IOException("Unknown model version "+version+" in "+mName);
+    	}
+    	int count = s.readInt();
+    	LodChain chain = new LodChain(this);
+    	for(int i = 0; i < count; i++) {
+    		float screenSize = s.readFloat();
+    		float error = s.readFloat();
+    		// version 1 has no flags
+    		int flags = version > 1 ? s.readInt() : 0;
+    		Object3D level = i == 0 ? this : new Object3D(mName+" lod "+i);
+    		if((flags & LEVEL_QUANTIZED) != 0) {
+    			level.readQuantizedModel(s, s.readInt());
+    		} else {
+    			level.readModel(s, fixed, s.readInt());
+    		}
+    		if(i > 0) {
+    			chain.addLevel(level, screenSize, error);
+    		}
+    	}
+    	setLodChain(count > 1 ? chain : null);
+    }
+
+    /**
+     * Reads the vertex data of a single mesh, after its draw mode.
+     */
+    private void readModel(DataInputStream s, boolean fixed, int drawMode) throws IOException {
+    	readHeader(s, drawMode);
+        mQuantize = false;
+        mQuantizedVertices = null;
+        mQuantizedNormals = null;
+        mQuantizedTexcoords = null;
+        mPositionDecode = null;
+        mTexCoordDecode = null;
+        mQuantizationError = null;
+        mFixedVertices = null;
+        mFixedTexcoords = null;
+        mFixedNormals = null;
+        invalidateInterleaved();
+        if(fixed) {
+        	mVertices = null;
+        	mTexcoords = null;
+        	mNormals = null;
+        	mFixedVertices = readFixed(s);
+        	mFixedTexcoords = readFixed(s);
+        	mFixedNormals = readFixed(s);
+        } else {
+        	mVertices = readFloats(s);
+        	mTexcoords = readFloats(s);
+        	mNormals = readFloats(s);
+        }
+    }
+
+    /**
+     * Reads the quantized vertex data of a single mesh, after its draw mode.
+     * Only the quantized data is kept.
+     */
+    private void readQuantizedModel(DataInputStream s, int drawMode) throws IOException {
+    	readHeader(s, drawMode);
+    	mQuantizationError = new float[3];
+    	for(int i = 0; i < 3; i++) {
+    		mQuantizationError[i] = s.readFloat();
+    	}
+    	mPositionDecode = new float[16];
+    	Matrix.setIdentityM(mPositionDecode, 0);
+    	mPositionDecode[12] = s.readFloat();
+    	mPositionDecode[13] = s.readFloat();
+    	mPositionDecode[14] = s.readFloat();
+    	float scale = s.readFloat();
+    	mPositionDecode[0] = scale;
+    	mPositionDecode[5] = scale;
+    	mPositionDecode[10] = scale;
+    	mQuantizedVertices = readShorts(s);
+    	mQuantizedTexcoords = readShorts(s);
+    	mTexCoordDecode = null;
+    	if(mQuantizedTexcoords != null) {
+    		mTexCoordDecode = new float[16];
+    		Matrix.setIdentityM(mTexCoordDecode, 0);
+    		mTexCoordDecode[12] = s.readFloat();
+    		mTexCoordDecode[13] = s.readFloat();
+    		mTexCoordDecode[0] = s.readFloat();
+    		mTexCoordDecode[5] = s.readFloat();
+    	}
+    	int len = s.readInt();
+    	mQuantizedNormals = null;
+    	if(len > 0) {
+    		mQuantizedNormals = BufferUtils.createByteBuffer(len);
+    		for (int x = 0; x < len; x++) {
+    			mQuantizedNormals.put(x, s.readByte());
+    		}
+    	}
+    	mQuantize = true;
+    	mVertices = null;
+    	mTexcoords = null;
+    	mNormals = null;
+    	mFixedVertices = null;
+    	mFixedTexcoords = null;
+    	mFixedNormals = null;
+    	invalidateInterleaved();
+    }
+
+    /**
+     * Reads a length prefixed short array from a stream.
+     * @return the shorts or null if the array was empty
+     */
+    private static ShortBuffer readShorts(DataInputStream s) throws IOException {
+    	int len = s.readInt();
+    	if(len == 0) {
+    		return null;
+    	}
+    	ShortBuffer buf = BufferUtils.createShortBuffer(len);
+    	for (int x = 0; x < len; x++) {
+    		buf.put(x, s.readShort());
+    	}
+    	return buf;
+    }
+
+    /**
+     * Reads the vertex count, center, bound and indices of a single mesh,
+     * after its draw mode.
+     */
+    private void readHeader(DataInputStream s, int drawMode) throws IOException {
         int len;
-        mDrawMode = s.readInt();
+        mDrawMode = drawMode;
         mVertexCount = s.readInt();
         
         if(s.readInt() == 0) {
@@ -746,41 +2609,99 @@ public class Object3D extends Spatial {
                 buf.put(s.readChar());
             mIndices = buf;
         }
-        
-        if((len = s.readInt()) == 0) {
-        	mVertices = null;
-        } else {
-        	FloatBuffer buf = BufferUtils.createFloatBuffer(len);
-        	buf.clear();
-            for (int x = 0; x < len; x++)
-                buf.put(s.readFloat());
-            mVertices = buf;
-        }
-        
-        if((len = s.readInt()) == 0) {
-        	mTexcoords = null;
-        } else {
-        	FloatBuffer buf = BufferUtils.createFloatBuffer(len);
-        	buf.clear();
-            for (int x = 0; x < len; x++)
-                buf.put(s.readFloat());
-            mTexcoords = buf;
-        }
-        
-        if((len = s.readInt()) == 0) {
-        	mNormals = null;
-        } else {
-        	FloatBuffer buf = BufferUtils.createFloatBuffer(len);
-        	buf.clear();
-            for (int x = 0; x < len; x++)
-                buf.put(s.readFloat());
-            mNormals = buf;
-        }
+    }
+
+    /**
+     * Reads a length prefixed float array from a stream.
+     * @return the floats or null if the array was empty
+     */
+    private static FloatBuffer readFloats(DataInputStream s) throws IOException {
+    	int len = s.readInt();
+    	if(len == 0) {
+    		return null;
+    	}
+    	FloatBuffer buf = BufferUtils.createFloatBuffer(len);
+    	buf.clear();
+    	for (int x = 0; x < len; x++)
+    		buf.put(s.readFloat());
+    	return buf;
+    }
+    
+    /**
+     * Reads a length prefixed float array from a stream as fixed points.
+     * @return the fixed points or null if the array was empty
+     */
+    private static IntBuffer readFixed(DataInputStream s) throws IOException {
+    	int len = s.readInt();
+    	if(len == 0) {
+    		return null;
+    	}
+    	IntBuffer buf = BufferUtils.createIntBuffer(len);
+    	buf.clear();
+    	for (int x = 0; x < len; x++)
+    		buf.put(BufferUtils.toFixed(s.readFloat()));
+    	return buf;
     }
 
 	@Override
 	public void setMaterial(Material material) {
 		this.mMaterial = material;
+		invalidate();
+	}
+
+	/**
+	 * Identifies the buffers drawn by this mesh. A clone shares the
+	 * identity of the mesh it was cloned from.
+	 * @return the mesh identity
+	 */
+	public int getMeshId() {
+		return getSourceMesh().mMeshId;
+	}
+	
+	/**
+	 * Set the level of detail chain of this object. Level 0 of the chain
+	 * should be this object, or the object it was cloned from. Clones
+	 * made afterwards share the chain.
+	 * @param chain chain to set or null to always draw this mesh
+	 */
+	public void setLodChain(LodChain chain) {
+		mLod = chain;
+		mLodLevel = 0;
+		invalidate();
+	}
+	
+	/**
+	 * @return the level of detail chain or null if there is none
+	 */
+	public LodChain getLodChain() {
+		return mLod;
+	}
+	
+	/**
+	 * @return the level of detail currently used by this object
+	 */
+	public int getLodLevel() {
+		return mLodLevel;
+	}
+	
+	/**
+	 * Selects the level of detail from the size of the world bound on the
+	 * screen. This is called while drawing, so the object is not
+	 * invalidated when the level changes. A command list compares the
+	 * level with the one it recorded instead.
+	 * @param camera camera the object is seen through
+	 * @return true if the level changed
+	 */
+	public boolean selectLod(Camera camera) {
+		if(mLod == null) {
+			return false;
+		}
+		int level = mLod.selectLevel(mLodLevel, camera.getScreenSize(mWorldBound));
+		if(level == mLodLevel) {
+			return false;
+		}
+		mLodLevel = level;
+		return true;
 	}
 
         /**
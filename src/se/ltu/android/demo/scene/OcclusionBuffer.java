@@ -0,0 +1,375 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene;
+
+import java.nio.Buffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import se.ltu.android.demo.scene.intersection.AABBox;
+
+/**
+ * A small depth buffer on the CPU used to find geometries that are hidden
+ * behind other geometries. A few occluders are rasterized into the buffer
+ * each frame and the world bound of every other geometry is then tested
+ * against it. A bound is occluded if every pixel its screen rectangle
+ * covers holds a depth closer than the closest point of the bound.<br><br>
+ *
+ * Only pixels whose centers are covered by an occluder are written and
+ * triangles that reach in front of the near plane are skipped, so down to
+ * the resolution of the buffer the test never hides anything that would
+ * have been visible. Box occluders must be completely inside the geometry
+ * they stand in for.<br><br>
+ *
+ * Depths are normalized device z values, interpolated linearly in screen
+ * space. Nothing but the constants of OpenGL and no Android classes are
+ * used, so the buffer can be tested and timed off the device.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class OcclusionBuffer {
+	// corners of a box are numbered by the bits (x, y, z) of the index
+	private final static char[] BOX_INDICES = {
+		0, 2, 1,  1, 2, 3,	// min z
+		4, 5, 6,  5, 7, 6,	// max z
+		0, 1, 4,  1, 5, 4,	// min y
+		2, 6, 3,  3, 6, 7,	// max y
+		0, 4, 2,  2, 4, 6,	// min x
+		1, 3, 5,  3, 7, 5	// max x
+	};
+
+	private final int mWidth;
+	private final int mHeight;
+	private final float[] mDepth;
+	private final float[] mViewProjection = new float[16];
+	private final float[] mTransform = new float[16];
+	// screen x, y, depth and a flag telling if it can be used, per vertex
+	private float[] mScreen = new float[4 * 64];
+
+	// counters for the current frame
+	private int mOccluders;
+	private int mTriangles;
+	private int mTested;
+	private int mCulled;
+
+	/**
+	 * @param width width of the buffer in pixels
+	 * @param height height of the buffer in pixels
+	 */
+	public OcclusionBuffer(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		mDepth = new float[width * height];
+	}
+
+	/**
+	 * Clears the buffer and the counters and sets the matrices occluders
+	 * and bounds are projected with. Should be called once per frame.
+	 * @param projection projection matrix
+	 * @param view view matrix
+	 */
+	public void begin(float[] projection, float[] view) {
+		multiply(mViewProjection, projection, view);
+		for(int i = 0; i < mDepth.length; i++) {
+			mDepth[i] = 1.0f;
+		}
+		mOccluders = 0;
+		mTriangles = 0;
+		mTested = 0;
+		mCulled = 0;
+	}
+
+	/**
+	 * Rasterizes a mesh into the buffer.
+	 * @param model world transformation of the mesh, for quantized positions
+	 * including the transformation that decodes them
+	 * @param vertices positions, 3 floats, 16.16 fixed points or quantized
+	 * shorts per vertex
+	 * @param indices indices of the triangles
+	 * @param mode GL_TRIANGLES, GL_TRIANGLE_STRIP or GL_TRIANGLE_FAN
+	 */
+	public void addOccluder(float[] model, Buffer vertices, CharBuffer indices, int mode) {
+		multiply(mTransform, mViewProjection, model);
+		int count = vertices.limit() / 3;
+		if(mScreen.length < count * 4) {
+			mScreen = new float[count * 4];
+		}
+		if(vertices instanceof FloatBuffer) {
+			FloatBuffer src = (FloatBuffer)vertices;
+			for(int i = 0; i < count; i++) {
+				project(i, src.get(i*3), src.get(i*3+1), src.get(i*3+2));
+			}
+		} else if(vertices instanceof ShortBuffer) {
+			ShortBuffer src = (ShortBuffer)vertices;
+			for(int i = 0; i < count; i++) {
+				project(i, src.get(i*3), src.get(i*3+1), src.get(i*3+2));
+			}
+		} else {
+			IntBuffer src = (IntBuffer)vertices;
+			final float scale = 1.0f / 65536.0f;
+			for(int i = 0; i < count; i++) {
+				project(i, src.get(i*3) * scale, src.get(i*3+1) * scale,
+						src.get(i*3+2) * scale);
+			}
+		}
+
+		int len = indices.limit();
+		switch(mode) {
+		case GL10.GL_TRIANGLES:
+			for(int i = 0; i + 2 < len; i += 3) {
+				rasterize(indices.get(i), indices.get(i+1), indices.get(i+2));
+			}
+			break;
+		case GL10.GL_TRIANGLE_STRIP:
+			// winding does not matter for depth
+			for(int i = 0; i + 2 < len; i++) {
+				rasterize(indices.get(i), indices.get(i+1), indices.get(i+2));
+			}
+			break;
+		case GL10.GL_TRIANGLE_FAN:
+			for(int i = 1; i + 1 < len; i++) {
+				rasterize(indices.get(0), indices.get(i), indices.get(i+1));
+			}
+			break;
+		}
+		mOccluders++;
+	}
+
+	/**
+	 * Rasterizes a box into the buffer. The box must be completely inside
+	 * the geometry it stands in for.
+	 * @param box box in world coordinates
+	 */
+	public void addOccluder(AABBox box) {
+		for(int i = 0; i < 16; i++) {
+			mTransform[i] = mViewProjection[i];
+		}
+		for(int i = 0; i < 8; i++) {
+			project(i, (i & 1) == 0 ? box.mMinX : box.mMaxX,
+					(i & 2) == 0 ? box.mMinY : box.mMaxY,
+					(i & 4) == 0 ? box.mMinZ : box.mMaxZ);
+		}
+		for(int i = 0; i < BOX_INDICES.length; i += 3) {
+			rasterize(BOX_INDICES[i], BOX_INDICES[i+1], BOX_INDICES[i+2]);
+		}
+		mOccluders++;
+	}
+
+	/**
+	 * Tests a bound against the occluders rasterized so far.
+	 * @param bound bound in world coordinates
+	 * @return true if the bound is completely hidden
+	 */
+	public boolean isOccluded(AABBox bound) {
+		mTested++;
+		float[] m = mViewProjection;
+		float x, y, z, w, sx, sy, sz;
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for(int i = 0; i < 8; i++) {
+			x = (i & 1) == 0 ? bound.mMinX : bound.mMaxX;
+			y = (i & 2) == 0 ? bound.mMinY : bound.mMaxY;
+			z = (i & 4) == 0 ? bound.mMinZ : bound.mMaxZ;
+			w = m[3] * x + m[7] * y + m[11] * z + m[15];
+			sz = m[2] * x + m[6] * y + m[10] * z + m[14];
+			if(w <= 0 || sz < -w) {
+				// reaches in front of the near plane, can not tell
+				return false;
+			}
+			sx = (m[0] * x + m[4] * y + m[8] * z + m[12]) / w;
+			sy = (m[1] * x + m[5] * y + m[9] * z + m[13]) / w;
+			sz /= w;
+			minX = Math.min(minX, sx);
+			maxX = Math.max(maxX, sx);
+			minY = Math.min(minY, sy);
+			maxY = Math.max(maxY, sy);
+			minZ = Math.min(minZ, sz);
+		}
+		int x0 = Math.max(0, (int)Math.floor(toScreenX(minX)));
+		int x1 = Math.min(mWidth - 1, (int)Math.floor(toScreenX(maxX)));
+		int y0 = Math.max(0, (int)Math.floor(toScreenY(minY)));
+		int y1 = Math.min(mHeight - 1, (int)Math.floor(toScreenY(maxY)));
+		if(x1 < x0 || y1 < y0) {
+			// outside the screen, left to the frustum culling
+			return false;
+		}
+		for(int py = y0; py <= y1; py++) {
+			int row = py * mWidth;
+			for(int px = x0; px <= x1; px++) {
+				if(mDepth[row + px] >= minZ) {
+					return false;
+				}
+			}
+		}
+		mCulled++;
+		return true;
+	}
+
+	/**
+	 * @return number of occluders rasterized since <code>begin</code>
+	 */
+	public int getOccluderCount() {
+		return mOccluders;
+	}
+
+	/**
+	 * @return number of occluder triangles rasterized since <code>begin</code>
+	 */
+	public int getTriangleCount() {
+		return mTriangles;
+	}
+
+	/**
+	 * @return number of bounds tested since <code>begin</code>
+	 */
+	public int getTestedCount() {
+		return mTested;
+	}
+
+	/**
+	 * @return number of bounds found occluded since <code>begin</code>
+	 */
+	public int getCulledCount() {
+		return mCulled;
+	}
+
+	/**
+	 * @return width of the buffer in pixels
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * @return height of the buffer in pixels
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * @param x pixel column
+	 * @param y pixel row, counted from the bottom
+	 * @return the depth stored at the pixel
+	 */
+	public float getDepth(int x, int y) {
+		return mDepth[y * mWidth + x];
+	}
+
+	@Override
+	public String toString() {
+		return mCulled+" of "+mTested+" occluded by "+mOccluders
+			+" occluders ("+mTriangles+" triangles)";
+	}
+
+	/**
+	 * Projects a vertex with the current transform into the screen array.
+	 */
+	private void project(int index, float x, float y, float z) {
+		float[] m = mTransform;
+		float[] s = mScreen;
+		int i = index * 4;
+		float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+		float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+		if(w <= 0 || cz < -w) {
+			s[i+3] = 0;
+			return;
+		}
+		s[i] = toScreenX((m[0] * x + m[4] * y + m[8] * z + m[12]) / w);
+		s[i+1] = toScreenY((m[1] * x + m[5] * y + m[9] * z + m[13]) / w);
+		s[i+2] = cz / w;
+		s[i+3] = 1;
+	}
+
+	private float toScreenX(float ndc) {
+		return (ndc * 0.5f + 0.5f) * mWidth;
+	}
+
+	private float toScreenY(float ndc) {
+		return (ndc * 0.5f + 0.5f) * mHeight;
+	}
+
+	/**
+	 * Writes the depth of a projected triangle to every pixel whose center
+	 * it covers, keeping the closest depth.
+	 */
+	private void rasterize(int a, int b, int c) {
+		float[] s = mScreen;
+		a *= 4;
+		b *= 4;
+		c *= 4;
+		if(s[a+3] == 0 || s[b+3] == 0 || s[c+3] == 0) {
+			// skipping an occluder can only make less hidden
+			return;
+		}
+		float ax = s[a], ay = s[a+1];
+		float bx = s[b], by = s[b+1];
+		float cx = s[c], cy = s[c+1];
+		float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+		if(area == 0) {
+			return;
+		}
+		mTriangles++;
+
+		int x0 = Math.max(0, (int)Math.floor(Math.min(ax, Math.min(bx, cx))));
+		int x1 = Math.min(mWidth - 1, (int)Math.ceil(Math.max(ax, Math.max(bx, cx))));
+		int y0 = Math.max(0, (int)Math.floor(Math.min(ay, Math.min(by, cy))));
+		int y1 = Math.min(mHeight - 1, (int)Math.ceil(Math.max(ay, Math.max(by, cy))));
+		if(x1 < x0 || y1 < y0) {
+			return;
+		}
+
+		// barycentric weights of the first pixel center and their steps
+		float inv = 1 / area;
+		float px = x0 + 0.5f;
+		float py = y0 + 0.5f;
+		float w0Row = ((cx - bx) * (py - by) - (cy - by) * (px - bx)) * inv;
+		float w1Row = ((ax - cx) * (py - cy) - (ay - cy) * (px - cx)) * inv;
+		float w2Row = ((bx - ax) * (py - ay) - (by - ay) * (px - ax)) * inv;
+		float w0dx = -(cy - by) * inv, w0dy = (cx - bx) * inv;
+		float w1dx = -(ay - cy) * inv, w1dy = (ax - cx) * inv;
+		float w2dx = -(by - ay) * inv, w2dy = (bx - ax) * inv;
+		float az = s[a+2], bz = s[b+2], cz = s[c+2];
+
+		float w0, w1, w2, depth;
+		int index;
+		for(int y = y0; y <= y1; y++) {
+			w0 = w0Row;
+			w1 = w1Row;
+			w2 = w2Row;
+			index = y * mWidth + x0;
+			for(int x = x0; x <= x1; x++) {
+				if(w0 >= 0 && w1 >= 0 && w2 >= 0) {
+					depth = w0 * az + w1 * bz + w2 * cz;
+					if(depth < mDepth[index]) {
+						mDepth[index] = depth;
+					}
+				}
+				w0 += w0dx;
+				w1 += w1dx;
+				w2 += w2dx;
+				index++;
+			}
+			w0Row += w0dy;
+			w1Row += w1dy;
+			w2Row += w2dy;
+		}
+	}
+
+	/**
+	 * Column major matrix product, result = lhs * rhs.
+	 */
+	private static void multiply(float[] result, float[] lhs, float[] rhs) {
+		for(int col = 0; col < 4; col++) {
+			for(int row = 0; row < 4; row++) {
+				result[col*4 + row] = lhs[row] * rhs[col*4]
+					+ lhs[4 + row] * rhs[col*4 + 1]
+					+ lhs[8 + row] * rhs[col*4 + 2]
+					+ lhs[12 + row] * rhs[col*4 + 3];
+			}
+		}
+	}
+}
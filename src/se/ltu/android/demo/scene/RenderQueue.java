@@ -0,0 +1,337 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene;
+
+import java.util.Arrays;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import android.util.Log;
+
+import se.ltu.android.demo.scene.camera.Camera;
+import se.ltu.android.demo.scene.intersection.AABBox;
+import se.ltu.android.demo.scene.state.Light;
+import se.ltu.android.demo.scene.state.LightManager;
+import se.ltu.android.demo.scene.state.Material;
+import se.ltu.android.demo.util.RadixSort;
+
+/**
+ * Collects the visible Object3D leaves of a scene and draws them sorted
+ * by state instead of in tree order. Each frame the renderer clears the
+ * queue, lets the scene add itself with <code>Spatial.queue()</code>,
+ * sorts it and draws it.<br><br>
+ *
+ * Every entry gets a packed 64 bit sort key:<br>
+ * [63] always zero, keeps the key positive<br>
+ * [62-52] mesh identity (clones share the identity of their target)<br>
+ * [51-40] material identity<br>
+ * [39-16] view depth, front to back<br>
+ * [15-0] index of the entry in this queue<br><br>
+ *
+ * Sorting on mesh and material first keeps redundant buffer binds and
+ * glMaterial calls to a minimum while the depth helps early depth rejection
+ * within each state group. Clones created with <code>Object3D.cloneMesh</code>
+ * share the mesh identity of their target, so all instances of a mesh are
+ * drawn with a single bind of its arrays.<br><br>
+ *
+ * Geometries with a translucent material are kept apart from the opaque
+ * ones and drawn after them, back to front, with depth writes disabled so
+ * that they blend with everything behind them, including each other. They
+ * are sorted on their view depth alone with a radix sort, which allocates
+ * nothing once the queue has grown to the size of the scene.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class RenderQueue {
+	private final static String TAG = "RenderQueue";
+	private final static int MAX_ENTRIES = 1 << 16;
+	private final static long MESH_MASK = 0x7FF;
+	private final static long MATERIAL_MASK = 0xFFF;
+	private final static int DEPTH_RANGE = 0xFFFFFF;
+	private final static int MESH_SHIFT = 52;
+	private final static int MATERIAL_SHIFT = 40;
+	private final static int DEPTH_SHIFT = 16;
+
+	private Object3D[] mEntries = new Object3D[64];
+	private long[] mKeys = new long[64];
+	private int mSize = 0;
+	// translucent entries, their negated view depths and their sort order
+	private Object3D[] mTranslucent = new Object3D[16];
+	private float[] mDepths = new float[16];
+	private int[] mOrder = new int[16];
+	private int mTranslucentSize = 0;
+	private final RadixSort mSorter = new RadixSort();
+	private Camera mCamera;
+	private float[] mViewMatrix = new float[16];
+
+	/**
+	 * Removes all entries from the queue. Should be called
+	 * at the start of every frame.
+	 */
+	public void clear() {
+		for(int i = 0; i < mSize; i++) {
+			mEntries[i] = null;
+		}
+		mSize = 0;
+		for(int i = 0; i < mTranslucentSize; i++) {
+			mTranslucent[i] = null;
+		}
+		mTranslucentSize = 0;
+	}
+
+	/**
+	 * Set the camera that the depth of each entry is calculated from.
+	 * @param camera camera used for this frame
+	 */
+	public void setCamera(Camera camera) {
+		mCamera = camera;
+		float[] view = camera.getViewMatrix();
+		synchronized(view) {
+			for(int i = 0; i < 16; i++) {
+				mViewMatrix[i] = view[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the camera set for this frame
+	 */
+	public Camera getCamera() {
+		return mCamera;
+	}
+
+	/**
+	 * Add a light that the entries may be lit by. Each entry is drawn with
+	 * the lights most relevant to it.
+	 * @param light light to add
+	 * @see LightManager
+	 */
+	public void addLight(Light light) {
+		LightManager.addLight(light);
+	}
+
+	/**
+	 * Add a geometry to the queue.
+	 * @param object geometry to add
+	 */
+	public void add(Object3D object) {
+		Material material = object.getMaterial();
+		if(material != null && material.isTranslucent()) {
+			addTranslucent(object);
+			return;
+		}
+		if(mSize == MAX_ENTRIES) {
+			Log.w(TAG, "Queue is full, dropping "+object);
+			return;
+		}
+		if(mSize == mEntries.length) {
+			grow();
+		}
+		mEntries[mSize] = object;
+		mKeys[mSize] = createKey(object, mSize);
+		mSize++;
+	}
+
+	private void addTranslucent(Object3D object) {
+		if(mTranslucentSize == mTranslucent.length) {
+			int size = mTranslucentSize * 2;
+			Object3D[] entries = new Object3D[size];
+			float[] depths = new float[size];
+			System.arraycopy(mTranslucent, 0, entries, 0, mTranslucentSize);
+			System.arraycopy(mDepths, 0, depths, 0, mTranslucentSize);
+			mTranslucent = entries;
+			mDepths = depths;
+			mOrder = new int[size];
+		}
+		mTranslucent[mTranslucentSize] = object;
+		// negated so that an ascending sort puts the farthest first
+		mDepths[mTranslucentSize] = -getDepth(object.getWorldBound());
+		mTranslucentSize++;
+	}
+
+	/**
+	 * @return number of geometries in the queue
+	 */
+	public int size() {
+		return mSize + mTranslucentSize;
+	}
+
+	/**
+	 * @return number of translucent geometries in the queue
+	 */
+	public int getTranslucentCount() {
+		return mTranslucentSize;
+	}
+
+	/**
+	 * Removes the entries that are hidden behind occluders. The entries
+	 * marked as occluders are rasterized into the buffer first and then
+	 * every entry is tested against it. Must be called before
+	 * <code>sort</code>.
+	 * @param buffer occlusion buffer to use
+	 * @return number of entries removed
+	 */
+	public int cullOccluded(OcclusionBuffer buffer) {
+		buffer.begin(Camera.getProjectionMatrix(), mViewMatrix);
+		for(int i = 0; i < mSize; i++) {
+			if(mEntries[i].isOccluder()) {
+				mEntries[i].rasterizeOccluder(buffer);
+			}
+		}
+		if(buffer.getOccluderCount() == 0) {
+			return 0;
+		}
+		int size = 0;
+		for(int i = 0; i < mSize; i++) {
+			Object3D entry = mEntries[i];
+			if(buffer.isOccluded(entry.getWorldBound())) {
+				continue;
+			}
+			// the index in the key must follow the entry
+			mEntries[size] = entry;
+			mKeys[size] = (mKeys[i] & ~0xFFFFL) | size;
+			size++;
+		}
+		for(int i = size; i < mSize; i++) {
+			mEntries[i] = null;
+		}
+		int culled = mSize - size;
+		mSize = size;
+		// translucent geometries hide nothing but may be hidden
+		size = 0;
+		for(int i = 0; i < mTranslucentSize; i++) {
+			Object3D entry = mTranslucent[i];
+			if(buffer.isOccluded(entry.getWorldBound())) {
+				continue;
+			}
+			mTranslucent[size] = entry;
+			mDepths[size] = mDepths[i];
+			size++;
+		}
+		for(int i = size; i < mTranslucentSize; i++) {
+			mTranslucent[i] = null;
+		}
+		culled += mTranslucentSize - size;
+		mTranslucentSize = size;
+		return culled;
+	}
+
+	/**
+	 * Sorts the opaque entries by their sort keys and the translucent
+	 * entries back to front.
+	 */
+	public void sort() {
+		Arrays.sort(mKeys, 0, mSize);
+		mSorter.sort(mDepths, mTranslucentSize, mOrder);
+	}
+
+	/**
+	 * Draws every opaque entry in sort order, followed by the translucent
+	 * entries back to front, each with the lights most relevant to it.
+	 * The model view matrix is expected to hold the view matrix of the camera.
+	 * Each entry replaces it with its own model view matrix.
+	 * @param gl
+	 */
+	public void draw(GL10 gl) {
+		// entries sharing a source mesh are adjacent after sorting, so the
+		// arrays only need to be bound once for each run of instances
+		Object3D bound = null;
+		for(int i = 0; i < mSize; i++) {
+			Object3D entry = mEntries[(int)(mKeys[i] & 0xFFFF)];
+			Object3D mesh = entry.getSourceMesh();
+			if(mesh != bound) {
+				if(bound != null) {
+					bound.unbindArrays(gl);
+					bound = null;
+				}
+				if(!mesh.isDrawable()) {
+					continue;
+				}
+				mesh.bindArrays(gl);
+				bound = mesh;
+			}
+			LightManager.apply(gl, entry.getWorldBound());
+			entry.drawInstance(gl, mCamera);
+		}
+		if(bound != null) {
+			bound.unbindArrays(gl);
+		}
+		if(mTranslucentSize > 0) {
+			drawTranslucent(gl);
+		}
+	}
+
+	/**
+	 * Draws the translucent entries back to front without writing depth.
+	 * Their materials enable blending.
+	 */
+	private void drawTranslucent(GL10 gl) {
+		gl.glDepthMask(false);
+		Object3D bound = null;
+		for(int i = 0; i < mTranslucentSize; i++) {
+			Object3D entry = mTranslucent[mOrder[i]];
+			Object3D mesh = entry.getSourceMesh();
+			if(mesh != bound) {
+				if(bound != null) {
+					bound.unbindArrays(gl);
+					bound = null;
+				}
+				if(!mesh.isDrawable()) {
+					continue;
+				}
+				mesh.bindArrays(gl);
+				bound = mesh;
+			}
+			LightManager.apply(gl, entry.getWorldBound());
+			entry.drawInstance(gl, mCamera);
+		}
+		if(bound != null) {
+			bound.unbindArrays(gl);
+		}
+		gl.glDepthMask(true);
+	}
+
+	private void grow() {
+		Object3D[] entries = new Object3D[mSize * 2];
+		long[] keys = new long[mSize * 2];
+		System.arraycopy(mEntries, 0, entries, 0, mSize);
+		System.arraycopy(mKeys, 0, keys, 0, mSize);
+		mEntries = entries;
+		mKeys = keys;
+	}
+
+	private long createKey(Object3D object, int index) {
+		long mesh = object.getMeshId() & MESH_MASK;
+		Material material = object.getMaterial();
+		long mat = material == null ? 0 : material.getId() & MATERIAL_MASK;
+		return (mesh << MESH_SHIFT)
+			| (mat << MATERIAL_SHIFT)
+			| ((long)quantizeDepth(getDepth(object.getWorldBound())) << DEPTH_SHIFT)
+			| index;
+	}
+
+	/**
+	 * @return distance from the camera to the center of the bound along
+	 * the view direction
+	 */
+	private float getDepth(AABBox bound) {
+		float x = (bound.mMinX + bound.mMaxX) * 0.5f;
+		float y = (bound.mMinY + bound.mMaxY) * 0.5f;
+		float z = (bound.mMinZ + bound.mMaxZ) * 0.5f;
+		return -(mViewMatrix[2] * x + mViewMatrix[6] * y
+				+ mViewMatrix[10] * z + mViewMatrix[14]);
+	}
+
+	/**
+	 * A view depth scaled to 24 bits of the depth range.
+	 */
+	private int quantizeDepth(float depth) {
+		float far = Camera.getFarDistance();
+		if(depth <= 0 || far <= 0) {
+			return 0;
+		}
+		if(depth >= far) {
+			return DEPTH_RANGE;
+		}
+		return (int)(depth / far * DEPTH_RANGE);
+	}
+}
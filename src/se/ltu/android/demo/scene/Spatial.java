@@ -9,6 +9,7 @@ import android.opengl.Matrix;
 import android.util.Log;
 
 import se.ltu.android.demo.scene.animation.KeyFrameAnimation;
+import se.ltu.android.demo.scene.camera.Camera;
 import se.ltu.android.demo.scene.intersection.AABBox;
 import se.ltu.android.demo.scene.intersection.PickResult;
 import se.ltu.android.demo.scene.intersection.Ray;
@@ -26,6 +27,10 @@ public abstract class Spatial {
 	protected AABBox mWorldBound;
 	protected ArrayList<KeyFrameAnimation> mAnimations;
 	protected Boolean mIsPickable = true; 
+	protected boolean mIsStatic = false;
+	protected boolean mIsOccluder = false;
+	// incremented on every change to this spatial or its children
+	private int mRevision = 0;
 	
 	/**
 	 * Transformation matrix
@@ -34,6 +39,16 @@ public abstract class Spatial {
 	protected float[] mLocalTranslation = null;
 	protected float[] mLocalRotation = null;
 	protected float[] mLocalScale = null;
+	// incremented every time the transformation matrix changes
+	private int mTransformRevision = 0;
+	
+	// view * world, cached for the camera and revisions it was calculated with
+	private float[] mModelViewMatrix;
+	private Camera mModelViewCamera;
+	private int mModelViewViewRevision;
+	private int mModelViewTransformRevision;
+	// changes every time the cached model view matrix is calculated
+	protected int mModelViewRevision = 0;
 	
 	private Object mDataObject; // would be needed ??
 		
@@ -49,6 +64,72 @@ public abstract class Spatial {
 	 */
 	public abstract void draw(GL10 gl);
 	
+	/**
+	 * Draw the geometry or go through the children if it's not a geometry,
+	 * skipping anything that is outside the view frustum of the camera.
+	 * The frustum of the camera must be updated before the call.
+	 * @param gl
+	 * @param camera camera to cull against
+	 */
+	public void draw(GL10 gl, Camera camera) {
+		int planeState = camera.getPlaneState();
+		if(!isCulled(camera)) {
+			draw(gl);
+		}
+		camera.setPlaneState(planeState);
+	}
+	
+	/**
+	 * Tests the world bound of this spatial against the view frustum of
+	 * the camera. Frustum planes that the bound is completely inside of
+	 * are removed from the plane state of the camera, so that the children
+	 * of this spatial do not test them again. The caller must restore the
+	 * plane state when it is done with this spatial.
+	 * @param camera camera to cull against
+	 * @return true if this spatial is completely outside the view frustum
+	 */
+	protected boolean isCulled(Camera camera) {
+		if(!mWorldBound.isSet()) {
+			// bound was never calculated, we can not tell
+			return false;
+		}
+		return camera.contains(mWorldBound) == Camera.OUTSIDE;
+	}
+	
+	/**
+	 * Add the geometries of this spatial, or of its children if it's not
+	 * a geometry, to a render queue instead of drawing them directly.
+	 * @param queue render queue to add to
+	 */
+	public abstract void queue(RenderQueue queue);
+	
+	/**
+	 * Record the GL operations needed to draw this spatial, or its
+	 * children if it's not a geometry, into a command list.
+	 * @param list command list to record into
+	 */
+	public abstract void record(CommandList list);
+	
+	/**
+	 * Tell this spatial and its ancestors that something that affects
+	 * how they are drawn has changed. Transformations, attached children
+	 * and materials do this themselves.
+	 */
+	public void invalidate() {
+		mRevision++;
+		if(mParent != null) {
+			mParent.invalidate();
+		}
+	}
+	
+	/**
+	 * @return a number that changes every time this spatial or
+	 * any of its children is invalidated
+	 */
+	public int getRevision() {
+		return mRevision;
+	}
+	
 	public String getName() {
 		return mName;
 	}
@@ -77,6 +158,34 @@ public abstract class Spatial {
 		return mTransformMatrix;
 	}
 	
+	/**
+	 * Returns the product of the view matrix of the camera and the world
+	 * transformation of this spatial, ready to be loaded with glLoadMatrixf.
+	 * The product is cached and calculated again only if the transformation,
+	 * the view matrix or the camera has changed since the last call.
+	 * @param camera camera to get the view matrix from
+	 * @return the model view matrix of this spatial, must not be modified
+	 */
+	public float[] getModelViewMatrix(Camera camera) {
+		float[] view = camera.getViewMatrix();
+		synchronized(view) {
+			int viewRevision = camera.getViewRevision();
+			if(mModelViewMatrix == null) {
+				mModelViewMatrix = new float[16];
+			} else if(camera == mModelViewCamera
+					&& viewRevision == mModelViewViewRevision
+					&& mTransformRevision == mModelViewTransformRevision) {
+				return mModelViewMatrix;
+			}
+			Matrix.multiplyMM(mModelViewMatrix, 0, view, 0, mTransformMatrix, 0);
+			mModelViewCamera = camera;
+			mModelViewViewRevision = viewRevision;
+			mModelViewTransformRevision = mTransformRevision;
+			mModelViewRevision++;
+		}
+		return mModelViewMatrix;
+	}
+	
 	public void setLocalTranslation(float x, float y, float z) {
 		if(mLocalTranslation == null) {
 			mLocalTranslation = new float[3];
@@ -145,6 +254,8 @@ public abstract class Spatial {
 		for(int i = 0; i < 16; i++) {
 			this.mTransformMatrix[i] = transM[i];
 		}
+		mTransformRevision++;
+		invalidate();
 	}
 
 	/**
@@ -207,6 +318,8 @@ public abstract class Spatial {
 		if (mLocalScale != null) {
 			Matrix.scaleM(mTransformMatrix, 0, mLocalScale[0], mLocalScale[1], mLocalScale[2]);
 		}
+		mTransformRevision++;
+		invalidate();
 	}
 	
 	/**
@@ -331,6 +444,43 @@ public abstract class Spatial {
 	public boolean isPickable() {
 		return mIsPickable;
 	}
+	
+	/**
+	 * Set if this object will never move or change, which lets
+	 * Container.mergeStatic() batch it together with other static objects.<br>
+	 * <br>
+	 * Default is false.
+	 * @param isStatic true if this object is static
+	 */
+	public void setStatic(boolean isStatic) {
+		this.mIsStatic = isStatic;
+	}
+	
+	/**
+	 * @return true if this object is static
+	 */
+	public boolean isStatic() {
+		return mIsStatic;
+	}
+	
+	/**
+	 * Set if this object should be rasterized into the occlusion buffer
+	 * to hide the objects behind it. Only large objects that are cheap
+	 * to rasterize make good occluders.<br>
+	 * <br>
+	 * Default is false.
+	 * @param occluder true if this object is an occluder
+	 */
+	public void setOccluder(boolean occluder) {
+		this.mIsOccluder = occluder;
+	}
+	
+	/**
+	 * @return true if this object is an occluder
+	 */
+	public boolean isOccluder() {
+		return mIsOccluder;
+	}
 
 	/**
 	 * Set an object that contains application specific information
@@ -0,0 +1,302 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import se.ltu.android.demo.util.BufferUtils;
+
+/**
+ * Describes the layout of one vertex in an interleaved vertex buffer.
+ * Attributes are stored in the order position, normal, color and texture
+ * coordinates and absent attributes take no space. With every attribute
+ * present a vertex is laid out as:<br>
+ * [0-11] position, 3 floats<br>
+ * [12-23] normal, 3 floats<br>
+ * [24-27] color, 4 unsigned bytes<br>
+ * [28-35] texture coordinates, 2 floats<br><br>
+ *
+ * All offsets are multiples of four so every attribute stays aligned.
+ * Positions, normals and texture coordinates are either all floats or
+ * all 16.16 fixed points, which have the same size.<br><br>
+ *
+ * A quantized format, of type GL_SHORT, stores positions and texture
+ * coordinates as shorts and normals as bytes, padded to keep the
+ * alignment:<br>
+ * [0-7] position, 3 shorts<br>
+ * [8-11] normal, 3 bytes<br>
+ * [12-15] color, 4 unsigned bytes<br>
+ * [16-19] texture coordinates, 2 shorts
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class VertexFormat {
+	public final static int POSITION = 1;
+	public final static int NORMAL = 2;
+	public final static int COLOR = 4;
+	public final static int TEXCOORD = 8;
+
+	private final int mAttributes;
+	private final int mType;
+	private final int mStride;
+	private final int mNormalOffset;
+	private final int mColorOffset;
+	private final int mTexCoordOffset;
+
+	/**
+	 * Creates a float format with the given attributes. Position is always included.
+	 * @param attributes bitwise or of POSITION, NORMAL, COLOR and TEXCOORD
+	 */
+	public VertexFormat(int attributes) {
+		this(attributes, GL10.GL_FLOAT);
+	}
+	
+	/**
+	 * Creates a format with the given attributes. Position is always included.
+	 * @param attributes bitwise or of POSITION, NORMAL, COLOR and TEXCOORD
+	 * @param type GL_FLOAT, GL_FIXED or GL_SHORT for the quantized format
+	 */
+	public VertexFormat(int attributes, int type) {
+		mAttributes = attributes | POSITION;
+		mType = type;
+		boolean quantized = type == GL10.GL_SHORT;
+		int offset = quantized ? 8 : 12;
+		if((attributes & NORMAL) != 0) {
+			mNormalOffset = offset;
+			offset += quantized ? 4 : 12;
+		} else {
+			mNormalOffset = -1;
+		}
+		if((attributes & COLOR) != 0) {
+			mColorOffset = offset;
+			offset += 4;
+		} else {
+			mColorOffset = -1;
+		}
+		if((attributes & TEXCOORD) != 0) {
+			mTexCoordOffset = offset;
+			offset += quantized ? 4 : 8;
+		} else {
+			mTexCoordOffset = -1;
+		}
+		mStride = offset;
+	}
+
+	/**
+	 * @param attribute one of NORMAL, COLOR or TEXCOORD
+	 * @return true if the format contains the attribute
+	 */
+	public boolean has(int attribute) {
+		return (mAttributes & attribute) != 0;
+	}
+
+	/**
+	 * @return the attributes of this format as a bit mask
+	 */
+	public int getAttributes() {
+		return mAttributes;
+	}
+
+	/**
+	 * @return GL type of positions and texture coordinates
+	 */
+	public int getType() {
+		return mType;
+	}
+
+	/**
+	 * @return GL type of normals, GL_BYTE for the quantized format
+	 */
+	public int getNormalType() {
+		return isQuantized() ? GL10.GL_BYTE : mType;
+	}
+
+	/**
+	 * @return true if this is the quantized format
+	 */
+	public boolean isQuantized() {
+		return mType == GL10.GL_SHORT;
+	}
+
+	/**
+	 * @return number of bytes between the start of two vertices
+	 */
+	public int getStride() {
+		return mStride;
+	}
+
+	/**
+	 * @return byte offset of the normal within a vertex or -1 if not present
+	 */
+	public int getNormalOffset() {
+		return mNormalOffset;
+	}
+
+	/**
+	 * @return byte offset of the color within a vertex or -1 if not present
+	 */
+	public int getColorOffset() {
+		return mColorOffset;
+	}
+
+	/**
+	 * @return byte offset of the texture coordinates within a vertex or -1 if not present
+	 */
+	public int getTexCoordOffset() {
+		return mTexCoordOffset;
+	}
+
+	/**
+	 * Interleaves separate float attribute arrays into one buffer of this
+	 * format, converting them to fixed point if this is a fixed format.
+	 * Arrays for attributes that are not part of the format are ignored.
+	 * @param count number of vertices
+	 * @param vertices positions, 3 floats per vertex
+	 * @param normals normals, 3 floats per vertex
+	 * @param colors colors, 4 bytes per vertex
+	 * @param texcoords texture coordinates, 2 floats per vertex
+	 * @return a new direct buffer holding <code>count * getStride()</code> bytes
+	 */
+	public ByteBuffer interleave(int count, FloatBuffer vertices, FloatBuffer normals,
+			ByteBuffer colors, FloatBuffer texcoords) {
+		return interleaveBuffers(count, vertices, normals, colors, texcoords);
+	}
+
+	/**
+	 * Interleaves separate fixed point attribute arrays into one buffer of
+	 * this format, converting them to floats if this is a float format.
+	 * Arrays for attributes that are not part of the format are ignored.
+	 * @param count number of vertices
+	 * @param vertices positions, 3 fixed points per vertex
+	 * @param normals normals, 3 fixed points per vertex
+	 * @param colors colors, 4 bytes per vertex
+	 * @param texcoords texture coordinates, 2 fixed points per vertex
+	 * @return a new direct buffer holding <code>count * getStride()</code> bytes
+	 */
+	public ByteBuffer interleave(int count, IntBuffer vertices, IntBuffer normals,
+			ByteBuffer colors, IntBuffer texcoords) {
+		return interleaveBuffers(count, vertices, normals, colors, texcoords);
+	}
+
+	/**
+	 * Interleaves separate quantized attribute arrays into one buffer of
+	 * this format, which must be the quantized format.
+	 * Arrays for attributes that are not part of the format are ignored.
+	 * @param count number of vertices
+	 * @param vertices positions, 3 shorts per vertex
+	 * @param normals normals, 3 bytes per vertex
+	 * @param colors colors, 4 bytes per vertex
+	 * @param texcoords texture coordinates, 2 shorts per vertex
+	 * @return a new direct buffer holding <code>count * getStride()</code> bytes
+	 */
+	public ByteBuffer interleave(int count, ShortBuffer vertices, ByteBuffer normals,
+			ByteBuffer colors, ShortBuffer texcoords) {
+		ByteBuffer dst = BufferUtils.createByteBuffer(count * mStride);
+		int base;
+		for(int i = 0; i < count; i++) {
+			base = i * mStride;
+			for(int n = 0; n < 3; n++) {
+				dst.putShort(base + n*2, vertices.get(i*3+n));
+			}
+			if(mNormalOffset >= 0) {
+				for(int n = 0; n < 3; n++) {
+					dst.put(base + mNormalOffset + n, normals.get(i*3+n));
+				}
+			}
+			if(mColorOffset >= 0) {
+				for(int n = 0; n < 4; n++) {
+					dst.put(base + mColorOffset + n, colors.get(i*4+n));
+				}
+			}
+			if(mTexCoordOffset >= 0) {
+				for(int n = 0; n < 2; n++) {
+					dst.putShort(base + mTexCoordOffset + n*2, texcoords.get(i*2+n));
+				}
+			}
+		}
+		dst.clear();
+		return dst;
+	}
+
+	private ByteBuffer interleaveBuffers(int count, Buffer vertices, Buffer normals,
+			ByteBuffer colors, Buffer texcoords) {
+		ByteBuffer dst = BufferUtils.createByteBuffer(count * mStride);
+		interleave(dst, 0, count, vertices, normals, colors, texcoords);
+		return dst;
+	}
+
+	/**
+	 * Rewrites a range of vertices of an interleaved buffer from separate
+	 * float or fixed point attribute arrays.
+	 * @param dst interleaved buffer of this format
+	 * @param first first vertex to write
+	 * @param count number of vertices to write
+	 */
+	void interleave(ByteBuffer dst, int first, int count, Buffer vertices,
+			Buffer normals, ByteBuffer colors, Buffer texcoords) {
+		int base;
+		for(int i = first; i < first + count; i++) {
+			base = i * mStride;
+			for(int n = 0; n < 3; n++) {
+				putComponent(dst, base + n*4, vertices, i*3+n);
+			}
+			if(mNormalOffset >= 0) {
+				for(int n = 0; n < 3; n++) {
+					putComponent(dst, base + mNormalOffset + n*4, normals, i*3+n);
+				}
+			}
+			if(mColorOffset >= 0) {
+				for(int n = 0; n < 4; n++) {
+					dst.put(base + mColorOffset + n, colors.get(i*4+n));
+				}
+			}
+			if(mTexCoordOffset >= 0) {
+				for(int n = 0; n < 2; n++) {
+					putComponent(dst, base + mTexCoordOffset + n*4, texcoords, i*2+n);
+				}
+			}
+		}
+		dst.clear();
+	}
+
+	/**
+	 * Writes one component of a float or fixed point source buffer
+	 * in the type of this format.
+	 */
+	private void putComponent(ByteBuffer dst, int offset, Buffer src, int index) {
+		if(src instanceof FloatBuffer) {
+			float value = ((FloatBuffer)src).get(index);
+			if(mType == GL10.GL_FIXED) {
+				dst.putInt(offset, BufferUtils.toFixed(value));
+			} else {
+				dst.putFloat(offset, value);
+			}
+		} else {
+			int value = ((IntBuffer)src).get(index);
+			if(mType == GL10.GL_FIXED) {
+				dst.putInt(offset, value);
+			} else {
+				dst.putFloat(offset, BufferUtils.toFloat(value));
+			}
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof VertexFormat)) {
+			return false;
+		}
+		VertexFormat other = (VertexFormat)o;
+		return other.mAttributes == mAttributes && other.mType == mType;
+	}
+
+	@Override
+	public int hashCode() {
+		return mAttributes ^ mType;
+	}
+}
@@ -191,7 +191,8 @@ public class KeyFrameAnimation {
 			synchronized (caller) {
 				caller.setLocalTranslation(mTmpTrans);
 				caller.updateTransform();
-				caller.updateWorldBound(false);
+				// propagate so that the parents bounds still contain us when culling
+				caller.updateWorldBound(true);
 			}
 		}
 	}
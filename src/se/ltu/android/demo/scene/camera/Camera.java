@@ -1,6 +1,7 @@
 /* SVN FILE: $Id: Camera.java 24 2009-08-17 15:32:24Z belse $ */
 package se.ltu.android.demo.scene.camera;
 
+import se.ltu.android.demo.scene.intersection.AABBox;
 import se.ltu.android.demo.scene.intersection.Ray;
 import android.opengl.Matrix;
 
@@ -16,6 +17,30 @@ public class Camera {
 	 * Constant for multiplying angular degrees to radians. 
 	 */
 	public static final float DEG_TO_RAD = 0.01745329238474369f;
+	/**
+	 * A bounding volume is completely outside the view frustum.
+	 */
+	public static final int OUTSIDE = 0;
+	/**
+	 * A bounding volume intersects at least one plane of the view frustum.
+	 */
+	public static final int INTERSECTS = 1;
+	/**
+	 * A bounding volume is completely inside the view frustum.
+	 */
+	public static final int INSIDE = 2;
+	/**
+	 * Plane state where all six frustum planes need to be tested.
+	 */
+	public static final int ALL_PLANES = 0x3F;
+	
+	// frustum plane indices
+	private static final int PLANE_LEFT = 0;
+	private static final int PLANE_RIGHT = 1;
+	private static final int PLANE_BOTTOM = 2;
+	private static final int PLANE_TOP = 3;
+	private static final int PLANE_NEAR = 4;
+	private static final int PLANE_FAR = 5;
 	
 	// Projection matrix.. keep static so all instances of camera
 	// share the same projection
@@ -29,10 +54,13 @@ public class Camera {
 	// keep some variables that are good for calculating a picking ray
 	private static float mNearHeight;
 	private static float mZNear;
+	private static float mZFar;
 	private static float mAspect;
 	private static float mHeight;
 	private static float mHalfWidth;
 	private static float mHalfHeight;
+	// increased each time the projection changes
+	private static int mProjectionRevision = 0;
 	
 	// Model View matrix and instance variables 
 	private float[] mViewMatrix = {
@@ -43,6 +71,16 @@ public class Camera {
 	};
 	private float[] mInvModelMatrix = new float[16];
 	private float[] mPosition = new float[3];
+	// increased each time the view matrix changes
+	private int mViewRevision = 0;
+	
+	// view frustum planes (a,b,c,d) in world coordinates, the normals point inwards
+	private float[] mFrustumPlanes = new float[24];
+	private float[] mViewProjection = new float[16];
+	private int mFrustumViewRevision = -1;
+	private int mFrustumProjectionRevision = -1;
+	// bit i is set if plane i still needs to be tested
+	private int mPlaneState = ALL_PLANES;
 	
 	public Camera() {
 		
@@ -60,6 +98,7 @@ public class Camera {
 		float tan_fovy_half = (float) Math.tan((fovy * DEG_TO_RAD) / 2);
 		Camera.mNearHeight = zNear * tan_fovy_half;
 		Camera.mZNear = zNear;
+		Camera.mZFar = zFar;
 		Camera.mHeight = height;
 		Camera.mHalfWidth = width / 2;
 		Camera.mHalfHeight = height / 2;
@@ -86,6 +125,7 @@ public class Camera {
 		mProjectionMatrix[13] = 0.0f;
 		mProjectionMatrix[14] = (2 * zFar * zNear) / (zNear - zFar);
 		mProjectionMatrix[15] = 0.0f;
+		mProjectionRevision++;
 	}
 	
 	/**
@@ -95,11 +135,19 @@ public class Camera {
 		return mProjectionMatrix;
 	}
 	
+	/**
+	 * @return distance to the far-plane of the projection
+	 */
+	public static float getFarDistance() {
+		return mZFar;
+	}
+	
 	/**
 	 * @param m the model-view matrix to set
 	 */
 	public void setViewMatrix(float[] m) {
 		synchronized(mViewMatrix) {
+			mViewRevision++;
 			for(int i = 0; i < 16; i++) {
 				mViewMatrix[i] = m[i];
 			}
@@ -114,6 +162,7 @@ public class Camera {
 	 */
 	public void setRotationViewMatrix(float[] rotM) {
 		synchronized(mViewMatrix) {
+			mViewRevision++;
 			for(int i = 0; i < 16; i++) {
 				mViewMatrix[i] = rotM[i];
 			}
@@ -204,6 +253,7 @@ public class Camera {
     	}
 
     	synchronized(mViewMatrix) {
+	    	mViewRevision++;
 	    	mViewMatrix[0] = x[0];
 	    	mViewMatrix[4] = x[1];
 	    	mViewMatrix[8] = x[2];
@@ -238,6 +288,7 @@ public class Camera {
 	 */
 	public void translate(float x, float y, float z) {
 		synchronized(mViewMatrix) {
+			mViewRevision++;
 			mPosition[0] -= x;
 			mPosition[1] -= y;
 			mPosition[2] -= z;
@@ -254,6 +305,7 @@ public class Camera {
 			return;
 		}
 		synchronized(mViewMatrix) {
+			mViewRevision++;
 			mPosition[0] -= vector3f[0];
 			mPosition[1] -= vector3f[1];
 			mPosition[2] -= vector3f[2];
@@ -273,6 +325,7 @@ public class Camera {
 	 */
 	public void setIdentity() {
 		synchronized(mViewMatrix) {
+			mViewRevision++;
 			Matrix.setIdentityM(mViewMatrix, 0);
 			mPosition[0] = 0;
 			mPosition[1] = 0;
@@ -288,6 +341,7 @@ public class Camera {
 	 */
 	public void setPosition(float x, float y, float z) {
 		synchronized(mViewMatrix) {
+			mViewRevision++;
 			// revert last position
 			Matrix.translateM(mViewMatrix, 0, mPosition[0], mPosition[1], mPosition[2]);
 			// set new position
@@ -328,4 +382,145 @@ public class Camera {
 
 		return new Ray(rayPos[0], rayPos[1], rayPos[2], rayDir[0], rayDir[1], rayDir[2]);
 	}
+	
+	/**
+	 * Extracts the view frustum planes from the projection matrix and the
+	 * view matrix of this camera, if any of them has changed since the last
+	 * call. Also resets the plane state so that the next culling pass tests
+	 * all planes. Should be called once per frame before culling.
+	 */
+	public void updateFrustum() {
+		mPlaneState = ALL_PLANES;
+		synchronized(mViewMatrix) {
+			if(mFrustumViewRevision == mViewRevision
+					&& mFrustumProjectionRevision == mProjectionRevision) {
+				return;
+			}
+			mFrustumViewRevision = mViewRevision;
+			mFrustumProjectionRevision = mProjectionRevision;
+			Matrix.multiplyMM(mViewProjection, 0, mProjectionMatrix, 0, mViewMatrix, 0);
+		}
+		// the planes are combinations of the rows of the column major matrix
+		float[] m = mViewProjection;
+		setPlane(PLANE_LEFT, m[3] + m[0], m[7] + m[4], m[11] + m[8], m[15] + m[12]);
+		setPlane(PLANE_RIGHT, m[3] - m[0], m[7] - m[4], m[11] - m[8], m[15] - m[12]);
+		setPlane(PLANE_BOTTOM, m[3] + m[1], m[7] + m[5], m[11] + m[9], m[15] + m[13]);
+		setPlane(PLANE_TOP, m[3] - m[1], m[7] - m[5], m[11] - m[9], m[15] - m[13]);
+		setPlane(PLANE_NEAR, m[3] + m[2], m[7] + m[6], m[11] + m[10], m[15] + m[14]);
+		setPlane(PLANE_FAR, m[3] - m[2], m[7] - m[6], m[11] - m[10], m[15] - m[14]);
+	}
+	
+	private void setPlane(int plane, float a, float b, float c, float d) {
+		float invLength = 1 / Matrix.length(a, b, c);
+		int i = plane * 4;
+		mFrustumPlanes[i] = a * invLength;
+		mFrustumPlanes[i+1] = b * invLength;
+		mFrustumPlanes[i+2] = c * invLength;
+		mFrustumPlanes[i+3] = d * invLength;
+	}
+	
+	/**
+	 * Tests a bounding box against the planes in the current plane state.
+	 * The plane that rejected the box the last time is tested first, and
+	 * planes that the box is completely inside of are removed from the plane
+	 * state so that boxes contained by this one do not need to test them.
+	 * @param bound bounding box in world coordinates
+	 * @return OUTSIDE, INTERSECTS or INSIDE
+	 */
+	public int contains(AABBox bound) {
+		if(mPlaneState == 0) {
+			return INSIDE;
+		}
+		float cx = (bound.mMaxX + bound.mMinX) * 0.5f;
+		float cy = (bound.mMaxY + bound.mMinY) * 0.5f;
+		float cz = (bound.mMaxZ + bound.mMinZ) * 0.5f;
+		float ex = (bound.mMaxX - bound.mMinX) * 0.5f;
+		float ey = (bound.mMaxY - bound.mMinY) * 0.5f;
+		float ez = (bound.mMaxZ - bound.mMinZ) * 0.5f;
+		
+		int first = bound.mCheckPlane;
+		int plane, mask, i;
+		float a, b, c, distance, radius;
+		// start with the plane that rejected the box last time
+		for(int n = -1; n < 6; n++) {
+			if(n == first) {
+				continue;
+			}
+			plane = (n < 0) ? first : n;
+			mask = 1 << plane;
+			if((mPlaneState & mask) == 0) {
+				continue;
+			}
+			i = plane * 4;
+			a = mFrustumPlanes[i];
+			b = mFrustumPlanes[i+1];
+			c = mFrustumPlanes[i+2];
+			distance = a * cx + b * cy + c * cz + mFrustumPlanes[i+3];
+			radius = Math.abs(a) * ex + Math.abs(b) * ey + Math.abs(c) * ez;
+			if(distance < -radius) {
+				// remember the plane for the next frame
+				bound.mCheckPlane = plane;
+				return OUTSIDE;
+			}
+			if(distance >= radius) {
+				mPlaneState &= ~mask;
+			}
+		}
+		return (mPlaneState == 0) ? INSIDE : INTERSECTS;
+	}
+	
+	/**
+	 * Estimates how large a bounding box is on the screen, as the projected
+	 * diameter of the sphere around the box.
+	 * @param bound bounding box in world coordinates
+	 * @return the size in pixels, or Float.MAX_VALUE if the camera is
+	 * inside the sphere
+	 */
+	public float getScreenSize(AABBox bound) {
+		float cx = (bound.mMaxX + bound.mMinX) * 0.5f;
+		float cy = (bound.mMaxY + bound.mMinY) * 0.5f;
+		float cz = (bound.mMaxZ + bound.mMinZ) * 0.5f;
+		float radius = Matrix.length(bound.mMaxX - bound.mMinX,
+				bound.mMaxY - bound.mMinY, bound.mMaxZ - bound.mMinZ) * 0.5f;
+		float depth;
+		synchronized(mViewMatrix) {
+			depth = -(mViewMatrix[2] * cx + mViewMatrix[6] * cy
+					+ mViewMatrix[10] * cz + mViewMatrix[14]);
+		}
+		if(depth <= radius) {
+			return Float.MAX_VALUE;
+		}
+		// projection[5] is cot(fovy/2), which maps view y to normalized y
+		return 2 * radius * mProjectionMatrix[5] / depth * mHalfHeight;
+	}
+	
+	/**
+	 * @return bit mask of the frustum planes that still needs to be tested
+	 */
+	public int getPlaneState() {
+		return mPlaneState;
+	}
+	
+	/**
+	 * Set the frustum planes that needs to be tested. Used to restore
+	 * the state after culling a subtree.
+	 * @param state bit mask of planes, see ALL_PLANES
+	 */
+	public void setPlaneState(int state) {
+		mPlaneState = state;
+	}
+	
+	/**
+	 * @return a number that changes every time the view matrix changes
+	 */
+	public int getViewRevision() {
+		return mViewRevision;
+	}
+	
+	/**
+	 * @return a number that changes every time the projection changes
+	 */
+	public static int getProjectionRevision() {
+		return mProjectionRevision;
+	}
 }
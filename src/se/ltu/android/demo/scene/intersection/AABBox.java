@@ -14,6 +14,11 @@ import android.util.Log;
 public class AABBox {
 	private final static String TAG = "AABBox";
 	public float mMinX, mMinY, mMinZ, mMaxX, mMaxY, mMaxZ;
+	/**
+	 * The frustum plane that rejected this box the last time it was
+	 * culled. It's tested first the next time (plane coherency).
+	 */
+	public int mCheckPlane = 0;
 	
 	/**
 	 * Constructs the box with points at zero
@@ -3,8 +3,6 @@ package se.ltu.android.demo.scene.state;
 
 import javax.microedition.khronos.opengles.GL10;
 
-import android.util.Log;
-
 /**
  * A basic light source. One could easily create subclasses of this
  * one to control the behavior of directional, point and spot lights.
@@ -14,7 +12,9 @@ import android.util.Log;
  */
 public class Light {
 	public final static int MAX_LIGHTS = 8;
-	private static final String TAG = "Light";
+	private final static float[] DEFAULT_COLOR = {0, 0, 0, 1};
+	private final static float[] DEFAULT_POSITION = {0, 0, 1, 0};
+	private final static float[] DEFAULT_SPOT_DIRECTION = {0, 0, -1};
 	// position (x,y,z,w). directional light (w = 0) or point light (w = 1)
 	private float[] pos4f;
 	private float[] ambient4f;
@@ -28,43 +28,33 @@ public class Light {
 	private boolean has_spot_exponent = false;
 	private float spot_exponent;
 	
-	// set gl light number
-	private int glLight = -1;
+	// how far a point light reaches, 0 if it reaches everything
+	private float range = 0;
 	
-	// global number of lights checked out
-	private static int curLights = 0;
+	// incremented by changes of the colors and spot parameters, and of the
+	// position and spot direction, so the manager knows what to upload
+	int revision = 0;
+	int position_revision = 0;
+	// incremented by every change of any light
+	private static int global_revision = 0;
+	// GL light the parameters of this light were last uploaded to, or -1
+	int slot = -1;
+	// frame this light was last added to the manager in
+	int added_frame = -1;
 	
-	private static int getNumber() {
-		if(curLights < MAX_LIGHTS) {
-			curLights++;
-			switch(curLights) {
-			case 1:
-				return GL10.GL_LIGHT0;
-			case 2:
-				return GL10.GL_LIGHT1;
-			case 3:
-				return GL10.GL_LIGHT2;
-			case 4:
-				return GL10.GL_LIGHT3;
-			case 5:
-				return GL10.GL_LIGHT4;
-			case 6:
-				return GL10.GL_LIGHT5;
-			case 7:
-				return GL10.GL_LIGHT6;
-			case 8:
-				return GL10.GL_LIGHT7;
-			}
-		}
-		Log.w(TAG, "The maximum number of lights are already created");
-		return -1;
+	/**
+	 * Creates a new instance. The light is given a GL light by the
+	 * LightManager in the frames it is added to it.
+	 * @see LightManager
+	 */
+	public Light() {
 	}
 	
 	/**
-	 * Creates a new instance
+	 * @return a number that is incremented whenever any light is changed
 	 */
-	public Light() {
-		glLight = getNumber();
+	public static int getGlobalRevision() {
+		return global_revision;
 	}
 	
 	/**
@@ -77,54 +67,77 @@ public class Light {
 		copy.diffuse4f = diffuse4f;
 		copy.specular4f = specular4f;
 		copy.spot_dir3f = spot_dir3f;
+		copy.has_spot_cutoff = has_spot_cutoff;
 		copy.spot_cutoff = spot_cutoff;
+		copy.has_spot_exponent = has_spot_exponent;
 		copy.spot_exponent = spot_exponent;
+		copy.range = range;
 		return copy;
 	}
 	
 	/**
-	 * Set the glLight attributes for this light source and enables
-	 * the light. Should be called inside the scene traversal. 
+	 * Sends the position and spot direction of this light to a GL light.
+	 * They are transformed by the current model view matrix. Parameters
+	 * that are not set are sent as their defaults, since the GL light may
+	 * have been used by another light before.
+	 * @param gl
+	 * @param glLight GL light to set
 	 */
-	public void enable(GL10 gl) {
-		if(glLight == -1) {
-			return;
-		}
-		if(pos4f != null) {
-			gl.glLightfv(glLight, GL10.GL_POSITION, pos4f, 0);
-		}
-		if(ambient4f != null) {
-			gl.glLightfv(glLight, GL10.GL_AMBIENT, ambient4f, 0);
-		}
-		if(specular4f != null) {
-			gl.glLightfv(glLight, GL10.GL_SPECULAR, specular4f, 0);
-		}
-		if(diffuse4f != null) {
-			gl.glLightfv(glLight, GL10.GL_DIFFUSE, diffuse4f, 0);
-		}
-		
-		if(spot_dir3f != null) {
-			gl.glLightfv(glLight, GL10.GL_SPOT_DIRECTION, spot_dir3f, 0);
-		}
-		if(has_spot_cutoff) {
-			gl.glLightf(glLight, GL10.GL_SPOT_CUTOFF, spot_cutoff);
-		}
-		if(has_spot_exponent) {
-			gl.glLightf(glLight, GL10.GL_SPOT_EXPONENT, spot_exponent);
-		}
-		gl.glEnable(glLight);
+	void uploadPosition(GL10 gl, int glLight) {
+		gl.glLightfv(glLight, GL10.GL_POSITION, pos4f != null ? pos4f : DEFAULT_POSITION, 0);
+		gl.glLightfv(glLight, GL10.GL_SPOT_DIRECTION,
+				spot_dir3f != null ? spot_dir3f : DEFAULT_SPOT_DIRECTION, 0);
 	}
 	
 	/**
-	 * Disables the glLight for this light source.
-	 * Should be called inside the scene traversal.
+	 * Sends the colors and spot parameters of this light to a GL light.
+	 * Parameters that are not set are sent as their defaults.
 	 * @param gl
+	 * @param glLight GL light to set
 	 */
-	public void disable(GL10 gl) {
-		if(glLight == -1) {
-			return;
+	void uploadColors(GL10 gl, int glLight) {
+		gl.glLightfv(glLight, GL10.GL_AMBIENT, ambient4f != null ? ambient4f : DEFAULT_COLOR, 0);
+		gl.glLightfv(glLight, GL10.GL_SPECULAR, specular4f != null ? specular4f : DEFAULT_COLOR, 0);
+		gl.glLightfv(glLight, GL10.GL_DIFFUSE, diffuse4f != null ? diffuse4f : DEFAULT_COLOR, 0);
+		gl.glLightf(glLight, GL10.GL_SPOT_CUTOFF, has_spot_cutoff ? spot_cutoff : 180);
+		gl.glLightf(glLight, GL10.GL_SPOT_EXPONENT, has_spot_exponent ? spot_exponent : 0);
+	}
+	
+	/**
+	 * @return the brightest component of the ambient and diffuse colors
+	 * together, used to rank lights that reach the same geometry
+	 */
+	public float getIntensity() {
+		float intensity = 0;
+		for(int i = 0; i < 3; i++) {
+			float c = 0;
+			if(ambient4f != null) {
+				c += ambient4f[i];
+			}
+			if(diffuse4f != null) {
+				c += diffuse4f[i];
+			}
+			intensity = Math.max(intensity, c);
 		}
-		gl.glDisable(glLight);
+		return intensity;
+	}
+	
+	/**
+	 * Set how far a point light reaches. Geometries farther away from the
+	 * light are drawn without it, leaving its GL light to other lights.
+	 * The attenuation of the light is not changed by this.
+	 * @param range distance or 0 if the light reaches everything
+	 */
+	public void setRange(float range) {
+		global_revision++;
+		this.range = range;
+	}
+	
+	/**
+	 * @return how far the light reaches or 0 if it reaches everything
+	 */
+	public float getRange() {
+		return range;
 	}
 	
 	/**
@@ -135,6 +148,8 @@ public class Light {
 	 * @param a alpha component
 	 */
 	public void setAmbient(float r, float g, float b, float a) {
+		revision++;
+		global_revision++;
 		if(ambient4f == null) {
 			ambient4f = new float[4];
 		}
@@ -149,6 +164,8 @@ public class Light {
 	 * @param rgba4f color to set
 	 */
 	public void setAmbient(float[] rgba4f) {
+		revision++;
+		global_revision++;
 		if(rgba4f == null) {
 			ambient4f = null;
 			return;
@@ -178,6 +195,8 @@ public class Light {
 	 * @param a alpha component
 	 */
 	public void setDiffuse(float r, float g, float b, float a) {
+		revision++;
+		global_revision++;
 		if(diffuse4f == null) {
 			diffuse4f = new float[4];
 		}
@@ -192,6 +211,8 @@ public class Light {
 	 * @param rgba4f color to set
 	 */
 	public void setDiffuse(float[] rgba4f) {
+		revision++;
+		global_revision++;
 		if(rgba4f == null) {
 			diffuse4f = null;
 			return;
@@ -221,6 +242,8 @@ public class Light {
 	 * @param w set to 0 for a directional light or set to 1 for a point light
 	 */
 	public void setPosition(float x, float y, float z, float w) {
+		position_revision++;
+		global_revision++;
 		if(pos4f == null) {
 			pos4f = new float[4];
 		}
@@ -236,6 +259,8 @@ public class Light {
 	 * @param vector4f position to set
 	 */
 	public void setPosition(float[] vector4f) {
+		position_revision++;
+		global_revision++;
 		if(vector4f == null) {
 			pos4f = null;
 			return;
@@ -265,6 +290,8 @@ public class Light {
 	 * @param a alpha component
 	 */
 	public void setSpecular(float r, float g, float b, float a) {
+		revision++;
+		global_revision++;
 		if(specular4f == null) {
 			specular4f = new float[4];
 		}
@@ -279,6 +306,8 @@ public class Light {
 	 * @param rgba4f specular to set
 	 */
 	public void setSpecular(float[] rgba4f) {
+		revision++;
+		global_revision++;
 		if(rgba4f == null) {
 			specular4f = null;
 			return;
@@ -307,6 +336,8 @@ public class Light {
 	 * @param z z direction
 	 */
 	public void setSpotDirection(float x, float y, float z) {
+		position_revision++;
+		global_revision++;
 		if(spot_dir3f == null) {
 			spot_dir3f = new float[3];
 		}
@@ -320,15 +351,17 @@ public class Light {
 	 * @param vector3f direction to set
 	 */
 	public void setSpotDirection(float[] vector3f) {
+		position_revision++;
+		global_revision++;
 		if(vector3f == null) {
 			spot_dir3f = null;
 			return;
 		}
-		if(vector3f.length == 4) {
+		if(vector3f.length == 3) {
 			if(spot_dir3f == null) {
 				spot_dir3f = new float[3];
 			}
-			for(int i = 0; i < 4; i++) {
+			for(int i = 0; i < 3; i++) {
 				spot_dir3f[i] = vector3f[i];
 			}
 		}
@@ -346,6 +379,8 @@ public class Light {
 	 * @param cutoff angle to set
 	 */
 	public void setSpotCutoff(float cutoff) {
+		revision++;
+		global_revision++;
 		has_spot_cutoff = true;
 		spot_cutoff = cutoff;
 	}
@@ -362,6 +397,8 @@ public class Light {
 	 * @param exponent exponent to set
 	 */
 	public void setSpotExponent(float exponent) {
+		revision++;
+		global_revision++;
 		has_spot_exponent = true;
 		spot_exponent = exponent;
 	}
@@ -0,0 +1,297 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene.state;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import se.ltu.android.demo.scene.camera.Camera;
+import se.ltu.android.demo.scene.intersection.AABBox;
+
+/**
+ * Hands out the GL lights to the lights of the scene. Lights do not own a
+ * GL light. Instead the lights found while traversing the scene are added
+ * every frame, and before a geometry is drawn the most relevant of them
+ * for its bound are given the GL lights. A point light with a range is not
+ * relevant to geometries outside of it, and brighter lights are more
+ * relevant than dimmer ones. The other GL lights are disabled, so a scene
+ * may hold any number of lights as long as no geometry needs more than
+ * <code>Light.MAX_LIGHTS</code> of them.<br><br>
+ *
+ * A light keeps its GL light from one geometry and frame to the next while
+ * it is selected, and the parameters last sent to every GL light are
+ * remembered. Only the colors or the position of a light that have changed
+ * since are sent again, and the positions when the view changes.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class LightManager {
+	// lights added this frame
+	private static Light[] candidates = new Light[Light.MAX_LIGHTS];
+	private static int candidate_count = 0;
+	// true if a candidate is a point light with a range, making the
+	// selection depend on the bound of each geometry
+	private static boolean has_range = false;
+	private static int frame = 0;
+
+	// the view matrix of this frame, the positions are transformed by it
+	private static final float[] view_matrix = new float[16];
+	private static int view_revision = 0;
+
+	// what was last sent to every GL light
+	private static final Light[] slot_light = new Light[Light.MAX_LIGHTS];
+	private static final int[] slot_revision = new int[Light.MAX_LIGHTS];
+	private static final int[] slot_position_revision = new int[Light.MAX_LIGHTS];
+	private static final int[] slot_view_revision = new int[Light.MAX_LIGHTS];
+	private static final boolean[] slot_enabled = new boolean[Light.MAX_LIGHTS];
+
+	// the lights selected for the current geometry
+	private static final Light[] selected = new Light[Light.MAX_LIGHTS];
+	private static final boolean[] slot_selected = new boolean[Light.MAX_LIGHTS];
+	private static float[] relevance = new float[Light.MAX_LIGHTS];
+	// true if the selection already applied holds for every geometry
+	private static boolean selection_valid = false;
+
+	// counters since the last reset
+	private static int uploads = 0;
+	private static int switches = 0;
+	private static int selections = 0;
+
+	/**
+	 * Starts a new frame without any lights. Must be called at the start of
+	 * every frame, before the scene is traversed.
+	 * @param camera camera the frame is drawn with
+	 */
+	public static void beginFrame(Camera camera) {
+		for(int i = 0; i < candidate_count; i++) {
+			candidates[i] = null;
+		}
+		candidate_count = 0;
+		has_range = false;
+		selection_valid = false;
+		frame++;
+		float[] view = camera.getViewMatrix();
+		synchronized(view) {
+			for(int i = 0; i < 16; i++) {
+				view_matrix[i] = view[i];
+			}
+		}
+		view_revision = camera.getViewRevision();
+	}
+
+	/**
+	 * Adds a light that geometries drawn after this in the frame may be lit
+	 * by. Adding a light more than once in a frame has no effect.
+	 * @param light light to add
+	 */
+	public static void addLight(Light light) {
+		if(light.added_frame == frame) {
+			return;
+		}
+		light.added_frame = frame;
+		if(candidate_count == candidates.length) {
+			Light[] lights = new Light[candidate_count * 2];
+			System.arraycopy(candidates, 0, lights, 0, candidate_count);
+			candidates = lights;
+			relevance = new float[candidate_count * 2];
+		}
+		candidates[candidate_count++] = light;
+		if(isRanged(light)) {
+			has_range = true;
+		}
+		selection_valid = false;
+	}
+
+	/**
+	 * Gives the GL lights to the lights most relevant to a geometry and
+	 * disables the others. If a position must be sent, the model view
+	 * matrix is replaced by the view matrix of the frame, so it should be
+	 * loaded again before the geometry is drawn.
+	 * @param gl
+	 * @param bound world bound of the geometry or null to select the
+	 * brightest lights
+	 */
+	public static void apply(GL10 gl, AABBox bound) {
+		// without ranges the selection is the same for every geometry
+		if(selection_valid) {
+			return;
+		}
+		int count = select(bound);
+		selections++;
+
+		// selected lights keep the GL light they already have
+		for(int s = 0; s < Light.MAX_LIGHTS; s++) {
+			slot_selected[s] = false;
+		}
+		for(int i = 0; i < count; i++) {
+			Light light = selected[i];
+			if(light.slot >= 0 && slot_light[light.slot] == light) {
+				slot_selected[light.slot] = true;
+			}
+		}
+		// the others take the GL lights that are not selected, empty first
+		for(int i = 0; i < count; i++) {
+			Light light = selected[i];
+			if(light.slot >= 0 && slot_light[light.slot] == light) {
+				continue;
+			}
+			int slot = -1;
+			for(int s = 0; s < Light.MAX_LIGHTS; s++) {
+				if(!slot_selected[s] && (slot == -1
+						|| (slot_light[s] == null && slot_light[slot] != null))) {
+					slot = s;
+				}
+			}
+			if(slot_light[slot] != null) {
+				slot_light[slot].slot = -1;
+			}
+			slot_light[slot] = light;
+			light.slot = slot;
+			// nothing of this light has been sent to it
+			slot_revision[slot] = light.revision - 1;
+			slot_position_revision[slot] = light.position_revision - 1;
+			slot_selected[slot] = true;
+		}
+
+		boolean viewLoaded = false;
+		for(int s = 0; s < Light.MAX_LIGHTS; s++) {
+			int glLight = GL10.GL_LIGHT0 + s;
+			if(!slot_selected[s]) {
+				if(slot_enabled[s]) {
+					gl.glDisable(glLight);
+					slot_enabled[s] = false;
+					switches++;
+				}
+				continue;
+			}
+			Light light = slot_light[s];
+			if(slot_revision[s] != light.revision) {
+				light.uploadColors(gl, glLight);
+				slot_revision[s] = light.revision;
+				uploads++;
+			}
+			if(slot_position_revision[s] != light.position_revision
+					|| slot_view_revision[s] != view_revision) {
+				if(!viewLoaded) {
+					gl.glLoadMatrixf(view_matrix, 0);
+					viewLoaded = true;
+				}
+				light.uploadPosition(gl, glLight);
+				slot_position_revision[s] = light.position_revision;
+				slot_view_revision[s] = view_revision;
+				uploads++;
+			}
+			if(!slot_enabled[s]) {
+				gl.glEnable(glLight);
+				slot_enabled[s] = true;
+				switches++;
+			}
+		}
+		selection_valid = !has_range;
+	}
+
+	/**
+	 * Selects the most relevant candidates for a bound.
+	 * @return number of selected lights
+	 */
+	private static int select(AABBox bound) {
+		int count = 0;
+		if(candidate_count <= Light.MAX_LIGHTS && !has_range) {
+			for(int i = 0; i < candidate_count; i++) {
+				selected[count++] = candidates[i];
+			}
+			return count;
+		}
+		for(int i = 0; i < candidate_count; i++) {
+			relevance[i] = getRelevance(candidates[i], bound);
+		}
+		// a few passes over a few lights, the most relevant first
+		while(count < Light.MAX_LIGHTS) {
+			int best = -1;
+			for(int i = 0; i < candidate_count; i++) {
+				if(relevance[i] >= 0 && (best == -1 || relevance[i] > relevance[best])) {
+					best = i;
+				}
+			}
+			if(best == -1) {
+				break;
+			}
+			selected[count++] = candidates[best];
+			relevance[best] = -1;
+		}
+		return count;
+	}
+
+	/**
+	 * @return true if the light is a point light with a range
+	 */
+	private static boolean isRanged(Light light) {
+		float[] pos = light.getPosition();
+		return light.getRange() > 0 && pos != null && pos[3] != 0;
+	}
+
+	/**
+	 * @param light a light
+	 * @param bound a world bound or null
+	 * @return how relevant the light is to geometries within the bound, the
+	 * intensity of the light lowered by the distance to the bound, or -1 if
+	 * the bound is out of its range
+	 */
+	private static float getRelevance(Light light, AABBox bound) {
+		float intensity = light.getIntensity();
+		if(bound == null || !bound.isSet() || !isRanged(light)) {
+			return intensity;
+		}
+		float[] pos = light.getPosition();
+		float x = pos[0] / pos[3];
+		float y = pos[1] / pos[3];
+		float z = pos[2] / pos[3];
+		// distance from the light to the closest point of the bound
+		float dx = Math.max(0, Math.max(bound.mMinX - x, x - bound.mMaxX));
+		float dy = Math.max(0, Math.max(bound.mMinY - y, y - bound.mMaxY));
+		float dz = Math.max(0, Math.max(bound.mMinZ - z, z - bound.mMaxZ));
+		float range = light.getRange();
+		float distSq = dx*dx + dy*dy + dz*dz;
+		if(distSq >= range * range) {
+			return -1;
+		}
+		return intensity * (1 - (float)Math.sqrt(distSq) / range);
+	}
+
+	/**
+	 * Forgets what was sent to the GL lights. Must be called when a new
+	 * context is created, where every GL light is disabled.
+	 */
+	public static void forgetState() {
+		for(int s = 0; s < Light.MAX_LIGHTS; s++) {
+			if(slot_light[s] != null) {
+				slot_light[s].slot = -1;
+				slot_light[s] = null;
+			}
+			slot_enabled[s] = false;
+		}
+		selection_valid = false;
+	}
+
+	/**
+	 * @return number of lights added this frame
+	 */
+	public static int getLightCount() {
+		return candidate_count;
+	}
+
+	/**
+	 * Resets the selection, upload and switch counters.
+	 */
+	public static void resetCounters() {
+		selections = 0;
+		uploads = 0;
+		switches = 0;
+	}
+
+	/**
+	 * @return the number of lights and the counters as a string
+	 */
+	public static String getStats() {
+		return candidate_count+" lights, "+selections+" selections, "
+			+uploads+" uploads, "+switches+" switches";
+	}
+}
@@ -16,19 +16,30 @@ public class Material {
 	public static float[] DEFAULT_EMISSION = {0.0f, 0.0f, 0.0f, 1.0f};
 	public static float DEFAULT_SHININESS = 0.0f;
 	
+	// the colors last sent are the arrays of a material, which its setters
+	// clear here so that the changed colors are sent again
 	private static float[] current_ambient;
 	private static float[] current_diffuse;
 	private static float[] current_specular;
 	private static float[] current_emission;
 	private static float current_shininess;
 	private static boolean current_useColorMaterial;
+	private static Texture current_texture;
+	private static boolean current_blend;
 	
+	// material identities, used for sorting geometries by material
+	private static int next_id = 1;
+	// incremented by every change of any material
+	private static int global_revision = 0;
+	
+	private final int id = next_id++;
 	private float[] ambient;
 	private float[] diffuse;
 	private float[] specular;
 	private float[] emission;
 	private float shininess; // 0, 128
 	private boolean useColorMaterial;
+	private Texture texture;
 	
 	/**
 	 * Sets the material to the one specified
@@ -88,6 +99,56 @@ public class Material {
 			current_shininess = shininess;
 			gl.glMaterialf(GL10.GL_FRONT_AND_BACK, GL10.GL_SHININESS, shininess);
 		}
+		
+		if(texture != null) {
+			if(current_texture == null) {
+				gl.glEnable(GL10.GL_TEXTURE_2D);
+			}
+			current_texture = texture;
+			// the texture may have been evicted since it was last bound
+			texture.bind(gl);
+		} else if(current_texture != null) {
+			current_texture = null;
+			gl.glDisable(GL10.GL_TEXTURE_2D);
+		}
+		
+		boolean blend = isTranslucent();
+		if(current_blend != blend) {
+			current_blend = blend;
+			if(blend) {
+				gl.glEnable(GL10.GL_BLEND);
+				gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+			} else {
+				gl.glDisable(GL10.GL_BLEND);
+			}
+		}
+	}
+	
+	/**
+	 * A material is translucent if its diffuse alpha, which is the alpha
+	 * of lit geometries, is less than one. Translucent geometries are
+	 * blended with what is behind them, and should be drawn after every
+	 * opaque geometry, back to front.
+	 * @return true if geometries with this material are blended
+	 */
+	public boolean isTranslucent() {
+		return diffuse != null && diffuse[3] < 1;
+	}
+	
+	/**
+	 * Forgets which material attributes have been sent to OpenGL. Must be
+	 * called when a new context is created since it starts out with the
+	 * OpenGL standards regardless of what was set in the old one.
+	 */
+	public static void forgetState() {
+		current_ambient = null;
+		current_diffuse = null;
+		current_specular = null;
+		current_emission = null;
+		current_shininess = DEFAULT_SHININESS;
+		current_useColorMaterial = false;
+		current_texture = null;
+		current_blend = false;
 	}
 	
 	/**
@@ -125,6 +186,16 @@ public class Material {
 			current_shininess = DEFAULT_SHININESS;
 			gl.glMaterialf(GL10.GL_FRONT_AND_BACK, GL10.GL_SHININESS, DEFAULT_SHININESS);
 		}
+		
+		if(current_texture != null) {
+			current_texture = null;
+			gl.glDisable(GL10.GL_TEXTURE_2D);
+		}
+		
+		if(current_blend) {
+			current_blend = false;
+			gl.glDisable(GL10.GL_BLEND);
+		}
 	}
 
 	/**
@@ -134,6 +205,10 @@ public class Material {
 		if(color4f == null || color4f.length != 4) {
 			return;
 		}
+		global_revision++;
+		if(current_ambient == ambient) {
+			current_ambient = null;
+		}
 		if(ambient == null) {
 			ambient = new float[4];
 		}
@@ -151,6 +226,10 @@ public class Material {
 	 * @param a alpha component
 	 */
 	public void setAmbient(float r, float g, float b, float a) {
+		global_revision++;
+		if(current_ambient == ambient) {
+			current_ambient = null;
+		}
 		if(ambient == null) {
 			ambient = new float[4];
 		}
@@ -174,6 +253,10 @@ public class Material {
 		if(color4f == null || color4f.length != 4) {
 			return;
 		}
+		global_revision++;
+		if(current_diffuse == diffuse) {
+			current_diffuse = null;
+		}
 		if(diffuse == null) {
 			diffuse = new float[4];
 		}
@@ -191,6 +274,10 @@ public class Material {
 	 * @param a alpha component
 	 */
 	public void setDiffuse(float r, float g, float b, float a) {
+		global_revision++;
+		if(current_diffuse == diffuse) {
+			current_diffuse = null;
+		}
 		if(diffuse == null) {
 			diffuse = new float[4];
 		}
@@ -214,6 +301,10 @@ public class Material {
 		if(color4f == null || color4f.length != 4) {
 			return;
 		}
+		global_revision++;
+		if(current_emission == emission) {
+			current_emission = null;
+		}
 		if(emission == null) {
 			emission = new float[4];
 		}
@@ -231,6 +322,10 @@ public class Material {
 	 * @param a alpha component
 	 */
 	public void setEmission(float r, float g, float b, float a) {
+		global_revision++;
+		if(current_emission == emission) {
+			current_emission = null;
+		}
 		if(emission == null) {
 			emission = new float[4];
 		}
@@ -254,6 +349,10 @@ public class Material {
 		if(color4f == null || color4f.length != 4) {
 			return;
 		}
+		global_revision++;
+		if(current_specular == specular) {
+			current_specular = null;
+		}
 		if(specular == null) {
 			specular = new float[4];
 		}
@@ -271,6 +370,10 @@ public class Material {
 	 * @param a alpha component
 	 */
 	public void setSpecular(float r, float g, float b, float a) {
+		global_revision++;
+		if(current_specular == specular) {
+			current_specular = null;
+		}
 		if(specular == null) {
 			specular = new float[4];
 		}
@@ -291,6 +394,7 @@ public class Material {
 	 * @param shininess the shininess to set
 	 */
 	public void setShininess(float shininess) {
+		global_revision++;
 		this.shininess = shininess;
 	}
 
@@ -305,6 +409,7 @@ public class Material {
 	 * @param b true if this material should use vertex colors
 	 */
 	public void setUseColorMaterial(boolean b) {
+		global_revision++;
 		useColorMaterial = b;
 	}
 	
@@ -315,6 +420,36 @@ public class Material {
 		return useColorMaterial;
 	}
 	
+	/**
+	 * @param texture the texture to draw with or null to draw untextured
+	 */
+	public void setTexture(Texture texture) {
+		global_revision++;
+		this.texture = texture;
+	}
+	
+	/**
+	 * @return the texture or null if there is none
+	 */
+	public Texture getTexture() {
+		return texture;
+	}
+	
+	/**
+	 * @return a number that is incremented whenever any material is
+	 * changed through its setters
+	 */
+	public static int getGlobalRevision() {
+		return global_revision;
+	}
+	
+	/**
+	 * @return an identity that is unique for each material
+	 */
+	public int getId() {
+		return id;
+	}
+	
 	// maybe not so clever
 	private static boolean sameColor(float[] c1, float[] c2) {
 		if(c1 == c2) {
@@ -328,6 +463,24 @@ public class Material {
 		);
 	}
 
+	/**
+	 * @param other material to compare to
+	 * @return true if both materials have the same attributes, not counting
+	 * the texture
+	 */
+	public boolean hasSameColors(Material other) {
+		return sameColor(ambient, other.ambient, DEFAULT_AMBIENT)
+			&& sameColor(diffuse, other.diffuse, DEFAULT_DIFFUSE)
+			&& sameColor(specular, other.specular, DEFAULT_SPECULAR)
+			&& sameColor(emission, other.emission, DEFAULT_EMISSION)
+			&& shininess == other.shininess
+			&& useColorMaterial == other.useColorMaterial;
+	}
+	
+	private static boolean sameColor(float[] c1, float[] c2, float[] def) {
+		return sameColor(c1 != null ? c1 : def, c2 != null ? c2 : def);
+	}
+
 	/**
 	 * Set this materials attributes equal to another material attributes.
 	 * @param other material to copy attributes from
@@ -339,5 +492,6 @@ public class Material {
 		setEmission(other.emission);
 		this.useColorMaterial = other.useColorMaterial;
 		this.shininess = other.shininess;
+		this.texture = other.texture;
 	}
 }
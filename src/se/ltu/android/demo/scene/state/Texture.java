@@ -0,0 +1,101 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene.state;
+
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * A texture that is loaded by a TextureManager the first time it is bound.
+ * The image is read from an ETC1 compressed PKM resource if the device
+ * supports ETC1, otherwise from an uncompressed bitmap resource. The GL
+ * texture may be deleted by the manager at any time to stay within its
+ * memory budget, and is then loaded again the next time it is bound.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class Texture {
+	private final TextureManager manager;
+	private final int etc1Resource;
+	private final int bitmapResource;
+	private final boolean mipmap;
+
+	// set by the manager while the texture is resident
+	int glId = 0;
+	int bytes = 0;
+	int width = 0;
+	int height = 0;
+	int lastFrame = -1;
+	// true if the texture could not be loaded, so it is not tried every frame
+	boolean failed = false;
+	// neighbours in the manager's list of resident textures
+	Texture prev;
+	Texture next;
+
+	/**
+	 * Use <code>TextureManager.getTexture</code> to create textures.
+	 */
+	Texture(TextureManager manager, int etc1Resource, int bitmapResource, boolean mipmap) {
+		this.manager = manager;
+		this.etc1Resource = etc1Resource;
+		this.bitmapResource = bitmapResource;
+		this.mipmap = mipmap;
+	}
+
+	/**
+	 * Binds this texture to GL_TEXTURE_2D, loading it first if it is not
+	 * resident.
+	 * @param gl
+	 */
+	public void bind(GL10 gl) {
+		manager.bind(gl, this);
+	}
+
+	/**
+	 * @return resource identifier of the PKM file or 0 if there is none
+	 */
+	public int getEtc1Resource() {
+		return etc1Resource;
+	}
+
+	/**
+	 * @return resource identifier of the bitmap or 0 if there is none
+	 */
+	public int getBitmapResource() {
+		return bitmapResource;
+	}
+
+	/**
+	 * @return true if this texture uses mipmaps
+	 */
+	public boolean hasMipmaps() {
+		return mipmap;
+	}
+
+	/**
+	 * @return true if this texture currently has a GL texture
+	 */
+	public boolean isResident() {
+		return glId != 0;
+	}
+
+	/**
+	 * @return size in bytes of the GL texture, including mipmaps, or 0 if
+	 * it is not resident
+	 */
+	public int getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return width of the base level, valid once the texture has been loaded
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the base level, valid once the texture has been loaded
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
@@ -0,0 +1,310 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene.state;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import se.ltu.android.demo.scene.Object3D;
+import se.ltu.android.demo.util.SkylinePacker;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Many small images packed into one texture page. Meshes that used the
+ * separate images get their texture coordinates remapped into their
+ * image's part of the page and share one material per combination of
+ * colors, so they can be drawn without binding another texture and be
+ * merged by static batching.<br><br>
+ *
+ * Atlases are built offline with <code>build</code>, which writes the page
+ * as a PNG image and the position of every image to a sidecar index. The
+ * page can then be compressed to ETC1 like any other texture. At run time
+ * the index is read with <code>read</code> and the page is loaded through
+ * a TextureManager.<br><br>
+ *
+ * Every image is surrounded by a border of its own edge pixels so that
+ * filtering and the smaller mipmap levels do not bleed in neighbouring
+ * images. Texture coordinates that repeat an image can not be remapped,
+ * so only meshes with texture coordinates between 0 and 1 may use an atlas.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class TextureAtlas {
+	private static final String TAG = "TextureAtlas";
+	// "ATL!"
+	private static final int INDEX_MAGIC = 0x41544C21;
+	private static final int INDEX_VERSION = 1;
+	// how far outside 0 and 1 texture coordinates may be because of rounding
+	private static final float TEXCOORD_EPSILON = 0.001f;
+
+	private final int width;
+	private final int height;
+	private final String[] names;
+	// x, y, width and height of every image, not counting the border
+	private final int[] rects;
+	private Texture texture;
+	// the page of a newly built atlas, until it is written
+	private Bitmap page;
+	private final ArrayList<Material> materials = new ArrayList<Material>();
+	private final ArrayList<Object3D> remapped = new ArrayList<Object3D>();
+
+	private TextureAtlas(int width, int height, String[] names, int[] rects) {
+		this.width = width;
+		this.height = height;
+		this.names = names;
+		this.rects = rects;
+	}
+
+	/**
+	 * Packs bitmaps into one page.
+	 * @param resources resources to read the bitmaps from
+	 * @param bitmapResources resource identifiers of the bitmaps
+	 * @param names names to find the images by, one per bitmap
+	 * @param width width of the page, a power of two
+	 * @param height height of the page, a power of two
+	 * @param border number of edge pixels to repeat around each image
+	 * @return the new atlas or null if the bitmaps do not fit in the page
+	 * @throws IOException if a bitmap could not be read
+	 */
+	public static TextureAtlas build(Resources resources, int[] bitmapResources,
+			String[] names, int width, int height, int border) throws IOException {
+		int count = bitmapResources.length;
+		Bitmap[] bitmaps = new Bitmap[count];
+		int[] widths = new int[count];
+		int[] heights = new int[count];
+		int[] x = new int[count];
+		int[] y = new int[count];
+		try {
+			for(int i = 0; i < count; i++) {
+				InputStream is = resources.openRawResource(bitmapResources[i]);
+				try {
+					bitmaps[i] = BitmapFactory.decodeStream(is);
+				} finally {
+					is.close();
+				}
+				if(bitmaps[i] == null) {
+					throw new IOException("Could not decode bitmap "+names[i]);
+				}
+				widths[i] = bitmaps[i].getWidth() + border * 2;
+				heights[i] = bitmaps[i].getHeight() + border * 2;
+			}
+			if(!SkylinePacker.pack(widths, heights, width, height, x, y)) {
+				Log.e(TAG, "The images do not fit in a "+width+"x"+height+" page");
+				return null;
+			}
+
+			int[] rects = new int[count * 4];
+			Bitmap page = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			long area = 0;
+			for(int i = 0; i < count; i++) {
+				int w = bitmaps[i].getWidth();
+				int h = bitmaps[i].getHeight();
+				rects[i*4] = x[i] + border;
+				rects[i*4+1] = y[i] + border;
+				rects[i*4+2] = w;
+				rects[i*4+3] = h;
+				area += w * h;
+				copyWithBorder(bitmaps[i], page, x[i], y[i], border);
+			}
+			Log.d(TAG, "Packed "+count+" images, "+(area * 100 / (width * height))
+					+"% of the page is used");
+			TextureAtlas atlas = new TextureAtlas(width, height, names, rects);
+			atlas.page = page;
+			return atlas;
+		} finally {
+			for(int i = 0; i < count; i++) {
+				if(bitmaps[i] != null) {
+					bitmaps[i].recycle();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies an image into the page with its edge pixels repeated around it.
+	 */
+	private static void copyWithBorder(Bitmap image, Bitmap page, int x, int y, int border) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int[] src = new int[w * h];
+		image.getPixels(src, 0, w, 0, 0, w, h);
+		int bw = w + border * 2;
+		int bh = h + border * 2;
+		int[] dst = new int[bw * bh];
+		for(int row = 0; row < bh; row++) {
+			int sy = Math.max(0, Math.min(h - 1, row - border));
+			for(int col = 0; col < bw; col++) {
+				int sx = Math.max(0, Math.min(w - 1, col - border));
+				dst[row * bw + col] = src[sy * w + sx];
+			}
+		}
+		page.setPixels(dst, 0, bw, x, y, bw, bh);
+	}
+
+	/**
+	 * Writes the page of a newly built atlas as a PNG image and frees it.
+	 * @param stream stream to write to
+	 * @throws IOException if the page could not be written
+	 */
+	public void writePage(OutputStream stream) throws IOException {
+		if(page == null) {
+			throw new IOException("The page has already been written");
+		}
+		if(!page.compress(Bitmap.CompressFormat.PNG, 100, stream)) {
+			throw new IOException("Could not compress the page");
+		}
+		page.recycle();
+		page = null;
+	}
+
+	/**
+	 * Writes the position of every image to a stream.
+	 * @param stream stream to write to
+	 * @throws IOException
+	 */
+	public void writeIndex(DataOutputStream stream) throws IOException {
+		stream.writeInt(INDEX_MAGIC);
+		stream.writeInt(INDEX_VERSION);
+		stream.writeInt(width);
+		stream.writeInt(height);
+		stream.writeInt(names.length);
+		for(int i = 0; i < names.length; i++) {
+			stream.writeUTF(names[i]);
+			for(int n = 0; n < 4; n++) {
+				stream.writeInt(rects[i*4+n]);
+			}
+		}
+	}
+
+	/**
+	 * Reads an atlas from its index.
+	 * @param stream stream to read from
+	 * @return the atlas
+	 * @throws IOException if the stream does not hold an atlas index
+	 */
+	public static TextureAtlas read(DataInputStream stream) throws IOException {
+		if(stream.readInt() != INDEX_MAGIC) {
+			throw new IOException("Not an atlas index");
+		}
+		int version = stream.readInt();
+		if(version != INDEX_VERSION) {
+			throw new IOException("Unknown atlas index version "+version);
+		}
+		int width = stream.readInt();
+		int height = stream.readInt();
+		int count = stream.readInt();
+		String[] names = new String[count];
+		int[] rects = new int[count * 4];
+		for(int i = 0; i < count; i++) {
+			names[i] = stream.readUTF();
+			for(int n = 0; n < 4; n++) {
+				rects[i*4+n] = stream.readInt();
+			}
+		}
+		return new TextureAtlas(width, height, names, rects);
+	}
+
+	/**
+	 * @param texture the texture holding the page
+	 */
+	public void setTexture(Texture texture) {
+		this.texture = texture;
+		for(int i = 0; i < materials.size(); i++) {
+			materials.get(i).setTexture(texture);
+		}
+	}
+
+	/**
+	 * @return the texture holding the page
+	 */
+	public Texture getTexture() {
+		return texture;
+	}
+
+	/**
+	 * @param name name of an image
+	 * @return the index of the image or -1 if there is no such image
+	 */
+	public int indexOf(String name) {
+		for(int i = 0; i < names.length; i++) {
+			if(names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the x, y, width and height in pixels of an image in the page
+	 */
+	public int[] getRect(int index) {
+		int[] rect = new int[4];
+		System.arraycopy(rects, index * 4, rect, 0, 4);
+		return rect;
+	}
+
+	/**
+	 * Makes a mesh use an image of the atlas. Its texture coordinates are
+	 * remapped into the image, or those of the mesh it was cloned from
+	 * if it is a clone, and its material is replaced by a material of
+	 * the same colors that uses the page. Clones of one mesh must all
+	 * use the same image.
+	 * @param mesh mesh to change
+	 * @param name name of the image the mesh used
+	 * @return false if there is no such image or the texture coordinates
+	 * of the mesh are outside the image
+	 */
+	public boolean apply(Object3D mesh, String name) {
+		int index = indexOf(name);
+		if(index < 0) {
+			Log.e(TAG, "No image "+name+" in the atlas");
+			return false;
+		}
+		Object3D owner = mesh.getCloneTarget() != null ? mesh.getCloneTarget() : mesh;
+		if(!remapped.contains(owner)) {
+			float[] bound = owner.getTexCoordBound();
+			if(bound == null) {
+				Log.e(TAG, "No texture coordinates in "+owner.getName());
+				return false;
+			}
+			if(bound[0] < -TEXCOORD_EPSILON || bound[1] < -TEXCOORD_EPSILON
+					|| bound[2] > 1 + TEXCOORD_EPSILON || bound[3] > 1 + TEXCOORD_EPSILON) {
+				Log.e(TAG, "The texture coordinates of "+owner.getName()+" repeat the image");
+				return false;
+			}
+			int i = index * 4;
+			owner.remapTexCoords(rects[i] / (float)width, rects[i+1] / (float)height,
+					rects[i+2] / (float)width, rects[i+3] / (float)height);
+			remapped.add(owner);
+		}
+		mesh.setMaterial(getMaterial(mesh.getMaterial()));
+		return true;
+	}
+
+	/**
+	 * @return a material that uses the page and has the same colors as the
+	 * given material, shared by every mesh of the atlas with those colors
+	 */
+	private Material getMaterial(Material colors) {
+		if(colors == null) {
+			colors = new Material();
+		}
+		for(int i = 0; i < materials.size(); i++) {
+			if(materials.get(i).hasSameColors(colors)) {
+				return materials.get(i);
+			}
+		}
+		Material material = new Material();
+		material.copyFrom(colors);
+		material.setTexture(texture);
+		materials.add(material);
+		return material;
+	}
+}
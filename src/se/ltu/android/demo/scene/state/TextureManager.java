@@ -0,0 +1,449 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.scene.state;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import se.ltu.android.demo.util.BufferUtils;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+/**
+ * Loads textures and keeps the GL textures within a memory budget. Textures
+ * are loaded the first time they are bound. When the resident textures use
+ * more memory than the budget allows, the textures that were least recently
+ * bound are deleted and loaded again if they are needed later. Textures
+ * bound in the current frame are never deleted, so the budget may be
+ * exceeded if a single frame needs more.<br><br>
+ *
+ * ETC1 images are read from PKM files, the format written by etc1tool.
+ * Mipmaps are stored as one PKM image per level, concatenated in one
+ * resource from the largest level down to 1x1. Uncompressed bitmaps
+ * get their mipmaps generated when they are loaded.<br><br>
+ *
+ * The textures are owned by the manager and not by a GL context. When the
+ * context is lost, <code>forgetTextures</code> drops the GL textures without
+ * deleting them and every texture is loaded again the next time it is bound.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class TextureManager {
+	private static final String TAG = "TextureManager";
+	// from GL_OES_compressed_ETC1_RGB8_texture
+	public static final int GL_ETC1_RGB8_OES = 0x8D64;
+	private static final String ETC1_EXTENSION = "GL_OES_compressed_ETC1_RGB8_texture";
+	private static final int PKM_HEADER_SIZE = 16;
+	public static final int DEFAULT_BUDGET = 4 * 1024 * 1024;
+
+	private final Resources resources;
+	private final ArrayList<Texture> textures = new ArrayList<Texture>();
+	private int budget;
+	// resident textures, the most recently bound first
+	private Texture head;
+	private Texture tail;
+	private int residentBytes = 0;
+	private int frame = 0;
+	private int boundId = 0;
+	// support for ETC1 is checked once per context
+	private boolean checkedExtensions = false;
+	private boolean etc1Supported = false;
+	private final int[] tmpId = new int[1];
+
+	// counters since the last reset
+	private int uploads = 0;
+	private int evictions = 0;
+	private long uploadTime = 0;
+
+	/**
+	 * Creates a texture manager with the default budget.
+	 * @param resources resources to load textures from
+	 */
+	public TextureManager(Resources resources) {
+		this(resources, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * @param resources resources to load textures from
+	 * @param budget number of bytes the resident textures may use
+	 */
+	public TextureManager(Resources resources, int budget) {
+		this.resources = resources;
+		this.budget = budget;
+	}
+
+	/**
+	 * Returns the texture for a pair of resources, creating it if this is
+	 * the first time the pair is asked for. Nothing is loaded until the
+	 * texture is bound. At least one of the resources must be given.
+	 * @param etc1Resource resource identifier of a PKM file or 0 if there is none
+	 * @param bitmapResource resource identifier of a bitmap, used if ETC1 is
+	 * not supported or there is no PKM file, or 0 if there is none
+	 * @param mipmap true if the texture should use mipmaps
+	 * @return the texture
+	 */
+	public Texture getTexture(int etc1Resource, int bitmapResource, boolean mipmap) {
+		synchronized(textures) {
+			for(int i = 0; i < textures.size(); i++) {
+				Texture t = textures.get(i);
+				if(t.getEtc1Resource() == etc1Resource
+						&& t.getBitmapResource() == bitmapResource
+						&& t.hasMipmaps() == mipmap) {
+					return t;
+				}
+			}
+			Texture texture = new Texture(this, etc1Resource, bitmapResource, mipmap);
+			textures.add(texture);
+			return texture;
+		}
+	}
+
+	/**
+	 * Must be called once at the start of every frame. Textures bound
+	 * during the frame are kept resident until it ends.
+	 */
+	public void beginFrame() {
+		frame++;
+	}
+
+	/**
+	 * Binds a texture, loading it first if needed.
+	 */
+	void bind(GL10 gl, Texture texture) {
+		// marked as used first so that loading it does not evict it
+		texture.lastFrame = frame;
+		if(texture.glId == 0 && !texture.failed) {
+			upload(gl, texture);
+		}
+		if(texture.glId != 0 && head != texture) {
+			unlink(texture);
+			pushFront(texture);
+		}
+		if(boundId != texture.glId) {
+			boundId = texture.glId;
+			gl.glBindTexture(GL10.GL_TEXTURE_2D, boundId);
+		}
+	}
+
+	/**
+	 * Creates the GL texture of a texture and reads its image, then deletes
+	 * the least recently used textures if the budget is exceeded.
+	 */
+	private void upload(GL10 gl, Texture texture) {
+		if(!checkedExtensions) {
+			String extensions = gl.glGetString(GL10.GL_EXTENSIONS);
+			etc1Supported = extensions != null && extensions.indexOf(ETC1_EXTENSION) >= 0;
+			checkedExtensions = true;
+			Log.d(TAG, "ETC1 "+(etc1Supported ? "supported" : "not supported"));
+		}
+		long start = System.currentTimeMillis();
+		gl.glGenTextures(1, tmpId, 0);
+		texture.glId = tmpId[0];
+		boundId = texture.glId;
+		gl.glBindTexture(GL10.GL_TEXTURE_2D, boundId);
+
+		int levels;
+		try {
+			if(etc1Supported && texture.getEtc1Resource() != 0) {
+				levels = loadEtc1(gl, texture);
+			} else if(texture.getBitmapResource() != 0) {
+				levels = loadBitmap(gl, texture);
+			} else {
+				throw new IOException("No resource that can be loaded");
+			}
+		} catch(IOException e) {
+			Log.e(TAG, "Could not load texture "+texture.getEtc1Resource()
+					+"/"+texture.getBitmapResource()+": "+e.getMessage());
+			// not counted as resident yet
+			texture.bytes = 0;
+			deleteTexture(gl, texture);
+			texture.failed = true;
+			return;
+		}
+
+		// the texture is incomplete unless every level down to 1x1 exists
+		boolean complete = levels == getLevelCount(texture.width, texture.height);
+		if(texture.hasMipmaps() && !complete) {
+			Log.w(TAG, "Missing mipmaps in texture "+texture.getEtc1Resource()
+					+", drawing without them");
+		}
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER,
+				texture.hasMipmaps() && complete ? GL10.GL_LINEAR_MIPMAP_NEAREST : GL10.GL_LINEAR);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_REPEAT);
+		gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_REPEAT);
+
+		residentBytes += texture.bytes;
+		pushFront(texture);
+		uploads++;
+		uploadTime += System.currentTimeMillis() - start;
+		evict(gl);
+	}
+
+	/**
+	 * Reads the PKM images of a texture into the bound GL texture.
+	 * @return number of levels read
+	 */
+	private int loadEtc1(GL10 gl, Texture texture) throws IOException {
+		InputStream is = resources.openRawResource(texture.getEtc1Resource());
+		DataInputStream dis = new DataInputStream(is);
+		byte[] header = new byte[PKM_HEADER_SIZE];
+		int levels = 0;
+		try {
+			int maxLevels = texture.hasMipmaps() ? Integer.MAX_VALUE : 1;
+			while(levels < maxLevels) {
+				try {
+					dis.readFully(header);
+				} catch(EOFException e) {
+					break;
+				}
+				if(header[0] != 'P' || header[1] != 'K' || header[2] != 'M' || header[3] != ' ') {
+					throw new IOException("Not a PKM image");
+				}
+				int paddedWidth = readShort(header, 8);
+				int paddedHeight = readShort(header, 10);
+				int width = readShort(header, 12);
+				int height = readShort(header, 14);
+				int size = (paddedWidth / 4) * (paddedHeight / 4) * 8;
+				byte[] data = new byte[size];
+				dis.readFully(data);
+				ByteBuffer buf = BufferUtils.createByteBuffer(size);
+				buf.put(data);
+				buf.position(0);
+				gl.glCompressedTexImage2D(GL10.GL_TEXTURE_2D, levels, GL_ETC1_RGB8_OES,
+						width, height, 0, size, buf);
+				if(levels == 0) {
+					texture.width = width;
+					texture.height = height;
+					texture.bytes = 0;
+				}
+				texture.bytes += size;
+				levels++;
+			}
+		} finally {
+			dis.close();
+		}
+		if(levels == 0) {
+			throw new IOException("Empty PKM file");
+		}
+		return levels;
+	}
+
+	/**
+	 * Reads the bitmap of a texture into the bound GL texture and generates
+	 * its mipmaps if it should have any.
+	 * @return number of levels loaded
+	 */
+	private int loadBitmap(GL10 gl, Texture texture) throws IOException {
+		InputStream is = resources.openRawResource(texture.getBitmapResource());
+		Bitmap bitmap;
+		try {
+			bitmap = BitmapFactory.decodeStream(is);
+		} finally {
+			is.close();
+		}
+		if(bitmap == null) {
+			throw new IOException("Could not decode bitmap");
+		}
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int bytesPerPixel = getBytesPerPixel(bitmap.getConfig());
+		texture.width = width;
+		texture.height = height;
+		texture.bytes = 0;
+		int levels = 0;
+		while(true) {
+			GLUtils.texImage2D(GL10.GL_TEXTURE_2D, levels, bitmap, 0);
+			texture.bytes += width * height * bytesPerPixel;
+			levels++;
+			if(!texture.hasMipmaps() || (width == 1 && height == 1)) {
+				break;
+			}
+			width = Math.max(1, width / 2);
+			height = Math.max(1, height / 2);
+			Bitmap smaller = Bitmap.createScaledBitmap(bitmap, width, height, true);
+			bitmap.recycle();
+			bitmap = smaller;
+		}
+		bitmap.recycle();
+		return levels;
+	}
+
+	/**
+	 * Deletes the least recently bound textures until the budget is met or
+	 * only textures bound in this frame are left.
+	 */
+	private void evict(GL10 gl) {
+		while(residentBytes > budget && tail != null && tail.lastFrame != frame) {
+			evictions++;
+			deleteTexture(gl, tail);
+		}
+	}
+
+	/**
+	 * Deletes the GL texture of a texture and forgets its size.
+	 */
+	private void deleteTexture(GL10 gl, Texture texture) {
+		if(texture.glId == boundId) {
+			boundId = 0;
+		}
+		tmpId[0] = texture.glId;
+		gl.glDeleteTextures(1, tmpId, 0);
+		dropTexture(texture);
+	}
+
+	/**
+	 * Removes a texture from the resident list without touching GL.
+	 */
+	private void dropTexture(Texture texture) {
+		if(texture.glId != 0) {
+			unlink(texture);
+			residentBytes -= texture.bytes;
+		}
+		texture.glId = 0;
+		texture.bytes = 0;
+	}
+
+	private void pushFront(Texture texture) {
+		texture.prev = null;
+		texture.next = head;
+		if(head != null) {
+			head.prev = texture;
+		}
+		head = texture;
+		if(tail == null) {
+			tail = texture;
+		}
+	}
+
+	private void unlink(Texture texture) {
+		if(texture.prev != null) {
+			texture.prev.next = texture.next;
+		} else if(head == texture) {
+			head = texture.next;
+		}
+		if(texture.next != null) {
+			texture.next.prev = texture.prev;
+		} else if(tail == texture) {
+			tail = texture.prev;
+		}
+		texture.prev = null;
+		texture.next = null;
+	}
+
+	/**
+	 * Forgets every GL texture without deleting it. Must be called when a
+	 * new context is created, the textures are then loaded again the next
+	 * time they are bound.
+	 */
+	public void forgetTextures() {
+		synchronized(textures) {
+			for(int i = 0; i < textures.size(); i++) {
+				Texture t = textures.get(i);
+				dropTexture(t);
+				t.failed = false;
+			}
+		}
+		head = null;
+		tail = null;
+		residentBytes = 0;
+		boundId = 0;
+		checkedExtensions = false;
+	}
+
+	/**
+	 * Deletes every GL texture. The textures are loaded again if they
+	 * are bound later.
+	 * @param gl
+	 */
+	public void freeTextures(GL10 gl) {
+		synchronized(textures) {
+			for(int i = 0; i < textures.size(); i++) {
+				Texture t = textures.get(i);
+				if(t.glId != 0) {
+					deleteTexture(gl, t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set how many bytes the resident textures may use. Textures are not
+	 * deleted until the next one is loaded.
+	 * @param bytes the budget
+	 */
+	public void setBudget(int bytes) {
+		budget = bytes;
+	}
+
+	/**
+	 * @return number of bytes the resident textures may use
+	 */
+	public int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return number of bytes the resident textures use
+	 */
+	public int getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * Resets the upload and eviction counters.
+	 */
+	public void resetCounters() {
+		uploads = 0;
+		evictions = 0;
+		uploadTime = 0;
+	}
+
+	@Override
+	public String toString() {
+		return residentBytes/1024+" of "+budget/1024+" kB resident, "+uploads+" uploads in "
+			+uploadTime+" ms, "+evictions+" evictions";
+	}
+
+	/**
+	 * @return number of levels from a size down to 1x1
+	 */
+	private static int getLevelCount(int width, int height) {
+		int levels = 1;
+		int size = Math.max(width, height);
+		while(size > 1) {
+			size /= 2;
+			levels++;
+		}
+		return levels;
+	}
+
+	/**
+	 * @return size in bytes of a pixel in a bitmap with the given config
+	 */
+	private static int getBytesPerPixel(Bitmap.Config config) {
+		if(config == Bitmap.Config.ARGB_8888) {
+			return 4;
+		}
+		if(config == Bitmap.Config.ALPHA_8) {
+			return 1;
+		}
+		return 2;
+	}
+
+	/**
+	 * @return a big endian unsigned short from the PKM header
+	 */
+	private static int readShort(byte[] data, int offset) {
+		return ((data[offset] & 0xFF) << 8) | (data[offset+1] & 0xFF);
+	}
+}
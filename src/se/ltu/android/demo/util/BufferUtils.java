@@ -6,6 +6,7 @@ import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * An utility class for java.nio.Buffers.
@@ -35,6 +36,16 @@ public abstract class BufferUtils {
 		return bb.asCharBuffer();
 	}
 	
+	/**
+	 * @param size number of shorts the buffer should hold
+	 * @return the newly allocated short buffer
+	 */
+	public static ShortBuffer createShortBuffer(int size) {
+		ByteBuffer bb = ByteBuffer.allocateDirect(2*size);
+		bb.order(ByteOrder.nativeOrder());
+		return bb.asShortBuffer();
+	}
+	
 	/**
 	 * @param size number of floats the buffer should hold
 	 * @return the newly allocated float buffer
@@ -49,14 +60,14 @@ public abstract class BufferUtils {
 	 * @param size number of integers the buffer should hold
 	 * @return the newly allocated integer buffer
 	 */
-	private static IntBuffer createIntBuffer(int size) {
+	public static IntBuffer createIntBuffer(int size) {
 		ByteBuffer bb = ByteBuffer.allocateDirect(4*size);
 		bb.order(ByteOrder.nativeOrder());
 		return bb.asIntBuffer();
 	}
 
 	/**
-	 * Converts a float buffer to a fixed point int buffer
+	 * Converts a float buffer to a 16.16 fixed point int buffer
 	 * @param floatBuffer a FloatBuffer
 	 * @return an IntBuffer containing fixed points
 	 */
@@ -66,10 +77,26 @@ public abstract class BufferUtils {
 		floatBuffer.clear();
 		fixedBuffer.clear();
 		for(int i = 0; i < len; i++) {
-			fixedBuffer.put((int)(floatBuffer.get(i)*65536));
+			fixedBuffer.put(toFixed(floatBuffer.get(i)));
 		}
 		fixedBuffer.clear();
-		return null;
+		return fixedBuffer;
+	}
+	
+	/**
+	 * @param value a float
+	 * @return the value as a 16.16 fixed point
+	 */
+	public static int toFixed(float value) {
+		return (int)(value*65536);
+	}
+	
+	/**
+	 * @param value a 16.16 fixed point
+	 * @return the value as a float
+	 */
+	public static float toFloat(int value) {
+		return value * (1.0f / 65536);
 	}
 	
 }
@@ -0,0 +1,69 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.util;
+
+/**
+ * Keeps track of the part of a buffer that has changed since it was last
+ * uploaded. Several changes are merged into the smallest range that covers
+ * all of them.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class DirtyRange {
+	private int mStart = 0;
+	private int mEnd = 0;
+
+	/**
+	 * Add a changed range.
+	 * @param start first changed element
+	 * @param count number of changed elements
+	 */
+	public void add(int start, int count) {
+		if(count <= 0) {
+			return;
+		}
+		if(isEmpty()) {
+			mStart = start;
+			mEnd = start + count;
+			return;
+		}
+		if(start < mStart) {
+			mStart = start;
+		}
+		if(start + count > mEnd) {
+			mEnd = start + count;
+		}
+	}
+
+	/**
+	 * Forget all changes.
+	 */
+	public void clear() {
+		mStart = mEnd = 0;
+	}
+
+	/**
+	 * @return true if nothing has changed
+	 */
+	public boolean isEmpty() {
+		return mEnd <= mStart;
+	}
+
+	/**
+	 * @return first changed element
+	 */
+	public int getStart() {
+		return mStart;
+	}
+
+	/**
+	 * @return number of elements from the first to the last changed element
+	 */
+	public int getCount() {
+		return mEnd - mStart;
+	}
+
+	@Override
+	public String toString() {
+		return "["+mStart+", "+mEnd+")";
+	}
+}
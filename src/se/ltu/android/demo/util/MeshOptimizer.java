@@ -0,0 +1,459 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import se.ltu.android.demo.scene.Object3D;
+import android.util.Log;
+
+/**
+ * Reorders the triangles and vertices of a mesh so that the GPU can reuse
+ * more transformed vertices and fetch vertex data in order. Meant to be
+ * run when models are loaded or converted, before any hardware buffers
+ * are generated.<br><br>
+ *
+ * Three passes are made:<br>
+ * 1. Triangles are ordered for the post-transform vertex cache with Tom
+ * Forsyth's linear-speed algorithm.<br>
+ * 2. The cache ordered triangles are split into clusters where the cache
+ * runs cold and the clusters are sorted so that those facing outwards
+ * from the center of the mesh are drawn first, which reduces overdraw.
+ * The cluster order is only kept if the cache performance stays within
+ * <code>OVERDRAW_THRESHOLD</code> of the first pass.<br>
+ * 3. Vertices are renumbered in the order they are first used and every
+ * vertex attribute is moved accordingly.<br><br>
+ *
+ * Cache performance is measured as ACMR, the average number of vertices
+ * transformed per triangle, using a FIFO cache of <code>CACHE_SIZE</code>
+ * entries. It is 3 at worst and about 0.5 at best for a regular mesh.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class MeshOptimizer {
+	private final static String TAG = "MeshOptimizer";
+	/**
+	 * Size of the FIFO cache that ACMR is measured with.
+	 */
+	public final static int CACHE_SIZE = 16;
+	/**
+	 * How much worse than the cache order the ACMR of the overdraw order may be.
+	 */
+	public final static float OVERDRAW_THRESHOLD = 1.05f;
+
+	// size of the LRU cache modeled when ordering for the cache
+	private final static int SCORE_CACHE_SIZE = 32;
+	private final static float CACHE_DECAY_POWER = 1.5f;
+	private final static float LAST_TRIANGLE_SCORE = 0.75f;
+	private final static float VALENCE_BOOST_SCALE = 2.0f;
+	private final static float VALENCE_BOOST_POWER = 0.5f;
+
+	/**
+	 * Optimizes the index and vertex order of a mesh drawn as a triangle
+	 * list with float vertices that is not chunked. Other meshes are left
+	 * as they are.
+	 * The index buffer of the mesh is replaced, so this must be done before
+	 * hardware buffers are generated for it.
+	 * @param mesh mesh to optimize
+	 * @return the ACMR of the mesh after optimizing
+	 */
+	public static float optimize(Object3D mesh) {
+		FloatBuffer vertices = mesh.getVertices();
+		CharBuffer indexBuffer = mesh.getIndices();
+		if(vertices == null || indexBuffer == null || mesh.isChunked()
+				|| mesh.getDrawMode() != Object3D.MODE_TRIANGLES) {
+			Log.w(TAG, "Can only optimize triangle lists with float vertices, skipping "+mesh.getName());
+			return 0;
+		}
+		int vertexCount = vertices.limit() / 3;
+		int[] indices = new int[indexBuffer.limit() - indexBuffer.limit() % 3];
+		for(int i = 0; i < indices.length; i++) {
+			indices[i] = indexBuffer.get(i);
+		}
+		float before = getACMR(indices, vertexCount, CACHE_SIZE);
+
+		int[] cacheOrder = optimizeVertexCache(indices, vertexCount);
+		float cacheACMR = getACMR(cacheOrder, vertexCount, CACHE_SIZE);
+		float[] positions = toArray(vertices);
+		int[] result = optimizeOverdraw(cacheOrder, positions, CACHE_SIZE);
+		float after = getACMR(result, vertexCount, CACHE_SIZE);
+		if(after > cacheACMR * OVERDRAW_THRESHOLD) {
+			result = cacheOrder;
+			after = cacheACMR;
+		}
+
+		int[] remap = optimizeVertexFetch(result, vertexCount);
+		int used = 0;
+		for(int i = 0; i < vertexCount; i++) {
+			if(remap[i] >= 0) {
+				used++;
+			}
+		}
+		char[] newIndices = new char[result.length];
+		for(int i = 0; i < result.length; i++) {
+			newIndices[i] = (char)remap[result[i]];
+		}
+
+		mesh.setVertices(remapFloats(positions, remap, 3, used));
+		FloatBuffer normals = mesh.getNormals();
+		if(normals != null) {
+			mesh.setNormals(remapFloats(toArray(normals), remap, 3, used));
+		}
+		ByteBuffer colors = mesh.getColors();
+		if(colors != null) {
+			byte[] dst = new byte[used * 4];
+			for(int i = 0; i < vertexCount; i++) {
+				if(remap[i] >= 0) {
+					for(int n = 0; n < 4; n++) {
+						dst[remap[i]*4+n] = colors.get(i*4+n);
+					}
+				}
+			}
+			mesh.setColors(dst);
+		}
+		FloatBuffer texcoords = mesh.getTexCoords();
+		if(texcoords != null) {
+			mesh.setTexCoords(remapFloats(toArray(texcoords), remap, 2, used));
+		}
+		mesh.setIndices(newIndices);
+
+		Log.d(TAG, "ACMR of "+mesh.getName()+": "+before+" -> "+after
+				+" ("+(vertexCount - used)+" unused vertices dropped)");
+		return after;
+	}
+
+	/**
+	 * Measures how well a triangle list uses a FIFO vertex cache.
+	 * @param indices triangle list
+	 * @param vertexCount number of vertices the indices refer to
+	 * @param cacheSize number of entries in the cache
+	 * @return average number of cache misses per triangle
+	 */
+	public static float getACMR(CharBuffer indices, int vertexCount, int cacheSize) {
+		int[] array = new int[indices.limit() - indices.limit() % 3];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = indices.get(i);
+		}
+		return getACMR(array, vertexCount, cacheSize);
+	}
+
+	/**
+	 * Measures how well a triangle list uses a FIFO vertex cache.
+	 * @param indices triangle list
+	 * @param vertexCount number of vertices the indices refer to
+	 * @param cacheSize number of entries in the cache
+	 * @return average number of cache misses per triangle
+	 */
+	public static float getACMR(int[] indices, int vertexCount, int cacheSize) {
+		if(indices.length < 3) {
+			return 0;
+		}
+		// a vertex is cached if fewer than cacheSize misses happened since it was loaded
+		int[] loadedAt = new int[vertexCount];
+		Arrays.fill(loadedAt, Integer.MIN_VALUE / 2);
+		int misses = 0;
+		for(int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			if(misses - loadedAt[v] >= cacheSize) {
+				loadedAt[v] = misses;
+				misses++;
+			}
+		}
+		return (float)misses / (indices.length / 3);
+	}
+
+	/**
+	 * Orders triangles for the post-transform vertex cache. Each step
+	 * picks the triangle whose vertices score the highest, where recently
+	 * used vertices and vertices with few triangles left score high.
+	 * @param indices triangle list
+	 * @param vertexCount number of vertices the indices refer to
+	 * @return the reordered triangle list
+	 */
+	public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+		int triangleCount = indices.length / 3;
+		int[] result = new int[triangleCount * 3];
+
+		// triangles using each vertex, as offsets into one array
+		int[] valence = new int[vertexCount];
+		for(int i = 0; i < triangleCount * 3; i++) {
+			valence[indices[i]]++;
+		}
+		int[] offsets = new int[vertexCount + 1];
+		for(int v = 0; v < vertexCount; v++) {
+			offsets[v+1] = offsets[v] + valence[v];
+		}
+		int[] adjacent = new int[offsets[vertexCount]];
+		int[] fill = new int[vertexCount];
+		for(int t = 0; t < triangleCount; t++) {
+			for(int k = 0; k < 3; k++) {
+				int v = indices[t*3+k];
+				adjacent[offsets[v] + fill[v]++] = t;
+			}
+		}
+
+		float[] vertexScore = new float[vertexCount];
+		for(int v = 0; v < vertexCount; v++) {
+			vertexScore[v] = scoreVertex(-1, valence[v]);
+		}
+		float[] triangleScore = new float[triangleCount];
+		boolean[] emitted = new boolean[triangleCount];
+		for(int t = 0; t < triangleCount; t++) {
+			triangleScore[t] = vertexScore[indices[t*3]]
+				+ vertexScore[indices[t*3+1]] + vertexScore[indices[t*3+2]];
+		}
+
+		int[] cache = new int[SCORE_CACHE_SIZE + 3];
+		int[] newCache = new int[SCORE_CACHE_SIZE + 3];
+		int cacheCount = 0;
+		int cursor = 0;
+		int best = -1;
+		for(int out = 0; out < triangleCount; out++) {
+			if(best < 0) {
+				// nothing in the cache to continue from, take the next triangle
+				while(emitted[cursor]) {
+					cursor++;
+				}
+				best = cursor;
+			}
+			emitted[best] = true;
+			int newCount = 0;
+			for(int k = 0; k < 3; k++) {
+				int v = indices[best*3+k];
+				result[out*3+k] = v;
+				newCache[newCount++] = v;
+				// the triangle no longer counts towards the valence
+				int end = offsets[v] + valence[v];
+				for(int a = offsets[v]; a < end; a++) {
+					if(adjacent[a] == best) {
+						adjacent[a] = adjacent[end-1];
+						break;
+					}
+				}
+				valence[v]--;
+			}
+			for(int c = 0; c < cacheCount; c++) {
+				int v = cache[c];
+				if(v != newCache[0] && v != newCache[1] && v != newCache[2]) {
+					newCache[newCount++] = v;
+				}
+			}
+			int[] swap = cache;
+			cache = newCache;
+			newCache = swap;
+			cacheCount = newCount;
+
+			// rescore the vertices that moved and the triangles around them,
+			// vertices pushed out of the cache are rescored as uncached
+			for(int c = 0; c < cacheCount; c++) {
+				int v = cache[c];
+				float score = scoreVertex(c < SCORE_CACHE_SIZE ? c : -1, valence[v]);
+				float delta = score - vertexScore[v];
+				vertexScore[v] = score;
+				int end = offsets[v] + valence[v];
+				for(int a = offsets[v]; a < end; a++) {
+					triangleScore[adjacent[a]] += delta;
+				}
+			}
+			if(cacheCount > SCORE_CACHE_SIZE) {
+				cacheCount = SCORE_CACHE_SIZE;
+			}
+
+			// the next triangle is the best one using a cached vertex
+			best = -1;
+			float bestScore = -1;
+			for(int c = 0; c < cacheCount; c++) {
+				int v = cache[c];
+				int end = offsets[v] + valence[v];
+				for(int a = offsets[v]; a < end; a++) {
+					int t = adjacent[a];
+					if(triangleScore[t] > bestScore) {
+						bestScore = triangleScore[t];
+						best = t;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reorders clusters of a cache optimized triangle list so that
+	 * triangles facing outwards from the center of the mesh come first.
+	 * A cluster ends where a triangle misses the cache with all three
+	 * vertices, so the cache performance is mostly kept.
+	 * @param indices cache optimized triangle list
+	 * @param positions vertex positions, 3 floats per vertex
+	 * @param cacheSize number of entries in the FIFO cache
+	 * @return the reordered triangle list
+	 */
+	public static int[] optimizeOverdraw(int[] indices, float[] positions, int cacheSize) {
+		int triangleCount = indices.length / 3;
+		int vertexCount = positions.length / 3;
+		if(triangleCount == 0) {
+			return indices;
+		}
+
+		// find the cluster boundaries
+		int[] clusters = new int[triangleCount + 1];
+		int clusterCount = 0;
+		int[] loadedAt = new int[vertexCount];
+		Arrays.fill(loadedAt, Integer.MIN_VALUE / 2);
+		int misses = 0;
+		for(int t = 0; t < triangleCount; t++) {
+			int triangleMisses = 0;
+			for(int k = 0; k < 3; k++) {
+				int v = indices[t*3+k];
+				if(misses - loadedAt[v] >= cacheSize) {
+					loadedAt[v] = misses;
+					misses++;
+					triangleMisses++;
+				}
+			}
+			if(t == 0 || triangleMisses == 3) {
+				clusters[clusterCount++] = t;
+			}
+		}
+		clusters[clusterCount] = triangleCount;
+
+		// center of the mesh, weighted by area
+		float[] mesh = new float[4];
+		for(int t = 0; t < triangleCount; t++) {
+			accumulate(indices, t, positions, mesh, null);
+		}
+		if(mesh[3] > 0) {
+			mesh[0] /= mesh[3];
+			mesh[1] /= mesh[3];
+			mesh[2] /= mesh[3];
+		}
+
+		// sort the clusters on how much they face away from the center
+		long[] keys = new long[clusterCount];
+		float[] center = new float[4];
+		float[] normal = new float[3];
+		for(int c = 0; c < clusterCount; c++) {
+			center[0] = center[1] = center[2] = center[3] = 0;
+			normal[0] = normal[1] = normal[2] = 0;
+			for(int t = clusters[c]; t < clusters[c+1]; t++) {
+				accumulate(indices, t, positions, center, normal);
+			}
+			float dot = 0;
+			if(center[3] > 0) {
+				for(int n = 0; n < 3; n++) {
+					dot += (center[n] / center[3] - mesh[n]) * normal[n];
+				}
+				float length = (float)Math.sqrt(normal[0]*normal[0]
+						+ normal[1]*normal[1] + normal[2]*normal[2]);
+				dot = length > 0 ? dot / length : 0;
+			}
+			// descending on the dot product, ties in cluster order. Flipping
+			// the magnitude bits of negative floats makes them sort as ints.
+			int bits = Float.floatToIntBits(-dot);
+			bits ^= (bits >> 31) & 0x7FFFFFFF;
+			keys[c] = ((long)bits << 32) | c;
+		}
+		Arrays.sort(keys);
+
+		int[] result = new int[triangleCount * 3];
+		int out = 0;
+		for(int i = 0; i < clusterCount; i++) {
+			int c = (int)(keys[i] & 0xFFFFFFFFL);
+			int first = clusters[c] * 3;
+			int count = (clusters[c+1] - clusters[c]) * 3;
+			System.arraycopy(indices, first, result, out, count);
+			out += count;
+		}
+		return result;
+	}
+
+	/**
+	 * Numbers vertices in the order a triangle list first uses them.
+	 * @param indices triangle list
+	 * @param vertexCount number of vertices the indices refer to
+	 * @return the new index of each vertex, -1 for unused vertices
+	 */
+	public static int[] optimizeVertexFetch(int[] indices, int vertexCount) {
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+		int next = 0;
+		for(int i = 0; i < indices.length; i++) {
+			if(remap[indices[i]] < 0) {
+				remap[indices[i]] = next++;
+			}
+		}
+		return remap;
+	}
+
+	/**
+	 * Score of a vertex in Forsyth's algorithm.
+	 * @param position position in the LRU cache or -1 if not cached
+	 * @param valence number of triangles left that use the vertex
+	 */
+	private static float scoreVertex(int position, int valence) {
+		if(valence == 0) {
+			return -1;
+		}
+		float score = 0;
+		if(position >= 0) {
+			if(position < 3) {
+				// the last triangle's vertices are penalized to avoid
+				// strip-like orders
+				score = LAST_TRIANGLE_SCORE;
+			} else {
+				float scaler = 1.0f / (SCORE_CACHE_SIZE - 3);
+				score = (float)Math.pow(1.0f - (position - 3) * scaler, CACHE_DECAY_POWER);
+			}
+		}
+		return score + VALENCE_BOOST_SCALE * (float)Math.pow(valence, -VALENCE_BOOST_POWER);
+	}
+
+	/**
+	 * Adds the area weighted centroid of a triangle to center and its
+	 * area weighted normal to normal.
+	 */
+	private static void accumulate(int[] indices, int triangle, float[] positions,
+			float[] center, float[] normal) {
+		int a = indices[triangle*3] * 3;
+		int b = indices[triangle*3+1] * 3;
+		int c = indices[triangle*3+2] * 3;
+		float ux = positions[b] - positions[a];
+		float uy = positions[b+1] - positions[a+1];
+		float uz = positions[b+2] - positions[a+2];
+		float vx = positions[c] - positions[a];
+		float vy = positions[c+1] - positions[a+1];
+		float vz = positions[c+2] - positions[a+2];
+		float nx = uy * vz - uz * vy;
+		float ny = uz * vx - ux * vz;
+		float nz = ux * vy - uy * vx;
+		float area = (float)Math.sqrt(nx*nx + ny*ny + nz*nz) * 0.5f;
+		for(int n = 0; n < 3; n++) {
+			center[n] += (positions[a+n] + positions[b+n] + positions[c+n]) / 3 * area;
+		}
+		center[3] += area;
+		if(normal != null) {
+			normal[0] += nx * 0.5f;
+			normal[1] += ny * 0.5f;
+			normal[2] += nz * 0.5f;
+		}
+	}
+
+	private static float[] remapFloats(float[] src, int[] remap, int size, int used) {
+		float[] dst = new float[used * size];
+		for(int i = 0; i < remap.length; i++) {
+			if(remap[i] >= 0) {
+				System.arraycopy(src, i*size, dst, remap[i]*size, size);
+			}
+		}
+		return dst;
+	}
+
+	private static float[] toArray(FloatBuffer buffer) {
+		float[] array = new float[buffer.limit()];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = buffer.get(i);
+		}
+		return array;
+	}
+}
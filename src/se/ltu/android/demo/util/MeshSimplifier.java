@@ -0,0 +1,605 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.util;
+
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import se.ltu.android.demo.scene.LodChain;
+import se.ltu.android.demo.scene.Object3D;
+import se.ltu.android.demo.scene.intersection.AABBox;
+
+/**
+ * Reduces the number of triangles of a mesh by collapsing edges, always
+ * picking the collapse that moves the surface the least according to
+ * quadric error metrics (Garland and Heckbert).<br><br>
+ *
+ * An edge is collapsed by moving one of its vertices onto the other, so
+ * every vertex that is left keeps its original position, normal and
+ * texture coordinates. Vertices on the border of the mesh are never moved.
+ * Since vertices are split wherever normals or texture coordinates differ,
+ * this also keeps hard edges and texture seams in place. Collapses that
+ * would flip a triangle or make the mesh non-manifold are skipped.<br><br>
+ *
+ * Meant to be run once when models are converted, not while drawing.
+ * <code>buildChain</code> creates a whole level of detail chain that
+ * <code>Object3D.exportModel</code> can write to a single model file.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class MeshSimplifier {
+	private final int mVertexCount;
+	private final float[] mPositions;
+	private final float[] mNormals;
+	private final float[] mTexcoords;
+
+	private final int[] mTriangles;
+	private final boolean[] mAlive;
+	private int mTriangleCount;
+
+	// triangles around each vertex, may include dead triangles
+	private final int[][] mAdjacent;
+	private final int[] mAdjacentCount;
+	// symmetric 4x4 quadric per vertex, 10 values
+	private final double[] mQuadrics;
+	private final boolean[] mLocked;
+	private final boolean[] mRemoved;
+	private final int[] mVersion;
+	private final PriorityQueue<Collapse> mQueue = new PriorityQueue<Collapse>();
+	private float mError = 0;
+
+	// scratch space for neighbor sets
+	private int[] mNeighborsU = new int[32];
+	private int[] mNeighborsV = new int[32];
+
+	/**
+	 * Builds a level of detail chain for a mesh and sets it on the mesh.
+	 * Each level is simplified from the previous one. The screen size of
+	 * a level is the size at which its error bound is projected to
+	 * <code>pixelError</code> pixels.
+	 * @param mesh mesh with float vertices, used as level 0
+	 * @param ratios triangle count of each level as a fraction of the
+	 * triangle count of the mesh, decreasing
+	 * @param pixelError largest acceptable error on the screen in pixels
+	 * @return the chain
+	 */
+	public static LodChain buildChain(Object3D mesh, float[] ratios, float pixelError) {
+		MeshSimplifier simplifier = new MeshSimplifier(mesh);
+		LodChain chain = new LodChain(mesh);
+		int triangles = simplifier.getTriangleCount();
+		AABBox bound = simplifier.getBound();
+		float diameter = (float)Math.sqrt(
+				sq(bound.mMaxX - bound.mMinX)
+				+ sq(bound.mMaxY - bound.mMinY)
+				+ sq(bound.mMaxZ - bound.mMinZ));
+
+		for(int i = 0; i < ratios.length; i++) {
+			int target = Math.max(1, (int)(triangles * ratios[i]));
+			float error = simplifier.simplify(target);
+			// the projected error is error/diameter of the projected size
+			float screenSize = error > 0 ? diameter * pixelError / error : Float.MAX_VALUE;
+			chain.addLevel(simplifier.createMesh(mesh.getName()+" lod "+(i+1)),
+					screenSize, error);
+		}
+		mesh.setLodChain(chain);
+		return chain;
+	}
+
+	/**
+	 * @param mesh mesh with float vertices to simplify, drawn with any of
+	 * the draw modes. The mesh itself is not changed.
+	 */
+	public MeshSimplifier(Object3D mesh) {
+		FloatBuffer vertices = mesh.getVertices();
+		CharBuffer indices = mesh.getIndices();
+		if(vertices == null || indices == null) {
+			throw new IllegalArgumentException("Need float vertices and indices to simplify "+mesh);
+		}
+		if(mesh.isChunked()) {
+			throw new IllegalArgumentException("Can not simplify the chunked mesh "+mesh);
+		}
+		mVertexCount = vertices.limit() / 3;
+		mPositions = toArray(vertices);
+		mNormals = toArray(mesh.getNormals());
+		mTexcoords = toArray(mesh.getTexCoords());
+		mTriangles = toTriangles(indices, mesh.getDrawMode());
+		mAlive = new boolean[mTriangles.length / 3];
+
+		mAdjacent = new int[mVertexCount][];
+		mAdjacentCount = new int[mVertexCount];
+		mQuadrics = new double[mVertexCount * 10];
+		mLocked = new boolean[mVertexCount];
+		mRemoved = new boolean[mVertexCount];
+		mVersion = new int[mVertexCount];
+		for(int i = 0; i < mVertexCount; i++) {
+			mAdjacent[i] = new int[8];
+		}
+
+		for(int t = 0; t < mAlive.length; t++) {
+			int a = mTriangles[t*3], b = mTriangles[t*3+1], c = mTriangles[t*3+2];
+			if(a == b || b == c || a == c) {
+				continue;
+			}
+			mAlive[t] = true;
+			mTriangleCount++;
+			addAdjacent(a, t);
+			addAdjacent(b, t);
+			addAdjacent(c, t);
+			addPlaneQuadric(a, b, c);
+		}
+		lockBorders();
+
+		for(int t = 0; t < mAlive.length; t++) {
+			if(mAlive[t]) {
+				for(int n = 0; n < 3; n++) {
+					push(mTriangles[t*3+n], mTriangles[t*3+(n+1)%3]);
+					push(mTriangles[t*3+(n+1)%3], mTriangles[t*3+n]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of triangles left
+	 */
+	public int getTriangleCount() {
+		return mTriangleCount;
+	}
+
+	/**
+	 * @return the largest error of all collapses made so far, how far the
+	 * surface has moved in model units
+	 */
+	public float getError() {
+		return mError;
+	}
+
+	/**
+	 * Collapses edges until no more than <code>targetTriangles</code>
+	 * triangles are left, or until no edge can be collapsed.
+	 * @param targetTriangles number of triangles to stop at
+	 * @return the error bound after simplifying
+	 */
+	public float simplify(int targetTriangles) {
+		Collapse c;
+		while(mTriangleCount > targetTriangles && (c = mQueue.poll()) != null) {
+			if(mRemoved[c.mFrom] || mRemoved[c.mTo]
+					|| mVersion[c.mFrom] != c.mFromVersion
+					|| mVersion[c.mTo] != c.mToVersion) {
+				continue;
+			}
+			if(!canCollapse(c.mFrom, c.mTo)) {
+				continue;
+			}
+			collapse(c.mFrom, c.mTo);
+			mError = Math.max(mError, c.mError);
+		}
+		return mError;
+	}
+
+	/**
+	 * Creates a mesh from what is left, drawn as a triangle list and with
+	 * the vertices that are no longer used removed.
+	 * @param name name of the new mesh
+	 * @return the new mesh
+	 */
+	public Object3D createMesh(String name) {
+		int[] remap = new int[mVertexCount];
+		int used = 0;
+		for(int i = 0; i < mVertexCount; i++) {
+			remap[i] = -1;
+		}
+		char[] indices = new char[mTriangleCount * 3];
+		int index = 0;
+		for(int t = 0; t < mAlive.length; t++) {
+			if(!mAlive[t]) {
+				continue;
+			}
+			for(int n = 0; n < 3; n++) {
+				int v = mTriangles[t*3+n];
+				if(remap[v] < 0) {
+					remap[v] = used++;
+				}
+				indices[index++] = (char)remap[v];
+			}
+		}
+
+		float[] positions = new float[used * 3];
+		float[] normals = mNormals == null ? null : new float[used * 3];
+		float[] texcoords = mTexcoords == null ? null : new float[used * 2];
+		for(int i = 0; i < mVertexCount; i++) {
+			int r = remap[i];
+			if(r < 0) {
+				continue;
+			}
+			System.arraycopy(mPositions, i*3, positions, r*3, 3);
+			if(normals != null) {
+				System.arraycopy(mNormals, i*3, normals, r*3, 3);
+			}
+			if(texcoords != null) {
+				System.arraycopy(mTexcoords, i*2, texcoords, r*2, 2);
+			}
+		}
+
+		Object3D mesh = new Object3D(name);
+		mesh.setVertices(positions);
+		if(normals != null) {
+			mesh.setNormals(normals);
+		}
+		if(texcoords != null) {
+			mesh.setTexCoords(texcoords);
+		}
+		mesh.setIndices(indices);
+		mesh.updateModelBound();
+		return mesh;
+	}
+
+	/**
+	 * @return the bounding box of the original vertices
+	 */
+	private AABBox getBound() {
+		AABBox bound = new AABBox();
+		for(int i = 0; i < mVertexCount; i++) {
+			float x = mPositions[i*3], y = mPositions[i*3+1], z = mPositions[i*3+2];
+			if(i == 0) {
+				bound.mMinX = bound.mMaxX = x;
+				bound.mMinY = bound.mMaxY = y;
+				bound.mMinZ = bound.mMaxZ = z;
+			} else {
+				bound.mMinX = Math.min(bound.mMinX, x);
+				bound.mMinY = Math.min(bound.mMinY, y);
+				bound.mMinZ = Math.min(bound.mMinZ, z);
+				bound.mMaxX = Math.max(bound.mMaxX, x);
+				bound.mMaxY = Math.max(bound.mMaxY, y);
+				bound.mMaxZ = Math.max(bound.mMaxZ, z);
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * Locks the vertices of every edge that only one triangle uses.
+	 */
+	private void lockBorders() {
+		HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+		for(int t = 0; t < mAlive.length; t++) {
+			if(!mAlive[t]) {
+				continue;
+			}
+			for(int n = 0; n < 3; n++) {
+				Long key = edgeKey(mTriangles[t*3+n], mTriangles[t*3+(n+1)%3]);
+				Integer count = edges.get(key);
+				edges.put(key, count == null ? 1 : count + 1);
+			}
+		}
+		for(Long key : edges.keySet()) {
+			if(edges.get(key) == 1) {
+				mLocked[(int)(key >> 32)] = true;
+				mLocked[(int)(key & 0xFFFFFFFFL)] = true;
+			}
+		}
+	}
+
+	private static Long edgeKey(int a, int b) {
+		return a < b ? ((long)a << 32) | b : ((long)b << 32) | a;
+	}
+
+	/**
+	 * Queues the collapse of <code>from</code> onto <code>to</code>.
+	 */
+	private void push(int from, int to) {
+		if(mLocked[from]) {
+			return;
+		}
+		double[] q = mQuadrics;
+		int i = from * 10, j = to * 10;
+		double x = mPositions[to*3], y = mPositions[to*3+1], z = mPositions[to*3+2];
+		double cost =
+			(q[i] + q[j]) * x * x
+			+ 2 * (q[i+1] + q[j+1]) * x * y
+			+ 2 * (q[i+2] + q[j+2]) * x * z
+			+ 2 * (q[i+3] + q[j+3]) * x
+			+ (q[i+4] + q[j+4]) * y * y
+			+ 2 * (q[i+5] + q[j+5]) * y * z
+			+ 2 * (q[i+6] + q[j+6]) * y
+			+ (q[i+7] + q[j+7]) * z * z
+			+ 2 * (q[i+8] + q[j+8]) * z
+			+ (q[i+9] + q[j+9]);
+		// the quadrics are weighted by area, which is also their trace
+		double area = q[i] + q[j] + q[i+4] + q[j+4] + q[i+7] + q[j+7];
+		float error = area > 0 ? (float)Math.sqrt(Math.max(cost, 0) / area) : 0;
+		mQueue.add(new Collapse(from, to, mVersion[from], mVersion[to], cost, error));
+	}
+
+	/**
+	 * @return true if <code>from</code> can be moved onto <code>to</code>
+	 * without flipping any triangle or breaking the topology
+	 */
+	private boolean canCollapse(int from, int to) {
+		int shared = 0;
+		int[] adj = mAdjacent[from];
+		int len = mAdjacentCount[from];
+		for(int n = 0; n < len; n++) {
+			int t = adj[n];
+			if(mAlive[t] && contains(t, to)) {
+				shared++;
+			}
+		}
+		if(shared == 0) {
+			// no longer an edge
+			return false;
+		}
+		// the link condition: the endpoints must have exactly as many
+		// common neighbors as they have common triangles
+		int countU = neighbors(from, true);
+		int countV = neighbors(to, false);
+		int common = 0;
+		for(int a = 0; a < countU; a++) {
+			for(int b = 0; b < countV; b++) {
+				if(mNeighborsU[a] == mNeighborsV[b]) {
+					common++;
+					break;
+				}
+			}
+		}
+		if(common != shared) {
+			return false;
+		}
+
+		float tx = mPositions[to*3], ty = mPositions[to*3+1], tz = mPositions[to*3+2];
+		for(int n = 0; n < len; n++) {
+			int t = adj[n];
+			if(!mAlive[t] || contains(t, to)) {
+				continue;
+			}
+			int a = mTriangles[t*3], b = mTriangles[t*3+1], c = mTriangles[t*3+2];
+			float[] before = normal(a, b, c, -1, 0, 0, 0);
+			float[] after = normal(a, b, c, from, tx, ty, tz);
+			float dot = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+			float lenAfter = after[0] * after[0] + after[1] * after[1] + after[2] * after[2];
+			float lenBefore = before[0] * before[0] + before[1] * before[1] + before[2] * before[2];
+			if(dot <= 0 || lenAfter < lenBefore * 1e-6f) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves <code>from</code> onto <code>to</code>, removing the triangles
+	 * they share.
+	 */
+	private void collapse(int from, int to) {
+		int[] adj = mAdjacent[from];
+		int len = mAdjacentCount[from];
+		for(int n = 0; n < len; n++) {
+			int t = adj[n];
+			if(!mAlive[t]) {
+				continue;
+			}
+			if(contains(t, to)) {
+				mAlive[t] = false;
+				mTriangleCount--;
+				continue;
+			}
+			for(int k = 0; k < 3; k++) {
+				if(mTriangles[t*3+k] == from) {
+					mTriangles[t*3+k] = to;
+				}
+			}
+			addAdjacent(to, t);
+		}
+		mRemoved[from] = true;
+		mAdjacentCount[from] = 0;
+		for(int k = 0; k < 10; k++) {
+			mQuadrics[to*10+k] += mQuadrics[from*10+k];
+		}
+		mVersion[to]++;
+
+		// the costs of all edges of the kept vertex have changed
+		adj = mAdjacent[to];
+		len = mAdjacentCount[to];
+		for(int n = 0; n < len; n++) {
+			int t = adj[n];
+			if(!mAlive[t]) {
+				continue;
+			}
+			for(int k = 0; k < 3; k++) {
+				int other = mTriangles[t*3+k];
+				if(other != to) {
+					push(other, to);
+					push(to, other);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects the neighbors of a vertex into one of the scratch arrays.
+	 * @return number of neighbors
+	 */
+	private int neighbors(int vertex, boolean first) {
+		int[] out = first ? mNeighborsU : mNeighborsV;
+		int count = 0;
+		int[] adj = mAdjacent[vertex];
+		int len = mAdjacentCount[vertex];
+		for(int n = 0; n < len; n++) {
+			int t = adj[n];
+			if(!mAlive[t]) {
+				continue;
+			}
+			for(int k = 0; k < 3; k++) {
+				int v = mTriangles[t*3+k];
+				if(v == vertex) {
+					continue;
+				}
+				boolean found = false;
+				for(int i = 0; i < count && !found; i++) {
+					found = out[i] == v;
+				}
+				if(!found) {
+					if(count == out.length) {
+						int[] grown = new int[count * 2];
+						System.arraycopy(out, 0, grown, 0, count);
+						out = grown;
+						if(first) {
+							mNeighborsU = out;
+						} else {
+							mNeighborsV = out;
+						}
+					}
+					out[count++] = v;
+				}
+			}
+		}
+		return count;
+	}
+
+	private boolean contains(int triangle, int vertex) {
+		return mTriangles[triangle*3] == vertex
+			|| mTriangles[triangle*3+1] == vertex
+			|| mTriangles[triangle*3+2] == vertex;
+	}
+
+	/**
+	 * Unnormalized normal of a triangle, with the position of
+	 * <code>moved</code> replaced by (x, y, z).
+	 */
+	private float[] normal(int a, int b, int c, int moved, float x, float y, float z) {
+		float[] p = mPositions;
+		float ax = p[a*3], ay = p[a*3+1], az = p[a*3+2];
+		float bx = p[b*3], by = p[b*3+1], bz = p[b*3+2];
+		float cx = p[c*3], cy = p[c*3+1], cz = p[c*3+2];
+		if(a == moved) {
+			ax = x; ay = y; az = z;
+		} else if(b == moved) {
+			bx = x; by = y; bz = z;
+		} else if(c == moved) {
+			cx = x; cy = y; cz = z;
+		}
+		float ux = bx - ax, uy = by - ay, uz = bz - az;
+		float vx = cx - ax, vy = cy - ay, vz = cz - az;
+		return new float[] {
+			uy * vz - uz * vy,
+			uz * vx - ux * vz,
+			ux * vy - uy * vx
+		};
+	}
+
+	/**
+	 * Adds the area weighted quadric of the plane of a triangle to its vertices.
+	 */
+	private void addPlaneQuadric(int a, int b, int c) {
+		float[] n = normal(a, b, c, -1, 0, 0, 0);
+		double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+		if(length == 0) {
+			return;
+		}
+		double na = n[0] / length, nb = n[1] / length, nc = n[2] / length;
+		double nd = -(na * mPositions[a*3] + nb * mPositions[a*3+1] + nc * mPositions[a*3+2]);
+		double area = length * 0.5;
+		int[] vertices = {a, b, c};
+		for(int v : vertices) {
+			int i = v * 10;
+			mQuadrics[i] += area * na * na;
+			mQuadrics[i+1] += area * na * nb;
+			mQuadrics[i+2] += area * na * nc;
+			mQuadrics[i+3] += area * na * nd;
+			mQuadrics[i+4] += area * nb * nb;
+			mQuadrics[i+5] += area * nb * nc;
+			mQuadrics[i+6] += area * nb * nd;
+			mQuadrics[i+7] += area * nc * nc;
+			mQuadrics[i+8] += area * nc * nd;
+			mQuadrics[i+9] += area * nd * nd;
+		}
+	}
+
+	private void addAdjacent(int vertex, int triangle) {
+		int count = mAdjacentCount[vertex];
+		if(count == mAdjacent[vertex].length) {
+			int[] grown = new int[count * 2];
+			System.arraycopy(mAdjacent[vertex], 0, grown, 0, count);
+			mAdjacent[vertex] = grown;
+		}
+		mAdjacent[vertex][count] = triangle;
+		mAdjacentCount[vertex] = count + 1;
+	}
+
+	private static float[] toArray(FloatBuffer buffer) {
+		if(buffer == null) {
+			return null;
+		}
+		float[] array = new float[buffer.limit()];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = buffer.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Converts indices of any draw mode to a triangle list.
+	 */
+	private static int[] toTriangles(CharBuffer indices, int mode) {
+		int len = indices.limit();
+		int[] triangles;
+		switch(mode) {
+		case Object3D.MODE_TRIANGLE_STRIP:
+			triangles = new int[Math.max(0, len - 2) * 3];
+			for(int i = 0; i + 2 < len; i++) {
+				// every other triangle of a strip has reversed winding
+				boolean odd = (i & 1) != 0;
+				triangles[i*3] = indices.get(i);
+				triangles[i*3+1] = indices.get(odd ? i+2 : i+1);
+				triangles[i*3+2] = indices.get(odd ? i+1 : i+2);
+			}
+			return triangles;
+		case Object3D.MODE_TRIANGLE_FAN:
+			triangles = new int[Math.max(0, len - 2) * 3];
+			for(int i = 1; i + 1 < len; i++) {
+				triangles[(i-1)*3] = indices.get(0);
+				triangles[(i-1)*3+1] = indices.get(i);
+				triangles[(i-1)*3+2] = indices.get(i+1);
+			}
+			return triangles;
+		default:
+			triangles = new int[len - len % 3];
+			for(int i = 0; i < triangles.length; i++) {
+				triangles[i] = indices.get(i);
+			}
+			return triangles;
+		}
+	}
+
+	private static float sq(float value) {
+		return value * value;
+	}
+
+	/**
+	 * A queued edge collapse. It is stale if any of its vertices has
+	 * changed since it was queued.
+	 */
+	private static class Collapse implements Comparable<Collapse> {
+		final int mFrom;
+		final int mTo;
+		final int mFromVersion;
+		final int mToVersion;
+		final double mCost;
+		// root mean square distance to the planes of the merged quadric
+		final float mError;
+
+		Collapse(int from, int to, int fromVersion, int toVersion, double cost, float error) {
+			mFrom = from;
+			mTo = to;
+			mFromVersion = fromVersion;
+			mToVersion = toVersion;
+			mCost = cost;
+			mError = error;
+		}
+
+		@Override
+		public int compareTo(Collapse other) {
+			return Double.compare(mCost, other.mCost);
+		}
+	}
+}
@@ -29,8 +29,10 @@ import se.ltu.android.demo.scene.intersection.AABBox;
 public class ObjLoader {
 	private final static String TAG = "ObjLoader";
 
-	// the result will end up in these buffers
-	private CharBuffer indices;
+	// the result will end up in these buffers, the indices are ints since
+	// a model may have more vertices than a char index can address
+	private int[] indices;
+	private int nIndices = 0;
 	private FloatBuffer vertices;
 	private FloatBuffer texcoords;
 	private FloatBuffer normals;
@@ -61,6 +63,41 @@ public class ObjLoader {
 
 	private int yeah = 0;
 	private int doh = 0;
+	
+	private boolean interleave = false;
+	private boolean optimize = true;
+	private boolean quantize = false;
+
+	/**
+	 * Set whether loaded models should store their vertex attributes
+	 * interleaved in one buffer.
+	 * @param interleave true to create interleaved models
+	 * @see Object3D#setInterleaved(boolean)
+	 */
+	public void setInterleaved(boolean interleave) {
+		this.interleave = interleave;
+	}
+
+	/**
+	 * Set whether the triangles and vertices of loaded models should be
+	 * reordered for the vertex cache. Default is true.
+	 * @param optimize true to optimize loaded models
+	 * @see MeshOptimizer#optimize(Object3D)
+	 */
+	public void setOptimize(boolean optimize) {
+		this.optimize = optimize;
+	}
+
+	/**
+	 * Set whether loaded models should be drawn from quantized vertex
+	 * attributes. The precision lost is logged for every model. Default
+	 * is false.
+	 * @param quantize true to quantize loaded models
+	 * @see Object3D#setQuantized(boolean)
+	 */
+	public void setQuantized(boolean quantize) {
+		this.quantize = quantize;
+	}
 
 	/**
 	 * Loads a model from an OBJ-file into a new TriMesh
@@ -91,7 +128,7 @@ public class ObjLoader {
 		}
 
 		// this is the same regardless of the cases below
-		indices = BufferUtils.createCharBuffer(nFaces * nVertsPerFace);
+		indices = new int[nFaces * nVertsPerFace];
 		in = new BufferedReader(new InputStreamReader(fd.createInputStream()), 8192);
 		
 		if (nNormals == 0 && nTexCoords == 0) {
@@ -99,7 +136,7 @@ public class ObjLoader {
 			vertices = BufferUtils.createFloatBuffer(3 * nVertices);
 			// loads indices to index buffer and vertices to vertex buffer
 			load(in, true);
-			mesh = new Object3D(name, vertices, indices);
+			mesh = new Object3D(name, vertices, null);
 		} else {
 			// need to be more clever
 			tmpVertices = new float[3 * nVertices];
@@ -136,7 +173,7 @@ public class ObjLoader {
 				}
 			}
 			
-			mesh = new Object3D(name, vertices, indices);
+			mesh = new Object3D(name, vertices, null);
 			if(nNormals > 0) {
 				mesh.setNormals(normals);
 			}
@@ -144,6 +181,14 @@ public class ObjLoader {
 				mesh.setTexCoords(texcoords);
 			}
 		}
+		
+		// a model with more vertices than a char index can address is split
+		// into chunks, which can not be optimized as a whole afterwards
+		int vertexCount = vertices.limit() / 3;
+		if(vertexCount > Object3D.MAX_CHUNK_VERTICES && optimize) {
+			indices = MeshOptimizer.optimizeVertexCache(indices, vertexCount);
+		}
+		mesh.setIndices(indices);
 
 		// create the TriMesh
 		AABBox bound = new AABBox();
@@ -154,8 +199,14 @@ public class ObjLoader {
 		bound.mMaxY = maxY;
 		bound.mMaxZ = maxZ;
 		mesh.setModelBound(bound);
+		if(optimize && !mesh.isChunked()) {
+			MeshOptimizer.optimize(mesh);
+		}
+		mesh.setQuantized(quantize);
+		mesh.setInterleaved(interleave);
 
 		// free loads of resources...
+		indices = null;
 		tmpVertices = null;
 		tmpNormals = null;
 		tmpTexCoords = null;
@@ -301,7 +352,7 @@ public class ObjLoader {
 						faceSplit = lineSplit[i].split("/");
 						
 						if(toBuffer) {
-							indices.put((char) (Integer.parseInt(faceSplit[0])-1));
+							indices[nIndices++] = Integer.parseInt(faceSplit[0]) - 1;
 						} else {
 							tmpData[0] = 3 * (Integer.parseInt(faceSplit[0]) - 1);
 							tmpData[1] = 2 * (Integer.parseInt(faceSplit[1]) - 1);
@@ -319,7 +370,7 @@ public class ObjLoader {
 								fv.data[6] = tmpTexCoords[tmpData[1]];
 								fv.data[7] = tmpTexCoords[tmpData[1]+1];
 							}
-							indices.put(addVertex(fv));
+							indices[nIndices++] = addVertex(fv);
 						}
 					}
 				}
@@ -328,14 +379,14 @@ public class ObjLoader {
 		} // while (((line = in.readLine()) != null));
 	} // load(BufferedReader in)
 
-	private char addVertex(FaceValues values) {
+	private int addVertex(FaceValues values) {
 		// find the vertex with binary search
 		int i = Collections.binarySearch(faceSortedValues, values);
 		if (i < 0) {
 			// the vertex was not found and can be inserted
 			// at position -(i + 1)
 			faceSortedValues.add(-(i + 1), values);
-			values.index = (char)faceValues.size();
+			values.index = faceValues.size();
 			faceValues.add(values);
 			doh++;
 			return values.index;
@@ -352,7 +403,7 @@ public class ObjLoader {
 		 * 3. Texture Coordinates (2 separate s,t coordinates)
 		 */
 		float[] data;
-		char index;
+		int index;
 
 		/**
 		 * 
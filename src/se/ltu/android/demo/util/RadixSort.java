@@ -0,0 +1,84 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.util;
+
+/**
+ * Sorts float keys with a least significant byte first radix sort. The
+ * bits of each key are flipped so that they compare as unsigned integers
+ * in the same order as the floats, and are then sorted one byte at a time
+ * in four stable passes. A pass is skipped if every key has the same byte
+ * in it.<br><br>
+ *
+ * The working arrays are kept between calls and only grow, so sorting the
+ * same number of keys every frame allocates nothing.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class RadixSort {
+	private int[] mKeys = new int[0];
+	private int[] mTmpKeys = new int[0];
+	private int[] mTmpOrder = new int[0];
+	private final int[] mCounts = new int[256 * 4];
+
+	/**
+	 * Sorts keys in ascending order.
+	 * @param keys keys to sort, not changed
+	 * @param count number of keys
+	 * @param order array to store the indices of the keys in, in sorted order
+	 */
+	public void sort(float[] keys, int count, int[] order) {
+		if(mKeys.length < count) {
+			mKeys = new int[count];
+			mTmpKeys = new int[count];
+			mTmpOrder = new int[count];
+		}
+		int[] counts = mCounts;
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		int[] src = mKeys;
+		for(int i = 0; i < count; i++) {
+			int bits = Float.floatToRawIntBits(keys[i]);
+			// negative floats are reversed, positive ones move above them
+			int key = bits < 0 ? ~bits : bits ^ 0x80000000;
+			src[i] = key;
+			order[i] = i;
+			counts[key & 0xFF]++;
+			counts[256 + ((key >>> 8) & 0xFF)]++;
+			counts[512 + ((key >>> 16) & 0xFF)]++;
+			counts[768 + (key >>> 24)]++;
+		}
+
+		int[] srcOrder = order;
+		int[] dst = mTmpKeys;
+		int[] dstOrder = mTmpOrder;
+		for(int pass = 0; pass < 4; pass++) {
+			int base = pass * 256;
+			int shift = pass * 8;
+			if(count == 0 || counts[base + ((src[0] >>> shift) & 0xFF)] == count) {
+				continue;
+			}
+			// counts become the position of the first key with each byte
+			int sum = 0;
+			for(int i = base; i < base + 256; i++) {
+				int c = counts[i];
+				counts[i] = sum;
+				sum += c;
+			}
+			for(int i = 0; i < count; i++) {
+				int key = src[i];
+				int pos = counts[base + ((key >>> shift) & 0xFF)]++;
+				dst[pos] = key;
+				dstOrder[pos] = srcOrder[i];
+			}
+			int[] tmp = src;
+			src = dst;
+			dst = tmp;
+			tmp = srcOrder;
+			srcOrder = dstOrder;
+			dstOrder = tmp;
+		}
+		if(srcOrder != order) {
+			System.arraycopy(srcOrder, 0, order, 0, count);
+		}
+	}
+}
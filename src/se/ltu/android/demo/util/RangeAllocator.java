@@ -0,0 +1,178 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.util;
+
+/**
+ * Hands out ranges of a fixed size space, such as a buffer, with a first
+ * fit free list. Freed ranges are merged with free neighbours, so the free
+ * list holds as few ranges as possible, but space between ranges that are
+ * still in use can only be reclaimed by allocating everything again after
+ * a <code>reset</code>.<br><br>
+ *
+ * Every size is rounded up to the alignment given to the constructor, so
+ * every offset handed out is aligned as well.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class RangeAllocator {
+	private final int mCapacity;
+	private final int mAlignment;
+	// free ranges, ordered by offset and never touching each other
+	private int[] mOffsets;
+	private int[] mSizes;
+	private int mCount;
+	private int mFreeBytes;
+
+	/**
+	 * @param capacity size of the space
+	 * @param alignment alignment of every range, a power of two
+	 */
+	public RangeAllocator(int capacity, int alignment) {
+		mCapacity = capacity & ~(alignment - 1);
+		mAlignment = alignment;
+		mOffsets = new int[8];
+		mSizes = new int[8];
+		reset();
+	}
+
+	/**
+	 * Frees every range.
+	 */
+	public void reset() {
+		mOffsets[0] = 0;
+		mSizes[0] = mCapacity;
+		mCount = 1;
+		mFreeBytes = mCapacity;
+	}
+
+	/**
+	 * @param size requested size
+	 * @return the size actually used by a range of the requested size
+	 */
+	public int align(int size) {
+		return (size + mAlignment - 1) & ~(mAlignment - 1);
+	}
+
+	/**
+	 * Allocates a range.
+	 * @param size size of the range
+	 * @return the offset of the range or -1 if there is no free range
+	 * large enough
+	 */
+	public int allocate(int size) {
+		size = align(size);
+		for(int i = 0; i < mCount; i++) {
+			if(mSizes[i] >= size) {
+				int offset = mOffsets[i];
+				if(mSizes[i] == size) {
+					remove(i);
+				} else {
+					mOffsets[i] += size;
+					mSizes[i] -= size;
+				}
+				mFreeBytes -= size;
+				return offset;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Frees a range allocated by <code>allocate</code>.
+	 * @param offset offset of the range
+	 * @param size size the range was allocated with
+	 */
+	public void free(int offset, int size) {
+		size = align(size);
+		mFreeBytes += size;
+		// first free range after the freed one
+		int i = 0;
+		while(i < mCount && mOffsets[i] < offset) {
+			i++;
+		}
+		boolean joinsPrevious = i > 0 && mOffsets[i-1] + mSizes[i-1] == offset;
+		boolean joinsNext = i < mCount && offset + size == mOffsets[i];
+		if(joinsPrevious && joinsNext) {
+			mSizes[i-1] += size + mSizes[i];
+			remove(i);
+		} else if(joinsPrevious) {
+			mSizes[i-1] += size;
+		} else if(joinsNext) {
+			mOffsets[i] = offset;
+			mSizes[i] += size;
+		} else {
+			insert(i, offset, size);
+		}
+	}
+
+	private void remove(int index) {
+		System.arraycopy(mOffsets, index + 1, mOffsets, index, mCount - index - 1);
+		System.arraycopy(mSizes, index + 1, mSizes, index, mCount - index - 1);
+		mCount--;
+	}
+
+	private void insert(int index, int offset, int size) {
+		if(mCount == mOffsets.length) {
+			int[] offsets = new int[mCount * 2];
+			int[] sizes = new int[mCount * 2];
+			System.arraycopy(mOffsets, 0, offsets, 0, mCount);
+			System.arraycopy(mSizes, 0, sizes, 0, mCount);
+			mOffsets = offsets;
+			mSizes = sizes;
+		}
+		System.arraycopy(mOffsets, index, mOffsets, index + 1, mCount - index);
+		System.arraycopy(mSizes, index, mSizes, index + 1, mCount - index);
+		mOffsets[index] = offset;
+		mSizes[index] = size;
+		mCount++;
+	}
+
+	/**
+	 * @return size of the space
+	 */
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	/**
+	 * @return number of bytes in free ranges
+	 */
+	public int getFreeBytes() {
+		return mFreeBytes;
+	}
+
+	/**
+	 * @return number of bytes in allocated ranges
+	 */
+	public int getUsedBytes() {
+		return mCapacity - mFreeBytes;
+	}
+
+	/**
+	 * @return size of the largest free range
+	 */
+	public int getLargestFree() {
+		int largest = 0;
+		for(int i = 0; i < mCount; i++) {
+			largest = Math.max(largest, mSizes[i]);
+		}
+		return largest;
+	}
+
+	/**
+	 * @return number of free ranges
+	 */
+	public int getFreeRangeCount() {
+		return mCount;
+	}
+
+	/**
+	 * @return the fraction of the free space that is not part of the
+	 * largest free range, 0 if all free space is in one range
+	 */
+	public float getFragmentation() {
+		if(mFreeBytes == 0) {
+			return 0;
+		}
+		return 1 - getLargestFree() / (float)mFreeBytes;
+	}
+}
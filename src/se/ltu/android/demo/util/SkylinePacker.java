@@ -0,0 +1,216 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.util;
+
+/**
+ * Packs rectangles into a page with the skyline bottom-left heuristic.
+ * The top edge of everything placed so far is kept as a list of
+ * horizontal segments, the skyline. A rectangle is placed where its top
+ * would be lowest, on the leftmost such position if there are several,
+ * and the skyline is raised where it was placed. Space below the skyline
+ * is never reused, which wastes a little area but keeps packing fast and
+ * simple.<br><br>
+ *
+ * Packing the largest rectangles first gives much better results, see
+ * <code>pack</code>.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class SkylinePacker {
+	private final int mWidth;
+	private final int mHeight;
+	// skyline segments, ordered from left to right and covering the width
+	private int[] mX;
+	private int[] mY;
+	private int[] mW;
+	private int mCount;
+	private int mUsedArea = 0;
+
+	/**
+	 * @param width width of the page
+	 * @param height height of the page
+	 */
+	public SkylinePacker(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		mX = new int[16];
+		mY = new int[16];
+		mW = new int[16];
+		mX[0] = 0;
+		mY[0] = 0;
+		mW[0] = width;
+		mCount = 1;
+	}
+
+	/**
+	 * Places a rectangle in the page.
+	 * @param width width of the rectangle
+	 * @param height height of the rectangle
+	 * @param position array to store the x and y of the rectangle in
+	 * @return false if the rectangle does not fit
+	 */
+	public boolean insert(int width, int height, int[] position) {
+		int best = -1;
+		int bestY = Integer.MAX_VALUE;
+		for(int i = 0; i < mCount; i++) {
+			int y = fit(i, width, height);
+			// lowest top edge, the leftmost one on ties
+			if(y >= 0 && y < bestY) {
+				best = i;
+				bestY = y;
+			}
+		}
+		if(best < 0) {
+			return false;
+		}
+		position[0] = mX[best];
+		position[1] = bestY;
+		raise(best, width, bestY + height);
+		mUsedArea += width * height;
+		return true;
+	}
+
+	/**
+	 * @return the y a rectangle would get if its left edge is at the start
+	 * of a segment, or -1 if it does not fit there
+	 */
+	private int fit(int segment, int width, int height) {
+		int x = mX[segment];
+		if(x + width > mWidth) {
+			return -1;
+		}
+		int y = 0;
+		int remaining = width;
+		int i = segment;
+		while(remaining > 0) {
+			y = Math.max(y, mY[i]);
+			if(y + height > mHeight) {
+				return -1;
+			}
+			remaining -= mW[i];
+			i++;
+		}
+		return y;
+	}
+
+	/**
+	 * Replaces the skyline under a placed rectangle with its top edge.
+	 */
+	private void raise(int segment, int width, int top) {
+		int x = mX[segment];
+		int end = x + width;
+		// the new segment takes the place of the first one it covers
+		int last = segment;
+		while(last < mCount && mX[last] + mW[last] <= end) {
+			last++;
+		}
+		// segments from segment to last - 1 are covered completely,
+		// last is covered partly if it starts before the end
+		if(last < mCount && mX[last] < end) {
+			mW[last] -= end - mX[last];
+			mX[last] = end;
+		}
+		int removed = last - segment;
+		if(removed == 0) {
+			insertSegment(segment);
+		} else if(removed > 1) {
+			System.arraycopy(mX, last, mX, segment + 1, mCount - last);
+			System.arraycopy(mY, last, mY, segment + 1, mCount - last);
+			System.arraycopy(mW, last, mW, segment + 1, mCount - last);
+			mCount -= removed - 1;
+		}
+		mX[segment] = x;
+		mY[segment] = top;
+		mW[segment] = width;
+		merge();
+	}
+
+	/**
+	 * Makes room for a new segment at the given index.
+	 */
+	private void insertSegment(int index) {
+		if(mCount == mX.length) {
+			int[] x = new int[mCount * 2];
+			int[] y = new int[mCount * 2];
+			int[] w = new int[mCount * 2];
+			System.arraycopy(mX, 0, x, 0, mCount);
+			System.arraycopy(mY, 0, y, 0, mCount);
+			System.arraycopy(mW, 0, w, 0, mCount);
+			mX = x;
+			mY = y;
+			mW = w;
+		}
+		System.arraycopy(mX, index, mX, index + 1, mCount - index);
+		System.arraycopy(mY, index, mY, index + 1, mCount - index);
+		System.arraycopy(mW, index, mW, index + 1, mCount - index);
+		mCount++;
+	}
+
+	/**
+	 * Joins neighbouring segments of the same height.
+	 */
+	private void merge() {
+		int dst = 0;
+		for(int i = 1; i < mCount; i++) {
+			if(mY[i] == mY[dst]) {
+				mW[dst] += mW[i];
+			} else {
+				dst++;
+				mX[dst] = mX[i];
+				mY[dst] = mY[i];
+				mW[dst] = mW[i];
+			}
+		}
+		mCount = dst + 1;
+	}
+
+	/**
+	 * @return the fraction of the page covered by rectangles
+	 */
+	public float getOccupancy() {
+		return mUsedArea / (float)(mWidth * mHeight);
+	}
+
+	/**
+	 * Packs rectangles into a page of the given size, the highest
+	 * rectangles first.
+	 * @param widths widths of the rectangles
+	 * @param heights heights of the rectangles
+	 * @param width width of the page
+	 * @param height height of the page
+	 * @param x array to store the x of each rectangle in
+	 * @param y array to store the y of each rectangle in
+	 * @return false if every rectangle did not fit
+	 */
+	public static boolean pack(int[] widths, int[] heights, int width, int height,
+			int[] x, int[] y) {
+		int count = widths.length;
+		// sort by decreasing height, then width, with a simple insertion sort
+		int[] order = new int[count];
+		for(int i = 0; i < count; i++) {
+			int j = i;
+			while(j > 0 && isLarger(i, order[j-1], widths, heights)) {
+				order[j] = order[j-1];
+				j--;
+			}
+			order[j] = i;
+		}
+		SkylinePacker packer = new SkylinePacker(width, height);
+		int[] position = new int[2];
+		for(int i = 0; i < count; i++) {
+			int r = order[i];
+			if(!packer.insert(widths[r], heights[r], position)) {
+				return false;
+			}
+			x[r] = position[0];
+			y[r] = position[1];
+		}
+		return true;
+	}
+
+	private static boolean isLarger(int a, int b, int[] widths, int[] heights) {
+		if(heights[a] != heights[b]) {
+			return heights[a] > heights[b];
+		}
+		return widths[a] > widths[b];
+	}
+}
@@ -0,0 +1,997 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.util;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import javax.microedition.khronos.opengles.GL;
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * A GL10 that sits between the application and the driver and remembers
+ * the state it has set. Calls that would set a piece of state to the value
+ * it already has are dropped instead of being passed on. Tracked are
+ * capabilities, client side arrays, texture bindings, the matrix mode and
+ * the colors and scalar parameters of the lights. Everything else is passed
+ * on unchanged.<br><br>
+ *
+ * State starts out unknown, so the first call for every piece of state
+ * always reaches the driver. A new instance should be created for every
+ * new GL context, which is what <code>wrap</code> is meant for when it is
+ * used from a <code>GLSurfaceView.GLWrapper</code>. Call
+ * <code>invalidate</code> if the state is changed without going through
+ * this object.<br><br>
+ *
+ * Light positions and spot directions are never dropped since they are
+ * transformed by the model view matrix at the time of the call.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class StateTrackingGL implements GL10 {
+	protected final static byte UNKNOWN = 0;
+	protected final static byte ENABLED = 1;
+	protected final static byte DISABLED = 2;
+	
+	private final static int MAX_LIGHTS = 8;
+	private final static int LIGHT_PARAMS = 8;
+	private final static int CLIENT_STATES = 4;
+	
+	private final GL10 mGL;
+	
+	// capabilities, looked up linearly since only a handful are ever used
+	private int[] mCaps = new int[16];
+	private byte[] mCapStates = new byte[16];
+	private int mCapCount = 0;
+	private byte[] mClientStates = new byte[CLIENT_STATES];
+	private int mMatrixMode;
+	private int mActiveTexture;
+	private int mClientActiveTexture;
+	private int mBoundTexture;
+	private float[] mLightValues = new float[MAX_LIGHTS * LIGHT_PARAMS * 4];
+	private boolean[] mLightKnown = new boolean[MAX_LIGHTS * LIGHT_PARAMS];
+	
+	private int mTrackedCalls;
+	private int mDroppedCaps;
+	private int mDroppedClientStates;
+	private int mDroppedBinds;
+	private int mDroppedMatrixModes;
+	private int mDroppedLights;
+	
+	/**
+	 * Wraps a GL in a state tracking GL of the same version.
+	 * @param gl GL of a newly created context
+	 * @return a StateTrackingGL11 if <code>gl</code> is a GL11, a StateTrackingGL otherwise
+	 */
+	public static GL wrap(GL gl) {
+		if(gl instanceof GL11) {
+			return new StateTrackingGL11((GL11)gl);
+		}
+		return new StateTrackingGL((GL10)gl);
+	}
+	
+	/**
+	 * @param gl the GL to pass calls on to
+	 */
+	public StateTrackingGL(GL10 gl) {
+		mGL = gl;
+		invalidate();
+	}
+	
+	/**
+	 * Forgets all tracked state. The next call for every piece of state
+	 * will reach the driver.
+	 */
+	public void invalidate() {
+		mCapCount = 0;
+		for(int i = 0; i < CLIENT_STATES; i++) {
+			mClientStates[i] = UNKNOWN;
+		}
+		mMatrixMode = -1;
+		mActiveTexture = -1;
+		mClientActiveTexture = -1;
+		mBoundTexture = -1;
+		for(int i = 0; i < mLightKnown.length; i++) {
+			mLightKnown[i] = false;
+		}
+	}
+	
+	/**
+	 * @return number of calls to tracked state since the counters were reset
+	 */
+	public int getTrackedCalls() {
+		return mTrackedCalls;
+	}
+	
+	/**
+	 * @return number of calls dropped since the counters were reset
+	 */
+	public int getDroppedCalls() {
+		return mDroppedCaps + mDroppedClientStates + mDroppedBinds
+			+ mDroppedMatrixModes + mDroppedLights;
+	}
+	
+	/**
+	 * @return number of glEnable and glDisable calls dropped
+	 */
+	public int getDroppedCapabilityCalls() {
+		return mDroppedCaps;
+	}
+	
+	/**
+	 * @return number of glEnableClientState and glDisableClientState calls dropped
+	 */
+	public int getDroppedClientStateCalls() {
+		return mDroppedClientStates;
+	}
+	
+	/**
+	 * @return number of texture, buffer and active texture unit binds dropped
+	 */
+	public int getDroppedBindCalls() {
+		return mDroppedBinds;
+	}
+	
+	/**
+	 * @return number of glMatrixMode calls dropped
+	 */
+	public int getDroppedMatrixModeCalls() {
+		return mDroppedMatrixModes;
+	}
+	
+	/**
+	 * @return number of glLight calls dropped
+	 */
+	public int getDroppedLightCalls() {
+		return mDroppedLights;
+	}
+	
+	/**
+	 * Sets all call counters to zero.
+	 */
+	public void resetCounters() {
+		mTrackedCalls = 0;
+		mDroppedCaps = 0;
+		mDroppedClientStates = 0;
+		mDroppedBinds = 0;
+		mDroppedMatrixModes = 0;
+		mDroppedLights = 0;
+	}
+	
+	@Override
+	public String toString() {
+		return "dropped "+getDroppedCalls()+" of "+mTrackedCalls
+			+" (caps "+mDroppedCaps+", client states "+mDroppedClientStates
+			+", binds "+mDroppedBinds+", matrix modes "+mDroppedMatrixModes
+			+", lights "+mDroppedLights+")";
+	}
+	
+	/**
+	 * Counts a call to tracked state.
+	 * @param redundant true if the call would not change anything
+	 * @return true if the call should be passed on
+	 */
+	protected boolean track(boolean redundant) {
+		mTrackedCalls++;
+		return !redundant;
+	}
+	
+	/**
+	 * Counts a dropped bind from a subclass.
+	 */
+	protected void droppedBind() {
+		mDroppedBinds++;
+	}
+	
+	@Override
+	public void glEnable(int cap) {
+		if(setCapability(cap, ENABLED)) {
+			mGL.glEnable(cap);
+		}
+	}
+	
+	@Override
+	public void glDisable(int cap) {
+		if(setCapability(cap, DISABLED)) {
+			mGL.glDisable(cap);
+		}
+	}
+	
+	private boolean setCapability(int cap, byte state) {
+		int i = 0;
+		while(i < mCapCount && mCaps[i] != cap) {
+			i++;
+		}
+		if(!track(i < mCapCount && mCapStates[i] == state)) {
+			mDroppedCaps++;
+			return false;
+		}
+		if(i == mCapCount) {
+			if(mCapCount == mCaps.length) {
+				int[] caps = new int[mCapCount * 2];
+				byte[] states = new byte[mCapCount * 2];
+				System.arraycopy(mCaps, 0, caps, 0, mCapCount);
+				System.arraycopy(mCapStates, 0, states, 0, mCapCount);
+				mCaps = caps;
+				mCapStates = states;
+			}
+			mCaps[i] = cap;
+			mCapCount++;
+		}
+		mCapStates[i] = state;
+		return true;
+	}
+	
+	/**
+	 * Forgets the state of a single capability.
+	 */
+	private void forgetCapability(int cap) {
+		for(int i = 0; i < mCapCount; i++) {
+			if(mCaps[i] == cap) {
+				mCapCount--;
+				mCaps[i] = mCaps[mCapCount];
+				mCapStates[i] = mCapStates[mCapCount];
+				return;
+			}
+		}
+	}
+	
+	@Override
+	public void glEnableClientState(int array) {
+		if(setClientState(array, ENABLED)) {
+			mGL.glEnableClientState(array);
+		}
+	}
+	
+	@Override
+	public void glDisableClientState(int array) {
+		if(setClientState(array, DISABLED)) {
+			mGL.glDisableClientState(array);
+		}
+	}
+	
+	private boolean setClientState(int array, byte state) {
+		int i = clientStateIndex(array);
+		if(i < 0) {
+			return true;
+		}
+		if(!track(mClientStates[i] == state)) {
+			mDroppedClientStates++;
+			return false;
+		}
+		mClientStates[i] = state;
+		return true;
+	}
+	
+	private static int clientStateIndex(int array) {
+		switch(array) {
+		case GL10.GL_VERTEX_ARRAY:
+			return 0;
+		case GL10.GL_NORMAL_ARRAY:
+			return 1;
+		case GL10.GL_COLOR_ARRAY:
+			return 2;
+		case GL10.GL_TEXTURE_COORD_ARRAY:
+			return 3;
+		}
+		return -1;
+	}
+	
+	@Override
+	public void glMatrixMode(int mode) {
+		if(!track(mode == mMatrixMode)) {
+			mDroppedMatrixModes++;
+			return;
+		}
+		mMatrixMode = mode;
+		mGL.glMatrixMode(mode);
+	}
+	
+	@Override
+	public void glActiveTexture(int texture) {
+		if(!track(texture == mActiveTexture)) {
+			mDroppedBinds++;
+			return;
+		}
+		// texturing and the bound texture are per unit
+		mActiveTexture = texture;
+		mBoundTexture = -1;
+		forgetCapability(GL10.GL_TEXTURE_2D);
+		mGL.glActiveTexture(texture);
+	}
+	
+	@Override
+	public void glClientActiveTexture(int texture) {
+		if(!track(texture == mClientActiveTexture)) {
+			mDroppedBinds++;
+			return;
+		}
+		// the texture coordinate array is per unit
+		mClientActiveTexture = texture;
+		mClientStates[3] = UNKNOWN;
+		mGL.glClientActiveTexture(texture);
+	}
+	
+	@Override
+	public void glBindTexture(int target, int texture) {
+		if(target == GL10.GL_TEXTURE_2D) {
+			if(!track(texture == mBoundTexture)) {
+				mDroppedBinds++;
+				return;
+			}
+			mBoundTexture = texture;
+		}
+		mGL.glBindTexture(target, texture);
+	}
+	
+	/**
+	 * Deleting the bound texture reverts the binding to zero.
+	 */
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		for(int i = 0; i < n; i++) {
+			if(textures[offset + i] == mBoundTexture) {
+				mBoundTexture = 0;
+			}
+		}
+		mGL.glDeleteTextures(n, textures, offset);
+	}
+	
+	@Override
+	public void glDeleteTextures(int n, IntBuffer textures) {
+		int pos = textures.position();
+		for(int i = 0; i < n; i++) {
+			if(textures.get(pos + i) == mBoundTexture) {
+				mBoundTexture = 0;
+			}
+		}
+		mGL.glDeleteTextures(n, textures);
+	}
+	
+	@Override
+	public void glLightf(int light, int pname, float param) {
+		int slot = lightSlot(light, pname);
+		if(slot >= 0) {
+			int v = slot * 4;
+			if(!track(mLightKnown[slot] && mLightValues[v] == param)) {
+				mDroppedLights++;
+				return;
+			}
+			mLightValues[v] = param;
+			mLightKnown[slot] = true;
+		}
+		mGL.glLightf(light, pname, param);
+	}
+	
+	@Override
+	public void glLightfv(int light, int pname, float[] params, int offset) {
+		int slot = lightSlot(light, pname);
+		if(slot >= 0) {
+			int size = pname <= GL10.GL_SPECULAR ? 4 : 1;
+			int v = slot * 4;
+			boolean same = mLightKnown[slot];
+			for(int i = 0; same && i < size; i++) {
+				same = mLightValues[v + i] == params[offset + i];
+			}
+			if(!track(same)) {
+				mDroppedLights++;
+				return;
+			}
+			for(int i = 0; i < size; i++) {
+				mLightValues[v + i] = params[offset + i];
+			}
+			mLightKnown[slot] = true;
+		}
+		mGL.glLightfv(light, pname, params, offset);
+	}
+	
+	@Override
+	public void glLightfv(int light, int pname, FloatBuffer params) {
+		forgetLight(light, pname);
+		mGL.glLightfv(light, pname, params);
+	}
+	
+	@Override
+	public void glLightx(int light, int pname, int param) {
+		forgetLight(light, pname);
+		mGL.glLightx(light, pname, param);
+	}
+	
+	@Override
+	public void glLightxv(int light, int pname, int[] params, int offset) {
+		forgetLight(light, pname);
+		mGL.glLightxv(light, pname, params, offset);
+	}
+	
+	@Override
+	public void glLightxv(int light, int pname, IntBuffer params) {
+		forgetLight(light, pname);
+		mGL.glLightxv(light, pname, params);
+	}
+	
+	private void forgetLight(int light, int pname) {
+		int slot = lightSlot(light, pname);
+		if(slot >= 0) {
+			mLightKnown[slot] = false;
+		}
+	}
+	
+	/**
+	 * @return index of the tracked light parameter or -1 if it is not tracked
+	 */
+	private static int lightSlot(int light, int pname) {
+		int number = light - GL10.GL_LIGHT0;
+		if(number < 0 || number >= MAX_LIGHTS) {
+			return -1;
+		}
+		int param;
+		switch(pname) {
+		case GL10.GL_AMBIENT:
+			param = 0;
+			break;
+		case GL10.GL_DIFFUSE:
+			param = 1;
+			break;
+		case GL10.GL_SPECULAR:
+			param = 2;
+			break;
+		case GL10.GL_SPOT_EXPONENT:
+			param = 3;
+			break;
+		case GL10.GL_SPOT_CUTOFF:
+			param = 4;
+			break;
+		case GL10.GL_CONSTANT_ATTENUATION:
+			param = 5;
+			break;
+		case GL10.GL_LINEAR_ATTENUATION:
+			param = 6;
+			break;
+		case GL10.GL_QUADRATIC_ATTENUATION:
+			param = 7;
+			break;
+		default:
+			// position and spot direction depend on the model view matrix
+			return -1;
+		}
+		return number * LIGHT_PARAMS + param;
+	}
+	
+	// everything below is passed on unchanged
+	
+	@Override
+	public void glAlphaFunc(int func, float ref) {
+		mGL.glAlphaFunc(func, ref);
+	}
+
+	@Override
+	public void glAlphaFuncx(int func, int ref) {
+		mGL.glAlphaFuncx(func, ref);
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor) {
+		mGL.glBlendFunc(sfactor, dfactor);
+	}
+
+	@Override
+	public void glClear(int mask) {
+		mGL.glClear(mask);
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		mGL.glClearColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glClearColorx(int red, int green, int blue, int alpha) {
+		mGL.glClearColorx(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glClearDepthf(float depth) {
+		mGL.glClearDepthf(depth);
+	}
+
+	@Override
+	public void glClearDepthx(int depth) {
+		mGL.glClearDepthx(depth);
+	}
+
+	@Override
+	public void glClearStencil(int s) {
+		mGL.glClearStencil(s);
+	}
+
+	@Override
+	public void glColor4f(float red, float green, float blue, float alpha) {
+		mGL.glColor4f(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glColor4x(int red, int green, int blue, int alpha) {
+		mGL.glColor4x(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glColorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+		mGL.glColorMask(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glColorPointer(int size, int type, int stride, Buffer pointer) {
+		mGL.glColorPointer(size, type, stride, pointer);
+	}
+
+	@Override
+	public void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data) {
+		mGL.glCompressedTexImage2D(target, level, internalformat, width, height, border, imageSize, data);
+	}
+
+	@Override
+	public void glCompressedTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int imageSize, Buffer data) {
+		mGL.glCompressedTexSubImage2D(target, level, xoffset, yoffset, width, height, format, imageSize, data);
+	}
+
+	@Override
+	public void glCopyTexImage2D(int target, int level, int internalformat, int x, int y, int width, int height, int border) {
+		mGL.glCopyTexImage2D(target, level, internalformat, x, y, width, height, border);
+	}
+
+	@Override
+	public void glCopyTexSubImage2D(int target, int level, int xoffset, int yoffset, int x, int y, int width, int height) {
+		mGL.glCopyTexSubImage2D(target, level, xoffset, yoffset, x, y, width, height);
+	}
+
+	@Override
+	public void glCullFace(int mode) {
+		mGL.glCullFace(mode);
+	}
+
+	@Override
+	public void glDepthFunc(int func) {
+		mGL.glDepthFunc(func);
+	}
+
+	@Override
+	public void glDepthMask(boolean flag) {
+		mGL.glDepthMask(flag);
+	}
+
+	@Override
+	public void glDepthRangef(float zNear, float zFar) {
+		mGL.glDepthRangef(zNear, zFar);
+	}
+
+	@Override
+	public void glDepthRangex(int zNear, int zFar) {
+		mGL.glDepthRangex(zNear, zFar);
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		mGL.glDrawArrays(mode, first, count);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, Buffer indices) {
+		mGL.glDrawElements(mode, count, type, indices);
+	}
+
+	@Override
+	public void glFinish() {
+		mGL.glFinish();
+	}
+
+	@Override
+	public void glFlush() {
+		mGL.glFlush();
+	}
+
+	@Override
+	public void glFogf(int pname, float param) {
+		mGL.glFogf(pname, param);
+	}
+
+	@Override
+	public void glFogfv(int pname, float[] params, int offset) {
+		mGL.glFogfv(pname, params, offset);
+	}
+
+	@Override
+	public void glFogfv(int pname, FloatBuffer params) {
+		mGL.glFogfv(pname, params);
+	}
+
+	@Override
+	public void glFogx(int pname, int param) {
+		mGL.glFogx(pname, param);
+	}
+
+	@Override
+	public void glFogxv(int pname, int[] params, int offset) {
+		mGL.glFogxv(pname, params, offset);
+	}
+
+	@Override
+	public void glFogxv(int pname, IntBuffer params) {
+		mGL.glFogxv(pname, params);
+	}
+
+	@Override
+	public void glFrontFace(int mode) {
+		mGL.glFrontFace(mode);
+	}
+
+	@Override
+	public void glFrustumf(float left, float right, float bottom, float top, float zNear, float zFar) {
+		mGL.glFrustumf(left, right, bottom, top, zNear, zFar);
+	}
+
+	@Override
+	public void glFrustumx(int left, int right, int bottom, int top, int zNear, int zFar) {
+		mGL.glFrustumx(left, right, bottom, top, zNear, zFar);
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		mGL.glGenTextures(n, textures, offset);
+	}
+
+	@Override
+	public void glGenTextures(int n, IntBuffer textures) {
+		mGL.glGenTextures(n, textures);
+	}
+
+	@Override
+	public int glGetError() {
+		return mGL.glGetError();
+	}
+
+	@Override
+	public void glGetIntegerv(int pname, int[] params, int offset) {
+		mGL.glGetIntegerv(pname, params, offset);
+	}
+
+	@Override
+	public void glGetIntegerv(int pname, IntBuffer params) {
+		mGL.glGetIntegerv(pname, params);
+	}
+
+	@Override
+	public String glGetString(int name) {
+		return mGL.glGetString(name);
+	}
+
+	@Override
+	public void glHint(int target, int mode) {
+		mGL.glHint(target, mode);
+	}
+
+	@Override
+	public void glLightModelf(int pname, float param) {
+		mGL.glLightModelf(pname, param);
+	}
+
+	@Override
+	public void glLightModelfv(int pname, float[] params, int offset) {
+		mGL.glLightModelfv(pname, params, offset);
+	}
+
+	@Override
+	public void glLightModelfv(int pname, FloatBuffer params) {
+		mGL.glLightModelfv(pname, params);
+	}
+
+	@Override
+	public void glLightModelx(int pname, int param) {
+		mGL.glLightModelx(pname, param);
+	}
+
+	@Override
+	public void glLightModelxv(int pname, int[] params, int offset) {
+		mGL.glLightModelxv(pname, params, offset);
+	}
+
+	@Override
+	public void glLightModelxv(int pname, IntBuffer params) {
+		mGL.glLightModelxv(pname, params);
+	}
+
+	@Override
+	public void glLineWidth(float width) {
+		mGL.glLineWidth(width);
+	}
+
+	@Override
+	public void glLineWidthx(int width) {
+		mGL.glLineWidthx(width);
+	}
+
+	@Override
+	public void glLoadIdentity() {
+		mGL.glLoadIdentity();
+	}
+
+	@Override
+	public void glLoadMatrixf(float[] m, int offset) {
+		mGL.glLoadMatrixf(m, offset);
+	}
+
+	@Override
+	public void glLoadMatrixf(FloatBuffer m) {
+		mGL.glLoadMatrixf(m);
+	}
+
+	@Override
+	public void glLoadMatrixx(int[] m, int offset) {
+		mGL.glLoadMatrixx(m, offset);
+	}
+
+	@Override
+	public void glLoadMatrixx(IntBuffer m) {
+		mGL.glLoadMatrixx(m);
+	}
+
+	@Override
+	public void glLogicOp(int opcode) {
+		mGL.glLogicOp(opcode);
+	}
+
+	@Override
+	public void glMaterialf(int face, int pname, float param) {
+		mGL.glMaterialf(face, pname, param);
+	}
+
+	@Override
+	public void glMaterialfv(int face, int pname, float[] params, int offset) {
+		mGL.glMaterialfv(face, pname, params, offset);
+	}
+
+	@Override
+	public void glMaterialfv(int face, int pname, FloatBuffer params) {
+		mGL.glMaterialfv(face, pname, params);
+	}
+
+	@Override
+	public void glMaterialx(int face, int pname, int param) {
+		mGL.glMaterialx(face, pname, param);
+	}
+
+	@Override
+	public void glMaterialxv(int face, int pname, int[] params, int offset) {
+		mGL.glMaterialxv(face, pname, params, offset);
+	}
+
+	@Override
+	public void glMaterialxv(int face, int pname, IntBuffer params) {
+		mGL.glMaterialxv(face, pname, params);
+	}
+
+	@Override
+	public void glMultMatrixf(float[] m, int offset) {
+		mGL.glMultMatrixf(m, offset);
+	}
+
+	@Override
+	public void glMultMatrixf(FloatBuffer m) {
+		mGL.glMultMatrixf(m);
+	}
+
+	@Override
+	public void glMultMatrixx(int[] m, int offset) {
+		mGL.glMultMatrixx(m, offset);
+	}
+
+	@Override
+	public void glMultMatrixx(IntBuffer m) {
+		mGL.glMultMatrixx(m);
+	}
+
+	@Override
+	public void glMultiTexCoord4f(int target, float s, float t, float r, float q) {
+		mGL.glMultiTexCoord4f(target, s, t, r, q);
+	}
+
+	@Override
+	public void glMultiTexCoord4x(int target, int s, int t, int r, int q) {
+		mGL.glMultiTexCoord4x(target, s, t, r, q);
+	}
+
+	@Override
+	public void glNormal3f(float nx, float ny, float nz) {
+		mGL.glNormal3f(nx, ny, nz);
+	}
+
+	@Override
+	public void glNormal3x(int nx, int ny, int nz) {
+		mGL.glNormal3x(nx, ny, nz);
+	}
+
+	@Override
+	public void glNormalPointer(int type, int stride, Buffer pointer) {
+		mGL.glNormalPointer(type, stride, pointer);
+	}
+
+	@Override
+	public void glOrthof(float left, float right, float bottom, float top, float zNear, float zFar) {
+		mGL.glOrthof(left, right, bottom, top, zNear, zFar);
+	}
+
+	@Override
+	public void glOrthox(int left, int right, int bottom, int top, int zNear, int zFar) {
+		mGL.glOrthox(left, right, bottom, top, zNear, zFar);
+	}
+
+	@Override
+	public void glPixelStorei(int pname, int param) {
+		mGL.glPixelStorei(pname, param);
+	}
+
+	@Override
+	public void glPointSize(float size) {
+		mGL.glPointSize(size);
+	}
+
+	@Override
+	public void glPointSizex(int size) {
+		mGL.glPointSizex(size);
+	}
+
+	@Override
+	public void glPolygonOffset(float factor, float units) {
+		mGL.glPolygonOffset(factor, units);
+	}
+
+	@Override
+	public void glPolygonOffsetx(int factor, int units) {
+		mGL.glPolygonOffsetx(factor, units);
+	}
+
+	@Override
+	public void glPopMatrix() {
+		mGL.glPopMatrix();
+	}
+
+	@Override
+	public void glPushMatrix() {
+		mGL.glPushMatrix();
+	}
+
+	@Override
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+		mGL.glReadPixels(x, y, width, height, format, type, pixels);
+	}
+
+	@Override
+	public void glRotatef(float angle, float x, float y, float z) {
+		mGL.glRotatef(angle, x, y, z);
+	}
+
+	@Override
+	public void glRotatex(int angle, int x, int y, int z) {
+		mGL.glRotatex(angle, x, y, z);
+	}
+
+	@Override
+	public void glSampleCoverage(float value, boolean invert) {
+		mGL.glSampleCoverage(value, invert);
+	}
+
+	@Override
+	public void glSampleCoveragex(int value, boolean invert) {
+		mGL.glSampleCoveragex(value, invert);
+	}
+
+	@Override
+	public void glScalef(float x, float y, float z) {
+		mGL.glScalef(x, y, z);
+	}
+
+	@Override
+	public void glScalex(int x, int y, int z) {
+		mGL.glScalex(x, y, z);
+	}
+
+	@Override
+	public void glScissor(int x, int y, int width, int height) {
+		mGL.glScissor(x, y, width, height);
+	}
+
+	@Override
+	public void glShadeModel(int mode) {
+		mGL.glShadeModel(mode);
+	}
+
+	@Override
+	public void glStencilFunc(int func, int ref, int mask) {
+		mGL.glStencilFunc(func, ref, mask);
+	}
+
+	@Override
+	public void glStencilMask(int mask) {
+		mGL.glStencilMask(mask);
+	}
+
+	@Override
+	public void glStencilOp(int fail, int zfail, int zpass) {
+		mGL.glStencilOp(fail, zfail, zpass);
+	}
+
+	@Override
+	public void glTexCoordPointer(int size, int type, int stride, Buffer pointer) {
+		mGL.glTexCoordPointer(size, type, stride, pointer);
+	}
+
+	@Override
+	public void glTexEnvf(int target, int pname, float param) {
+		mGL.glTexEnvf(target, pname, param);
+	}
+
+	@Override
+	public void glTexEnvfv(int target, int pname, float[] params, int offset) {
+		mGL.glTexEnvfv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glTexEnvfv(int target, int pname, FloatBuffer params) {
+		mGL.glTexEnvfv(target, pname, params);
+	}
+
+	@Override
+	public void glTexEnvx(int target, int pname, int param) {
+		mGL.glTexEnvx(target, pname, param);
+	}
+
+	@Override
+	public void glTexEnvxv(int target, int pname, int[] params, int offset) {
+		mGL.glTexEnvxv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glTexEnvxv(int target, int pname, IntBuffer params) {
+		mGL.glTexEnvxv(target, pname, params);
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+		mGL.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+	}
+
+	@Override
+	public void glTexParameterf(int target, int pname, float param) {
+		mGL.glTexParameterf(target, pname, param);
+	}
+
+	@Override
+	public void glTexParameterx(int target, int pname, int param) {
+		mGL.glTexParameterx(target, pname, param);
+	}
+
+	@Override
+	public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels) {
+		mGL.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+	}
+
+	@Override
+	public void glTranslatef(float x, float y, float z) {
+		mGL.glTranslatef(x, y, z);
+	}
+
+	@Override
+	public void glTranslatex(int x, int y, int z) {
+		mGL.glTranslatex(x, y, z);
+	}
+
+	@Override
+	public void glVertexPointer(int size, int type, int stride, Buffer pointer) {
+		mGL.glVertexPointer(size, type, stride, pointer);
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		mGL.glViewport(x, y, width, height);
+	}
+}
@@ -0,0 +1,413 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.util;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * The GL11 version of StateTrackingGL. In addition to the state tracked
+ * by StateTrackingGL it remembers the buffer objects bound to the array
+ * and element array targets.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class StateTrackingGL11 extends StateTrackingGL implements GL11 {
+	private final GL11 mGL11;
+	private int mArrayBuffer;
+	private int mElementBuffer;
+	
+	/**
+	 * @param gl the GL to pass calls on to
+	 */
+	public StateTrackingGL11(GL11 gl) {
+		super(gl);
+		mGL11 = gl;
+	}
+	
+	@Override
+	public void invalidate() {
+		super.invalidate();
+		mArrayBuffer = -1;
+		mElementBuffer = -1;
+	}
+	
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		if(target == GL11.GL_ARRAY_BUFFER) {
+			if(!track(buffer == mArrayBuffer)) {
+				droppedBind();
+				return;
+			}
+			mArrayBuffer = buffer;
+		} else if(target == GL11.GL_ELEMENT_ARRAY_BUFFER) {
+			if(!track(buffer == mElementBuffer)) {
+				droppedBind();
+				return;
+			}
+			mElementBuffer = buffer;
+		}
+		mGL11.glBindBuffer(target, buffer);
+	}
+	
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		for(int i = 0; i < n; i++) {
+			forgetBuffer(buffers[offset + i]);
+		}
+		mGL11.glDeleteBuffers(n, buffers, offset);
+	}
+	
+	@Override
+	public void glDeleteBuffers(int n, IntBuffer buffers) {
+		int pos = buffers.position();
+		for(int i = 0; i < n; i++) {
+			forgetBuffer(buffers.get(pos + i));
+		}
+		mGL11.glDeleteBuffers(n, buffers);
+	}
+	
+	/**
+	 * Deleting a bound buffer reverts the binding to zero.
+	 */
+	private void forgetBuffer(int buffer) {
+		if(buffer == 0) {
+			return;
+		}
+		if(buffer == mArrayBuffer) {
+			mArrayBuffer = 0;
+		}
+		if(buffer == mElementBuffer) {
+			mElementBuffer = 0;
+		}
+	}
+	
+	// everything below is passed on unchanged
+	
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		mGL11.glBufferData(target, size, data, usage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		mGL11.glBufferSubData(target, offset, size, data);
+	}
+
+	@Override
+	public void glClipPlanef(int plane, float[] equation, int offset) {
+		mGL11.glClipPlanef(plane, equation, offset);
+	}
+
+	@Override
+	public void glClipPlanef(int plane, FloatBuffer equation) {
+		mGL11.glClipPlanef(plane, equation);
+	}
+
+	@Override
+	public void glClipPlanex(int plane, int[] equation, int offset) {
+		mGL11.glClipPlanex(plane, equation, offset);
+	}
+
+	@Override
+	public void glClipPlanex(int plane, IntBuffer equation) {
+		mGL11.glClipPlanex(plane, equation);
+	}
+
+	@Override
+	public void glColor4ub(byte red, byte green, byte blue, byte alpha) {
+		mGL11.glColor4ub(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glColorPointer(int size, int type, int stride, int offset) {
+		mGL11.glColorPointer(size, type, stride, offset);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		mGL11.glDrawElements(mode, count, type, offset);
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		mGL11.glGenBuffers(n, buffers, offset);
+	}
+
+	@Override
+	public void glGenBuffers(int n, IntBuffer buffers) {
+		mGL11.glGenBuffers(n, buffers);
+	}
+
+	@Override
+	public void glGetBooleanv(int pname, boolean[] params, int offset) {
+		mGL11.glGetBooleanv(pname, params, offset);
+	}
+
+	@Override
+	public void glGetBooleanv(int pname, IntBuffer params) {
+		mGL11.glGetBooleanv(pname, params);
+	}
+
+	@Override
+	public void glGetBufferParameteriv(int target, int pname, int[] params, int offset) {
+		mGL11.glGetBufferParameteriv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glGetBufferParameteriv(int target, int pname, IntBuffer params) {
+		mGL11.glGetBufferParameteriv(target, pname, params);
+	}
+
+	@Override
+	public void glGetClipPlanef(int pname, float[] eqn, int offset) {
+		mGL11.glGetClipPlanef(pname, eqn, offset);
+	}
+
+	@Override
+	public void glGetClipPlanef(int pname, FloatBuffer eqn) {
+		mGL11.glGetClipPlanef(pname, eqn);
+	}
+
+	@Override
+	public void glGetClipPlanex(int pname, int[] eqn, int offset) {
+		mGL11.glGetClipPlanex(pname, eqn, offset);
+	}
+
+	@Override
+	public void glGetClipPlanex(int pname, IntBuffer eqn) {
+		mGL11.glGetClipPlanex(pname, eqn);
+	}
+
+	@Override
+	public void glGetFixedv(int pname, int[] params, int offset) {
+		mGL11.glGetFixedv(pname, params, offset);
+	}
+
+	@Override
+	public void glGetFixedv(int pname, IntBuffer params) {
+		mGL11.glGetFixedv(pname, params);
+	}
+
+	@Override
+	public void glGetFloatv(int pname, float[] params, int offset) {
+		mGL11.glGetFloatv(pname, params, offset);
+	}
+
+	@Override
+	public void glGetFloatv(int pname, FloatBuffer params) {
+		mGL11.glGetFloatv(pname, params);
+	}
+
+	@Override
+	public void glGetLightfv(int light, int pname, float[] params, int offset) {
+		mGL11.glGetLightfv(light, pname, params, offset);
+	}
+
+	@Override
+	public void glGetLightfv(int light, int pname, FloatBuffer params) {
+		mGL11.glGetLightfv(light, pname, params);
+	}
+
+	@Override
+	public void glGetLightxv(int light, int pname, int[] params, int offset) {
+		mGL11.glGetLightxv(light, pname, params, offset);
+	}
+
+	@Override
+	public void glGetLightxv(int light, int pname, IntBuffer params) {
+		mGL11.glGetLightxv(light, pname, params);
+	}
+
+	@Override
+	public void glGetMaterialfv(int face, int pname, float[] params, int offset) {
+		mGL11.glGetMaterialfv(face, pname, params, offset);
+	}
+
+	@Override
+	public void glGetMaterialfv(int face, int pname, FloatBuffer params) {
+		mGL11.glGetMaterialfv(face, pname, params);
+	}
+
+	@Override
+	public void glGetMaterialxv(int face, int pname, int[] params, int offset) {
+		mGL11.glGetMaterialxv(face, pname, params, offset);
+	}
+
+	@Override
+	public void glGetMaterialxv(int face, int pname, IntBuffer params) {
+		mGL11.glGetMaterialxv(face, pname, params);
+	}
+
+	@Override
+	public void glGetPointerv(int pname, Buffer[] params) {
+		mGL11.glGetPointerv(pname, params);
+	}
+
+	@Override
+	public void glGetTexEnviv(int env, int pname, int[] params, int offset) {
+		mGL11.glGetTexEnviv(env, pname, params, offset);
+	}
+
+	@Override
+	public void glGetTexEnviv(int env, int pname, IntBuffer params) {
+		mGL11.glGetTexEnviv(env, pname, params);
+	}
+
+	@Override
+	public void glGetTexEnvxv(int env, int pname, int[] params, int offset) {
+		mGL11.glGetTexEnvxv(env, pname, params, offset);
+	}
+
+	@Override
+	public void glGetTexEnvxv(int env, int pname, IntBuffer params) {
+		mGL11.glGetTexEnvxv(env, pname, params);
+	}
+
+	@Override
+	public void glGetTexParameterfv(int target, int pname, float[] params, int offset) {
+		mGL11.glGetTexParameterfv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glGetTexParameterfv(int target, int pname, FloatBuffer params) {
+		mGL11.glGetTexParameterfv(target, pname, params);
+	}
+
+	@Override
+	public void glGetTexParameteriv(int target, int pname, int[] params, int offset) {
+		mGL11.glGetTexParameteriv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glGetTexParameteriv(int target, int pname, IntBuffer params) {
+		mGL11.glGetTexParameteriv(target, pname, params);
+	}
+
+	@Override
+	public void glGetTexParameterxv(int target, int pname, int[] params, int offset) {
+		mGL11.glGetTexParameterxv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glGetTexParameterxv(int target, int pname, IntBuffer params) {
+		mGL11.glGetTexParameterxv(target, pname, params);
+	}
+
+	@Override
+	public boolean glIsBuffer(int buffer) {
+		return mGL11.glIsBuffer(buffer);
+	}
+
+	@Override
+	public boolean glIsEnabled(int cap) {
+		return mGL11.glIsEnabled(cap);
+	}
+
+	@Override
+	public boolean glIsTexture(int texture) {
+		return mGL11.glIsTexture(texture);
+	}
+
+	@Override
+	public void glNormalPointer(int type, int stride, int offset) {
+		mGL11.glNormalPointer(type, stride, offset);
+	}
+
+	@Override
+	public void glPointParameterf(int pname, float param) {
+		mGL11.glPointParameterf(pname, param);
+	}
+
+	@Override
+	public void glPointParameterfv(int pname, float[] params, int offset) {
+		mGL11.glPointParameterfv(pname, params, offset);
+	}
+
+	@Override
+	public void glPointParameterfv(int pname, FloatBuffer params) {
+		mGL11.glPointParameterfv(pname, params);
+	}
+
+	@Override
+	public void glPointParameterx(int pname, int param) {
+		mGL11.glPointParameterx(pname, param);
+	}
+
+	@Override
+	public void glPointParameterxv(int pname, int[] params, int offset) {
+		mGL11.glPointParameterxv(pname, params, offset);
+	}
+
+	@Override
+	public void glPointParameterxv(int pname, IntBuffer params) {
+		mGL11.glPointParameterxv(pname, params);
+	}
+
+	@Override
+	public void glPointSizePointerOES(int type, int stride, Buffer pointer) {
+		mGL11.glPointSizePointerOES(type, stride, pointer);
+	}
+
+	@Override
+	public void glTexCoordPointer(int size, int type, int stride, int offset) {
+		mGL11.glTexCoordPointer(size, type, stride, offset);
+	}
+
+	@Override
+	public void glTexEnvi(int target, int pname, int param) {
+		mGL11.glTexEnvi(target, pname, param);
+	}
+
+	@Override
+	public void glTexEnviv(int target, int pname, int[] params, int offset) {
+		mGL11.glTexEnviv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glTexEnviv(int target, int pname, IntBuffer params) {
+		mGL11.glTexEnviv(target, pname, params);
+	}
+
+	@Override
+	public void glTexParameterfv(int target, int pname, float[] params, int offset) {
+		mGL11.glTexParameterfv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glTexParameterfv(int target, int pname, FloatBuffer params) {
+		mGL11.glTexParameterfv(target, pname, params);
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		mGL11.glTexParameteri(target, pname, param);
+	}
+
+	@Override
+	public void glTexParameteriv(int target, int pname, int[] params, int offset) {
+		mGL11.glTexParameteriv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glTexParameteriv(int target, int pname, IntBuffer params) {
+		mGL11.glTexParameteriv(target, pname, params);
+	}
+
+	@Override
+	public void glTexParameterxv(int target, int pname, int[] params, int offset) {
+		mGL11.glTexParameterxv(target, pname, params, offset);
+	}
+
+	@Override
+	public void glTexParameterxv(int target, int pname, IntBuffer params) {
+		mGL11.glTexParameterxv(target, pname, params);
+	}
+
+	@Override
+	public void glVertexPointer(int size, int type, int stride, int offset) {
+		mGL11.glVertexPointer(size, type, stride, offset);
+	}
+}
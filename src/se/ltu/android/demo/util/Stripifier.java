@@ -0,0 +1,301 @@
+/* SVN FILE: $Id$ */
+package se.ltu.android.demo.util;
+
+import java.nio.CharBuffer;
+import java.util.HashMap;
+
+import se.ltu.android.demo.scene.Object3D;
+import android.util.Log;
+
+/**
+ * Converts indexed triangle lists into one triangle strip. Strips are
+ * grown greedily across shared edges, starting from triangles in the
+ * order of the list. A strip only takes triangles that are close to its
+ * first triangle in the list, so a list that has been ordered for the
+ * vertex cache gives strips that still use the cache about as well; long
+ * strips around a model would otherwise lose their vertices from the
+ * cache before the next row of triangles needs them. Separate strips are joined
+ * with degenerate triangles, which GL skips, and an extra index is added
+ * where needed so that every strip starts with the winding of the
+ * list.<br><br>
+ *
+ * A strip needs about one index per triangle instead of three, but the
+ * joins and a worse cache order may cost more than that saves, so
+ * <code>stripify(Object3D)</code> compares both and only keeps the strip
+ * if it is better.
+ * @version $Revision$
+ * @lastmodified $Date$
+ */
+public class Stripifier {
+	private final static String TAG = "Stripifier";
+	/**
+	 * How much worse than the list the ACMR of the strip may be.
+	 */
+	public final static float ACMR_THRESHOLD = 1.1f;
+
+	/**
+	 * Converts a mesh drawn as a triangle list to a triangle strip if the
+	 * strip needs fewer indices without using the vertex cache much worse.
+	 * Optimize the mesh for the vertex cache first, see
+	 * <code>MeshOptimizer</code>. The index buffer of the mesh is replaced,
+	 * so this must be done before hardware buffers are generated for it.
+	 * @param mesh mesh to convert
+	 * @return true if the mesh is now drawn as a triangle strip
+	 */
+	public static boolean stripify(Object3D mesh) {
+		CharBuffer indexBuffer = mesh.getIndices();
+		if(indexBuffer == null || mesh.getDrawMode() != Object3D.MODE_TRIANGLES) {
+			return mesh.getDrawMode() == Object3D.MODE_TRIANGLE_STRIP;
+		}
+		if(mesh.isChunked()) {
+			Log.w(TAG, "Can not stripify the chunked mesh "+mesh.getName());
+			return false;
+		}
+		int vertexCount = 0;
+		int[] triangles = new int[indexBuffer.limit() - indexBuffer.limit() % 3];
+		for(int i = 0; i < triangles.length; i++) {
+			triangles[i] = indexBuffer.get(i);
+			vertexCount = Math.max(vertexCount, triangles[i] + 1);
+		}
+		if(triangles.length == 0) {
+			return false;
+		}
+		int[] strip = stripify(triangles, MeshOptimizer.CACHE_SIZE);
+
+		float listACMR = MeshOptimizer.getACMR(triangles, vertexCount, MeshOptimizer.CACHE_SIZE);
+		float stripACMR = getStripACMR(strip, triangles.length / 3, vertexCount,
+				MeshOptimizer.CACHE_SIZE);
+		boolean better = strip.length < triangles.length
+			&& stripACMR <= listACMR * ACMR_THRESHOLD;
+		Log.d(TAG, mesh.getName()+": list "+triangles.length+" indices, ACMR "+listACMR
+				+"; strip "+strip.length+" indices, ACMR "+stripACMR
+				+(better ? ", using strip" : ", keeping list"));
+		if(!better) {
+			return false;
+		}
+		char[] indices = new char[strip.length];
+		for(int i = 0; i < strip.length; i++) {
+			indices[i] = (char)strip[i];
+		}
+		mesh.setIndices(indices);
+		mesh.setDrawMode(Object3D.MODE_TRIANGLE_STRIP);
+		return true;
+	}
+
+	/**
+	 * Converts a triangle list into one triangle strip. Degenerate
+	 * triangles in the list are dropped.
+	 * @param triangles triangle list
+	 * @param window how many triangles away in the list from the first
+	 * triangle of a strip the strip may go, about the cache size for a
+	 * cache optimized list
+	 * @return indices of the strip
+	 */
+	public static int[] stripify(int[] triangles, int window) {
+		int triangleCount = triangles.length / 3;
+		int[] neighbors = findNeighbors(triangles);
+		boolean[] used = new boolean[triangleCount];
+		// trial walks mark the triangles they visit with a stamp of their own
+		int[] visited = new int[triangleCount];
+		int stamp = 0;
+		// worst case is 3 indices and 3 joining indices per triangle
+		int[] strip = new int[triangleCount * 6];
+		int length = 0;
+		int[] indices = new int[triangleCount + 2];
+		int[] walked = new int[triangleCount];
+
+		for(int t = 0; t < triangleCount; t++) {
+			if(used[t] || isDegenerate(triangles, t)) {
+				continue;
+			}
+			// try starting on each of the edges and keep the longest
+			int bestRotation = 0;
+			int bestLength = 0;
+			for(int rotation = 0; rotation < 3; rotation++) {
+				int count = walk(triangles, neighbors, used, visited, ++stamp,
+						t, rotation, window, indices, walked);
+				if(count > bestLength) {
+					bestLength = count;
+					bestRotation = rotation;
+				}
+			}
+			bestLength = walk(triangles, neighbors, used, visited, ++stamp,
+					t, bestRotation, window, indices, walked);
+			for(int i = 0; i < bestLength - 2; i++) {
+				used[walked[i]] = true;
+			}
+
+			if(length > 0) {
+				// join with a degenerate triangle and keep the parity even
+				strip[length] = strip[length-1];
+				length++;
+				strip[length++] = indices[0];
+				if((length & 1) != 0) {
+					strip[length++] = indices[0];
+				}
+			}
+			System.arraycopy(indices, 0, strip, length, bestLength);
+			length += bestLength;
+		}
+
+		int[] result = new int[length];
+		System.arraycopy(strip, 0, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * Measures how well a triangle strip uses a FIFO vertex cache.
+	 * @param strip indices of the strip
+	 * @param triangleCount number of triangles that are not degenerate
+	 * @param vertexCount number of vertices the indices refer to
+	 * @param cacheSize number of entries in the cache
+	 * @return average number of cache misses per triangle
+	 */
+	public static float getStripACMR(int[] strip, int triangleCount, int vertexCount, int cacheSize) {
+		if(triangleCount == 0) {
+			return 0;
+		}
+		int[] loadedAt = new int[vertexCount];
+		for(int i = 0; i < vertexCount; i++) {
+			loadedAt[i] = Integer.MIN_VALUE / 2;
+		}
+		int misses = 0;
+		for(int i = 0; i < strip.length; i++) {
+			int v = strip[i];
+			if(misses - loadedAt[v] >= cacheSize) {
+				loadedAt[v] = misses;
+				misses++;
+			}
+		}
+		return (float)misses / triangleCount;
+	}
+
+	/**
+	 * Grows a strip from a triangle without marking any triangle as used.
+	 * @param stamp value to mark the visited triangles of this walk with
+	 * @param start first triangle
+	 * @param rotation which vertex of the first triangle to start at
+	 * @param window how far from the first triangle in the list to go
+	 * @param out indices of the strip
+	 * @param walked triangles of the strip
+	 * @return number of indices in the strip
+	 */
+	private static int walk(int[] triangles, int[] neighbors, boolean[] used,
+			int[] visited, int stamp, int start, int rotation, int window,
+			int[] out, int[] walked) {
+		int t = start;
+		out[0] = triangles[t*3 + rotation];
+		out[1] = triangles[t*3 + (rotation+1)%3];
+		out[2] = triangles[t*3 + (rotation+2)%3];
+		int length = 3;
+		walked[0] = t;
+		visited[t] = stamp;
+		while(true) {
+			int a = out[length-2];
+			int b = out[length-1];
+			int next = findNext(triangles, neighbors, t, a, b);
+			if(next < 0 || used[next] || visited[next] == stamp
+					|| Math.abs(next - start) > window) {
+				break;
+			}
+			int c = third(triangles, next, a, b);
+			// odd triangles are drawn with their first two vertices swapped
+			boolean odd = ((length - 2) & 1) != 0;
+			if(odd ? !isWinding(triangles, next, b, a, c) : !isWinding(triangles, next, a, b, c)) {
+				break;
+			}
+			walked[length - 2] = next;
+			visited[next] = stamp;
+			out[length++] = c;
+			t = next;
+		}
+		return length;
+	}
+
+	/**
+	 * @return the neighbor of t across the edge (a, b), or -1
+	 */
+	private static int findNext(int[] triangles, int[] neighbors, int t, int a, int b) {
+		for(int k = 0; k < 3; k++) {
+			int u = triangles[t*3+k];
+			int v = triangles[t*3+(k+1)%3];
+			if((u == a && v == b) || (u == b && v == a)) {
+				return neighbors[t*3+k];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the triangle across each edge. Edge k of a triangle goes from
+	 * vertex k to vertex k+1. Edges used by more than two triangles get no
+	 * neighbors.
+	 * @return the neighbor across each edge, -1 if none
+	 */
+	private static int[] findNeighbors(int[] triangles) {
+		int triangleCount = triangles.length / 3;
+		int[] neighbors = new int[triangleCount * 3];
+		HashMap<Long, Integer> open = new HashMap<Long, Integer>();
+		for(int i = 0; i < neighbors.length; i++) {
+			neighbors[i] = -1;
+		}
+		for(int t = 0; t < triangleCount; t++) {
+			if(isDegenerate(triangles, t)) {
+				continue;
+			}
+			for(int k = 0; k < 3; k++) {
+				int a = triangles[t*3+k];
+				int b = triangles[t*3+(k+1)%3];
+				Long key = a < b ? ((long)a << 32) | b : ((long)b << 32) | a;
+				Integer edge = open.get(key);
+				if(edge == null) {
+					open.put(key, t*3+k);
+				} else if(edge >= 0 && neighbors[edge] < 0) {
+					neighbors[edge] = t;
+					neighbors[t*3+k] = edge / 3;
+				} else if(edge >= 0) {
+					// non-manifold edge, do not strip across it
+					int other = neighbors[edge];
+					for(int n = 0; n < 3; n++) {
+						int u = triangles[other*3+n];
+						int v = triangles[other*3+(n+1)%3];
+						if((u == a && v == b) || (u == b && v == a)) {
+							neighbors[other*3+n] = -1;
+						}
+					}
+					neighbors[edge] = -1;
+					open.put(key, -1);
+				}
+			}
+		}
+		return neighbors;
+	}
+
+	/**
+	 * @return true if the triangle is (a, b, c) in some rotation
+	 */
+	private static boolean isWinding(int[] triangles, int t, int a, int b, int c) {
+		for(int k = 0; k < 3; k++) {
+			if(triangles[t*3+k] == a && triangles[t*3+(k+1)%3] == b
+					&& triangles[t*3+(k+2)%3] == c) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int third(int[] triangles, int t, int a, int b) {
+		for(int k = 0; k < 3; k++) {
+			int v = triangles[t*3+k];
+			if(v != a && v != b) {
+				return v;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isDegenerate(int[] triangles, int t) {
+		int a = triangles[t*3], b = triangles[t*3+1], c = triangles[t*3+2];
+		return a == b || b == c || a == c;
+	}
+}